@@ -0,0 +1,57 @@
+package org.epac.trace.benchmarks;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Collection;
+import java.util.Map;
+
+// Point d'entrée de benchmarks.jar : mêmes options que JMH (tous les benchmarks du module par défaut), profileur GC toujours actif,
+// puis un tableau ops/s, allocation (Mo/s et octets par opération) et appels aux dépôts par opération.
+// Exemple : java -jar target/benchmarks.jar weekly -p employees=200 -p days=90
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        if (commandLine.shouldHelp() || commandLine.shouldList() || commandLine.shouldListProfilers() || commandLine.shouldListResultFormats()) {
+            Main.main(args);
+            return;
+        }
+        OptionsBuilder builder = new OptionsBuilder();
+        builder.parent(commandLine).addProfiler(GCProfiler.class);
+        if (commandLine.getIncludes().isEmpty()) {
+            builder.include(BenchmarkRunner.class.getPackageName() + ".");
+        }
+        Options options = builder.build();
+        Collection<RunResult> results = new Runner(options).run();
+        report(results);
+    }
+
+    private static void report(Collection<RunResult> results) {
+        System.out.println();
+        System.out.printf("%-40s %-75s %14s %12s %14s %12s%n", "Benchmark", "Params", "ops/s", "MB/s", "B/op", "calls/op");
+        for (RunResult result : results) {
+            Map<String, Result> secondary = result.getSecondaryResults();
+            String benchmark = result.getParams().getBenchmark();
+            String params = String.join(",", result.getParams().getParamsKeys().stream()
+                    .map(key -> key + "=" + result.getParams().getParam(key)).toList());
+            double summaries = score(secondary, "summaries");
+            // Pas de compteur d'appels pour les benchmarks sans dépôt
+            String callsPerOperation = Double.isNaN(summaries) || summaries == 0 ? "-" : String.format("%.1f", score(secondary, "repositoryCalls") / summaries);
+            System.out.printf("%-40s %-75s %14.1f %12.1f %14.1f %12s%n",
+                    benchmark.substring(benchmark.lastIndexOf('.') + 1), params, result.getPrimaryResult().getScore(),
+                    score(secondary, "gc.alloc.rate"), score(secondary, "gc.alloc.rate.norm"), callsPerOperation);
+        }
+    }
+
+    private static double score(Map<String, Result> secondary, String label) {
+        Result result = secondary.get(label);
+        return result == null ? Double.NaN : result.getScore();
+    }
+}
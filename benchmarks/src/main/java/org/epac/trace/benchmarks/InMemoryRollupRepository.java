@@ -0,0 +1,119 @@
+package org.epac.trace.benchmarks;
+
+import org.epac.trace.entity.DailyWorkRollup;
+import org.epac.trace.repository.DailyWorkRollupRepository;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+// DailyWorkRollupRepository en mémoire (proxy dynamique), indexé comme la table : par jour, par employé,
+// par machine et par couple. Seules les méthodes utilisées par RollupService sont implémentées ; chaque appel est compté.
+public class InMemoryRollupRepository implements InvocationHandler {
+    private final Set<DailyWorkRollup> saved = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final NavigableMap<LocalDate, List<DailyWorkRollup>> rollupsByDay = new TreeMap<>();
+    private final Map<String, NavigableMap<LocalDate, List<DailyWorkRollup>>> rollupsByEmployer = new TreeMap<>();
+    private final Map<String, NavigableMap<LocalDate, List<DailyWorkRollup>>> rollupsByMachine = new TreeMap<>();
+    private final Map<List<String>, NavigableMap<LocalDate, List<DailyWorkRollup>>> rollupsByEmployerAndMachine = new HashMap<>();
+    private final AtomicLong calls = new AtomicLong();
+    private final DailyWorkRollupRepository repository;
+
+    public InMemoryRollupRepository() {
+        this.repository = (DailyWorkRollupRepository) Proxy.newProxyInstance(DailyWorkRollupRepository.class.getClassLoader(),
+                new Class<?>[]{DailyWorkRollupRepository.class}, this);
+    }
+
+    public DailyWorkRollupRepository repository() {
+        return repository;
+    }
+
+    public long calls() {
+        return calls.get();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        if (method.getDeclaringClass() == Object.class) {
+            return switch (method.getName()) {
+                case "hashCode" -> System.identityHashCode(proxy);
+                case "equals" -> proxy == args[0];
+                default -> "InMemoryRollupRepository(" + saved.size() + " agrégats)";
+            };
+        }
+        calls.incrementAndGet();
+        return switch (method.getName()) {
+            case "findByWorkDateAndEmployerNameAndMachineName" ->
+                    day(pair(args[1], args[2]), (LocalDate) args[0]).stream().findFirst();
+            case "findByWorkDate" -> day(rollupsByDay, (LocalDate) args[0]);
+            case "findByWorkDateBetween" -> between(rollupsByDay, (LocalDate) args[0], (LocalDate) args[1]);
+            case "findByEmployerNameAndWorkDate" -> day(employer(args[0]), (LocalDate) args[1]);
+            case "findByMachineNameAndWorkDate" -> day(machine(args[0]), (LocalDate) args[1]);
+            case "findByEmployerNameOrderByWorkDate" -> flatten(employer(args[0]).values().stream());
+            case "findByMachineNameOrderByWorkDate" -> flatten(machine(args[0]).values().stream());
+            case "findByEmployerNameAndMachineNameOrderByWorkDate" -> flatten(pair(args[0], args[1]).values().stream());
+            case "findAllByOrderByMachineNameAscWorkDateAsc" ->
+                    flatten(rollupsByMachine.values().stream().flatMap(byDay -> byDay.values().stream()));
+            case "findByEmployerNameAndWorkDateBetweenOrderByWorkDate" ->
+                    between(employer(args[0]), (LocalDate) args[1], (LocalDate) args[2]);
+            case "findByMachineNameAndWorkDateBetweenOrderByWorkDate" ->
+                    between(machine(args[0]), (LocalDate) args[1], (LocalDate) args[2]);
+            case "findByEmployerNameAndMachineNameAndWorkDateBetweenOrderByWorkDate" ->
+                    between(pair(args[0], args[1]), (LocalDate) args[2], (LocalDate) args[3]);
+            case "save" -> {
+                save((DailyWorkRollup) args[0]);
+                yield args[0];
+            }
+            case "saveAll" -> {
+                List<DailyWorkRollup> rollups = new ArrayList<>();
+                ((Iterable<DailyWorkRollup>) args[0]).forEach(rollups::add);
+                rollups.forEach(this::save);
+                yield rollups;
+            }
+            case "streamAllDayTotals" -> new ArrayList<>(saved).stream();
+            case "count" -> (long) saved.size();
+            default -> throw new UnsupportedOperationException("Méthode non disponible en mémoire : " + method.getName());
+        };
+    }
+
+    // Les champs indexés (jour, employé, machine) ne changent pas après la création de l'agrégat
+    private void save(DailyWorkRollup rollup) {
+        if (!saved.add(rollup))
+            return;
+        rollupsByDay.computeIfAbsent(rollup.getWorkDate(), k -> new ArrayList<>()).add(rollup);
+        rollupsByEmployer.computeIfAbsent(rollup.getEmployerName(), k -> new TreeMap<>())
+                .computeIfAbsent(rollup.getWorkDate(), k -> new ArrayList<>()).add(rollup);
+        rollupsByMachine.computeIfAbsent(rollup.getMachineName(), k -> new TreeMap<>())
+                .computeIfAbsent(rollup.getWorkDate(), k -> new ArrayList<>()).add(rollup);
+        rollupsByEmployerAndMachine.computeIfAbsent(List.of(rollup.getEmployerName(), rollup.getMachineName()), k -> new TreeMap<>())
+                .computeIfAbsent(rollup.getWorkDate(), k -> new ArrayList<>()).add(rollup);
+    }
+
+    private NavigableMap<LocalDate, List<DailyWorkRollup>> employer(Object employerName) {
+        return rollupsByEmployer.getOrDefault((String) employerName, Collections.emptyNavigableMap());
+    }
+
+    private NavigableMap<LocalDate, List<DailyWorkRollup>> machine(Object machineName) {
+        return rollupsByMachine.getOrDefault((String) machineName, Collections.emptyNavigableMap());
+    }
+
+    private NavigableMap<LocalDate, List<DailyWorkRollup>> pair(Object employerName, Object machineName) {
+        return rollupsByEmployerAndMachine.getOrDefault(List.of((String) employerName, (String) machineName), Collections.emptyNavigableMap());
+    }
+
+    private static List<DailyWorkRollup> day(NavigableMap<LocalDate, List<DailyWorkRollup>> byDay, LocalDate day) {
+        return new ArrayList<>(byDay.getOrDefault(day, List.of()));
+    }
+
+    private static List<DailyWorkRollup> between(NavigableMap<LocalDate, List<DailyWorkRollup>> byDay, LocalDate start, LocalDate end) {
+        return flatten(byDay.subMap(start, true, end, true).values().stream());
+    }
+
+    private static List<DailyWorkRollup> flatten(Stream<List<DailyWorkRollup>> rollups) {
+        return rollups.flatMap(List::stream).toList();
+    }
+}
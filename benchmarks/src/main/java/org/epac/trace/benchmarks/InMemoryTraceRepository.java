@@ -0,0 +1,163 @@
+package org.epac.trace.benchmarks;
+
+import org.epac.trace.entity.Trace;
+import org.epac.trace.repository.TraceRepository;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+// TraceRepository en mémoire (proxy dynamique) avec les mêmes index que la table : par timestamp, par employé,
+// par machine et par couple. Seules les méthodes utilisées par TraceService sont implémentées ; chaque appel est compté.
+public class InMemoryTraceRepository implements InvocationHandler {
+    private static final Comparator<Trace> BY_TIMESTAMP = Comparator.comparing(Trace::getTimestamp);
+
+    private final List<Trace> traces;
+    private final Map<String, List<Trace>> tracesByEmployer = new TreeMap<>();
+    private final Map<String, List<Trace>> tracesByMachine = new TreeMap<>();
+    private final Map<String, Map<String, List<Trace>>> tracesByEmployerAndMachine = new TreeMap<>();
+    private final AtomicLong calls = new AtomicLong();
+    private final TraceRepository repository;
+
+    // traces : triées par timestamp
+    public InMemoryTraceRepository(List<Trace> traces) {
+        this.traces = List.copyOf(traces);
+        for (Trace trace : this.traces) {
+            tracesByEmployer.computeIfAbsent(trace.getEmployerName(), k -> new ArrayList<>()).add(trace);
+            tracesByMachine.computeIfAbsent(trace.getMachineName(), k -> new ArrayList<>()).add(trace);
+            tracesByEmployerAndMachine.computeIfAbsent(trace.getEmployerName(), k -> new TreeMap<>())
+                    .computeIfAbsent(trace.getMachineName(), k -> new ArrayList<>()).add(trace);
+        }
+        this.repository = (TraceRepository) Proxy.newProxyInstance(TraceRepository.class.getClassLoader(),
+                new Class<?>[]{TraceRepository.class}, this);
+    }
+
+    public TraceRepository repository() {
+        return repository;
+    }
+
+    public long calls() {
+        return calls.get();
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        if (method.getDeclaringClass() == Object.class) {
+            return switch (method.getName()) {
+                case "hashCode" -> System.identityHashCode(proxy);
+                case "equals" -> proxy == args[0];
+                default -> "InMemoryTraceRepository(" + traces.size() + " traces)";
+            };
+        }
+        calls.incrementAndGet();
+        return switch (method.getName()) {
+            case "findByEmployerNameAndTimestampBetweenOrderByTimestampAsc" ->
+                    between(employer(args[0]), (Instant) args[1], (Instant) args[2]);
+            case "findByEmployerNameAndTimestampBetweenOrderByMachineNameAscTimestampAsc" -> {
+                List<Trace> result = new ArrayList<>(between(employer(args[0]), (Instant) args[1], (Instant) args[2]));
+                result.sort(Comparator.comparing(Trace::getMachineName).thenComparing(BY_TIMESTAMP));
+                yield result;
+            }
+            case "findTopByEmployerNameAndTimestampBetweenOrderByTimestampDesc" ->
+                    last(between(employer(args[0]), (Instant) args[1], (Instant) args[2]));
+            case "findByEmployerNameAndMachineNameAndTimestampBetweenOrderByTimestampAsc" ->
+                    between(pair(args[0], args[1]), (Instant) args[2], (Instant) args[3]);
+            case "findTopByEmployerNameAndMachineNameAndTimestampBetweenOrderByTimestampDesc" ->
+                    last(between(pair(args[0], args[1]), (Instant) args[2], (Instant) args[3]));
+            case "findTopByEmployerNameOrderByTimestampDesc" -> last(employer(args[0]));
+            case "findByTimestampBetween", "findByTimestampBetweenOrderByTimestampAsc" ->
+                    between(traces, (Instant) args[0], (Instant) args[1]);
+            case "findLastTracesByEmployerNameAndMachineNameBetween" ->
+                    lastOfEachPair((Instant) args[0], (Instant) args[1]);
+            case "findLastTracesByEmployerNameAndMachineName" -> lastOfEachPair(Instant.MIN, Instant.MAX);
+            case "findTopByMachineNameOrderByTimestampDesc" -> last(machine(args[0]));
+            case "findAllByTimestampGreaterThanEqualOrderByTimestamp" -> from(traces, args[0]).stream();
+            case "findAllByEmployerNameOrderByTimestampDesc" -> reversed(employer(args[0]));
+            case "findAllByEmployerNameAndTimestampGreaterThanEqualOrderByTimestamp" -> from(employer(args[0]), args[1]).stream();
+            case "findAllByTimestampGreaterThanEqualOrderByMachineNameAscTimestampAsc" ->
+                    tracesByMachine.values().stream().flatMap(machineTraces -> from(machineTraces, args[0]).stream());
+            case "findAllByMachineNameAndEmployerNameAndTimestampGreaterThanEqualOrderByTimestamp" -> from(pair(args[1], args[0]), args[2]).stream();
+            case "findDistinctEmployerName" -> new ArrayList<>(tracesByEmployer.keySet());
+            case "findDistinctMachineNames" -> new ArrayList<>(tracesByMachine.keySet());
+            case "findDistinctMachineNameByEmployerName" ->
+                    new ArrayList<>(tracesByEmployerAndMachine.getOrDefault((String) args[0], Map.of()).keySet());
+            case "findByMachineNameAndTimestampBetweenOrderByTimestampAsc" ->
+                    between(machine(args[0]), (Instant) args[1], (Instant) args[2]);
+            case "findTopByMachineNameAndTimestampBetweenOrderByTimestampDesc" ->
+                    last(between(machine(args[0]), (Instant) args[1], (Instant) args[2]));
+            case "findAllByMachineNameOrderByTimestampDesc" -> reversed(machine(args[0]));
+            case "findAllByMachineNameAndTimestampGreaterThanEqualOrderByTimestamp" -> from(machine(args[0]), args[1]).stream();
+            case "count" -> (long) traces.size();
+            default -> throw new UnsupportedOperationException("Méthode non disponible en mémoire : " + method.getName());
+        };
+    }
+
+    private List<Trace> employer(Object employerName) {
+        return tracesByEmployer.getOrDefault((String) employerName, List.of());
+    }
+
+    private List<Trace> machine(Object machineName) {
+        return tracesByMachine.getOrDefault((String) machineName, List.of());
+    }
+
+    private List<Trace> pair(Object employerName, Object machineName) {
+        return tracesByEmployerAndMachine.getOrDefault((String) employerName, Map.of()).getOrDefault((String) machineName, List.of());
+    }
+
+    private List<Trace> lastOfEachPair(Instant start, Instant end) {
+        List<Trace> result = new ArrayList<>();
+        tracesByEmployerAndMachine.values().forEach(byMachine -> byMachine.values()
+                .forEach(pairTraces -> last(between(pairTraces, start, end)).ifPresent(result::add)));
+        return result;
+    }
+
+    private static List<Trace> from(List<Trace> sorted, Object start) {
+        return sorted.subList(firstNotBefore(sorted, (Instant) start), sorted.size());
+    }
+
+    // Recherche dichotomique des bornes incluses, comme BETWEEN
+    private static List<Trace> between(List<Trace> sorted, Instant start, Instant end) {
+        return sorted.subList(firstNotBefore(sorted, start), firstAfter(sorted, end));
+    }
+
+    private static int firstNotBefore(List<Trace> sorted, Instant timestamp) {
+        int low = 0;
+        int high = sorted.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted.get(mid).getTimestamp().isBefore(timestamp)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static int firstAfter(List<Trace> sorted, Instant timestamp) {
+        int low = 0;
+        int high = sorted.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted.get(mid).getTimestamp().isAfter(timestamp)) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    private static Optional<Trace> last(List<Trace> sorted) {
+        return sorted.isEmpty() ? Optional.empty() : Optional.of(sorted.get(sorted.size() - 1));
+    }
+
+    private static List<Trace> reversed(List<Trace> sorted) {
+        List<Trace> result = new ArrayList<>(sorted);
+        Collections.reverse(result);
+        return result;
+    }
+}
@@ -0,0 +1,51 @@
+package org.epac.trace.benchmarks;
+
+import org.epac.trace.config.TraceProperties;
+import org.epac.trace.dto.WorkSummary;
+import org.epac.trace.entity.Trace;
+import org.epac.trace.services.Granularity;
+import org.epac.trace.services.IntervalSweep;
+import org.epac.trace.services.ProductionCalendar;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Coût du balayage seul, par trace : une opération = une trace, B/op est donc l'allocation par trace.
+// Un seul employé sur une seule machine pendant plusieurs années (environ 34 traces par jour).
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+@OperationsPerInvocation(IntervalSweepBenchmark.TRACES)
+public class IntervalSweepBenchmark {
+    static final int TRACES = 100_000;
+
+    @Param({"DAY", "WEEK", "MONTH"})
+    public Granularity granularity;
+
+    private ProductionCalendar calendar;
+    private List<Trace> traces;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        TraceProperties properties = new TraceProperties();
+        properties.getCalendar().setZone(ZoneOffset.UTC);
+        calendar = new ProductionCalendar(properties);
+        traces = new ShopFloorGenerator(1, 1, 4_000, 4, 42).generate().subList(0, TRACES);
+    }
+
+    @Benchmark
+    public Map<LocalDate, WorkSummary> sweep() {
+        IntervalSweep sweep = new IntervalSweep(calendar, granularity);
+        for (Trace trace : traces) {
+            sweep.accept(trace);
+        }
+        return sweep.finish();
+    }
+}
@@ -0,0 +1,236 @@
+package org.epac.trace.benchmarks;
+
+import org.epac.trace.entity.Operation;
+import org.epac.trace.entity.Trace;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Test de charge HTTP de TraceController. L'application tourne à part, sans MySQL avec le profil perf :
+//   (racine) mvn package -DskipTests && java -jar target/Trace-0.0.1-SNAPSHOT-exec.jar --spring.profiles.active=perf
+//   (benchmarks) mvn package && java -cp target/benchmarks.jar org.epac.trace.benchmarks.LoadTest duration=60 users=64
+// L'historique de l'atelier synthétique (ShopFloorGenerator) est d'abord envoyé par /add/batch, puis chaque mélange
+// tourne warmup puis duration secondes, users clients virtuels enchaînant les requêtes sans pause.
+// Rapport : une ligne par mélange et par endpoint (requêtes, erreurs, débit, p50, p99, max), triée et à colonnes fixes
+// pour comparer deux builds avec diff.
+public class LoadTest {
+    private static final Map<String, String> DEFAULTS = Map.of(
+            "url", "http://localhost:8080",
+            "employees", "60", "machines", "20", "days", "30",
+            "users", "32", "warmup", "10", "duration", "30",
+            "mixes", "punch,dashboard,mixed",
+            "response", "full",
+            "report", "load-report.txt");
+    private static final Operation[] PUNCH_CYCLE = {Operation.START, Operation.PAUSE, Operation.START, Operation.STOP};
+    private static final int SEED_BATCH_SIZE = 1000;
+
+    // Part des pointages (POST /add), le reste en lectures des tableaux de bord
+    private record Mix(String name, int punchPercent) { }
+
+    private static final Map<String, Mix> MIXES = Map.of(
+            "punch", new Mix("punch", 100),
+            "dashboard", new Mix("dashboard", 0),
+            "mixed", new Mix("mixed", 80));
+
+    private final String runId = Long.toString(System.currentTimeMillis(), 36);
+    private final HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+    private final String url;
+    // Réponse demandée aux pointages (POST /add?response=none|delta|full)
+    private final String addResponse;
+    private final int employees;
+    private final int machines;
+    private final ShopFloorGenerator generator;
+
+    private LoadTest(Map<String, String> options) {
+        this.url = options.get("url");
+        this.addResponse = options.get("response");
+        this.employees = Integer.parseInt(options.get("employees"));
+        this.machines = Integer.parseInt(options.get("machines"));
+        this.generator = new ShopFloorGenerator(employees, machines, Integer.parseInt(options.get("days")), 4, 42);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>(DEFAULTS);
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator < 0 || !DEFAULTS.containsKey(arg.substring(0, separator)))
+                throw new IllegalArgumentException("Option inconnue : " + arg + " (options : " + new TreeSet<>(DEFAULTS.keySet()) + ")");
+            options.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        LoadTest loadTest = new LoadTest(options);
+        loadTest.seed();
+        int users = Integer.parseInt(options.get("users"));
+        Duration warmup = Duration.ofSeconds(Long.parseLong(options.get("warmup")));
+        Duration duration = Duration.ofSeconds(Long.parseLong(options.get("duration")));
+        List<String> report = new ArrayList<>();
+        report.add(String.format("%-10s %-40s %9s %7s %10s %9s %9s %9s", "mix", "endpoint", "requests", "errors", "req/s", "p50 ms", "p99 ms", "max ms"));
+        for (String name : options.get("mixes").split(",")) {
+            Mix mix = MIXES.get(name.trim());
+            if (mix == null)
+                throw new IllegalArgumentException("Mélange inconnu : " + name + " (mélanges : " + new TreeSet<>(MIXES.keySet()) + ")");
+            loadTest.run(mix, "warmup", users, warmup);
+            report.addAll(loadTest.run(mix, "measure", users, duration).lines(mix.name(), duration));
+        }
+        report.forEach(System.out::println);
+        Files.write(Path.of(options.get("report")), report);
+    }
+
+    // Historique envoyé par lots, dans l'ordre des timestamps
+    private void seed() throws IOException, InterruptedException {
+        List<Trace> traces = generator.generate();
+        long start = System.nanoTime();
+        int accepted = 0;
+        for (int from = 0; from < traces.size(); from += SEED_BATCH_SIZE) {
+            StringJoiner body = new StringJoiner(",", "[", "]");
+            traces.subList(from, Math.min(from + SEED_BATCH_SIZE, traces.size())).forEach(trace -> body.add(String.format(
+                    "{\"timestamp\":\"%s\",\"employerName\":\"%s\",\"machineName\":\"%s\",\"operation\":\"%s\"}",
+                    trace.getTimestamp(), trace.getEmployerName(), trace.getMachineName(), trace.getOperation())));
+            HttpResponse<String> response = client.send(post("/add/batch", body.toString()), HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 200)
+                throw new IllegalStateException("Envoi de l'historique refusé : " + response.statusCode() + " " + response.body());
+            accepted += response.body().split("\"accepted\":true", -1).length - 1;
+        }
+        System.out.printf("Historique : %d traces envoyées, %d acceptées en %d ms%n", traces.size(), accepted, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private Results run(Mix mix, String phase, int users, Duration duration) {
+        Results results = new Results();
+        long deadline = System.nanoTime() + duration.toNanos();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int user = 0; user < users; user++) {
+                int index = user;
+                executor.execute(() -> {
+                    // Chaque client pointe sur son propre couple employé/machine, propre à l'exécution et à la phase :
+                    // les pointages restent valides
+                    String prefix = "load-" + runId + "-" + mix.name() + "-" + phase;
+                    String employerName = prefix + "-employee-" + index;
+                    String machineName = prefix + "-machine-" + index;
+                    int punches = 0;
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    while (System.nanoTime() < deadline) {
+                        if (random.nextInt(100) < mix.punchPercent()) {
+                            Operation operation = PUNCH_CYCLE[punches++ % PUNCH_CYCLE.length];
+                            send(results, "POST /add", post("/add?response=" + addResponse, String.format("{\"employerName\":\"%s\",\"machineName\":\"%s\",\"operation\":\"%s\"}",
+                                    employerName, machineName, operation)));
+                        } else {
+                            dashboard(results, random);
+                        }
+                    }
+                });
+            }
+        }
+        return results;
+    }
+
+    // Lectures d'un tableau de bord d'atelier, sur l'historique envoyé
+    private void dashboard(Results results, ThreadLocalRandom random) {
+        String employerName = ShopFloorGenerator.employerName(random.nextInt(employees));
+        String machineName = ShopFloorGenerator.machineName(random.nextInt(machines));
+        LocalDate day = generator.firstDay().plusDays(random.nextLong(generator.lastDay().toEpochDay() - generator.firstDay().toEpochDay() + 1));
+        switch (random.nextInt(9)) {
+            case 0 -> send(results, "GET /work-summary/{employerName}", get("/work-summary/" + employerName + "?date=" + day));
+            case 1 -> send(results, "GET /work-summary-by-employe", get("/work-summary-by-employe?date=" + day));
+            case 2 -> send(results, "GET /daily-work-summary-by-machine", get("/daily-work-summary-by-machine?machineName=" + machineName));
+            case 3 -> send(results, "GET /weekly-work-summary-by-employer", get("/weekly-work-summary-by-employer?employerName=" + employerName));
+            case 4 -> send(results, "GET /monthly-work-summary-by-machine", get("/monthly-work-summary-by-machine?machineName=" + machineName));
+            case 5 -> send(results, "GET /summary", get("/summary?dimension=EMPLOYER&from=" + day.minusDays(6) + "&to=" + day + "&granularity=SHIFT"));
+            case 6 -> send(results, "GET /weekly-work-summary-all-machine", get("/weekly-work-summary-all-machine"));
+            case 7 -> send(results, "GET /live-state", get("/live-state"));
+            default -> send(results, "GET /findDistinctEmployerName", get("/findDistinctEmployerName"));
+        }
+    }
+
+    private void send(Results results, String endpoint, HttpRequest request) {
+        long start = System.nanoTime();
+        boolean error;
+        try {
+            error = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() >= 300;
+        } catch (IOException e) {
+            error = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        results.record(endpoint, System.nanoTime() - start, error);
+    }
+
+    private HttpRequest get(String path) {
+        return HttpRequest.newBuilder(URI.create(url + path)).timeout(Duration.ofMinutes(1)).GET().build();
+    }
+
+    private HttpRequest post(String path, String json) {
+        return HttpRequest.newBuilder(URI.create(url + path)).timeout(Duration.ofMinutes(1))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json))
+                .build();
+    }
+
+    private static final class Results {
+        private final Map<String, Latencies> byEndpoint = new ConcurrentHashMap<>();
+
+        private void record(String endpoint, long nanos, boolean error) {
+            byEndpoint.computeIfAbsent(endpoint, k -> new Latencies()).record(nanos, error);
+        }
+
+        private List<String> lines(String mix, Duration duration) {
+            List<String> lines = new ArrayList<>();
+            Latencies total = new Latencies();
+            new TreeMap<>(byEndpoint).forEach((endpoint, latencies) -> {
+                lines.add(latencies.line(mix, endpoint, duration));
+                total.addAll(latencies);
+            });
+            lines.add(total.line(mix, "*", duration));
+            return lines;
+        }
+    }
+
+    private static final class Latencies {
+        private long[] nanos = new long[1024];
+        private int count;
+        private int errors;
+
+        private synchronized void record(long elapsed, boolean error) {
+            if (count == nanos.length) {
+                nanos = Arrays.copyOf(nanos, count * 2);
+            }
+            nanos[count++] = elapsed;
+            if (error) {
+                errors++;
+            }
+        }
+
+        private synchronized void addAll(Latencies other) {
+            for (int i = 0; i < other.count; i++) {
+                record(other.nanos[i], false);
+            }
+            errors += other.errors;
+        }
+
+        private synchronized String line(String mix, String endpoint, Duration duration) {
+            long[] sorted = Arrays.copyOf(nanos, count);
+            Arrays.sort(sorted);
+            return String.format(Locale.ROOT, "%-10s %-40s %9d %7d %10.1f %9.2f %9.2f %9.2f", mix, endpoint, count, errors,
+                    count / (duration.toNanos() / 1e9), percentile(sorted, 50), percentile(sorted, 99), percentile(sorted, 100));
+        }
+
+        // Rang le plus proche, en millisecondes
+        private static double percentile(long[] sorted, int percent) {
+            if (sorted.length == 0)
+                return 0;
+            int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+            return sorted[Math.max(rank, 1) - 1] / 1e6;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package org.epac.trace.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+// Compteurs secondaires JMH : appels aux dépôts et nombre de résumés calculés pendant l'itération.
+// BenchmarkRunner en déduit le nombre d'appels par opération.
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.EVENTS)
+public class RepositoryCalls {
+    public long repositoryCalls;
+    public long summaries;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        repositoryCalls = 0;
+        summaries = 0;
+    }
+
+    void record(long calls) {
+        repositoryCalls += calls;
+        summaries++;
+    }
+}
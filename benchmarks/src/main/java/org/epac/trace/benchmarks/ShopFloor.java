@@ -0,0 +1,117 @@
+package org.epac.trace.benchmarks;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.epac.trace.config.AuditingConfig;
+import org.epac.trace.config.TraceProperties;
+import org.epac.trace.entity.Trace;
+import org.epac.trace.services.*;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.List;
+
+// Atelier synthétique chargé une fois par essai, et TraceService branché sur les dépôts en mémoire.
+// Le cache des résumés est désactivé : on mesure les calculs, pas les accès au cache.
+@State(Scope.Benchmark)
+public class ShopFloor {
+    @Param("50")
+    public int employees;
+    @Param("20")
+    public int machines;
+    @Param("30")
+    public int days;
+    // Pointages PAUSE/START par heure de poste et par employé
+    @Param("2")
+    public double punchesPerHour;
+    @Param({"REPLAY", "ROLLUP"})
+    public TraceProperties.SummarySource source;
+
+    private InMemoryTraceRepository traceRepository;
+    private InMemoryRollupRepository rollupRepository;
+    private TraceService traceService;
+    private LocalDate day;
+    private int traceCount;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ShopFloorGenerator generator = new ShopFloorGenerator(employees, machines, days, punchesPerHour, 42);
+        List<Trace> traces = generator.generate();
+        traceCount = traces.size();
+        day = generator.firstDay().plusDays(days / 2);
+
+        TraceProperties properties = new TraceProperties();
+        properties.getCalendar().setZone(ZoneOffset.UTC);
+        properties.getSummary().setSource(source);
+        properties.getCache().setEnabled(false);
+        traceRepository = new InMemoryTraceRepository(traces);
+        rollupRepository = new InMemoryRollupRepository();
+        ProductionCalendar calendar = new ProductionCalendar(properties);
+        TransactionTemplate transactionTemplate = new TransactionTemplate(new NoTransactionManager());
+        // Rien n'est archivé pendant les benchmarks : pas de partitions à supprimer
+        TraceArchive archive = new TraceArchive(traceRepository.repository(), null, transactionTemplate, properties, calendar);
+        DailyTotals dailyTotals = new DailyTotals(rollupRepository.repository(), transactionTemplate.getTransactionManager(), calendar, properties);
+        RollupService rollupService = new RollupService(rollupRepository.repository(), traceRepository.repository(), null, properties, calendar, archive, dailyTotals);
+        rollupService.applyAll(traces);
+        // En ROLLUP, les séries sont lues dans l'index des totaux journaliers, chargé comme au démarrage
+        dailyTotals.load();
+
+        LiveStateRegistry liveStateRegistry = new LiveStateRegistry(traceRepository.repository(), archive);
+        SummaryCache summaryCache = new SummaryCache(properties, calendar);
+        SummaryChanges summaryChanges = new SummaryChanges(calendar);
+        TraceMetrics metrics = new TraceMetrics(new SimpleMeterRegistry());
+        // Écriture différée désactivée : les benchmarks ne mesurent que les lectures
+        TraceWriteBehind writeBehind = new TraceWriteBehind(null, rollupService, liveStateRegistry, summaryCache, summaryChanges, transactionTemplate, properties, metrics, calendar);
+        SummaryReader summaryReader = new SummaryReader(traceRepository.repository(), rollupService, summaryCache, transactionTemplate, properties, calendar,
+                archive, metrics, new ReplicaRouting(null, transactionTemplate.getTransactionManager(), properties), dailyTotals);
+        traceService = new TraceService(traceRepository.repository(), rollupService,
+                liveStateRegistry, summaryCache, new SummaryFanOut(properties), new StripedLocks(properties),
+                null, transactionTemplate, properties, calendar, summaryChanges, archive, metrics, writeBehind,
+                summaryReader, new AuditingConfig().auditingDateTimeProvider());
+    }
+
+    public TraceService traceService() {
+        return traceService;
+    }
+
+    public String employerName() {
+        return ShopFloorGenerator.employerName(0);
+    }
+
+    public String machineName() {
+        return ShopFloorGenerator.machineName(0);
+    }
+
+    public LocalDate day() {
+        return day;
+    }
+
+    public int traceCount() {
+        return traceCount;
+    }
+
+    public long repositoryCalls() {
+        return traceRepository.calls() + rollupRepository.calls();
+    }
+
+    // Les dépôts en mémoire n'ont pas de transaction
+    private static class NoTransactionManager implements PlatformTransactionManager {
+        @Override
+        public TransactionStatus getTransaction(TransactionDefinition definition) {
+            return new SimpleTransactionStatus();
+        }
+
+        @Override
+        public void commit(TransactionStatus status) {
+        }
+
+        @Override
+        public void rollback(TransactionStatus status) {
+        }
+    }
+}
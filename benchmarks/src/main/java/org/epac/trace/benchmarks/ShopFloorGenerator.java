@@ -0,0 +1,88 @@
+package org.epac.trace.benchmarks;
+
+import org.epac.trace.entity.Operation;
+import org.epac.trace.entity.Trace;
+
+import java.time.LocalDate;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+// Atelier synthétique : chaque employé est affecté à une machine et à une équipe (matin, après-midi ou nuit).
+// Par poste : START, puis des PAUSE/START au rythme demandé, puis STOP en fin de poste.
+// L'équipe de nuit passe minuit, ce qui exerce le report d'un jour sur l'autre.
+// Au-delà de 3 employés par machine, plusieurs employés partagent le même poste sur la même machine.
+// Les postes sont en heures UTC.
+public class ShopFloorGenerator {
+    private static final int[] SHIFT_START_HOURS = {6, 14, 22};
+    private static final int SHIFT_HOURS = 8;
+
+    private final int employees;
+    private final int machines;
+    private final int days;
+    private final double punchesPerHour;
+    private final long seed;
+
+    public ShopFloorGenerator(int employees, int machines, int days, double punchesPerHour, long seed) {
+        this.employees = employees;
+        this.machines = machines;
+        this.days = days;
+        this.punchesPerHour = punchesPerHour;
+        this.seed = seed;
+    }
+
+    public static String employerName(int index) {
+        return "employee-" + index;
+    }
+
+    public static String machineName(int index) {
+        return "machine-" + index;
+    }
+
+    public LocalDate firstDay() {
+        return LocalDate.of(2024, 1, 1);
+    }
+
+    public LocalDate lastDay() {
+        return firstDay().plusDays(days - 1L);
+    }
+
+    // Traces triées par timestamp
+    public List<Trace> generate() {
+        Random random = new Random(seed);
+        List<Trace> traces = new ArrayList<>();
+        for (int employee = 0; employee < employees; employee++) {
+            String employerName = employerName(employee);
+            String machineName = machineName(employee % machines);
+            int shiftStartHour = SHIFT_START_HOURS[(employee / machines) % SHIFT_START_HOURS.length];
+            for (int day = 0; day < days; day++) {
+                // Décalage en microsecondes par employé : deux traces n'ont jamais le même timestamp
+                LocalDateTime start = firstDay().plusDays(day).atTime(shiftStartHour, 0)
+                        .plusMinutes(random.nextInt(15)).plusNanos(employee * 1_000L);
+                LocalDateTime end = start.plusHours(SHIFT_HOURS);
+                traces.add(new Trace(start.toInstant(ZoneOffset.UTC), employerName, machineName, Operation.START));
+                Operation next = Operation.PAUSE;
+                LocalDateTime timestamp = start.plusSeconds(nextGapSeconds(random));
+                while (timestamp.isBefore(end)) {
+                    traces.add(new Trace(timestamp.toInstant(ZoneOffset.UTC), employerName, machineName, next));
+                    next = next == Operation.PAUSE ? Operation.START : Operation.PAUSE;
+                    timestamp = timestamp.plusSeconds(nextGapSeconds(random));
+                }
+                traces.add(new Trace(end.toInstant(ZoneOffset.UTC), employerName, machineName, Operation.STOP));
+            }
+        }
+        traces.sort(Comparator.comparing(Trace::getTimestamp));
+        return traces;
+    }
+
+    // Intervalle exponentiel entre deux pointages (processus de Poisson)
+    private long nextGapSeconds(Random random) {
+        if (punchesPerHour <= 0)
+            return SHIFT_HOURS * 3600L;
+        return 1 + (long) (-Math.log(1 - random.nextDouble()) * 3600 / punchesPerHour);
+    }
+}
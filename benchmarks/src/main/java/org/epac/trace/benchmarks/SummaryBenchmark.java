@@ -0,0 +1,114 @@
+package org.epac.trace.benchmarks;
+
+import org.epac.trace.dto.WorkSummary;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Débit des calculs de résumés de TraceService sur un atelier synthétique en mémoire.
+// Le nombre d'appels aux dépôts est compté à chaque opération (RepositoryCalls).
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SummaryBenchmark {
+
+    @Benchmark
+    public WorkSummary dailySummary(ShopFloor shopFloor, RepositoryCalls calls) {
+        long before = shopFloor.repositoryCalls();
+        WorkSummary summary = shopFloor.traceService().calculateDailyWorkSummary(shopFloor.employerName(), shopFloor.day());
+        calls.record(shopFloor.repositoryCalls() - before);
+        return summary;
+    }
+
+    @Benchmark
+    public Map<String, WorkSummary> dailySummaryByEmployer(ShopFloor shopFloor, RepositoryCalls calls) {
+        long before = shopFloor.repositoryCalls();
+        Map<String, WorkSummary> summary = shopFloor.traceService().calculateDailyWorkSummaryByEmployer(shopFloor.employerName(), shopFloor.day());
+        calls.record(shopFloor.repositoryCalls() - before);
+        return summary;
+    }
+
+    @Benchmark
+    public WorkSummary dailySummaryByMachine(ShopFloor shopFloor, RepositoryCalls calls) {
+        long before = shopFloor.repositoryCalls();
+        WorkSummary summary = shopFloor.traceService().calculateDailyWorkSummaryMachine(shopFloor.machineName(), shopFloor.day());
+        calls.record(shopFloor.repositoryCalls() - before);
+        return summary;
+    }
+
+    @Benchmark
+    public Map<String, Map<String, WorkSummary>> daySummaryByEmployeeAndMachine(ShopFloor shopFloor, RepositoryCalls calls) {
+        long before = shopFloor.repositoryCalls();
+        Map<String, Map<String, WorkSummary>> summary = shopFloor.traceService().getWorkSummaryByEmployeeAndMachine(shopFloor.day());
+        calls.record(shopFloor.repositoryCalls() - before);
+        return summary;
+    }
+
+    @Benchmark
+    public Map<LocalDate, WorkSummary> weeklySummaryByEmployee(ShopFloor shopFloor, RepositoryCalls calls) {
+        long before = shopFloor.repositoryCalls();
+        Map<LocalDate, WorkSummary> summary = shopFloor.traceService().calculateWeeklyWorkSummaryByEmployee(shopFloor.employerName());
+        calls.record(shopFloor.repositoryCalls() - before);
+        return summary;
+    }
+
+    @Benchmark
+    public Map<LocalDate, WorkSummary> weeklySummaryByMachine(ShopFloor shopFloor, RepositoryCalls calls) {
+        long before = shopFloor.repositoryCalls();
+        Map<LocalDate, WorkSummary> summary = shopFloor.traceService().calculateWeeklyWorkSummaryByMachine(shopFloor.machineName());
+        calls.record(shopFloor.repositoryCalls() - before);
+        return summary;
+    }
+
+    @Benchmark
+    public Map<LocalDate, WorkSummary> monthlySummaryByEmployee(ShopFloor shopFloor, RepositoryCalls calls) {
+        long before = shopFloor.repositoryCalls();
+        Map<LocalDate, WorkSummary> summary = shopFloor.traceService().calculateMonthlyWorkSummaryByEmployee(shopFloor.employerName());
+        calls.record(shopFloor.repositoryCalls() - before);
+        return summary;
+    }
+
+    @Benchmark
+    public Map<LocalDate, WorkSummary> monthlySummaryByEmployeeAndMachine(ShopFloor shopFloor, RepositoryCalls calls) {
+        long before = shopFloor.repositoryCalls();
+        Map<LocalDate, WorkSummary> summary = shopFloor.traceService().calculateMonthlyWorkSummaryByEmployeeAndMachine(shopFloor.employerName(), shopFloor.machineName());
+        calls.record(shopFloor.repositoryCalls() - before);
+        return summary;
+    }
+
+    @Benchmark
+    public Map<String, Map<LocalDate, WorkSummary>> dailySummaryForAllEmployees(ShopFloor shopFloor, RepositoryCalls calls) {
+        long before = shopFloor.repositoryCalls();
+        Map<String, Map<LocalDate, WorkSummary>> summary = shopFloor.traceService().calculateDailyWorkSummaryForAllEmployees();
+        calls.record(shopFloor.repositoryCalls() - before);
+        return summary;
+    }
+
+    @Benchmark
+    public Map<String, Map<LocalDate, WorkSummary>> dailySummaryForAllMachines(ShopFloor shopFloor, RepositoryCalls calls) {
+        long before = shopFloor.repositoryCalls();
+        Map<String, Map<LocalDate, WorkSummary>> summary = shopFloor.traceService().calculateDailyWorkSummaryForAllMachines();
+        calls.record(shopFloor.repositoryCalls() - before);
+        return summary;
+    }
+
+    @Benchmark
+    public Map<String, Map<LocalDate, WorkSummary>> weeklySummaryForAllMachines(ShopFloor shopFloor, RepositoryCalls calls) {
+        long before = shopFloor.repositoryCalls();
+        Map<String, Map<LocalDate, WorkSummary>> summary = shopFloor.traceService().calculateWeeklyWorkSummaryForAllMachines();
+        calls.record(shopFloor.repositoryCalls() - before);
+        return summary;
+    }
+
+    @Benchmark
+    public Map<String, Map<LocalDate, WorkSummary>> monthlySummaryForAllEmployees(ShopFloor shopFloor, RepositoryCalls calls) {
+        long before = shopFloor.repositoryCalls();
+        Map<String, Map<LocalDate, WorkSummary>> summary = shopFloor.traceService().calculateMonthlyWorkSummaryForAllEmployees();
+        calls.record(shopFloor.repositoryCalls() - before);
+        return summary;
+    }
+}
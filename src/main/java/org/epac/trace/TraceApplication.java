@@ -2,10 +2,15 @@ package org.epac.trace;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
-import org.springframework.data.jpa.repository.config.EnableJpaAuditing;
+import org.springframework.boot.context.properties.ConfigurationPropertiesScan;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
-@EnableJpaAuditing
+@ConfigurationPropertiesScan
+// Pas de transaction implicite en lecture seule sur les dépôts : elle enverrait la requête au réplica (ReplicaRouting)
+@EnableJpaRepositories(enableDefaultTransactions = false)
+@EnableScheduling
 public class TraceApplication {
 
 	public static void main(String[] args) {
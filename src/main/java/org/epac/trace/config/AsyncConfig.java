@@ -0,0 +1,23 @@
+package org.epac.trace.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+// Pool borné des résumés longs (historique, tous les employés / toutes les machines), séparé des threads
+// de requêtes : des rapports lourds ne peuvent pas occuper plus de poolSize threads, au-delà ils attendent dans la file
+// puis sont refusés (503). Threads virtuels comme les requêtes : un rejeu bloqué sur JDBC ne retient pas de porteur.
+@Configuration
+public class AsyncConfig {
+
+    @Bean
+    public ThreadPoolTaskExecutor summaryExecutor(TraceProperties properties) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadFactory(Thread.ofVirtual().name("summary-", 0).factory());
+        executor.setCorePoolSize(properties.getAsync().getPoolSize());
+        executor.setMaxPoolSize(properties.getAsync().getPoolSize());
+        executor.setQueueCapacity(properties.getAsync().getQueueCapacity());
+        executor.setWaitForTasksToCompleteOnShutdown(false);
+        return executor;
+    }
+}
@@ -0,0 +1,43 @@
+package org.epac.trace.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.auditing.DateTimeProvider;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+@Slf4j
+@Configuration
+public class AuditingConfig {
+
+    // Au-delà de cet écart, le recul de l'horloge système est signalé (une fois par recul)
+    private static final Duration CLOCK_STEP_BACK = Duration.ofSeconds(1);
+
+    // Horodatage des traces à la précision de la colonne (DATETIME(6)), pour que les agrégats
+    // calculés à l'insertion soient identiques à ceux recalculés depuis la base.
+    // Strictement croissant, même si l'horloge système recule (NTP) : les traces suivantes avancent
+    // d'une microseconde sur la précédente jusqu'à ce que l'horloge la rattrape, l'ordre du rejeu reste celui des insertions.
+    // Instant UTC : le jour de production et l'heure locale en sont dérivés par ProductionCalendar.
+    @Bean
+    public DateTimeProvider auditingDateTimeProvider() {
+        AtomicReference<Instant> lastTimestamp = new AtomicReference<>(Instant.EPOCH);
+        AtomicBoolean steppedBack = new AtomicBoolean();
+        return () -> {
+            Instant now = Instant.now().truncatedTo(ChronoUnit.MICROS);
+            Instant timestamp = lastTimestamp.updateAndGet(previous -> now.isAfter(previous) ? now : previous.plus(1, ChronoUnit.MICROS));
+            if (timestamp.isAfter(now.plus(CLOCK_STEP_BACK))) {
+                if (steppedBack.compareAndSet(false, true))
+                    log.warn("Recul de l'horloge système de {}, traces horodatées à partir de {}", Duration.between(now, timestamp), timestamp);
+            } else if (timestamp.equals(now) && steppedBack.compareAndSet(true, false)) {
+                log.info("Horloge système revenue au niveau des traces");
+            }
+            return Optional.of(timestamp);
+        };
+    }
+}
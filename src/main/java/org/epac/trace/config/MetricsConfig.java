@@ -0,0 +1,22 @@
+package org.epac.trace.config;
+
+import org.epac.trace.services.TraceMetrics;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+// Chaque requête préparée par Hibernate est comptée pour le résumé en cours (trace.summary.queries)
+@Configuration
+public class MetricsConfig {
+
+    @Bean
+    public HibernatePropertiesCustomizer summaryQueryCounter() {
+        StatementInspector inspector = sql -> {
+            TraceMetrics.countQuery();
+            return sql;
+        };
+        return properties -> properties.put(AvailableSettings.STATEMENT_INSPECTOR, inspector);
+    }
+}
@@ -0,0 +1,48 @@
+package org.epac.trace.config;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.util.Map;
+
+// Connexion de la base principale, ou du réplica pour une transaction en lecture seule.
+// Derrière un LazyConnectionDataSourceProxy : la connexion est choisie à la première requête, une fois la transaction
+// (et son drapeau readOnly) ouverte.
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource {
+    private enum Target { PRIMARY, REPLICA }
+
+    private final DataSource primary;
+    private final DataSource replica;
+
+    public ReplicaRoutingDataSource(DataSource primary, DataSource replica) {
+        this.primary = primary;
+        this.replica = replica;
+        setTargetDataSources(Map.of(Target.PRIMARY, primary, Target.REPLICA, replica));
+        setDefaultTargetDataSource(primary);
+        afterPropertiesSet();
+    }
+
+    public DataSource getPrimary() {
+        return primary;
+    }
+
+    public DataSource getReplica() {
+        return replica;
+    }
+
+    // Routage derrière la source de données donnée (proxy compris), null sans réplica configuré
+    public static ReplicaRoutingDataSource unwrap(DataSource dataSource) {
+        try {
+            return dataSource != null && dataSource.isWrapperFor(ReplicaRoutingDataSource.class) ? dataSource.unwrap(ReplicaRoutingDataSource.class) : null;
+        } catch (SQLException e) {
+            return null;
+        }
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        return TransactionSynchronizationManager.isCurrentTransactionReadOnly() ? Target.REPLICA : Target.PRIMARY;
+    }
+}
@@ -0,0 +1,165 @@
+package org.epac.trace.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.List;
+
+@ConfigurationProperties(prefix = "trace")
+@Getter
+public class TraceProperties {
+    private final Summary summary = new Summary();
+    private final Rollup rollup = new Rollup();
+    private final Ingest ingest = new Ingest();
+    private final Cache cache = new Cache();
+    private final Async async = new Async();
+    private final Calendar calendar = new Calendar();
+    private final Stream stream = new Stream();
+    private final Archive archive = new Archive();
+    private final Partition partition = new Partition();
+    private final Replica replica = new Replica();
+
+    public enum SummarySource {
+        // Rejouer les traces brutes à chaque lecture
+        REPLAY,
+        // Lire les agrégats journaliers matérialisés (DailyWorkRollup)
+        ROLLUP
+    }
+
+    @Getter
+    @Setter
+    public static class Summary {
+        private SummarySource source = SummarySource.ROLLUP;
+        // Index en mémoire des totaux journaliers (DailyTotals), avec la source ROLLUP
+        private boolean dailyTotals = true;
+        // Résumés de tous les employés / toutes les machines : clés calculées en même temps par requête
+        private int fanOutParallelism = 4;
+        // ... et pour toute l'application, à garder sous la taille du pool de connexions
+        private int fanOutMaxConcurrency = 8;
+        // /summary : clés par page au maximum
+        private int maxPageSize = 100;
+        // ... et tranches (ou périodes) par série au maximum
+        private int maxBuckets = 10_000;
+    }
+
+    @Getter
+    @Setter
+    public static class Rollup {
+        // Forcer la reconstruction des agrégats au démarrage (après un changement de schéma)
+        private boolean rebuild = false;
+        // Nombre d'agrégats écrits entre deux flush/clear pendant la reconstruction
+        private int rebuildBatchSize = 500;
+    }
+
+    @Getter
+    @Setter
+    public static class Ingest {
+        // Nombre de verrous partagés entre employés et machines pour sérialiser la validation des traces
+        private int lockStripes = 1024;
+        // Nombre de lignes par lot JDBC pour les envois groupés et les lots de l'écriture différée
+        private int batchSize = 1000;
+        // Écriture différée : traces acquittées une fois dans le journal local, écrites en base par lots
+        private boolean writeBehind = false;
+        // Répertoire du journal, relu au démarrage même si l'écriture différée est désactivée
+        private Path journalDirectory = Path.of("journal");
+        // Taille d'un fichier du journal avant passage au suivant
+        private DataSize journalSegmentSize = DataSize.ofMegabytes(64);
+        // Traces en attente d'écriture en base au-delà desquelles les nouvelles sont refusées (503)
+        private int maxPending = 100_000;
+        // Attente maximale de l'écriture en base pour le résumé complet de /add, au-delà la réponse est 503
+        // (la trace reste acquittée dans le journal)
+        private Duration commitTimeout = Duration.ofSeconds(10);
+        // Avance tolérée de l'horloge d'un terminal hors ligne sur celle du serveur
+        private Duration maxClockSkew = Duration.ofMinutes(5);
+    }
+
+    @Getter
+    @Setter
+    public static class Cache {
+        // Cache des résumés par période (hebdomadaires, mensuels...) évincé à chaque nouvelle trace
+        private boolean enabled = true;
+        // Nombre maximal de périodes gardées en cache
+        private long maximumSize = 100_000;
+    }
+
+    @Getter
+    @Setter
+    public static class Async {
+        // Threads du pool des résumés longs
+        private int poolSize = 4;
+        // Demandes en attente au-delà desquelles les résumés sont refusés
+        private int queueCapacity = 50;
+        // Délai maximal d'un résumé long, au-delà la réponse est 503
+        private Duration timeout = Duration.ofSeconds(30);
+    }
+
+    @Getter
+    @Setter
+    public static class Calendar {
+        // Fuseau de l'usine (fuseau du serveur si absent) : les horodatages sont enregistrés en instants UTC
+        // (UtcTimestampConverter), ce fuseau ne sert qu'aux limites des journées de production et aux postes
+        private ZoneId zone;
+        // Début de la journée de production (06:00 pour des rotations 6 h - 6 h) ; changer cette valeur impose
+        // de reconstruire les agrégats (trace.rollup.rebuild=true)
+        private LocalTime dayStart = LocalTime.MIDNIGHT;
+        // Débuts des postes, découpage SHIFT de /summary
+        private List<LocalTime> shiftStarts = List.of(LocalTime.of(6, 0), LocalTime.of(14, 0), LocalTime.of(22, 0));
+    }
+
+    @Getter
+    @Setter
+    public static class Stream {
+        // Période de regroupement des changements : un résumé par clé et par jour au plus à chaque tick
+        private Duration interval = Duration.ofSeconds(1);
+        // Abonnés simultanés à /stream/summaries au maximum (503 au-delà)
+        private int maxSubscribers = 1000;
+        // Mises à jour en attente pour un client lent au-delà desquelles il est déconnecté
+        private int maxPending = 10_000;
+        // Durée d'une connexion, le navigateur se reconnecte ensuite automatiquement
+        private Duration timeout = Duration.ofMinutes(30);
+    }
+
+    @Getter
+    @Setter
+    public static class Archive {
+        // Déplacer chaque nuit les mois clos de la table vers des segments en colonnes
+        private boolean enabled = false;
+        // Répertoire des segments, lus au démarrage même si l'archivage est désactivé
+        private Path directory = Path.of("archive");
+        // Mois gardés dans la table en plus du mois en cours ; les traces plus anciennes sont refusées
+        private int keepMonths = 3;
+        // Heure du passage d'archivage
+        private String cron = "0 30 2 * * *";
+    }
+
+    @Getter
+    @Setter
+    public static class Partition {
+        // Mois à venir dont les partitions de la table trace sont créées d'avance (MySQL partitionné seulement)
+        private int monthsAhead = 3;
+        // Heure du passage de création des partitions, aussi fait au démarrage
+        private String cron = "0 0 2 * * *";
+    }
+
+    @Getter
+    @Setter
+    public static class Replica {
+        // Réplica MySQL en lecture pour les résumés ; sans URL, tout est lu sur la base principale
+        private String url;
+        // Identifiants du réplica, ceux de spring.datasource si absents
+        private String username;
+        private String password;
+        // Connexions du pool du réplica
+        private int poolSize = 10;
+        // Retard au-delà duquel les résumés qui couvrent le jour courant sont lus sur la base principale
+        private Duration maxLag = Duration.ofSeconds(2);
+        // Battement écrit sur la base principale et relu sur le réplica pour mesurer son retard
+        private Duration heartbeatInterval = Duration.ofSeconds(1);
+    }
+}
@@ -0,0 +1,50 @@
+package org.epac.trace.config;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import org.epac.trace.services.AddResponse;
+import org.epac.trace.services.Dimension;
+import org.epac.trace.services.ProductionCalendar;
+import org.epac.trace.services.SummaryGranularity;
+import org.springframework.boot.autoconfigure.jackson.Jackson2ObjectMapperBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.format.FormatterRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.TemporalAccessor;
+import java.util.Locale;
+
+// Les paramètres de /summary (dimension, granularity) et de /add (response) sont acceptés sans tenir compte de la casse : ?granularity=hour
+@Configuration
+public class WebConfig implements WebMvcConfigurer {
+    @Override
+    public void addFormatters(FormatterRegistry registry) {
+        registry.addConverter(String.class, Dimension.class, value -> Dimension.valueOf(value.trim().toUpperCase(Locale.ROOT)));
+        registry.addConverter(String.class, SummaryGranularity.class, value -> SummaryGranularity.valueOf(value.trim().toUpperCase(Locale.ROOT)));
+        registry.addConverter(String.class, AddResponse.class, value -> AddResponse.valueOf(value.trim().toUpperCase(Locale.ROOT)));
+    }
+
+    // Horodatages JSON : instant avec décalage (2024-07-01T06:00:00Z), ou heure locale sans décalage, lue dans le fuseau de l'usine
+    @Bean
+    public Jackson2ObjectMapperBuilderCustomizer timestampDeserializer(ProductionCalendar calendar) {
+        return builder -> builder.deserializerByType(Instant.class, new JsonDeserializer<Instant>() {
+            @Override
+            public Instant deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+                String text = parser.getValueAsString().trim();
+                try {
+                    TemporalAccessor parsed = DateTimeFormatter.ISO_DATE_TIME.parseBest(text, OffsetDateTime::from, LocalDateTime::from);
+                    return parsed instanceof OffsetDateTime offset ? offset.toInstant() : ((LocalDateTime) parsed).atZone(calendar.zone()).toInstant();
+                } catch (RuntimeException e) {
+                    return (Instant) context.handleWeirdStringValue(Instant.class, text, e.getMessage());
+                }
+            }
+        });
+    }
+}
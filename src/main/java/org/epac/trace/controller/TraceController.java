@@ -1,39 +1,132 @@
 package org.epac.trace.controller;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
-import lombok.AllArgsConstructor;
+import org.epac.trace.config.TraceProperties;
+import org.epac.trace.dto.BatchFailure;
+import org.epac.trace.dto.BatchItemResult;
+import org.epac.trace.dto.MachineState;
+import org.epac.trace.dto.SummaryPage;
 import org.epac.trace.dto.WorkSummary;
 import org.epac.trace.entity.Trace;
+import org.epac.trace.exception.InvalidSummaryRequestException;
 import org.epac.trace.exception.InvalidTraceOperationException;
+import org.epac.trace.exception.TraceNotCommittedException;
+import org.epac.trace.services.AddResponse;
+import org.epac.trace.services.Dimension;
+import org.epac.trace.services.SummaryGranularity;
+import org.epac.trace.services.SummaryStream;
 import org.epac.trace.services.TraceService;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
 
 @RestController
-@AllArgsConstructor
 @CrossOrigin(origins = "http://localhost:4200")
 public class TraceController {
     private final TraceService traceService;
+    private final ObjectMapper objectMapper;
+    private final ThreadPoolTaskExecutor summaryExecutor;
+    private final TraceProperties properties;
+    private final SummaryStream summaryStream;
+
+    // Pool des résumés désigné par son nom : un autre ThreadPoolTaskExecutor ajouté au contexte ne doit pas être injecté à sa place
+    public TraceController(TraceService traceService, ObjectMapper objectMapper, @Qualifier("summaryExecutor") ThreadPoolTaskExecutor summaryExecutor,
+                           TraceProperties properties, SummaryStream summaryStream) {
+        this.traceService = traceService;
+        this.objectMapper = objectMapper;
+        this.summaryExecutor = summaryExecutor;
+        this.properties = properties;
+        this.summaryStream = summaryStream;
+    }
 
 
     @PostMapping("/add")
     @Operation(summary = "Add a new trace", description = "Add a new trace to the database no need to provide timestamp it will be generated automatically")
     @ApiResponse(responseCode = "200", description = "Trace added successfully")
+    @ApiResponse(responseCode = "204", description = "Trace ajoutée, sans résumé (response=none)")
+    @ApiResponse(responseCode = "503", description = "Trace ajoutée, pas encore écrite en base dans le délai (écriture différée, response=full)")
     public ResponseEntity<?> addTrace(
-            @Parameter(description = "Trace object to be stored in database", required = true) @RequestBody Trace trace) {
+            @Parameter(description = "Trace object to be stored in database", required = true) @RequestBody Trace trace,
+            @Parameter(description = "Résumé retourné : NONE, DELTA (machine pointée seulement) ou FULL (toutes les machines de l'employé)")
+            @RequestParam(defaultValue = "FULL") AddResponse response) {
         try {
-            Map<String, WorkSummary> workSummaryMap= traceService.addTrace(trace);
+            Map<String, WorkSummary> workSummaryMap= traceService.addTrace(trace, response);
+            if (response == AddResponse.NONE)
+                return ResponseEntity.noContent().build();
             return ResponseEntity.ok(workSummaryMap);
         } catch (InvalidTraceOperationException e) {
             return ResponseEntity.badRequest().body(e.getMessage());
         }
     }
+    @PostMapping(value = "/add/batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+    @Operation(summary = "Ajouter un lot de traces", description = "Envoi groupé des terminaux hors ligne (tableau JSON) : les traces sont validées dans l'ordre de leur timestamp, qui est obligatoire")
+    @ApiResponse(responseCode = "200", description = "Résultat (acceptée ou refusée) de chaque trace, dans l'ordre de l'envoi")
+    public List<BatchItemResult> addTraces(
+            @Parameter(description = "Traces à ajouter", required = true) @RequestBody List<Trace> traces) {
+        return traceService.addTraces(traces);
+    }
+    @PostMapping(value = "/add/batch", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    @Operation(summary = "Ajouter un lot de traces (NDJSON)", description = "Même envoi groupé avec une trace JSON par ligne, lu, validé et enregistré par blocs de "
+            + "trace.ingest.batch-size lignes : l'ordre des timestamps n'est rétabli qu'à l'intérieur d'un bloc, une trace antérieure à celles d'un bloc "
+            + "précédent est refusée (hors ordre), les gros envois doivent être triés")
+    @ApiResponse(responseCode = "200", description = "Résultat (acceptée ou refusée) de chaque trace, dans l'ordre de l'envoi")
+    @ApiResponse(responseCode = "400", description = "Ligne illisible : les traces lues avant elle sont traitées, la réponse donne leurs résultats, "
+            + "le nombre de traces acceptées et le numéro de la ligne fautive")
+    public ResponseEntity<?> addTracesNdjson(InputStream body) throws IOException {
+        // Le corps n'est jamais entièrement en mémoire : un bloc de traces à la fois
+        int chunkSize = properties.getIngest().getBatchSize();
+        List<BatchItemResult> results = new ArrayList<>();
+        List<Trace> chunk = new ArrayList<>(chunkSize);
+        try (MappingIterator<Trace> traces = objectMapper.readerFor(Trace.class).readValues(body)) {
+            try {
+                while (traces.hasNextValue()) {
+                    chunk.add(traces.nextValue());
+                    if (chunk.size() == chunkSize)
+                        addChunk(chunk, results);
+                }
+            } catch (JsonProcessingException e) {
+                // Les blocs déjà enregistrés le restent : le client reprend l'envoi après la ligne fautive
+                addChunk(chunk, results);
+                int line = e.getLocation() != null ? e.getLocation().getLineNr() : results.size() + 1;
+                long accepted = results.stream().filter(BatchItemResult::accepted).count();
+                return ResponseEntity.badRequest().body(new BatchFailure(accepted, line, e.getOriginalMessage(), results));
+            }
+        }
+        addChunk(chunk, results);
+        return ResponseEntity.ok(results);
+    }
+
+    private void addChunk(List<Trace> chunk, List<BatchItemResult> results) {
+        if (chunk.isEmpty())
+            return;
+        int offset = results.size();
+        for (BatchItemResult result : traceService.addTraces(chunk))
+            results.add(new BatchItemResult(offset + result.index(), result.accepted(), result.message()));
+        chunk.clear();
+    }
     @GetMapping("/work-summary/{employerName}")
     @Operation(summary = "Obtenir le résumé de travail pour un employeur pour une date donnés")
     public WorkSummary getWorkSummary(
@@ -65,99 +158,147 @@ public class TraceController {
     @GetMapping("/weekly-work-summary-all-employee")
     @Operation(summary = "Obtenir le résumé du travail hebdomadaire pour tous les employés par semaine",
             description = "Retourne une map des résumés de travail de chaque employé, groupés par semaine.")
-    Map<String, Map<LocalDate, WorkSummary>> calculateWeeklyWorkSummaryForAllEmployees() {
-        return traceService.calculateWeeklyWorkSummaryForAllEmployees();
+    CompletableFuture<Map<String, Map<LocalDate, WorkSummary>>> calculateWeeklyWorkSummaryForAllEmployees() {
+        return summary(() -> traceService.calculateWeeklyWorkSummaryForAllEmployees());
     }
     @GetMapping("/weekly-work-summary-by-employer")
     @Operation(summary = "Obtenir le résumé du travail hebdomadaire par semaine pour un employé",
             description = "Retourne une map des résumés de travail de chaque employé, groupés par semaine.")
-    Map<LocalDate, WorkSummary> calculateWeeklyWorkSummaryForAllEmployees(
+    CompletableFuture<Map<LocalDate, WorkSummary>> calculateWeeklyWorkSummaryForAllEmployees(
             @Parameter(description = "nom d'employer", required = true)
             @RequestParam String employerName) {
-        return traceService.calculateWeeklyWorkSummaryByEmployee(employerName);
+        return summary(() -> traceService.calculateWeeklyWorkSummaryByEmployee(employerName));
     }
     @GetMapping("/weekly-work-summary-all-machine")
     @Operation(summary = "Obtenir le résumé du travail hebdomadaire par machine pour tous les employés",
             description = "Retourne une map des résumés de travail de chaque machine, groupés par semaine.")
-    Map<String, Map<LocalDate, WorkSummary>> calculateWeeklyWorkSummaryForAllMachines() {
-        return traceService.calculateWeeklyWorkSummaryForAllMachines();
+    CompletableFuture<Map<String, Map<LocalDate, WorkSummary>>> calculateWeeklyWorkSummaryForAllMachines() {
+        return summary(() -> traceService.calculateWeeklyWorkSummaryForAllMachines());
     }
     @GetMapping("/weekly-work-summary-by-machine")
     @Operation(summary = "Obtenir le résumé du travail hebdomadaire par machine",
             description = "Retourne une map des résumés de travail de chaque machine, groupés par semaine.")
-   Map<LocalDate, WorkSummary> calculateWeeklyWorkSummaryByMachine(
+   CompletableFuture<Map<LocalDate, WorkSummary>> calculateWeeklyWorkSummaryByMachine(
             @Parameter(description = "nom de machine", required = true,example = "press1")
             @RequestParam String machineName) {
-        return traceService.calculateWeeklyWorkSummaryByMachine(machineName);
+        return summary(() -> traceService.calculateWeeklyWorkSummaryByMachine(machineName));
     }
     @GetMapping("/daily-work-summary-by-machine")
     @Operation(summary = "Obtenir le résumé du travail journalier par machine",
             description = "Retourne une map des résumés de travail  groupés par jour pour une machine.")
-    Map<LocalDate, WorkSummary> calculateDailyWorkSummaryByMachine(
+    CompletableFuture<Map<LocalDate, WorkSummary>> calculateDailyWorkSummaryByMachine(
             @Parameter(description = "nom de machine", required = true,example = "press1")
             @RequestParam String machineName) {
-        return traceService.calculateDailyWorkSummaryByMachine(machineName);
+        return summary(() -> traceService.calculateDailyWorkSummaryByMachine(machineName));
     }
     @GetMapping("/monthly-work-summary-by-machine")
     @Operation(summary = "Obtenir le résumé du travail mensuel par machine",
             description = "Retourne une map des résumés de travail de chaque machine, groupés par mois.")
-    Map<LocalDate, WorkSummary> calculateMonthlyWorkSummaryByMachine(
+    CompletableFuture<Map<LocalDate, WorkSummary>> calculateMonthlyWorkSummaryByMachine(
             @Parameter(description = "nom de machine", required = true,example = "press1")
             @RequestParam String machineName) {
-        return traceService.calculateMonthlyWorkSummaryByMachine(machineName);
+        return summary(() -> traceService.calculateMonthlyWorkSummaryByMachine(machineName));
     }
     @GetMapping("/daily-work-summary-all-employee")
     @Operation(summary = "Obtenir le résumé du travail journalier pour tous les employés",
             description = "Retourne une map des résumés de travail de chaque employé, groupés par jour.")
-    Map<String, Map<LocalDate, WorkSummary>> calculateDailyWorkSummaryForAllEmployees() {
-        return traceService.calculateDailyWorkSummaryForAllEmployees();
+    CompletableFuture<Map<String, Map<LocalDate, WorkSummary>>> calculateDailyWorkSummaryForAllEmployees() {
+        return summary(() -> traceService.calculateDailyWorkSummaryForAllEmployees());
     }
 @GetMapping("/daily-work-summary-all-machine")
     @Operation(summary = "Obtenir le résumé du travail journalier par tous les machines",
             description = "Retourne une map des résumés de travail de chaque machine, groupés par jour.")
-Map<String, Map<LocalDate, WorkSummary>> calculateDailyWorkSummaryForAllMachines() {
-        return traceService.calculateDailyWorkSummaryForAllMachines();
+CompletableFuture<Map<String, Map<LocalDate, WorkSummary>>> calculateDailyWorkSummaryForAllMachines() {
+        return summary(() -> traceService.calculateDailyWorkSummaryForAllMachines());
     }
 
     @GetMapping("/monthly-work-summary-all-employee")
     @Operation(summary = "Obtenir le résumé du travail mensuel pour tous les employés",
             description = "Retourne une map des résumés de travail de chaque employé, groupés par mois.")
-    Map<String, Map<LocalDate, WorkSummary>> calculateMonthlyWorkSummaryForAllEmployees() {
-        return traceService.calculateMonthlyWorkSummaryForAllEmployees();
+    CompletableFuture<Map<String, Map<LocalDate, WorkSummary>>> calculateMonthlyWorkSummaryForAllEmployees() {
+        return summary(() -> traceService.calculateMonthlyWorkSummaryForAllEmployees());
     }
 
     @GetMapping("/monthly-work-summary-by-employer")
     @Operation(summary = "Obtenir le résumé du travail mensuel  pour un employé",
             description = "Retourne une map des résumés de travail de chaque employé, groupés par mois.")
-    Map<LocalDate, WorkSummary> calculateMonthlyWorkSummaryByEmployee(
+    CompletableFuture<Map<LocalDate, WorkSummary>> calculateMonthlyWorkSummaryByEmployee(
             @Parameter(description = "nom d'employer", required = true)
             @RequestParam String employerName) {
-        return traceService.calculateMonthlyWorkSummaryByEmployee(employerName);
+        return summary(() -> traceService.calculateMonthlyWorkSummaryByEmployee(employerName));
     }
 
     @GetMapping("/daily-work-summary-by-employee-and-machine")
     @Operation(summary = "Obtenir le résumé quotidien du travail d'un employé par machine",
             description = "Retourne une map des résumés de travail par machine pour un employé donné, groupés par jour.")
-    public Map<LocalDate, WorkSummary> calculateDailyWorkSummaryByEmployeeAndMachine(
+    public CompletableFuture<Map<LocalDate, WorkSummary>> calculateDailyWorkSummaryByEmployeeAndMachine(
             @RequestParam @Parameter(description = "Nom de l'employé", example = "oumaima") String employerName,
             @RequestParam @Parameter(description = "Nom de la machine", example = "press1") String machineName) {
-        return traceService.calculateDailyWorkSummaryByEmployeeAndMachine(employerName,machineName);
+        return summary(() -> traceService.calculateDailyWorkSummaryByEmployeeAndMachine(employerName,machineName));
     }
     @GetMapping("/weekly-work-summary-by-employee-and-machine")
     @Operation(summary = "Obtenir le résumé hebdomadaire du travail d'un employé par machine",
             description = "Retourne une map des résumés de travail par machine pour un employé donné, groupés par semaine.")
-    public Map<LocalDate, WorkSummary> calculateWeeklyWorkSummaryByEmployeeAndMachine(
+    public CompletableFuture<Map<LocalDate, WorkSummary>> calculateWeeklyWorkSummaryByEmployeeAndMachine(
             @RequestParam @Parameter(description = "Nom de l'employé", example = "oumaima") String employerName,
             @RequestParam @Parameter(description = "Nom de la machine", example = "press1") String machineName) {
-        return traceService.calculateWeeklyWorkSummaryByEmployeeAndMachine(employerName,machineName);
+        return summary(() -> traceService.calculateWeeklyWorkSummaryByEmployeeAndMachine(employerName,machineName));
     }
     @GetMapping("/monthly-work-summary-by-employee-and-machine")
     @Operation(summary = "Obtenir le résumé mensuel du travail d'un employé par machine",
             description = "Retourne une map des résumés de travail par machine pour un employé donné, groupés par mois.")
-    public Map<LocalDate, WorkSummary> calculateMonthlyWorkSummaryByEmployeeAndMachine(
+    public CompletableFuture<Map<LocalDate, WorkSummary>> calculateMonthlyWorkSummaryByEmployeeAndMachine(
             @RequestParam @Parameter(description = "Nom de l'employé", example = "oumaima") String employerName,
             @RequestParam @Parameter(description = "Nom de la machine", example = "press1") String machineName) {
-        return traceService.calculateMonthlyWorkSummaryByEmployeeAndMachine(employerName,machineName);
+        return summary(() -> traceService.calculateMonthlyWorkSummaryByEmployeeAndMachine(employerName,machineName));
+    }
+    @GetMapping("/summary")
+    @Operation(summary = "Obtenir les résumés de travail sur une période, par tranche",
+            description = "Retourne une page de séries (une par employé, machine ou couple) découpées par heure, poste, jour, semaine ou mois, "
+                    + "calculées sur la seule fenêtre demandée. La fenêtre est élargie aux bornes des tranches qu'elle touche.")
+    @ApiResponse(responseCode = "200", description = "Page de séries, clés triées par nom")
+    @ApiResponse(responseCode = "400", description = "Fenêtre ou pagination invalide")
+    public CompletableFuture<SummaryPage> getSummary(
+            @Parameter(description = "Dimension des séries", required = true) @RequestParam Dimension dimension,
+            @Parameter(description = "Employé ou machine selon la dimension ; pour EMPLOYER_MACHINE, l'employé dont on veut les machines. Toutes les clés si absent", example = "oumaima")
+            @RequestParam(required = false) String key,
+            @Parameter(description = "Premier jour, format yyyy-MM-dd", required = true) @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @Parameter(description = "Dernier jour inclus, format yyyy-MM-dd", required = true) @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @Parameter(description = "Découpage : HOUR, SHIFT, DAY, WEEK ou MONTH") @RequestParam(defaultValue = "DAY") SummaryGranularity granularity,
+            @Parameter(description = "Numéro de page (à partir de 0)") @RequestParam(defaultValue = "0") int page,
+            @Parameter(description = "Nombre de clés par page") @RequestParam(defaultValue = "20") int size) {
+        return summary(() -> traceService.summarizeRange(dimension, key, from, to, granularity, page, size));
+    }
+    @GetMapping("/summary/total")
+    @Operation(summary = "Obtenir le résumé de travail cumulé sur une plage de jours",
+            description = "Retourne le travail, la pause et l'inactivité cumulés d'un employé, d'une machine ou d'un couple entre deux jours "
+                    + "de production inclus (par exemple les 90 derniers jours). Les jours sans trace sont inactifs sur toute leur durée.")
+    @ApiResponse(responseCode = "200", description = "Résumé cumulé")
+    @ApiResponse(responseCode = "400", description = "Plage invalide ou clé manquante")
+    public CompletableFuture<WorkSummary> getSummaryTotal(
+            @Parameter(description = "Dimension du résumé", required = true) @RequestParam Dimension dimension,
+            @Parameter(description = "Nom de l'employé (EMPLOYER, EMPLOYER_MACHINE)", example = "oumaima") @RequestParam(required = false) String employerName,
+            @Parameter(description = "Nom de la machine (MACHINE, EMPLOYER_MACHINE)", example = "press1") @RequestParam(required = false) String machineName,
+            @Parameter(description = "Premier jour, format yyyy-MM-dd", required = true) @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @Parameter(description = "Dernier jour inclus, format yyyy-MM-dd", required = true) @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to) {
+        return summary(() -> traceService.calculateWorkSummaryBetween(dimension, employerName, machineName, from, to));
+    }
+    @GetMapping("/live-state")
+    @Operation(summary = "Obtenir l'état courant des machines",
+            description = "Retourne les machines en marche ou en pause, avec l'employé et l'heure de la dernière opération.")
+    public List<MachineState> getLiveState() {
+        return traceService.getLiveState();
+    }
+    @GetMapping(value = "/stream/summaries", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @Operation(summary = "Suivre les résumés du jour en direct (Server-Sent Events)",
+            description = "Envoie un événement \"summary\" avec le nouveau résumé du jour de production d'un employé ou d'une machine "
+                    + "après chaque trace validée. Les changements sont regroupés : au plus un événement par clé et par jour à chaque intervalle.")
+    @ApiResponse(responseCode = "200", description = "Flux text/event-stream d'objets SummaryUpdate")
+    @ApiResponse(responseCode = "503", description = "Trop d'abonnés")
+    public SseEmitter streamSummaries(
+            @Parameter(description = "EMPLOYER ou MACHINE ; les deux si absent") @RequestParam(required = false) Dimension dimension,
+            @Parameter(description = "Employé ou machine suivi ; tous si absent", example = "oumaima") @RequestParam(required = false) String key) {
+        return summaryStream.subscribe(dimension, key);
     }
     @GetMapping("/findDistinctMachineName")
     @Operation(summary = "Obtenir la liste des noms de machines",
@@ -180,4 +321,44 @@ Map<String, Map<LocalDate, WorkSummary>> calculateDailyWorkSummaryForAllMachines
         return traceService.findDistinctEmployerName();
     }
 
+    // Les résumés sur tout l'historique sont calculés sur le pool borné summaryExecutor : le thread de la requête
+    // est libéré et les insertions de traces ne passent pas derrière les rapports.
+    // Au-delà du délai, la tâche est annulée : son thread est interrompu et le balayage s'arrête au jour suivant,
+    // le pool n'est pas occupé par un résumé dont personne n'attend plus le résultat
+    private <T> CompletableFuture<T> summary(Supplier<T> summary) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Future<?> task = summaryExecutor.submit(() -> {
+            try {
+                result.complete(summary.get());
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        result.orTimeout(properties.getAsync().getTimeout().toMillis(), TimeUnit.MILLISECONDS)
+                .whenComplete((value, e) -> {
+                    if (e instanceof TimeoutException)
+                        task.cancel(true);
+                });
+        return result;
+    }
+
+    @ExceptionHandler({TaskRejectedException.class, RejectedExecutionException.class})
+    public ResponseEntity<String> summaryRejected() {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("Trop de résumés en cours, réessayer plus tard.");
+    }
+
+    @ExceptionHandler(InvalidSummaryRequestException.class)
+    public ResponseEntity<String> invalidSummaryRequest(InvalidSummaryRequestException e) {
+        return ResponseEntity.badRequest().body(e.getMessage());
+    }
+
+    @ExceptionHandler(TraceNotCommittedException.class)
+    public ResponseEntity<String> traceNotCommitted(TraceNotCommittedException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(e.getMessage());
+    }
+
+    @ExceptionHandler(TimeoutException.class)
+    public ResponseEntity<String> summaryTimedOut() {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("Le calcul du résumé a dépassé le délai autorisé.");
+    }
 }
@@ -0,0 +1,7 @@
+package org.epac.trace.dto;
+
+import java.util.List;
+
+// Envoi NDJSON interrompu par une ligne illisible : les blocs précédents sont enregistrés, accepted traces acceptées
+// parmi eux, line numéro (à partir de 1) de la ligne fautive et results le résultat de chaque trace lue avant elle
+public record BatchFailure(long accepted, int line, String message, List<BatchItemResult> results) { }
@@ -0,0 +1,4 @@
+package org.epac.trace.dto;
+
+// Résultat d'une trace d'un envoi groupé, index = position dans l'envoi
+public record BatchItemResult(int index, boolean accepted, String message) { }
@@ -0,0 +1,8 @@
+package org.epac.trace.dto;
+
+import org.epac.trace.entity.Operation;
+
+import java.time.Instant;
+
+// Machine en marche ou en pause : par qui et depuis quand
+public record MachineState(String machineName, String employerName, Operation operation, Instant since) { }
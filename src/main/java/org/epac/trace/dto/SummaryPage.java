@@ -0,0 +1,11 @@
+package org.epac.trace.dto;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+// Une page de /summary : fenêtre réellement calculée [from, to[, clés triées et une série par clé
+// (début de tranche ou de période -> résumé), en heures locales de l'usine
+public record SummaryPage(LocalDateTime from, LocalDateTime to, int page, int size, int totalKeys, List<Series> series) {
+    public record Series(String employerName, String machineName, Map<LocalDateTime, WorkSummary> summaries) { }
+}
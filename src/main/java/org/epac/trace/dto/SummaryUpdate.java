@@ -0,0 +1,7 @@
+package org.epac.trace.dto;
+
+import java.time.LocalDate;
+
+// Événement de /stream/summaries : nouveau résumé du jour de production d'un employé (machineName null)
+// ou d'une machine (employerName null), qui remplace le précédent
+public record SummaryUpdate(String employerName, String machineName, LocalDate date, WorkSummary summary) { }
@@ -0,0 +1,58 @@
+package org.epac.trace.entity;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDate;
+import java.time.Instant;
+
+// Résumé journalier matérialisé d'un couple employé/machine, mis à jour à chaque trace.
+// Les durées incluent déjà la dernière opération projetée jusqu'à la fin de la journée.
+@Entity
+@Table(uniqueConstraints = @UniqueConstraint(name = "uk_rollup_day_employer_machine", columnNames = {"work_date", "employer_name", "machine_name"}),
+        indexes = {
+                @Index(name = "idx_rollup_employer_day", columnList = "employer_name, work_date"),
+                @Index(name = "idx_rollup_machine_day", columnList = "machine_name, work_date")
+        })
+@NoArgsConstructor
+@Getter
+@Setter
+public class DailyWorkRollup {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    @Column(nullable = false)
+    private LocalDate workDate;
+    @Column(nullable = false)
+    private String employerName;
+    @Column(nullable = false)
+    private String machineName;
+    private long workNanos;
+    private long pauseNanos;
+    private long inactiveNanos;
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private Operation lastOperation;
+    @Column(nullable = false)
+    @Convert(converter = UtcTimestampConverter.class)
+    private Instant lastTimestamp;
+    // Incrémentée à chaque écriture de l'agrégat : ordonne les états indexés par DailyTotals
+    @Version
+    private long version;
+
+    public DailyWorkRollup(LocalDate workDate, String employerName, String machineName) {
+        this.workDate = workDate;
+        this.employerName = employerName;
+        this.machineName = machineName;
+    }
+
+    // Projection des totaux d'un jour (index des totaux journaliers), sans dernière opération
+    public DailyWorkRollup(LocalDate workDate, String employerName, String machineName, long workNanos, long pauseNanos, long version) {
+        this(workDate, employerName, machineName);
+        this.workNanos = workNanos;
+        this.pauseNanos = pauseNanos;
+        this.version = version;
+    }
+}
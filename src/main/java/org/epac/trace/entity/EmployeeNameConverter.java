@@ -0,0 +1,26 @@
+package org.epac.trace.entity;
+
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+import org.epac.trace.repository.NameDictionary;
+
+// Nom d'employé <-> identifiant de la table employee. Un nom inconnu (paramètre d'une requête) ne correspond à aucune
+// trace ; les noms des nouvelles traces sont enregistrés avant l'insertion (TraceNameListener).
+@Converter
+public class EmployeeNameConverter implements AttributeConverter<String, Integer> {
+    private final NameDictionary names;
+
+    public EmployeeNameConverter(NameDictionary names) {
+        this.names = names;
+    }
+
+    @Override
+    public Integer convertToDatabaseColumn(String name) {
+        return name == null ? null : names.employeeId(name);
+    }
+
+    @Override
+    public String convertToEntityAttribute(Integer id) {
+        return id == null ? null : names.employeeName(id);
+    }
+}
@@ -0,0 +1,20 @@
+package org.epac.trace.entity;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+// Table de dimension des machines : Trace ne garde que l'identifiant (voir NameDictionary)
+@Entity
+@Table(uniqueConstraints = @UniqueConstraint(name = "uk_machine_name", columnNames = "name"))
+@NoArgsConstructor
+@Getter
+@Setter
+public class Machine {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Integer id;
+    @Column(nullable = false)
+    private String name;
+}
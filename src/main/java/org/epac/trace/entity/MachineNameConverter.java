@@ -0,0 +1,26 @@
+package org.epac.trace.entity;
+
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+import org.epac.trace.repository.NameDictionary;
+
+// Nom de machine <-> identifiant de la table machine. Un nom inconnu (paramètre d'une requête) ne correspond à aucune
+// trace ; les noms des nouvelles traces sont enregistrés avant l'insertion (TraceNameListener).
+@Converter
+public class MachineNameConverter implements AttributeConverter<String, Integer> {
+    private final NameDictionary names;
+
+    public MachineNameConverter(NameDictionary names) {
+        this.names = names;
+    }
+
+    @Override
+    public Integer convertToDatabaseColumn(String name) {
+        return name == null ? null : names.machineId(name);
+    }
+
+    @Override
+    public String convertToEntityAttribute(Integer id) {
+        return id == null ? null : names.machineName(id);
+    }
+}
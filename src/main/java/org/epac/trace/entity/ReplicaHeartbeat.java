@@ -0,0 +1,18 @@
+package org.epac.trace.entity;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+// Battement écrit sur la base principale et relu sur le réplica pour mesurer son retard (ReplicaRouting)
+@Entity
+@NoArgsConstructor
+@Getter
+@Setter
+public class ReplicaHeartbeat {
+    @Id
+    private Integer id;
+    private long beatMillis;
+}
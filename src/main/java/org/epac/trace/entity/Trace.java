@@ -6,28 +6,46 @@ import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
-import org.springframework.data.annotation.CreatedDate;
-import org.springframework.data.jpa.domain.support.AuditingEntityListener;
 
-import java.time.LocalDateTime;
+import java.time.Instant;
 
 @Entity
+// Index composites alignés sur les requêtes de TraceRepository (égalité sur le nom puis tri/intervalle sur le timestamp)
+// Les noms sont stockés par leur identifiant dans les tables employee et machine
+@Table(indexes = {
+        @Index(name = "idx_trace_timestamp", columnList = "timestamp"),
+        @Index(name = "idx_trace_employer_timestamp", columnList = "employer_id, timestamp"),
+        @Index(name = "idx_trace_machine_timestamp", columnList = "machine_id, timestamp"),
+        @Index(name = "idx_trace_employer_machine_timestamp", columnList = "employer_id, machine_id, timestamp")
+})
 @AllArgsConstructor
 @NoArgsConstructor
 @Getter
 @Setter
-@EntityListeners(AuditingEntityListener.class)
+@EntityListeners(TraceNameListener.class)
 public class Trace {
     @Id
-    @CreatedDate()
-    @Column(nullable = false,unique = true)
-    @Schema(description = "temp de l'execution de l'Opération à réaliser calculer automatiquement", required = false)
-    private LocalDateTime timestamp;
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Schema(description = "identifiant technique généré automatiquement", accessMode = Schema.AccessMode.READ_ONLY)
+    private Long id;
     @Column(nullable = false)
+    @Convert(converter = UtcTimestampConverter.class)
+    @Schema(description = "temp de l'execution de l'Opération à réaliser calculer automatiquement par le serveur (instant UTC)", required = false)
+    private Instant timestamp;
+    @Column(name = "employer_id", nullable = false)
+    @Convert(converter = EmployeeNameConverter.class)
     private String employerName;
-    @Column(nullable = false)
+    @Column(name = "machine_id", nullable = false)
+    @Convert(converter = MachineNameConverter.class)
     private String machineName;
     @Enumerated(EnumType.STRING)
     @Column(nullable = false)
     private Operation operation;
+
+    public Trace(Instant timestamp, String employerName, String machineName, Operation operation) {
+        this.timestamp = timestamp;
+        this.employerName = employerName;
+        this.machineName = machineName;
+        this.operation = operation;
+    }
 }
@@ -0,0 +1,20 @@
+package org.epac.trace.entity;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+// Dernière séquence d'un journal de l'écriture différée écrite en base, dans la transaction du lot (TraceBatchWriter)
+@Entity
+@NoArgsConstructor
+@Getter
+@Setter
+public class TraceJournalCheckpoint {
+    @Id
+    @Column(length = 36)
+    private String journalId;
+    private long lastSequence;
+}
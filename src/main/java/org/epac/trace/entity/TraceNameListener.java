@@ -0,0 +1,19 @@
+package org.epac.trace.entity;
+
+import jakarta.persistence.PrePersist;
+import org.epac.trace.repository.NameDictionary;
+
+// Ajoute aux tables de dimension les noms d'une trace avant son insertion
+public class TraceNameListener {
+    private final NameDictionary names;
+
+    public TraceNameListener(NameDictionary names) {
+        this.names = names;
+    }
+
+    @PrePersist
+    public void register(Trace trace) {
+        names.registerEmployee(trace.getEmployerName());
+        names.registerMachine(trace.getMachineName());
+    }
+}
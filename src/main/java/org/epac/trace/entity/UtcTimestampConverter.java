@@ -0,0 +1,33 @@
+package org.epac.trace.entity;
+
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+// Instant <-> DATETIME(6) en heure UTC : la colonne ne dépend ni du fuseau de l'usine ni de celui du serveur,
+// deux traces gardent l'ordre de leurs instants même pendant l'heure répétée du passage à l'heure d'hiver.
+// La valeur est transmise telle quelle au pilote JDBC (hibernate.type.java_time_use_direct_jdbc).
+@Converter
+public class UtcTimestampConverter implements AttributeConverter<Instant, LocalDateTime> {
+
+    @Override
+    public LocalDateTime convertToDatabaseColumn(Instant instant) {
+        return toColumn(instant);
+    }
+
+    @Override
+    public Instant convertToEntityAttribute(LocalDateTime column) {
+        return toInstant(column);
+    }
+
+    public static LocalDateTime toColumn(Instant instant) {
+        return instant == null ? null : LocalDateTime.ofInstant(instant, ZoneOffset.UTC);
+    }
+
+    public static Instant toInstant(LocalDateTime column) {
+        return column == null ? null : column.toInstant(ZoneOffset.UTC);
+    }
+}
@@ -0,0 +1,9 @@
+package org.epac.trace.exception;
+
+// Paramètres d'un résumé refusés (période, page, dimension) : réponse 400 avec le message
+public class InvalidSummaryRequestException extends RuntimeException {
+
+    public InvalidSummaryRequestException(String message) {
+        super(message);
+    }
+}
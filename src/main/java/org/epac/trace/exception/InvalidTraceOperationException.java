@@ -1,7 +1,24 @@
 package org.epac.trace.exception;
 
+import lombok.Getter;
+
+@Getter
 public class InvalidTraceOperationException extends Exception {
-    public InvalidTraceOperationException(String message) {
+    // Motif du refus, compté par trace.ingest.rejections
+    public enum Reason {
+        MACHINE_IN_USE,
+        OTHER_MACHINE_NOT_STOPPED,
+        START_EXPECTED,
+        OUT_OF_ORDER,
+        FUTURE_TIMESTAMP,
+        MONTH_CLOSED,
+        INCOMPLETE
+    }
+
+    private final Reason reason;
+
+    public InvalidTraceOperationException(Reason reason, String message) {
         super(message);
+        this.reason = reason;
     }
 }
@@ -0,0 +1,10 @@
+package org.epac.trace.exception;
+
+// Trace acquittée dans le journal de l'écriture différée mais pas encore écrite en base dans le délai
+// trace.ingest.commit-timeout : le résumé complet n'est pas disponible, réponse 503
+public class TraceNotCommittedException extends RuntimeException {
+
+    public TraceNotCommittedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
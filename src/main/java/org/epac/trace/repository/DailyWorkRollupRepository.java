@@ -0,0 +1,43 @@
+package org.epac.trace.repository;
+
+import jakarta.persistence.QueryHint;
+import org.epac.trace.entity.DailyWorkRollup;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+public interface DailyWorkRollupRepository extends JpaRepository<DailyWorkRollup, Long> {
+    String DAY_TOTALS = "new org.epac.trace.entity.DailyWorkRollup(r.workDate, r.employerName, r.machineName, r.workNanos, r.pauseNanos, r.version)";
+
+    Optional<DailyWorkRollup> findByWorkDateAndEmployerNameAndMachineName(LocalDate workDate, String employerName, String machineName);
+
+    List<DailyWorkRollup> findByWorkDate(LocalDate workDate);
+    List<DailyWorkRollup> findByWorkDateBetween(LocalDate start, LocalDate end);
+    List<DailyWorkRollup> findByEmployerNameAndWorkDate(String employerName, LocalDate workDate);
+    List<DailyWorkRollup> findByMachineNameAndWorkDate(String machineName, LocalDate workDate);
+
+    List<DailyWorkRollup> findByEmployerNameOrderByWorkDate(String employerName);
+    List<DailyWorkRollup> findByMachineNameOrderByWorkDate(String machineName);
+    List<DailyWorkRollup> findByEmployerNameAndMachineNameOrderByWorkDate(String employerName, String machineName);
+    List<DailyWorkRollup> findAllByOrderByMachineNameAscWorkDateAsc();
+
+    List<DailyWorkRollup> findByEmployerNameAndWorkDateBetweenOrderByWorkDate(String employerName, LocalDate start, LocalDate end);
+    List<DailyWorkRollup> findByMachineNameAndWorkDateBetweenOrderByWorkDate(String machineName, LocalDate start, LocalDate end);
+    List<DailyWorkRollup> findByEmployerNameAndMachineNameAndWorkDateBetweenOrderByWorkDate(String employerName, String machineName, LocalDate start, LocalDate end);
+
+    List<DailyWorkRollup> findByEmployerNameInAndWorkDateBetweenOrderByWorkDate(Collection<String> employerNames, LocalDate start, LocalDate end);
+    List<DailyWorkRollup> findByMachineNameInAndWorkDateBetweenOrderByWorkDate(Collection<String> machineNames, LocalDate start, LocalDate end);
+    List<DailyWorkRollup> findByEmployerNameInAndMachineNameInAndWorkDateBetweenOrderByWorkDate(Collection<String> employerNames, Collection<String> machineNames, LocalDate start, LocalDate end);
+
+    // Chargement de l'index des totaux journaliers : tous les agrégats en flux, hors contexte de persistance
+    @Query("SELECT " + DAY_TOTALS + " FROM DailyWorkRollup r")
+    @QueryHints({@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = TraceRepository.STREAM_FETCH_SIZE), @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")})
+    Stream<DailyWorkRollup> streamAllDayTotals();
+}
@@ -0,0 +1,199 @@
+package org.epac.trace.repository;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.epac.trace.config.ReplicaRoutingDataSource;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.sql.PreparedStatement;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Dictionnaire des noms d'employés et de machines : identifiants entiers des tables employee et machine, gardés en
+// mémoire avec une seule instance de chaque nom. Un identifiant ne change jamais, le cache n'est complété qu'à la
+// rencontre d'un nom ou d'un identifiant inconnu (ajouté entre-temps par une autre instance).
+// Les lectures et les ajouts passent par la connexion de la transaction appelante (JdbcTemplate) : un nom ajouté avec
+// une trace annulée disparaît avec elle. Un nom ajouté n'entre donc dans le cache qu'au commit ; d'ici là la transaction
+// le retrouve dans ses propres ajouts.
+// Le dictionnaire reste sur la base principale : hors transaction en écriture (lecture du réplica, ou pas de
+// transaction), il passe par le pool de la base principale plutôt que par la connexion routée.
+// Un nom absent des tables (paramètre d'une requête) est retenu comme tel quelques secondes, sans relire la table à chaque requête.
+@Repository
+public class NameDictionary {
+    // Identifiant d'un nom absent des tables : ne correspond à aucune trace
+    public static final int UNKNOWN = 0;
+    private static final Duration MISS_TTL = Duration.ofSeconds(5);
+    private static final long MAX_MISSES = 10_000;
+
+    private final JdbcTemplate jdbcTemplate;
+    // Base principale hors transaction en écriture ; jdbcTemplate sans réplica configuré
+    private final JdbcTemplate primary;
+    private final Names employees = new Names("employee");
+    private final Names machines = new Names("machine");
+
+    public NameDictionary(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+        ReplicaRoutingDataSource routing = ReplicaRoutingDataSource.unwrap(jdbcTemplate.getDataSource());
+        this.primary = routing != null ? new JdbcTemplate(routing.getPrimary()) : jdbcTemplate;
+    }
+
+    public int employeeId(String name) {
+        return employees.id(name, false);
+    }
+
+    public int machineId(String name) {
+        return machines.id(name, false);
+    }
+
+    // Identifiant du nom, ajouté à la table s'il est nouveau
+    public int registerEmployee(String name) {
+        return employees.id(name, true);
+    }
+
+    public int registerMachine(String name) {
+        return machines.id(name, true);
+    }
+
+    public String employeeName(int id) {
+        return employees.name(id);
+    }
+
+    public String machineName(int id) {
+        return machines.name(id);
+    }
+
+    // Connexion de la transaction appelante si elle écrit (donc sur la base principale), sinon la base principale
+    private JdbcTemplate jdbc() {
+        return TransactionSynchronizationManager.isActualTransactionActive()
+                && !TransactionSynchronizationManager.isCurrentTransactionReadOnly() ? jdbcTemplate : primary;
+    }
+
+    private final class Names {
+        private final String table;
+        private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+        private final Map<Integer, String> names = new ConcurrentHashMap<>();
+        private final Cache<String, Boolean> misses = Caffeine.newBuilder()
+                .expireAfterWrite(MISS_TTL)
+                .maximumSize(MAX_MISSES)
+                .build();
+
+        private Names(String table) {
+            this.table = table;
+        }
+
+        // Pas de verrou ici : deux ajouts du même nom sont départagés par la contrainte d'unicité (et, dans une même
+        // instance, déjà sérialisés par les verrous de l'employé et de la machine jusqu'au commit)
+        private int id(String name, boolean register) {
+            Integer id = ids.get(name);
+            if (id != null)
+                return id;
+            Map<String, Integer> added = added(false);
+            if (added != null && (id = added.get(name)) != null)
+                return id;
+            if (!register && misses.getIfPresent(name) != null)
+                return UNKNOWN;
+            id = selectId(name, false);
+            if (id != null) {
+                put(id, name);
+                return id;
+            }
+            if (!register) {
+                misses.put(name, Boolean.TRUE);
+                return UNKNOWN;
+            }
+            return insert(name);
+        }
+
+        private String name(int id) {
+            String name = names.get(id);
+            if (name != null)
+                return name;
+            Map<String, Integer> added = added(false);
+            if (added != null) {
+                for (Map.Entry<String, Integer> entry : added.entrySet()) {
+                    if (entry.getValue() == id)
+                        return entry.getKey();
+                }
+            }
+            name = jdbc().query("SELECT name FROM " + table + " WHERE id = ?",
+                    resultSet -> resultSet.next() ? resultSet.getString(1) : null, id);
+            if (name == null)
+                throw new IllegalStateException("Identifiant absent de la table " + table + " : " + id);
+            put(id, name);
+            return names.get(id);
+        }
+
+        private void put(int id, String name) {
+            String shared = names.putIfAbsent(id, name);
+            ids.putIfAbsent(shared != null ? shared : name, id);
+            misses.invalidate(name);
+        }
+
+        // locked : lecture de la dernière version validée (après un conflit d'unicité, la ligne de l'autre transaction)
+        private Integer selectId(String name, boolean locked) {
+            return jdbc().query("SELECT id FROM " + table + " WHERE name = ?" + (locked ? " FOR UPDATE" : ""),
+                    resultSet -> resultSet.next() ? resultSet.getInt(1) : null, name);
+        }
+
+        // Une autre instance peut ajouter le même nom en même temps : la contrainte d'unicité tranche
+        private int insert(String name) {
+            JdbcTemplate jdbc = jdbc();
+            KeyHolder keys = new GeneratedKeyHolder();
+            try {
+                jdbc.update(connection -> {
+                    PreparedStatement statement = connection.prepareStatement("INSERT INTO " + table + " (name) VALUES (?)", new String[]{"id"});
+                    statement.setString(1, name);
+                    return statement;
+                }, keys);
+            } catch (DuplicateKeyException e) {
+                Integer id = selectId(name, true);
+                if (id == null)
+                    throw e;
+                put(id, name);
+                return id;
+            }
+            int id = keys.getKey().intValue();
+            // Hors de la transaction appelante, l'ajout est déjà validé
+            Map<String, Integer> added = jdbc == jdbcTemplate ? added(true) : null;
+            if (added == null) {
+                put(id, name);
+            } else {
+                added.put(name, id);
+            }
+            return id;
+        }
+
+        // Noms ajoutés par la transaction en cours, mis en cache à son commit ; null hors transaction
+        private Map<String, Integer> added(boolean create) {
+            if (!TransactionSynchronizationManager.isSynchronizationActive())
+                return null;
+            @SuppressWarnings("unchecked")
+            Map<String, Integer> added = (Map<String, Integer>) TransactionSynchronizationManager.getResource(this);
+            if (added == null && create) {
+                Map<String, Integer> bound = new HashMap<>();
+                TransactionSynchronizationManager.bindResource(this, bound);
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                    @Override
+                    public void afterCommit() {
+                        bound.forEach((name, id) -> put(id, name));
+                    }
+
+                    @Override
+                    public void afterCompletion(int status) {
+                        TransactionSynchronizationManager.unbindResource(Names.this);
+                    }
+                });
+                added = bound;
+            }
+            return added;
+        }
+    }
+}
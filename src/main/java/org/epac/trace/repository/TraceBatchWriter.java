@@ -0,0 +1,51 @@
+package org.epac.trace.repository;
+
+import lombok.AllArgsConstructor;
+import org.epac.trace.entity.Trace;
+import org.epac.trace.entity.UtcTimestampConverter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+// Insertion JDBC par lots pour les envois groupés (sans passer par le contexte de persistance).
+// Les noms sont enregistrés dans le dictionnaire avant le lot, qui n'écrit que leurs identifiants.
+// Horodatages en heure UTC, comme les insertions JPA (UtcTimestampConverter).
+// Le checkpoint du journal de l'écriture différée est écrit dans la même transaction que le lot.
+@Repository
+@AllArgsConstructor
+public class TraceBatchWriter {
+    private static final String INSERT_SQL = "INSERT INTO trace (timestamp, employer_id, machine_id, operation) VALUES (?, ?, ?, ?)";
+
+    private static final String CHECKPOINT_SQL = "UPDATE trace_journal_checkpoint SET last_sequence = ? WHERE journal_id = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NameDictionary names;
+
+    public void insertAll(List<Trace> traces, int batchSize) {
+        List<Row> rows = traces.stream()
+                .map(trace -> new Row(trace, names.registerEmployee(trace.getEmployerName()), names.registerMachine(trace.getMachineName())))
+                .toList();
+        jdbcTemplate.batchUpdate(INSERT_SQL, rows, batchSize, (statement, row) -> {
+            statement.setObject(1, UtcTimestampConverter.toColumn(row.trace().getTimestamp()));
+            statement.setInt(2, row.employerId());
+            statement.setInt(3, row.machineId());
+            statement.setString(4, row.trace().getOperation().name());
+        });
+    }
+
+    // Dernière séquence du journal écrite en base ; 0 si aucune
+    public long journalCheckpoint(String journalId) {
+        Long sequence = jdbcTemplate.query("SELECT last_sequence FROM trace_journal_checkpoint WHERE journal_id = ?",
+                resultSet -> resultSet.next() ? resultSet.getLong(1) : null, journalId);
+        return sequence != null ? sequence : 0;
+    }
+
+    public void saveJournalCheckpoint(String journalId, long sequence) {
+        if (jdbcTemplate.update(CHECKPOINT_SQL, sequence, journalId) == 0) {
+            jdbcTemplate.update("INSERT INTO trace_journal_checkpoint (journal_id, last_sequence) VALUES (?, ?)", journalId, sequence);
+        }
+    }
+
+    private record Row(Trace trace, int employerId, int machineId) { }
+}
@@ -0,0 +1,360 @@
+package org.epac.trace.repository;
+
+import org.epac.trace.entity.Operation;
+import org.epac.trace.entity.Trace;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToLongFunction;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+// Journal local des traces acceptées et pas encore écrites en base (écriture différée).
+// Fichiers journal-<première séquence>.wal, chaque enregistrement : longueur, CRC32, puis séquence, timestamp
+// (secondes et nanosecondes depuis l'epoch), opération, employé et machine. Un fichier est fermé (après fsync) au-delà de segmentBytes et supprimé quand toutes
+// ses traces sont en base (checkpoint).
+// Le journal a un identifiant (fichier journal.id) sous lequel la base garde la dernière séquence écrite, dans la
+// transaction de chaque lot : à l'ouverture, seules les traces au-delà sont rendues, et la numérotation reprend
+// après elle même si tous les fichiers ont été supprimés.
+// Les écritures sont séparées de la synchronisation sur disque : chaque appelant attend que sa séquence soit
+// synchronisée, un seul fsync couvre toutes les traces écrites entre-temps (commit groupé). Le fsync est fait hors du
+// verrou du journal, les écritures continuent pendant ce temps. Verrous ReentrantLock, pas de synchronized : un thread
+// virtuel qui attend le disque dans un moniteur épinglerait son porteur.
+// Les traces refusées par la base (erreur permanente) sont copiées dans journal.dead-letters, au même format, avant que le
+// checkpoint ne passe au-delà ; ce fichier n'est jamais relu à l'ouverture.
+// Un fsync refusé laisse le journal en échec : le contenu sur disque n'est plus connu, toute écriture et toute
+// synchronisation suivantes sont refusées jusqu'à la réouverture (les traces sur disque sont alors relues).
+// À l'ouverture, les enregistrements des fichiers existants sont relus ; une fin d'enregistrement tronquée ou corrompue
+// (arrêt brutal pendant une écriture) est coupée. L'écriture reprend dans un nouveau fichier, supprimé à la fermeture
+// si tout le journal est en base.
+// Le répertoire est synchronisé après chaque création et suppression de fichier : sans cela, un fichier créé puis
+// synchronisé peut disparaître à un arrêt brutal, ou un fichier supprimé réapparaître.
+public final class TraceJournal implements Closeable {
+    private static final String PREFIX = "journal-";
+    private static final String SUFFIX = ".wal";
+    private static final String ID_FILE = "journal.id";
+    private static final String DEAD_LETTER_FILE = "journal.dead-letters";
+    private static final int HEADER_BYTES = 8;
+    private static final int MAX_RECORD_BYTES = 1 << 20;
+    private static final Operation[] OPERATIONS = Operation.values();
+
+    private final Path directory;
+    private final long segmentBytes;
+    private final String id;
+    private final List<Entry> recovered = new ArrayList<>();
+    // Fichiers fermés et dernière séquence de chacun, du plus ancien au plus récent
+    private final Deque<Closed> closed = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    // Signalée à la fin de chaque fsync, pour les appelants qui attendaient celui en cours
+    private final Condition syncDone = lock.newCondition();
+    // Sous le verrou : fsync en cours, et dernière séquence sur disque
+    private boolean syncing;
+    private long synced;
+    private IOException failure;
+    private FileChannel channel;
+    private Path activePath;
+    private long lastSequence;
+    private long checkpointed;
+
+    public record Entry(long sequence, Trace trace) { }
+
+    private record Closed(Path path, long lastSequence) { }
+
+    private TraceJournal(Path directory, long segmentBytes, String id) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.id = id;
+    }
+
+    // stored : dernière séquence en base du journal d'identifiant donné (0 si aucune)
+    public static TraceJournal open(Path directory, long segmentBytes, ToLongFunction<String> stored) throws IOException {
+        Files.createDirectories(directory);
+        TraceJournal journal = new TraceJournal(directory, segmentBytes, id(directory));
+        for (Path path : files(directory)) {
+            long last = journal.recover(path);
+            if (last == 0) {
+                Files.delete(path);
+            } else {
+                journal.closed.addLast(new Closed(path, last));
+            }
+        }
+        long checkpoint = stored.applyAsLong(journal.id);
+        journal.recovered.removeIf(entry -> entry.sequence() <= checkpoint);
+        journal.lastSequence = Math.max(journal.lastSequence, checkpoint);
+        journal.synced = journal.lastSequence;
+        journal.checkpoint(checkpoint);
+        journal.channel = journal.create(journal.lastSequence + 1);
+        return journal;
+    }
+
+    public static boolean exists(Path directory) throws IOException {
+        return Files.isDirectory(directory) && !files(directory).isEmpty();
+    }
+
+    public String id() {
+        return id;
+    }
+
+    // Traces relues à l'ouverture et pas encore en base, dans l'ordre des séquences
+    public List<Entry> recovered() {
+        return recovered;
+    }
+
+    // Écrit les traces sans attendre le disque ; retourne la séquence de la dernière
+    public long append(List<Trace> traces) throws IOException {
+        lock.lock();
+        try {
+            checkFailure();
+            for (Trace trace : traces) {
+                ByteBuffer record = encode(++lastSequence, trace);
+                while (record.hasRemaining()) {
+                    channel.write(record);
+                }
+            }
+            if (channel.position() >= segmentBytes) {
+                try {
+                    roll();
+                } catch (IOException e) {
+                    failure = e;
+                    throw e;
+                }
+            }
+            return lastSequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Attend que la séquence soit sur disque : un seul appelant synchronise pour tous ceux qui attendent
+    public void sync(long sequence) throws IOException {
+        lock.lock();
+        try {
+            while (synced < sequence) {
+                checkFailure();
+                if (syncing) {
+                    syncDone.awaitUninterruptibly();
+                    continue;
+                }
+                syncing = true;
+                FileChannel current = channel;
+                long target = lastSequence;
+                IOException error = null;
+                lock.unlock();
+                try {
+                    current.force(false);
+                } catch (ClosedChannelException e) {
+                    // Fichier fermé entre-temps, donc déjà synchronisé par roll() ou close()
+                } catch (IOException e) {
+                    error = e;
+                } finally {
+                    lock.lock();
+                    syncing = false;
+                    syncDone.signalAll();
+                }
+                if (error != null) {
+                    failure = error;
+                    throw error;
+                }
+                synced = Math.max(synced, target);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Les traces jusqu'à sequence sont en base : les fichiers qu'elles remplissent ne servent plus
+    public void checkpoint(long sequence) throws IOException {
+        lock.lock();
+        try {
+            checkpointed = Math.max(checkpointed, sequence);
+            boolean deleted = false;
+            while (!closed.isEmpty() && closed.peekFirst().lastSequence() <= sequence) {
+                deleted |= Files.deleteIfExists(closed.removeFirst().path());
+            }
+            if (deleted) {
+                syncDirectory();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Trace mise à l'écart, sur disque au retour
+    public void deadLetter(Entry entry) throws IOException {
+        Path path = directory.resolve(DEAD_LETTER_FILE);
+        lock.lock();
+        try {
+            boolean created = !Files.exists(path);
+            try (FileChannel file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                ByteBuffer record = encode(entry.sequence(), entry.trace());
+                while (record.hasRemaining()) {
+                    file.write(record);
+                }
+                file.force(false);
+            }
+            if (created) {
+                syncDirectory();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Un journal entièrement écrit en base n'est pas gardé
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            channel.force(false);
+            channel.close();
+            synced = Math.max(synced, lastSequence);
+            if (checkpointed >= lastSequence && Files.deleteIfExists(activePath)) {
+                syncDirectory();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null)
+            throw new IOException("Journal des traces en échec après un fsync refusé", failure);
+    }
+
+    // Sous le verrou
+    private void roll() throws IOException {
+        channel.force(false);
+        channel.close();
+        synced = Math.max(synced, lastSequence);
+        closed.addLast(new Closed(activePath, lastSequence));
+        channel = create(lastSequence + 1);
+    }
+
+    // Le fichier est dans le répertoire sur disque avant la première trace acquittée (à l'ouverture, avec l'identifiant
+    // et les suppressions qui précèdent)
+    private FileChannel create(long firstSequence) throws IOException {
+        activePath = directory.resolve(String.format("%s%020d%s", PREFIX, firstSequence, SUFFIX));
+        FileChannel created = FileChannel.open(activePath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            syncDirectory();
+        } catch (IOException e) {
+            created.close();
+            throw e;
+        }
+        return created;
+    }
+
+    private void syncDirectory() throws IOException {
+        try (FileChannel entries = FileChannel.open(directory, StandardOpenOption.READ)) {
+            entries.force(true);
+        }
+    }
+
+    // Relit un fichier et coupe ce qui suit le dernier enregistrement complet ; retourne sa dernière séquence (0 si vide)
+    private long recover(Path path) throws IOException {
+        long last = 0;
+        long valid = 0;
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            while (true) {
+                int length;
+                try {
+                    length = input.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (length <= 0 || length > MAX_RECORD_BYTES)
+                    break;
+                int crc = input.readInt();
+                byte[] payload = new byte[length];
+                if (input.readNBytes(payload, 0, length) < length || checksum(payload) != crc)
+                    break;
+                Entry entry = decode(payload);
+                recovered.add(entry);
+                last = entry.sequence();
+                lastSequence = Math.max(lastSequence, last);
+                valid += HEADER_BYTES + length;
+            }
+        } catch (EOFException e) {
+            // enregistrement tronqué : coupé ci-dessous
+        }
+        if (valid < Files.size(path)) {
+            try (FileChannel truncated = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                truncated.truncate(valid);
+                truncated.force(false);
+            }
+        }
+        return last;
+    }
+
+    // Identifiant du journal, créé à la première ouverture du répertoire
+    private static String id(Path directory) throws IOException {
+        Path path = directory.resolve(ID_FILE);
+        if (Files.exists(path))
+            return Files.readString(path).strip();
+        String id = UUID.randomUUID().toString();
+        Path temporary = directory.resolve(ID_FILE + ".tmp");
+        try (FileChannel file = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            file.write(ByteBuffer.wrap(id.getBytes(StandardCharsets.US_ASCII)));
+            file.force(false);
+        }
+        Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE);
+        return id;
+    }
+
+    private static List<Path> files(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.list(directory)) {
+            return paths.filter(path -> path.getFileName().toString().startsWith(PREFIX) && path.getFileName().toString().endsWith(SUFFIX))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private static ByteBuffer encode(long sequence, Trace trace) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeInt(0);
+        output.writeInt(0);
+        output.writeLong(sequence);
+        output.writeLong(trace.getTimestamp().getEpochSecond());
+        output.writeLong(trace.getTimestamp().getNano());
+        output.writeByte(trace.getOperation().ordinal());
+        output.writeUTF(trace.getEmployerName());
+        output.writeUTF(trace.getMachineName());
+        ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+        int length = record.limit() - HEADER_BYTES;
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), HEADER_BYTES, length);
+        record.putInt(0, length);
+        record.putInt(4, (int) crc.getValue());
+        return record;
+    }
+
+    private static Entry decode(byte[] payload) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(payload));
+        long sequence = input.readLong();
+        Instant timestamp = Instant.ofEpochSecond(input.readLong(), input.readLong());
+        Operation operation = OPERATIONS[input.readByte()];
+        return new Entry(sequence, new Trace(timestamp, input.readUTF(), input.readUTF(), operation));
+    }
+
+    private static int checksum(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+}
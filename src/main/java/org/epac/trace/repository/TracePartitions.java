@@ -0,0 +1,91 @@
+package org.epac.trace.repository;
+
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.stream.Collectors;
+
+// Partitions mensuelles de la table trace (MySQL, RANGE COLUMNS sur timestamp, voir db/mysql/003-trace-monthly-partitions.sql).
+// Une partition par mois de production, nommée pAAAAMM et bornée par le début du mois suivant, puis pmax (MAXVALUE)
+// qui reste vide tant que les mois à venir sont créés d'avance : les requêtes bornées sur timestamp ne lisent que les
+// partitions de leur fenêtre. Les bornes sont des heures UTC, comme la colonne timestamp.
+// Sur une table non partitionnée (H2, schéma non migré), list() est vide et rien n'est modifié.
+@Repository
+public class TracePartitions {
+    public static final String OVERFLOW = "pmax";
+    private static final DateTimeFormatter NAME = DateTimeFormatter.ofPattern("'p'yyyyMM");
+    private static final DateTimeFormatter BOUND = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneOffset.UTC);
+
+    private final JdbcTemplate jdbcTemplate;
+    private volatile Boolean mysql;
+
+    public TracePartitions(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    // end : premier timestamp exclu de la partition, null pour pmax
+    public record Partition(String name, Instant end) { }
+
+    public static String name(YearMonth month) {
+        return NAME.format(month);
+    }
+
+    // Partitions dans l'ordre des bornes
+    public List<Partition> list() {
+        if (!isMySql())
+            return List.of();
+        return jdbcTemplate.query("SELECT partition_name, partition_description FROM information_schema.partitions "
+                        + "WHERE table_schema = DATABASE() AND table_name = 'trace' AND partition_name IS NOT NULL ORDER BY partition_ordinal_position",
+                (rs, rowNum) -> new Partition(rs.getString(1), bound(rs.getString(2))));
+    }
+
+    // Ajoute des partitions après la dernière : découpage de pmax s'il existe (vide, donc sans copie de lignes)
+    public void addMonths(List<Partition> months) {
+        String partitions = months.stream()
+                .map(partition -> "PARTITION " + partition.name() + " VALUES LESS THAN ('" + BOUND.format(partition.end()) + "')")
+                .collect(Collectors.joining(", "));
+        List<Partition> existing = list();
+        if (!existing.isEmpty() && existing.get(existing.size() - 1).end() == null) {
+            jdbcTemplate.execute("ALTER TABLE trace REORGANIZE PARTITION " + OVERFLOW + " INTO ("
+                    + partitions + ", PARTITION " + OVERFLOW + " VALUES LESS THAN (MAXVALUE))");
+        } else {
+            jdbcTemplate.execute("ALTER TABLE trace ADD PARTITION (" + partitions + ")");
+        }
+    }
+
+    // Supprime les partitions entièrement antérieures à end, sans lire ni journaliser leurs lignes.
+    // Retourne le nombre de partitions supprimées.
+    public int dropEndingBefore(Instant end) {
+        List<Partition> existing = list();
+        List<String> dropped = existing.stream()
+                .filter(partition -> partition.end() != null && !partition.end().isAfter(end))
+                .map(Partition::name)
+                .toList();
+        // MySQL refuse de supprimer la dernière partition d'une table
+        if (dropped.isEmpty() || dropped.size() == existing.size())
+            return 0;
+        jdbcTemplate.execute("ALTER TABLE trace DROP PARTITION " + String.join(", ", dropped));
+        return dropped.size();
+    }
+
+    private boolean isMySql() {
+        if (mysql == null) {
+            mysql = jdbcTemplate.execute((ConnectionCallback<Boolean>) connection -> connection.getMetaData().getDatabaseProductName().equals("MySQL"));
+        }
+        return mysql;
+    }
+
+    // partition_description : '2024-08-01 00:00:00' (avec les guillemets) ou MAXVALUE
+    private static Instant bound(String description) {
+        if (description == null || description.equals("MAXVALUE"))
+            return null;
+        return LocalDateTime.parse(description.replace("'", "").replace(' ', 'T')).toInstant(ZoneOffset.UTC);
+    }
+}
@@ -1,39 +1,99 @@
 package org.epac.trace.repository;
 
+import jakarta.persistence.QueryHint;
 import org.epac.trace.entity.Trace;
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 
-import java.time.LocalDateTime;
+import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
-public interface TraceRepository extends JpaRepository<Trace, LocalDateTime> {
-    List<Trace> findByEmployerNameAndTimestampBetweenOrderByTimestampAsc(String employerName, LocalDateTime start, LocalDateTime end);
-    List<Trace> findByEmployerNameAndTimestampBetweenOrderByMachineNameAscTimestampAsc(String employerName, LocalDateTime start, LocalDateTime end);
-    Optional<Trace> findTopByEmployerNameAndTimestampBetweenOrderByTimestampDesc(String employerName, LocalDateTime start, LocalDateTime end);
-    Optional<Trace> findTopByEmployerNameAndMachineNameAndTimestampBetweenOrderByTimestampDesc(String employerName,String machineName, LocalDateTime start, LocalDateTime end);
+public interface TraceRepository extends JpaRepository<Trace, Long> {
+    String PROJECTION = "new org.epac.trace.entity.Trace(t.timestamp, t.employerName, t.machineName, t.operation)";
+    String STREAM_FETCH_SIZE = "1000";
+
+    List<Trace> findByEmployerNameAndTimestampBetweenOrderByTimestampAsc(String employerName, Instant start, Instant end);
+    List<Trace> findByEmployerNameAndTimestampBetweenOrderByMachineNameAscTimestampAsc(String employerName, Instant start, Instant end);
+    Optional<Trace> findTopByEmployerNameAndTimestampBetweenOrderByTimestampDesc(String employerName, Instant start, Instant end);
+    List<Trace> findByEmployerNameAndMachineNameAndTimestampBetweenOrderByTimestampAsc(String employerName, String machineName, Instant start, Instant end);
+    Optional<Trace> findTopByEmployerNameAndMachineNameAndTimestampBetweenOrderByTimestampDesc(String employerName,String machineName, Instant start, Instant end);
 
     Optional<Trace> findTopByEmployerNameOrderByTimestampDesc(String employerName);
 
 
-    List<Trace> findByTimestampBetween(LocalDateTime localDateTime, LocalDateTime localDateTime1);
+    List<Trace> findByTimestampBetween(Instant localDateTime, Instant localDateTime1);
+    List<Trace> findByTimestampBetweenOrderByTimestampAsc(Instant start, Instant end);
+    // Dernière trace de chaque couple employé/machine sur l'intervalle, en une seule requête
+    // Pas de MAX() : Hibernate le refuse sur un attribut converti (UtcTimestampConverter)
+    @Query("SELECT t FROM Trace t WHERE t.timestamp BETWEEN ?1 AND ?2 AND NOT EXISTS " +
+            "(SELECT 1 FROM Trace t2 WHERE t2.employerName = t.employerName AND t2.machineName = t.machineName AND t2.timestamp > t.timestamp AND t2.timestamp <= ?2)")
+    List<Trace> findLastTracesByEmployerNameAndMachineNameBetween(Instant start, Instant end);
+    @Query("SELECT t FROM Trace t WHERE NOT EXISTS " +
+            "(SELECT 1 FROM Trace t2 WHERE t2.employerName = t.employerName AND t2.machineName = t.machineName AND t2.timestamp > t.timestamp)")
+    List<Trace> findLastTracesByEmployerNameAndMachineName();
 
     Optional<Trace> findTopByMachineNameOrderByTimestampDesc(String machineName);
 
-    List<Trace> findAllByOrderByTimestamp();
+    // Parcours de tout l'historique en flux (curseur côté serveur), à consommer dans une transaction et à fermer.
+    // Les traces sont construites par projection : elles ne sont pas attachées au contexte de persistance,
+    // la mémoire ne dépend donc pas du nombre de lignes parcourues.
+    // from : horizon de l'archive, les traces plus anciennes sont lues dans les segments
+    @Query("SELECT " + PROJECTION + " FROM Trace t WHERE t.timestamp >= ?1 ORDER BY t.timestamp")
+    @QueryHints({@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = STREAM_FETCH_SIZE), @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")})
+    Stream<Trace> findAllByTimestampGreaterThanEqualOrderByTimestamp(Instant from);
     List<Trace> findAllByEmployerNameOrderByTimestampDesc(String employerName);
-    List<Trace> findAllByMachineNameAndEmployerNameOrderByTimestamp(String machineName, String employerName);
-    @Query("SELECT DISTINCT t.employerName FROM Trace t order by t.employerName asc")
+    @Query("SELECT " + PROJECTION + " FROM Trace t WHERE t.employerName = ?1 AND t.timestamp >= ?2 ORDER BY t.timestamp")
+    @QueryHints({@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = STREAM_FETCH_SIZE), @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")})
+    Stream<Trace> findAllByEmployerNameAndTimestampGreaterThanEqualOrderByTimestamp(String employerName, Instant from);
+    @Query("SELECT " + PROJECTION + " FROM Trace t WHERE t.timestamp >= ?1 ORDER BY t.machineName, t.timestamp")
+    @QueryHints({@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = STREAM_FETCH_SIZE), @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")})
+    Stream<Trace> findAllByTimestampGreaterThanEqualOrderByMachineNameAscTimestampAsc(Instant from);
+    @Query("SELECT " + PROJECTION + " FROM Trace t WHERE t.machineName = ?1 AND t.employerName = ?2 AND t.timestamp >= ?3 ORDER BY t.timestamp")
+    @QueryHints({@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = STREAM_FETCH_SIZE), @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")})
+    Stream<Trace> findAllByMachineNameAndEmployerNameAndTimestampGreaterThanEqualOrderByTimestamp(String machineName, String employerName, Instant from);
+    // Fenêtre bornée d'une page de clés, en flux et triée par timestamp (les traces de chaque clé restent dans l'ordre)
+    @Query("SELECT " + PROJECTION + " FROM Trace t WHERE t.employerName IN ?1 AND t.timestamp BETWEEN ?2 AND ?3 ORDER BY t.timestamp")
+    @QueryHints({@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = STREAM_FETCH_SIZE), @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")})
+    Stream<Trace> findAllByEmployerNameInAndTimestampBetweenOrderByTimestamp(Collection<String> employerNames, Instant start, Instant end);
+    @Query("SELECT " + PROJECTION + " FROM Trace t WHERE t.machineName IN ?1 AND t.timestamp BETWEEN ?2 AND ?3 ORDER BY t.timestamp")
+    @QueryHints({@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = STREAM_FETCH_SIZE), @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")})
+    Stream<Trace> findAllByMachineNameInAndTimestampBetweenOrderByTimestamp(Collection<String> machineNames, Instant start, Instant end);
+    @Query("SELECT " + PROJECTION + " FROM Trace t WHERE t.employerName IN ?1 AND t.machineName IN ?2 AND t.timestamp BETWEEN ?3 AND ?4 ORDER BY t.timestamp")
+    @QueryHints({@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = STREAM_FETCH_SIZE), @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")})
+    Stream<Trace> findAllByEmployerNameInAndMachineNameInAndTimestampBetweenOrderByTimestamp(Collection<String> employerNames, Collection<String> machineNames, Instant start, Instant end);
+    // Noms des tables de dimension qui ont au moins une trace dans la table : une semi-jointure par nom sur les index
+    // (employer_id, timestamp) et (machine_id, timestamp), sans parcourir les traces
+    @Query(value = "SELECT e.name FROM employee e WHERE EXISTS (SELECT 1 FROM trace t WHERE t.employer_id = e.id) ORDER BY e.name", nativeQuery = true)
     List<String> findDistinctEmployerName();
-    @Query("SELECT DISTINCT t.machineName FROM Trace t")
+    @Query(value = "SELECT m.name FROM machine m WHERE EXISTS (SELECT 1 FROM trace t WHERE t.machine_id = m.id) ORDER BY m.name", nativeQuery = true)
     List<String> findDistinctMachineNames();
+    // Couples employé/machine (employé, machine), dans l'ordre des identifiants
+    @Query("SELECT DISTINCT t.employerName, t.machineName FROM Trace t")
+    List<Object[]> findDistinctEmployerNameAndMachineName();
     @Query("SELECT DISTINCT t.machineName FROM Trace t where t.employerName = ?1")
     List<String> findDistinctMachineNameByEmployerName(String employerName);
 
-    List<Trace> findByMachineNameAndTimestampBetweenOrderByTimestampAsc(String machineName, LocalDateTime start, LocalDateTime end);
+    List<Trace> findByMachineNameAndTimestampBetweenOrderByTimestampAsc(String machineName, Instant start, Instant end);
 
-    Optional<Trace> findTopByMachineNameAndTimestampBetweenOrderByTimestampDesc(String machineName, LocalDateTime start, LocalDateTime end);
+    Optional<Trace> findTopByMachineNameAndTimestampBetweenOrderByTimestampDesc(String machineName, Instant start, Instant end);
 
     List<Trace> findAllByMachineNameOrderByTimestampDesc(String machineName);
+    @Query("SELECT " + PROJECTION + " FROM Trace t WHERE t.machineName = ?1 AND t.timestamp >= ?2 ORDER BY t.timestamp")
+    @QueryHints({@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = STREAM_FETCH_SIZE), @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")})
+    Stream<Trace> findAllByMachineNameAndTimestampGreaterThanEqualOrderByTimestamp(String machineName, Instant from);
+
+    // Archivage : plus ancienne trace, traces d'un mois [start, end[ en flux, puis suppression sous l'horizon
+    Optional<Trace> findTopByOrderByTimestampAsc();
+    @Query("SELECT " + PROJECTION + " FROM Trace t WHERE t.timestamp >= ?1 AND t.timestamp < ?2 ORDER BY t.timestamp")
+    @QueryHints({@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = STREAM_FETCH_SIZE), @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")})
+    Stream<Trace> findAllByTimestampGreaterThanEqualAndTimestampLessThanOrderByTimestamp(Instant start, Instant end);
+    @Modifying
+    @Query("DELETE FROM Trace t WHERE t.timestamp < ?1")
+    int deleteByTimestampBefore(Instant end);
 }
@@ -0,0 +1,456 @@
+package org.epac.trace.repository;
+
+import org.epac.trace.entity.Operation;
+import org.epac.trace.entity.Trace;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.*;
+
+// Segment d'archive : les traces d'un mois clos, rangées par colonnes dans un fichier lu par projection mémoire (mmap).
+// - timestamps : écart en nanosecondes avec la trace précédente, en varint (1 à 5 octets pour des écarts de quelques secondes)
+// - employés et machines : indice dans le dictionnaire du segment, en varint
+// - opérations : 2 bits par trace
+// Un index toutes les BLOCK_ROWS traces (timestamp, positions dans les colonnes) permet de commencer la lecture au début
+// d'une fenêtre ; la table des couples employé/machine garde la dernière trace de chaque couple dans le mois.
+// Les timestamps sont des nanosecondes depuis l'epoch (UTC), comme dans la table. Les segments de la version 1 gardaient
+// des nanosecondes locales (jour epoch * 86 400 s + nanoseconde du jour) : ils restent lisibles avec le fuseau de l'usine.
+public final class TraceSegment {
+    private static final int MAGIC = 0x54525347;
+    private static final int VERSION = 2;
+    private static final int LOCAL_VERSION = 1;
+    static final int BLOCK_ROWS = 1024;
+    private static final long DAY_NANOS = 86_400_000_000_000L;
+    private static final long SECOND_NANOS = 1_000_000_000L;
+    private static final Operation[] OPERATIONS = Operation.values();
+
+    private final MappedByteBuffer buffer;
+    // Fuseau des nanosecondes locales d'un segment de la version 1, null sinon
+    private final ZoneId localZone;
+    private final Instant start;
+    private final Instant end;
+    private final int rows;
+    private final String[] employerNames;
+    private final String[] machineNames;
+    private final Map<String, Integer> employerIds = new HashMap<>();
+    private final Map<String, Integer> machineIds = new HashMap<>();
+    private final List<Trace> lastTraces = new ArrayList<>();
+    private final long[] blockTimestamps;
+    private final int[] blockTimestampPositions;
+    private final int[] blockEmployerPositions;
+    private final int[] blockMachinePositions;
+    private final int timestampColumn;
+    private final int employerColumn;
+    private final int machineColumn;
+    private final int operationColumn;
+
+    // Sélection d'un parcours : employés et machines retenus (null : tous)
+    public record Filter(Set<String> employerNames, Set<String> machineNames) {
+        public static final Filter ALL = new Filter(null, null);
+    }
+
+    private TraceSegment(MappedByteBuffer buffer, ZoneId zone) {
+        this.buffer = buffer;
+        Reader reader = new Reader(buffer);
+        if (reader.readInt() != MAGIC)
+            throw new IllegalStateException("Segment d'archive illisible");
+        int version = reader.readInt();
+        if (version != VERSION && version != LOCAL_VERSION)
+            throw new IllegalStateException("Version de segment d'archive inconnue : " + version);
+        this.localZone = version == LOCAL_VERSION ? zone : null;
+        this.start = toInstant(reader.readLong());
+        this.end = toInstant(reader.readLong());
+        this.rows = reader.readInt();
+        this.employerNames = reader.readDictionary();
+        this.machineNames = reader.readDictionary();
+        for (int i = 0; i < employerNames.length; i++) {
+            employerIds.put(employerNames[i], i);
+        }
+        for (int i = 0; i < machineNames.length; i++) {
+            machineIds.put(machineNames[i], i);
+        }
+        int pairs = reader.readInt();
+        for (int i = 0; i < pairs; i++) {
+            String employerName = employerNames[reader.readInt()];
+            String machineName = machineNames[reader.readInt()];
+            lastTraces.add(new Trace(toInstant(reader.readLong()), employerName, machineName, OPERATIONS[reader.readByte()]));
+        }
+        int blocks = reader.readInt();
+        this.blockTimestamps = new long[blocks];
+        this.blockTimestampPositions = new int[blocks];
+        this.blockEmployerPositions = new int[blocks];
+        this.blockMachinePositions = new int[blocks];
+        for (int i = 0; i < blocks; i++) {
+            blockTimestamps[i] = reader.readLong();
+            blockTimestampPositions[i] = reader.readInt();
+            blockEmployerPositions[i] = reader.readInt();
+            blockMachinePositions[i] = reader.readInt();
+        }
+        this.timestampColumn = reader.skipColumn();
+        this.employerColumn = reader.skipColumn();
+        this.machineColumn = reader.skipColumn();
+        this.operationColumn = reader.skipColumn();
+    }
+
+    // zone : fuseau de l'usine, pour les segments de la version 1
+    public static TraceSegment open(Path path, ZoneId zone) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // La projection reste valide après la fermeture du canal
+            return new TraceSegment(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), zone);
+        }
+    }
+
+    // Écrit les traces [start, end[ (triées par timestamp) dans le fichier, créé ou remplacé et synchronisé sur disque
+    public static int write(Path path, Instant start, Instant end, Iterator<Trace> traces) throws IOException {
+        long startNanos = epochNanos(start);
+        long endNanos = epochNanos(end);
+        Map<String, Integer> employerIds = new LinkedHashMap<>();
+        Map<String, Integer> machineIds = new LinkedHashMap<>();
+        // Dernière trace de chaque couple (indice employé << 32 | indice machine)
+        Map<Long, Trace> lastTraces = new LinkedHashMap<>();
+        Column timestampColumn = new Column();
+        Column employerColumn = new Column();
+        Column machineColumn = new Column();
+        Column operationColumn = new Column();
+        Column blocks = new Column();
+        int rows = 0;
+        int packedOperations = 0;
+        long previous = startNanos;
+        while (traces.hasNext()) {
+            Trace trace = traces.next();
+            long timestamp = epochNanos(trace.getTimestamp());
+            if (timestamp < previous || timestamp >= endNanos)
+                throw new IllegalArgumentException("Traces non triées ou hors du segment : " + trace.getTimestamp());
+            int employerId = employerIds.computeIfAbsent(trace.getEmployerName(), k -> employerIds.size());
+            int machineId = machineIds.computeIfAbsent(trace.getMachineName(), k -> machineIds.size());
+            if (rows % BLOCK_ROWS == 0) {
+                blocks.putLong(timestamp);
+                blocks.putInt(timestampColumn.size);
+                blocks.putInt(employerColumn.size);
+                blocks.putInt(machineColumn.size);
+                previous = timestamp;
+            }
+            timestampColumn.putVarint(timestamp - previous);
+            employerColumn.putVarint(employerId);
+            machineColumn.putVarint(machineId);
+            packedOperations |= trace.getOperation().ordinal() << ((rows % 4) * 2);
+            if (rows % 4 == 3) {
+                operationColumn.put((byte) packedOperations);
+                packedOperations = 0;
+            }
+            lastTraces.put((long) employerId << 32 | machineId, trace);
+            previous = timestamp;
+            rows++;
+        }
+        if (rows % 4 != 0) {
+            operationColumn.put((byte) packedOperations);
+        }
+
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(startNanos);
+            out.writeLong(endNanos);
+            out.writeInt(rows);
+            writeDictionary(out, employerIds.keySet());
+            writeDictionary(out, machineIds.keySet());
+            out.writeInt(lastTraces.size());
+            for (Map.Entry<Long, Trace> pair : lastTraces.entrySet()) {
+                out.writeInt((int) (pair.getKey() >>> 32));
+                out.writeInt((int) (long) pair.getKey());
+                out.writeLong(epochNanos(pair.getValue().getTimestamp()));
+                out.writeByte(pair.getValue().getOperation().ordinal());
+            }
+            out.writeInt((rows + BLOCK_ROWS - 1) / BLOCK_ROWS);
+            blocks.writeTo(out, false);
+            timestampColumn.writeTo(out, true);
+            employerColumn.writeTo(out, true);
+            machineColumn.writeTo(out, true);
+            operationColumn.writeTo(out, true);
+            if (out.size() == Integer.MAX_VALUE)
+                throw new IOException("Segment d'archive trop volumineux (2 Go au plus)");
+        }
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return rows;
+    }
+
+    public Instant start() {
+        return start;
+    }
+
+    public Instant end() {
+        return end;
+    }
+
+    public int rows() {
+        return rows;
+    }
+
+    public List<String> employerNames() {
+        return List.of(employerNames);
+    }
+
+    public List<String> machineNames() {
+        return List.of(machineNames);
+    }
+
+    // Dernière trace de chaque couple employé/machine dans le segment
+    public List<Trace> lastTraces() {
+        return lastTraces;
+    }
+
+    // Traces sélectionnées de [from, to] (bornes incluses), dans l'ordre des timestamps
+    public Iterator<Trace> iterator(Filter filter, Instant from, Instant to) {
+        boolean[] employers = select(filter.employerNames(), employerIds, employerNames.length);
+        boolean[] machines = select(filter.machineNames(), machineIds, machineNames.length);
+        if (rows == 0 || (employers != null && !any(employers)) || (machines != null && !any(machines)))
+            return Collections.emptyIterator();
+        return new Scan(employers, machines, toStored(from), toStored(to));
+    }
+
+    private static boolean[] select(Set<String> names, Map<String, Integer> ids, int size) {
+        if (names == null)
+            return null;
+        boolean[] selected = new boolean[size];
+        for (String name : names) {
+            Integer id = ids.get(name);
+            if (id != null) {
+                selected[id] = true;
+            }
+        }
+        return selected;
+    }
+
+    private static boolean any(boolean[] selected) {
+        for (boolean value : selected) {
+            if (value)
+                return true;
+        }
+        return false;
+    }
+
+    // Parcours séquentiel des colonnes à partir du bloc contenant from ; les positions sont absolues dans la projection
+    private final class Scan implements Iterator<Trace> {
+        private final boolean[] employers;
+        private final boolean[] machines;
+        private final long from;
+        private final long to;
+        private int row;
+        private int timestampPosition;
+        private int employerPosition;
+        private int machinePosition;
+        private long timestamp;
+        private Trace next;
+
+        private Scan(boolean[] employers, boolean[] machines, long from, long to) {
+            this.employers = employers;
+            this.machines = machines;
+            this.from = from;
+            this.to = to;
+            // Dernier bloc commencé avant from : le bloc suivant peut commencer à from et le précédent finir à from
+            int low = 0;
+            int high = blockTimestamps.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (blockTimestamps[mid] < from) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            int block = Math.max(0, low - 1);
+            this.row = block * BLOCK_ROWS;
+            this.timestamp = blockTimestamps[block];
+            this.timestampPosition = timestampColumn + blockTimestampPositions[block];
+            this.employerPosition = employerColumn + blockEmployerPositions[block];
+            this.machinePosition = machineColumn + blockMachinePositions[block];
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Trace next() {
+            if (next == null)
+                throw new NoSuchElementException();
+            Trace current = next;
+            advance();
+            return current;
+        }
+
+        private void advance() {
+            next = null;
+            while (row < rows) {
+                long delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = buffer.get(timestampPosition++);
+                    delta |= (long) (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                // Le premier écart d'un bloc est nul : le timestamp du bloc est celui de sa première trace
+                timestamp = row % BLOCK_ROWS == 0 ? blockTimestamps[row / BLOCK_ROWS] : timestamp + delta;
+                int employerId = readVarint(true);
+                int machineId = readVarint(false);
+                int operation = (buffer.get(operationColumn + row / 4) >> ((row % 4) * 2)) & 3;
+                row++;
+                if (timestamp > to) {
+                    row = rows;
+                    return;
+                }
+                if (timestamp >= from && (employers == null || employers[employerId]) && (machines == null || machines[machineId])) {
+                    next = new Trace(toInstant(timestamp), employerNames[employerId], machineNames[machineId], OPERATIONS[operation]);
+                    return;
+                }
+            }
+        }
+
+        private int readVarint(boolean employer) {
+            int position = employer ? employerPosition : machinePosition;
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buffer.get(position++);
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            if (employer) {
+                employerPosition = position;
+            } else {
+                machinePosition = position;
+            }
+            return value;
+        }
+    }
+
+    public static long epochNanos(Instant timestamp) {
+        return timestamp.getEpochSecond() * SECOND_NANOS + timestamp.getNano();
+    }
+
+    // Timestamp enregistré -> instant, selon la version du segment
+    private Instant toInstant(long stored) {
+        Instant timestamp = Instant.ofEpochSecond(Math.floorDiv(stored, SECOND_NANOS), Math.floorMod(stored, SECOND_NANOS));
+        if (localZone == null)
+            return timestamp;
+        return LocalDateTime.ofEpochSecond(timestamp.getEpochSecond(), timestamp.getNano(), ZoneOffset.UTC).atZone(localZone).toInstant();
+    }
+
+    private long toStored(Instant timestamp) {
+        if (localZone == null)
+            return epochNanos(timestamp);
+        LocalDateTime local = LocalDateTime.ofInstant(timestamp, localZone);
+        return local.toLocalDate().toEpochDay() * DAY_NANOS + local.toLocalTime().toNanoOfDay();
+    }
+
+    private static void writeDictionary(DataOutputStream out, Collection<String> names) throws IOException {
+        out.writeInt(names.size());
+        for (String name : names) {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    // Tampon d'écriture d'une colonne
+    private static final class Column {
+        private byte[] bytes = new byte[1024];
+        private int size;
+
+        private void put(byte value) {
+            if (size == bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            bytes[size++] = value;
+        }
+
+        private void putVarint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            put((byte) value);
+        }
+
+        private void putInt(int value) {
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                put((byte) (value >>> shift));
+            }
+        }
+
+        private void putLong(long value) {
+            putInt((int) (value >>> 32));
+            putInt((int) value);
+        }
+
+        private void writeTo(DataOutputStream out, boolean withLength) throws IOException {
+            if (withLength) {
+                out.writeInt(size);
+            }
+            out.write(bytes, 0, size);
+        }
+    }
+
+    // Lecture séquentielle de l'en-tête
+    private static final class Reader {
+        private final MappedByteBuffer buffer;
+        private int position;
+
+        private Reader(MappedByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        private int readInt() {
+            int value = buffer.getInt(position);
+            position += Integer.BYTES;
+            return value;
+        }
+
+        private long readLong() {
+            long value = buffer.getLong(position);
+            position += Long.BYTES;
+            return value;
+        }
+
+        private byte readByte() {
+            return buffer.get(position++);
+        }
+
+        private String[] readDictionary() {
+            String[] names = new String[readInt()];
+            for (int i = 0; i < names.length; i++) {
+                byte[] bytes = new byte[readInt()];
+                buffer.get(position, bytes);
+                position += bytes.length;
+                names[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+            return names;
+        }
+
+        // Position du début de la colonne, puis saut à la suivante
+        private int skipColumn() {
+            int length = readInt();
+            int column = position;
+            position += length;
+            return column;
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package org.epac.trace.services;
+
+// Réponse de /add : rien, le résumé du jour de la machine pointée (calculé depuis l'agrégat du couple, sans relire
+// la journée) ou le résumé du jour de l'employé sur toutes ses machines
+public enum AddResponse {
+    NONE,
+    DELTA,
+    FULL
+}
@@ -0,0 +1,122 @@
+package org.epac.trace.services;
+
+import org.epac.trace.dto.WorkSummary;
+import org.epac.trace.entity.Operation;
+import org.epac.trace.entity.Trace;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Balayage d'un flux de traces trié par timestamp (une seule clé) en tranches (heures, postes) d'une fenêtre bornée.
+// Mêmes règles que IntervalSweep, par jour de production : report depuis la dernière trace du jour précédent uniquement,
+// la dernière opération du jour court jusqu'à sa fin. Les intervalles sont coupés directement aux bornes des tranches,
+// qu'un poste passe ou non d'un jour de production à l'autre. Chaque tranche qui touche un jour avec des traces est
+// retournée ; ce qui n'y est ni travail ni pause est inactif. Les instants sont des nanosecondes depuis l'epoch.
+class BucketSweep implements RangeSweep {
+    private static final long NO_DAY = Long.MIN_VALUE;
+
+    private final ProductionCalendar.Cursor cursor;
+    private final LocalDateTime[] bucketStarts;
+    // Instants des débuts de tranches ; la dernière borne ferme la fenêtre
+    private final long[] bounds;
+    private final long[] workNanos;
+    private final long[] pauseNanos;
+    private final boolean[] traced;
+
+    // Dernière trace vue : opération, instant, jour de production et fin de ce jour
+    private Operation previousOperation;
+    private long previousAt;
+    private long previousEpochDay = NO_DAY;
+    private long previousDayEnd;
+
+    BucketSweep(ProductionCalendar calendar, ProductionCalendar.Window window, Trace previousTrace) {
+        this.cursor = calendar.cursor();
+        this.bucketStarts = window.bucketStarts();
+        this.bounds = window.bucketBounds();
+        this.workNanos = new long[bounds.length - 1];
+        this.pauseNanos = new long[bounds.length - 1];
+        this.traced = new boolean[bounds.length - 1];
+        if (previousTrace != null) {
+            accept(previousTrace);
+        }
+    }
+
+    @Override
+    public void accept(Trace trace) {
+        long epochDay = cursor.moveTo(trace.getTimestamp());
+        long dayStart = cursor.startInstant();
+        long at = dayStart + cursor.nanosIntoDay();
+        if (previousOperation != null) {
+            if (epochDay == previousEpochDay) {
+                add(previousOperation, previousAt, at);
+            } else {
+                // Fin du jour précédent, puis report depuis le début du jour si la trace est du lendemain
+                add(previousOperation, previousAt, previousDayEnd);
+                if (epochDay == previousEpochDay + 1) {
+                    add(previousOperation, dayStart, at);
+                }
+            }
+        }
+        if (epochDay != previousEpochDay) {
+            IntervalSweep.checkInterrupted();
+            markDay(dayStart, dayStart + cursor.dayNanos());
+        }
+        previousOperation = trace.getOperation();
+        previousAt = at;
+        previousEpochDay = epochDay;
+        previousDayEnd = dayStart + cursor.dayNanos() - 1;
+    }
+
+    @Override
+    public Map<LocalDateTime, WorkSummary> finish() {
+        if (previousOperation != null) {
+            add(previousOperation, previousAt, previousDayEnd);
+            previousOperation = null;
+        }
+        Map<LocalDateTime, WorkSummary> summaries = new TreeMap<>();
+        for (int i = 0; i < traced.length; i++) {
+            if (traced[i]) {
+                long bucketNanos = bounds[i + 1] - bounds[i];
+                summaries.put(bucketStarts[i], new WorkSummary(Duration.ofNanos(workNanos[i]), Duration.ofNanos(pauseNanos[i]),
+                        Duration.ofNanos(bucketNanos - workNanos[i] - pauseNanos[i])));
+            }
+        }
+        return summaries;
+    }
+
+    // Répartit [from, to[ entre les tranches de la fenêtre
+    private void add(Operation operation, long from, long to) {
+        if (operation != Operation.START && operation != Operation.PAUSE)
+            return;
+        long[] nanos = operation == Operation.START ? workNanos : pauseNanos;
+        long start = Math.max(from, bounds[0]);
+        long end = Math.min(to, bounds[bounds.length - 1]);
+        if (start >= end)
+            return;
+        for (int bucket = bucketOf(start); start < end; bucket++) {
+            long slice = Math.min(end, bounds[bucket + 1]) - start;
+            nanos[bucket] += slice;
+            start += slice;
+        }
+    }
+
+    // Toutes les tranches de la fenêtre qui touchent le jour [dayStart, dayEnd[
+    private void markDay(long dayStart, long dayEnd) {
+        long start = Math.max(dayStart, bounds[0]);
+        long end = Math.min(dayEnd, bounds[bounds.length - 1]);
+        if (start >= end)
+            return;
+        for (int bucket = bucketOf(start); bucket < traced.length && bounds[bucket] < end; bucket++) {
+            traced[bucket] = true;
+        }
+    }
+
+    // Tranche contenant l'instant (compris dans la fenêtre)
+    private int bucketOf(long at) {
+        int index = Arrays.binarySearch(bounds, at);
+        return index >= 0 ? index : -index - 2;
+    }
+}
@@ -0,0 +1,433 @@
+package org.epac.trace.services;
+
+import lombok.extern.slf4j.Slf4j;
+import org.epac.trace.config.TraceProperties;
+import org.epac.trace.dto.WorkSummary;
+import org.epac.trace.entity.DailyWorkRollup;
+import org.epac.trace.repository.DailyWorkRollupRepository;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+// Totaux journaliers (travail, pause, jours tracés) par employé, par machine et par couple, tenus en mémoire dans des
+// arbres de Fenwick indexés par jour, alloués par pages pour les seuls jours tracés de chaque clé : la somme d'une plage de
+// jours quelconque coûte O(log n), une série de périodes O(périodes × log n), sans lire la base. Mêmes résultats que le parcours des agrégats (PeriodAccumulator) : un jour
+// tracé dure jusqu'à 1 ns avant le jour suivant, les jours sans trace d'une période sont inactifs sur toute leur durée.
+// Chargé au démarrage depuis les agrégats, puis tenu à jour par RollupService après chaque commit : seul l'état validé
+// est indexé. Chaque jour d'un couple garde la version (@Version) de son agrégat ; un état plus ancien (chargement qui
+// croise un commit) est ignoré. Tant que l'index n'est pas chargé, les lectures retournent Optional.empty().
+@Component
+@Slf4j
+public class DailyTotals implements ApplicationRunner {
+    // Agrégats appliqués par prise du verrou pendant le chargement, pour ne pas bloquer les commits
+    private static final int LOAD_CHUNK = 1000;
+
+    private final DailyWorkRollupRepository rollupRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final ProductionCalendar calendar;
+    private final boolean enabled;
+    // Lectures concurrentes, mises à jour exclusives ; pas de synchronized, qui épinglerait les threads virtuels
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, DayTree> employers = new HashMap<>();
+    private final Map<String, DayTree> machines = new HashMap<>();
+    private final Map<PairKey, DayTree> pairs = new HashMap<>();
+    // Sous le verrou : index complet, et numéro incrémenté à chaque remise à zéro pour abandonner un chargement en cours
+    private boolean loaded;
+    private long generation;
+
+    public DailyTotals(DailyWorkRollupRepository rollupRepository, PlatformTransactionManager transactionManager,
+                       ProductionCalendar calendar, TraceProperties properties) {
+        this.rollupRepository = rollupRepository;
+        // Transaction propre en écriture : le chargement lit toujours la base principale, même appelé pendant une lecture sur le réplica
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.calendar = calendar;
+        this.enabled = properties.getSummary().isDailyTotals() && properties.getSummary().getSource() == TraceProperties.SummarySource.ROLLUP;
+    }
+
+    private record PairKey(String employerName, String machineName) { }
+
+    record Totals(long work, long pause, long days) { }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        load();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // (Re)charge l'index depuis les agrégats en base, par tranches ; les commits continuent pendant le chargement
+    public void load() {
+        if (!enabled)
+            return;
+        long loading;
+        lock.writeLock().lock();
+        try {
+            loading = generation;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        long count = transactionTemplate.execute(status -> {
+            long rows = 0;
+            List<DailyWorkRollup> chunk = new ArrayList<>(LOAD_CHUNK);
+            try (Stream<DailyWorkRollup> rollups = rollupRepository.streamAllDayTotals()) {
+                Iterator<DailyWorkRollup> iterator = rollups.iterator();
+                while (iterator.hasNext()) {
+                    chunk.add(iterator.next());
+                    if (chunk.size() == LOAD_CHUNK || !iterator.hasNext()) {
+                        if (!applyChunk(chunk, loading))
+                            return -1L;
+                        rows += chunk.size();
+                        chunk.clear();
+                    }
+                }
+            }
+            return rows;
+        });
+        lock.writeLock().lock();
+        try {
+            if (count < 0 || generation != loading)
+                return;
+            loaded = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.info("Index des totaux journaliers chargé : {} agrégats", count);
+    }
+
+    private boolean applyChunk(List<DailyWorkRollup> chunk, long loading) {
+        lock.writeLock().lock();
+        try {
+            if (generation != loading)
+                return false;
+            chunk.forEach(this::apply);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Indexe l'état de l'agrégat après le commit de la transaction courante (immédiatement s'il n'y en a pas) ;
+    // l'entité est lue au commit, une fois écrite : sa version n'est incrémentée qu'à l'écriture en base
+    public void recordOnCommit(DailyWorkRollup rollup) {
+        if (!enabled)
+            return;
+        afterCommit(() -> record(rollup));
+    }
+
+    // Agrégats reconstruits : l'index est vidé puis rechargé après le commit
+    public void reloadOnCommit() {
+        if (!enabled)
+            return;
+        afterCommit(() -> {
+            reset();
+            load();
+        });
+    }
+
+    private void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    private void record(DailyWorkRollup rollup) {
+        lock.writeLock().lock();
+        try {
+            apply(rollup);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void reset() {
+        lock.writeLock().lock();
+        try {
+            employers.clear();
+            machines.clear();
+            pairs.clear();
+            loaded = false;
+            generation++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Sous le verrou d'écriture : l'écart avec l'état connu du couple est reporté sur l'employé et sur la machine
+    private void apply(DailyWorkRollup rollup) {
+        long day = rollup.getWorkDate().toEpochDay();
+        DayTree pair = pairs.computeIfAbsent(new PairKey(rollup.getEmployerName(), rollup.getMachineName()), k -> new DayTree(true));
+        long[] delta = pair.set(day, rollup.getWorkNanos(), rollup.getPauseNanos(), rollup.getVersion());
+        if (delta == null)
+            return;
+        employers.computeIfAbsent(rollup.getEmployerName(), k -> new DayTree(false)).add(day, delta[0], delta[1], (int) delta[2]);
+        machines.computeIfAbsent(rollup.getMachineName(), k -> new DayTree(false)).add(day, delta[0], delta[1], (int) delta[2]);
+    }
+
+    // Série complète, découpée selon la granularité de la clé
+    public Optional<Map<LocalDate, WorkSummary>> series(SummaryCache.SeriesKey series) {
+        return seriesOf(List.of(series), null, null).map(summaries -> summaries.get(series));
+    }
+
+    // Séries de plusieurs clés sur [start, end] (bornes de périodes, null : tout l'historique) ; les clés sans agrégat
+    // ont une série vide
+    public Optional<Map<SummaryCache.SeriesKey, Map<LocalDate, WorkSummary>>> seriesOf(Collection<SummaryCache.SeriesKey> keys, LocalDate start, LocalDate end) {
+        lock.readLock().lock();
+        try {
+            if (!loaded)
+                return Optional.empty();
+            Map<SummaryCache.SeriesKey, Map<LocalDate, WorkSummary>> summariesByKey = new HashMap<>();
+            for (SummaryCache.SeriesKey key : keys) {
+                summariesByKey.put(key, periods(tree(key), key.granularity(), start, end));
+            }
+            return Optional.of(summariesByKey);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Totaux d'une clé sur une plage de jours quelconque, en deux sommes préfixes
+    public Optional<WorkSummary> total(SummaryCache.SeriesKey series, LocalDate from, LocalDate to) {
+        lock.readLock().lock();
+        try {
+            if (!loaded)
+                return Optional.empty();
+            DayTree tree = tree(series);
+            Totals totals = tree == null ? new Totals(0, 0, 0) : tree.sum(from.toEpochDay(), to.toEpochDay());
+            return Optional.of(summary(totals, from, to));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private DayTree tree(SummaryCache.SeriesKey series) {
+        return switch (series.dimension()) {
+            case EMPLOYER -> employers.get(series.employerName());
+            case MACHINE -> machines.get(series.machineName());
+            case EMPLOYER_MACHINE -> pairs.get(new PairKey(series.employerName(), series.machineName()));
+        };
+    }
+
+    // Seules les périodes avec au moins un jour tracé, comme PeriodAccumulator
+    private Map<LocalDate, WorkSummary> periods(DayTree tree, Granularity granularity, LocalDate start, LocalDate end) {
+        Map<LocalDate, WorkSummary> summaries = new TreeMap<>();
+        if (tree == null || tree.isEmpty())
+            return summaries;
+        long firstDay = start == null ? tree.firstTraced : Math.max(start.toEpochDay(), tree.firstTraced);
+        long lastDay = end == null ? tree.lastTraced : Math.min(end.toEpochDay(), tree.lastTraced);
+        if (firstDay > lastDay)
+            return summaries;
+        LocalDate last = LocalDate.ofEpochDay(lastDay);
+        for (LocalDate period = granularity.startOf(LocalDate.ofEpochDay(firstDay)); !period.isAfter(last); ) {
+            LocalDate periodEnd = granularity.endOf(period);
+            Totals totals = tree.sum(period.toEpochDay(), periodEnd.toEpochDay());
+            if (totals.days() > 0) {
+                summaries.put(period, summary(totals, period, periodEnd));
+            }
+            period = periodEnd.plusDays(1);
+        }
+        return summaries;
+    }
+
+    // Chaque jour tracé s'arrête 1 ns avant le jour suivant ; les autres jours de [from, to] sont entièrement inactifs
+    private WorkSummary summary(Totals totals, LocalDate from, LocalDate to) {
+        long inactive = calendar.nanosBetween(from, to.plusDays(1)) - totals.work() - totals.pause() - totals.days();
+        return new WorkSummary(Duration.ofNanos(totals.work()), Duration.ofNanos(totals.pause()), Duration.ofNanos(inactive));
+    }
+
+    // Jours indexés par pages de PAGE_DAYS jours alignées sur le jour epoch, allouées au premier jour tracé de la page :
+    // une clé dont les jours sont dispersés sur des années n'occupe que ses pages. Chaque page tient les valeurs de ses
+    // jours et leurs arbres de Fenwick (travail, pause, jours tracés) ; un arbre de Fenwick des totaux de pages, sur les
+    // pages consécutives à partir de firstPage, donne les sommes préfixes en O(log n). Quand une page sort de cette
+    // fenêtre, sa capacité double et l'arbre des pages est reconstruit en O(pages).
+    static final class DayTree {
+        private static final int PAGE_DAYS = 64;
+        private static final int INITIAL_PAGES = 4;
+
+        private final boolean versioned;
+        private final Map<Long, Page> pages = new HashMap<>();
+        private long firstPage;
+        private long[] workTree = new long[1];
+        private long[] pauseTree = new long[1];
+        private int[] tracedTree = new int[1];
+        private long firstTraced = Long.MAX_VALUE;
+        private long lastTraced = Long.MIN_VALUE;
+
+        // Couples seulement (versioned) : version de l'agrégat indexé pour chaque jour
+        DayTree(boolean versioned) {
+            this.versioned = versioned;
+        }
+
+        boolean isEmpty() {
+            return firstTraced > lastTraced;
+        }
+
+        int pageCount() {
+            return pages.size();
+        }
+
+        // Remplace l'état d'un jour de couple ; retourne l'écart {travail, pause, jours tracés}, ou null si l'état
+        // connu est aussi récent
+        long[] set(long day, long workNanos, long pauseNanos, long version) {
+            Page page = page(day);
+            int index = Math.floorMod(day, PAGE_DAYS);
+            if (page.rows[index] > 0 && page.versions[index] >= version)
+                return null;
+            long[] delta = {workNanos - page.work[index], pauseNanos - page.pause[index], page.rows[index] > 0 ? 0 : 1};
+            page.versions[index] = version;
+            add(day, delta[0], delta[1], (int) delta[2]);
+            return delta;
+        }
+
+        void add(long day, long workNanos, long pauseNanos, int addedRows) {
+            Page page = page(day);
+            int index = Math.floorMod(day, PAGE_DAYS);
+            int tracedDelta = page.add(index, workNanos, pauseNanos, addedRows);
+            for (int i = (int) (Math.floorDiv(day, PAGE_DAYS) - firstPage) + 1; i < workTree.length; i += i & -i) {
+                workTree[i] += workNanos;
+                pauseTree[i] += pauseNanos;
+                tracedTree[i] += tracedDelta;
+            }
+            if (page.rows[index] > 0) {
+                firstTraced = Math.min(firstTraced, day);
+                lastTraced = Math.max(lastTraced, day);
+            }
+        }
+
+        // Sommes sur [from, to], bornes incluses
+        Totals sum(long from, long to) {
+            if (from > to || pages.isEmpty())
+                return new Totals(0, 0, 0);
+            Totals upper = prefix(to);
+            Totals lower = prefix(from - 1);
+            return new Totals(upper.work() - lower.work(), upper.pause() - lower.pause(), upper.days() - lower.days());
+        }
+
+        // Sommes jusqu'au jour inclus : pages entières précédentes, puis début de la page du jour
+        private Totals prefix(long day) {
+            long pageNumber = Math.floorDiv(day, PAGE_DAYS);
+            int before = (int) Math.min(Math.max(pageNumber - firstPage, 0), workTree.length - 1);
+            long work = prefix(workTree, before);
+            long pause = prefix(pauseTree, before);
+            long days = prefix(tracedTree, before);
+            Page page = pages.get(pageNumber);
+            if (page != null) {
+                int count = Math.floorMod(day, PAGE_DAYS) + 1;
+                work += prefix(page.workTree, count);
+                pause += prefix(page.pauseTree, count);
+                days += prefix(page.tracedTree, count);
+            }
+            return new Totals(work, pause, days);
+        }
+
+        private static long prefix(long[] tree, int count) {
+            long sum = 0;
+            for (int i = count; i > 0; i -= i & -i) {
+                sum += tree[i];
+            }
+            return sum;
+        }
+
+        private static long prefix(int[] tree, int count) {
+            long sum = 0;
+            for (int i = count; i > 0; i -= i & -i) {
+                sum += tree[i];
+            }
+            return sum;
+        }
+
+        // Page du jour, allouée et couverte par l'arbre des pages si besoin
+        private Page page(long day) {
+            long pageNumber = Math.floorDiv(day, PAGE_DAYS);
+            Page page = pages.get(pageNumber);
+            if (page != null)
+                return page;
+            int capacity = workTree.length - 1;
+            if (capacity == 0) {
+                resize(pageNumber, INITIAL_PAGES);
+            } else if (pageNumber < firstPage) {
+                long end = firstPage + capacity;
+                int size = Math.toIntExact(Math.max(2L * capacity, end - pageNumber));
+                resize(end - size, size);
+            } else if (pageNumber >= firstPage + capacity) {
+                resize(firstPage, Math.toIntExact(Math.max(2L * capacity, pageNumber - firstPage + 1)));
+            }
+            page = new Page(versioned);
+            pages.put(pageNumber, page);
+            return page;
+        }
+
+        // Arbre des pages reconstruit depuis les totaux de chaque page
+        private void resize(long newFirstPage, int size) {
+            firstPage = newFirstPage;
+            workTree = new long[size + 1];
+            pauseTree = new long[size + 1];
+            tracedTree = new int[size + 1];
+            for (int i = 1; i <= size; i++) {
+                Page page = pages.get(newFirstPage + i - 1);
+                if (page != null) {
+                    workTree[i] += prefix(page.workTree, PAGE_DAYS);
+                    pauseTree[i] += prefix(page.pauseTree, PAGE_DAYS);
+                    tracedTree[i] += (int) prefix(page.tracedTree, PAGE_DAYS);
+                }
+                int parent = i + (i & -i);
+                if (parent <= size) {
+                    workTree[parent] += workTree[i];
+                    pauseTree[parent] += pauseTree[i];
+                    tracedTree[parent] += tracedTree[i];
+                }
+            }
+        }
+    }
+
+    // Jours d'une page : valeurs de chaque jour et arbres de Fenwick (indices à partir de 1)
+    private static final class Page {
+        private final long[] work = new long[DayTree.PAGE_DAYS];
+        private final long[] pause = new long[DayTree.PAGE_DAYS];
+        // Agrégats de couples du jour : un jour est tracé dès qu'il en a un
+        private final int[] rows = new int[DayTree.PAGE_DAYS];
+        private final long[] versions;
+        private final long[] workTree = new long[DayTree.PAGE_DAYS + 1];
+        private final long[] pauseTree = new long[DayTree.PAGE_DAYS + 1];
+        private final int[] tracedTree = new int[DayTree.PAGE_DAYS + 1];
+
+        private Page(boolean versioned) {
+            versions = versioned ? new long[DayTree.PAGE_DAYS] : null;
+        }
+
+        // Retourne l'écart du nombre de jours tracés de la page
+        private int add(int index, long workNanos, long pauseNanos, int addedRows) {
+            boolean wasTraced = rows[index] > 0;
+            work[index] += workNanos;
+            pause[index] += pauseNanos;
+            rows[index] += addedRows;
+            int tracedDelta = (rows[index] > 0 ? 1 : 0) - (wasTraced ? 1 : 0);
+            for (int i = index + 1; i < workTree.length; i += i & -i) {
+                workTree[i] += workNanos;
+                pauseTree[i] += pauseNanos;
+                tracedTree[i] += tracedDelta;
+            }
+            return tracedDelta;
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package org.epac.trace.services;
+
+// Axe d'un résumé de travail : par employé, par machine ou par couple employé/machine
+public enum Dimension {
+    EMPLOYER,
+    MACHINE,
+    EMPLOYER_MACHINE
+}
@@ -0,0 +1,27 @@
+package org.epac.trace.services;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+
+// Découpage des résumés de travail : jour, semaine (commence le lundi) ou mois
+public enum Granularity {
+    DAY,
+    WEEK,
+    MONTH;
+
+    public LocalDate startOf(LocalDate date) {
+        return switch (this) {
+            case DAY -> date;
+            case WEEK -> date.with(DayOfWeek.MONDAY);
+            case MONTH -> date.withDayOfMonth(1);
+        };
+    }
+
+    public LocalDate endOf(LocalDate start) {
+        return switch (this) {
+            case DAY -> start;
+            case WEEK -> start.plusDays(6);
+            case MONTH -> start.plusMonths(1).minusDays(1);
+        };
+    }
+}
@@ -0,0 +1,116 @@
+package org.epac.trace.services;
+
+import org.epac.trace.dto.WorkSummary;
+import org.epac.trace.entity.Operation;
+import org.epac.trace.entity.Trace;
+
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+
+// Balayage unique d'un flux de traces trié par timestamp (un seul employé, une seule machine ou un couple des deux).
+// Produit les résumés par jour, semaine ou mois de production avec les mêmes règles que le calcul journalier :
+// - report depuis la dernière trace du jour précédent uniquement (START -> travail, PAUSE -> pause depuis le début du jour)
+// - la dernière opération du jour court jusqu'à la fin de la journée (1 ns avant le début du jour suivant)
+// - un jour sans trace est entièrement inactif
+// Seules les périodes contenant au moins une trace sont retournées.
+// Les instants sont gardés en jour de production epoch + nanosecondes écoulées depuis le début du jour, et les durées
+// en nanosecondes (long) : aucun objet n'est créé par trace, les WorkSummary ne sont construits qu'à la fin des périodes.
+public class IntervalSweep {
+    private static final long NO_DAY = Long.MIN_VALUE;
+
+    private final ProductionCalendar.Cursor cursor;
+    private final PeriodAccumulator periods;
+
+    // Dernière trace vue (jour et opération), sert au report sur le jour suivant
+    private long previousEpochDay = NO_DAY;
+    private Operation previousOperation;
+
+    // Jour en cours : durée d'une journée avec des traces, cumuls et dernière opération
+    private long currentEpochDay = NO_DAY;
+    private long tracedDayNanos;
+    private long dayWorkNanos;
+    private long dayPauseNanos;
+    private long lastNanoOfDay;
+    private Operation lastOperation;
+
+    public IntervalSweep(ProductionCalendar calendar, Granularity granularity) {
+        this(calendar, granularity, null);
+    }
+
+    // previousTrace : dernière trace de la même clé avant le début du flux (peut être null)
+    public IntervalSweep(ProductionCalendar calendar, Granularity granularity, Trace previousTrace) {
+        this.cursor = calendar.cursor();
+        this.periods = new PeriodAccumulator(calendar, granularity);
+        if (previousTrace != null) {
+            this.previousEpochDay = calendar.cursor().moveTo(previousTrace.getTimestamp());
+            this.previousOperation = previousTrace.getOperation();
+        }
+    }
+
+    // Vérifié à chaque nouveau jour : un résumé abandonné (délai dépassé, thread du pool interrompu) s'arrête
+    // au lieu de finir de balayer l'historique
+    static void checkInterrupted() {
+        if (Thread.currentThread().isInterrupted())
+            throw new CancellationException("Résumé interrompu");
+    }
+
+    public static Map<LocalDate, WorkSummary> summarize(ProductionCalendar calendar, Iterable<Trace> traces, Trace previousTrace, Granularity granularity) {
+        IntervalSweep sweep = new IntervalSweep(calendar, granularity, previousTrace);
+        for (Trace trace : traces) {
+            sweep.accept(trace);
+        }
+        return sweep.finish();
+    }
+
+    public void accept(Trace trace) {
+        long epochDay = cursor.moveTo(trace.getTimestamp());
+        long nanoOfDay = cursor.nanosIntoDay();
+        if (epochDay != currentEpochDay) {
+            if (currentEpochDay != NO_DAY) {
+                closeDay();
+            }
+            openDay(epochDay, nanoOfDay);
+        } else {
+            addNanos(lastOperation, nanoOfDay - lastNanoOfDay);
+        }
+        lastNanoOfDay = nanoOfDay;
+        lastOperation = trace.getOperation();
+        previousEpochDay = epochDay;
+        previousOperation = lastOperation;
+    }
+
+    public Map<LocalDate, WorkSummary> finish() {
+        if (currentEpochDay != NO_DAY) {
+            closeDay();
+            currentEpochDay = NO_DAY;
+        }
+        return periods.finish();
+    }
+
+    private void openDay(long epochDay, long firstNanoOfDay) {
+        checkInterrupted();
+        currentEpochDay = epochDay;
+        tracedDayNanos = cursor.dayNanos() - 1;
+        dayWorkNanos = 0;
+        dayPauseNanos = 0;
+        // Report de la dernière opération du jour précédent, du début du jour à la première opération
+        if (previousEpochDay == epochDay - 1) {
+            addNanos(previousOperation, firstNanoOfDay);
+        }
+    }
+
+    private void closeDay() {
+        // La dernière opération du jour court jusqu'à la fin de la journée
+        addNanos(lastOperation, tracedDayNanos - lastNanoOfDay);
+        periods.addDay(LocalDate.ofEpochDay(currentEpochDay), dayWorkNanos, dayPauseNanos, tracedDayNanos - dayWorkNanos - dayPauseNanos);
+    }
+
+    private void addNanos(Operation operation, long nanos) {
+        if (operation == Operation.START) {
+            dayWorkNanos += nanos;
+        } else if (operation == Operation.PAUSE) {
+            dayPauseNanos += nanos;
+        }
+    }
+}
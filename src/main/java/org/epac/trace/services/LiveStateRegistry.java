@@ -0,0 +1,88 @@
+package org.epac.trace.services;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.epac.trace.dto.MachineState;
+import org.epac.trace.entity.Operation;
+import org.epac.trace.entity.Trace;
+import org.epac.trace.repository.TraceRepository;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Dernière opération connue de chaque employé et de chaque machine, gardée en mémoire pour valider
+// les nouvelles traces sans requête. Chargée au démarrage (avant l'ouverture du serveur web) puis
+// mise à jour après chaque commit.
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class LiveStateRegistry implements SmartInitializingSingleton {
+    private final TraceRepository traceRepository;
+    private final TraceArchive archive;
+
+    private final Map<String, Trace> lastTraceByEmployer = new ConcurrentHashMap<>();
+    private final Map<String, Trace> lastTraceByMachine = new ConcurrentHashMap<>();
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        warmUp();
+    }
+
+    // Une seule requête : la dernière trace de chaque couple employé/machine, complétée par celles des mois archivés
+    public void warmUp() {
+        lastTraceByEmployer.clear();
+        lastTraceByMachine.clear();
+        archive.lastTraces().forEach(this::record);
+        List<Trace> lastTraces = traceRepository.findLastTracesByEmployerNameAndMachineName();
+        lastTraces.forEach(this::record);
+        log.info("État courant chargé : {} employés, {} machines", lastTraceByEmployer.size(), lastTraceByMachine.size());
+    }
+
+    public Optional<Trace> lastTraceOfEmployer(String employerName) {
+        return Optional.ofNullable(lastTraceByEmployer.get(employerName));
+    }
+
+    public Optional<Trace> lastTraceOfMachine(String machineName) {
+        return Optional.ofNullable(lastTraceByMachine.get(machineName));
+    }
+
+    public void record(Trace trace) {
+        Trace snapshot = new Trace(trace.getTimestamp(), trace.getEmployerName(), trace.getMachineName(), trace.getOperation());
+        lastTraceByEmployer.merge(snapshot.getEmployerName(), snapshot, LiveStateRegistry::latest);
+        lastTraceByMachine.merge(snapshot.getMachineName(), snapshot, LiveStateRegistry::latest);
+    }
+
+    // Met à jour l'état après le commit de la transaction courante (immédiatement s'il n'y en a pas)
+    public void recordOnCommit(Trace trace) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            record(trace);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                record(trace);
+            }
+        });
+    }
+
+    // Machines en marche ou en pause, triées par nom
+    public List<MachineState> activeMachines() {
+        return lastTraceByMachine.values().stream()
+                .filter(trace -> trace.getOperation() == Operation.START || trace.getOperation() == Operation.PAUSE)
+                .map(trace -> new MachineState(trace.getMachineName(), trace.getEmployerName(), trace.getOperation(), trace.getTimestamp()))
+                .sorted(Comparator.comparing(MachineState::machineName))
+                .toList();
+    }
+
+    private static Trace latest(Trace current, Trace candidate) {
+        return candidate.getTimestamp().isBefore(current.getTimestamp()) ? current : candidate;
+    }
+}
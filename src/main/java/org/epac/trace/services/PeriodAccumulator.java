@@ -0,0 +1,71 @@
+package org.epac.trace.services;
+
+import org.epac.trace.dto.WorkSummary;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Regroupe des résumés journaliers (jours de production croissants) en périodes ; les jours sans trace d'une période
+// sont inactifs sur toute leur durée réelle (23 h ou 25 h aux changements d'heure).
+// Seules les périodes contenant au moins un jour sont retournées. Les durées sont cumulées en nanosecondes,
+// le WorkSummary de chaque période n'est construit qu'à sa fermeture.
+class PeriodAccumulator {
+    private final ProductionCalendar calendar;
+    private final Granularity granularity;
+    private final Map<LocalDate, WorkSummary> summaries = new TreeMap<>();
+
+    private LocalDate currentPeriod;
+    // Jours epoch : fin de la période en cours (incluse) et prochain jour pas encore compté
+    private long currentPeriodEnd = Long.MIN_VALUE;
+    private long nextDayToCount;
+    private long periodWorkNanos;
+    private long periodPauseNanos;
+    private long periodInactiveNanos;
+
+    PeriodAccumulator(ProductionCalendar calendar, Granularity granularity) {
+        this.calendar = calendar;
+        this.granularity = granularity;
+    }
+
+    void addDay(LocalDate day, long workNanos, long pauseNanos, long inactiveNanos) {
+        long epochDay = day.toEpochDay();
+        if (currentPeriod == null || epochDay > currentPeriodEnd) {
+            if (currentPeriod != null) {
+                closePeriod();
+            }
+            currentPeriod = granularity.startOf(day);
+            currentPeriodEnd = granularity.endOf(currentPeriod).toEpochDay();
+            nextDayToCount = currentPeriod.toEpochDay();
+            periodWorkNanos = 0;
+            periodPauseNanos = 0;
+            periodInactiveNanos = 0;
+        }
+        countIdleDaysUntil(epochDay);
+        periodWorkNanos += workNanos;
+        periodPauseNanos += pauseNanos;
+        periodInactiveNanos += inactiveNanos;
+        nextDayToCount = epochDay + 1;
+    }
+
+    Map<LocalDate, WorkSummary> finish() {
+        if (currentPeriod != null) {
+            closePeriod();
+            currentPeriod = null;
+        }
+        return summaries;
+    }
+
+    private void closePeriod() {
+        countIdleDaysUntil(currentPeriodEnd + 1);
+        summaries.put(currentPeriod, new WorkSummary(Duration.ofNanos(periodWorkNanos), Duration.ofNanos(periodPauseNanos), Duration.ofNanos(periodInactiveNanos)));
+    }
+
+    private void countIdleDaysUntil(long exclusiveEnd) {
+        if (exclusiveEnd > nextDayToCount) {
+            periodInactiveNanos += calendar.nanosBetween(LocalDate.ofEpochDay(nextDayToCount), LocalDate.ofEpochDay(exclusiveEnd));
+        }
+        nextDayToCount = exclusiveEnd;
+    }
+}
@@ -0,0 +1,217 @@
+package org.epac.trace.services;
+
+import org.epac.trace.config.TraceProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.*;
+import java.time.temporal.ChronoUnit;
+import java.time.zone.ZoneRules;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+// Calendrier de l'usine : fuseau des horodatages, début de la journée de production et débuts des postes.
+// Les horodatages sont des instants UTC ; le jour de production et l'heure locale n'en sont dérivés qu'ici. Une journée
+// de production va de dayStart à dayStart le lendemain (heure locale) ; les durées sont mesurées entre instants, une
+// journée dure donc 23 h ou 25 h aux changements d'heure. Un début de jour dans l'heure sautée est décalé comme
+// ZonedDateTime, dans l'heure répétée il correspond à sa première occurrence.
+@Component
+public class ProductionCalendar {
+    static final long DAY_NANOS = Duration.ofDays(1).toNanos();
+    private static final long HOURS_PER_DAY = 24;
+
+    private final ZoneId zone;
+    private final ZoneRules rules;
+    private final LocalTime dayStart;
+    private final long dayStartNanos;
+    private final List<LocalTime> shiftStarts;
+
+    public ProductionCalendar(TraceProperties properties) {
+        TraceProperties.Calendar calendar = properties.getCalendar();
+        this.zone = calendar.getZone() != null ? calendar.getZone() : ZoneId.systemDefault();
+        this.rules = zone.getRules();
+        this.dayStart = calendar.getDayStart();
+        this.dayStartNanos = dayStart.toNanoOfDay();
+        this.shiftStarts = calendar.getShiftStarts().stream().distinct().sorted().toList();
+        if (shiftStarts.isEmpty())
+            throw new IllegalArgumentException("trace.calendar.shift-starts doit contenir au moins un début de poste.");
+    }
+
+    public ZoneId zone() {
+        return zone;
+    }
+
+    public LocalDate today() {
+        return productionDay(Instant.now());
+    }
+
+    public LocalDate productionDay(Instant timestamp) {
+        return LocalDate.ofEpochDay(productionEpochDay(timestamp));
+    }
+
+    // Premier instant du jour de production
+    public Instant startOf(LocalDate day) {
+        return day.atTime(dayStart).atZone(zone).toInstant();
+    }
+
+    // Début du jour de production en heure locale, pour l'affichage des périodes
+    public LocalDateTime localStartOf(LocalDate day) {
+        return day.atTime(dayStart);
+    }
+
+    // Heure locale d'un instant, pour l'affichage
+    public LocalDateTime localTime(Instant instant) {
+        return LocalDateTime.ofInstant(instant, zone);
+    }
+
+    // Dernier instant du jour de production, l'équivalent de LocalTime.MAX pour une journée de minuit à minuit
+    public Instant endOf(LocalDate day) {
+        return startOf(day.plusDays(1)).minusNanos(1);
+    }
+
+    // Durée réelle du jour de production
+    public long dayNanos(LocalDate day) {
+        return nanosBetween(day, day.plusDays(1));
+    }
+
+    // Durée réelle entre le début du jour from et le début du jour to
+    public long nanosBetween(LocalDate from, LocalDate to) {
+        if (rules.isFixedOffset())
+            return ChronoUnit.DAYS.between(from, to) * DAY_NANOS;
+        return epochNanos(startOf(to)) - epochNanos(startOf(from));
+    }
+
+    // Nanosecondes depuis l'epoch
+    public static long epochNanos(Instant instant) {
+        return instant.getEpochSecond() * 1_000_000_000L + instant.getNano();
+    }
+
+    // Nombre de tranches (ou de périodes) de la fenêtre couvrant les jours from à to, au plus
+    public long bucketCount(SummaryGranularity granularity, LocalDate from, LocalDate to) {
+        long days = ChronoUnit.DAYS.between(from, to) + 1;
+        return switch (granularity) {
+            case HOUR -> days * HOURS_PER_DAY;
+            case SHIFT -> days * shiftStarts.size();
+            case DAY -> days;
+            case WEEK -> ChronoUnit.WEEKS.between(Granularity.WEEK.startOf(from), to) + 1;
+            case MONTH -> ChronoUnit.MONTHS.between(Granularity.MONTH.startOf(from), to) + 1;
+        };
+    }
+
+    // Fenêtre couvrant les jours de production from à to, élargie aux tranches ou aux périodes qu'elle touche
+    public Window window(SummaryGranularity granularity, LocalDate from, LocalDate to) {
+        Granularity periods = granularity.periods();
+        if (periods != null)
+            return new Window(startOf(periods.startOf(from)), startOf(periods.endOf(periods.startOf(to)).plusDays(1)), null, null);
+        // Débuts des tranches des jours voisins, triés par instant ; les heures locales qui tombent sur le même instant
+        // (heure sautée au passage à l'heure d'été) ne comptent qu'une fois, sous l'heure qui existe
+        List<LocalDateTime> candidates = new ArrayList<>();
+        for (LocalDate day = from.minusDays(1); !day.isAfter(to.plusDays(1)); day = day.plusDays(1)) {
+            if (granularity == SummaryGranularity.HOUR) {
+                for (int hour = 0; hour < HOURS_PER_DAY; hour++) {
+                    candidates.add(localStartOf(day).plusHours(hour));
+                }
+            } else {
+                for (LocalTime shiftStart : shiftStarts) {
+                    candidates.add((shiftStart.isBefore(dayStart) ? day.plusDays(1) : day).atTime(shiftStart));
+                }
+            }
+        }
+        candidates.sort(Comparator.naturalOrder());
+        List<LocalDateTime> starts = new ArrayList<>();
+        long[] bounds = new long[candidates.size()];
+        for (LocalDateTime candidate : candidates) {
+            long bound = epochNanos(candidate.atZone(zone).toInstant());
+            if (starts.isEmpty() || bound > bounds[starts.size() - 1]) {
+                bounds[starts.size()] = bound;
+                starts.add(candidate);
+            } else {
+                starts.set(starts.size() - 1, candidate);
+            }
+        }
+        // Dernière tranche commencée au début de la fenêtre, première borne atteignant sa fin
+        long windowStart = epochNanos(startOf(from));
+        long windowEnd = epochNanos(startOf(to.plusDays(1)));
+        int first = 0;
+        while (bounds[first + 1] <= windowStart) {
+            first++;
+        }
+        int last = first + 1;
+        while (bounds[last] < windowEnd) {
+            last++;
+        }
+        return new Window(instantOf(bounds[first]), instantOf(bounds[last]), starts.subList(first, last + 1).toArray(LocalDateTime[]::new),
+                Arrays.copyOfRange(bounds, first, last + 1));
+    }
+
+    // Jour de production (jour epoch) d'un instant : jour de son heure locale, corrigé par les bornes réelles du jour
+    // quand le début du jour tombe dans un changement d'heure
+    private long productionEpochDay(Instant timestamp) {
+        LocalDateTime local = LocalDateTime.ofInstant(timestamp, zone);
+        long day = Math.floorDiv(local.toLocalDate().toEpochDay() * DAY_NANOS + local.toLocalTime().toNanoOfDay() - dayStartNanos, DAY_NANOS);
+        if (rules.isFixedOffset())
+            return day;
+        if (timestamp.isBefore(startOf(LocalDate.ofEpochDay(day))))
+            return day - 1;
+        return timestamp.isBefore(startOf(LocalDate.ofEpochDay(day + 1))) ? day : day + 1;
+    }
+
+    private static Instant instantOf(long epochNanos) {
+        return Instant.ofEpochSecond(Math.floorDiv(epochNanos, 1_000_000_000L), Math.floorMod(epochNanos, 1_000_000_000L));
+    }
+
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    // Fenêtre [start, end[ ; pour HOUR et SHIFT, débuts des tranches en heure locale et leurs instants
+    // (la dernière borne ferme la fenêtre)
+    public record Window(Instant start, Instant end, LocalDateTime[] bucketStarts, long[] bucketBounds) { }
+
+    // Suit le jour de production d'horodatages successifs (un par balayage, pas thread-safe) : les bornes du jour
+    // sont calculées une fois par jour, chaque horodatage est ensuite situé dans le jour sans allocation
+    public final class Cursor {
+        private long startInstant = Long.MAX_VALUE;
+        private long endInstant = Long.MIN_VALUE;
+        private long epochDay;
+        private long dayNanos;
+        private long nanosIntoDay;
+
+        private Cursor() {
+        }
+
+        // Se place sur le jour de production de l'horodatage et retourne ce jour (jour epoch)
+        public long moveTo(Instant timestamp) {
+            long at = epochNanos(timestamp);
+            if (at < startInstant || at >= endInstant) {
+                openDay(productionEpochDay(timestamp));
+            }
+            nanosIntoDay = at - startInstant;
+            return epochDay;
+        }
+
+        // Durée réelle écoulée depuis le début du jour de production jusqu'au dernier horodatage
+        public long nanosIntoDay() {
+            return nanosIntoDay;
+        }
+
+        // Instant (nanosecondes depuis l'epoch) du début du jour courant
+        public long startInstant() {
+            return startInstant;
+        }
+
+        // Durée réelle du jour courant
+        public long dayNanos() {
+            return dayNanos;
+        }
+
+        private void openDay(long day) {
+            LocalDate date = LocalDate.ofEpochDay(day);
+            epochDay = day;
+            startInstant = epochNanos(startOf(date));
+            endInstant = epochNanos(startOf(date.plusDays(1)));
+            dayNanos = endInstant - startInstant;
+        }
+    }
+}
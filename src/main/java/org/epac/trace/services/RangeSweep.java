@@ -0,0 +1,41 @@
+package org.epac.trace.services;
+
+import org.epac.trace.dto.WorkSummary;
+import org.epac.trace.entity.Trace;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Balayage d'une série sur la fenêtre de /summary : tranches (BucketSweep) ou périodes de jours de production (IntervalSweep).
+// Les résumés sont indexés par le début (heure locale) de leur tranche ou de leur période.
+interface RangeSweep {
+    void accept(Trace trace);
+
+    Map<LocalDateTime, WorkSummary> finish();
+
+    // previousTrace : dernière trace de la même clé avant le début de la fenêtre et au plus tôt la veille (peut être null)
+    static RangeSweep of(ProductionCalendar calendar, SummaryGranularity granularity, ProductionCalendar.Window window, Trace previousTrace) {
+        if (granularity.periods() == null)
+            return new BucketSweep(calendar, window, previousTrace);
+        IntervalSweep sweep = new IntervalSweep(calendar, granularity.periods(), previousTrace);
+        return new RangeSweep() {
+            @Override
+            public void accept(Trace trace) {
+                sweep.accept(trace);
+            }
+
+            @Override
+            public Map<LocalDateTime, WorkSummary> finish() {
+                return byPeriodStart(calendar, sweep.finish());
+            }
+        };
+    }
+
+    static Map<LocalDateTime, WorkSummary> byPeriodStart(ProductionCalendar calendar, Map<LocalDate, WorkSummary> summaries) {
+        Map<LocalDateTime, WorkSummary> summariesByStart = new TreeMap<>();
+        summaries.forEach((periodStart, summary) -> summariesByStart.put(calendar.localStartOf(periodStart), summary));
+        return summariesByStart;
+    }
+}
@@ -0,0 +1,182 @@
+package org.epac.trace.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.epac.trace.config.ReplicaRoutingDataSource;
+import org.epac.trace.config.TraceProperties;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// Lectures des résumés sur le réplica (trace.replica.url) : elles passent par une transaction en lecture seule, que
+// ReplicaRoutingDataSource envoie au réplica ; tout le reste (insertion, état de validation) reste sur la base
+// principale. Le dictionnaire des noms y est épinglé explicitement (NameDictionary), même dans une lecture du réplica.
+// Le retard du réplica est mesuré par un battement écrit sur la base principale et relu sur le réplica. Au-delà de
+// trace.replica.max-lag, les lectures qui couvrent le jour de production courant repassent sur la base principale ;
+// si le réplica ne répond pas, toutes les lectures y repassent.
+@Component
+@Slf4j
+public class ReplicaRouting implements SmartLifecycle, MeterBinder {
+    private static final int HEARTBEAT_ID = 1;
+
+    private final ReplicaRoutingDataSource routing;
+    private final TransactionTemplate replicaReads;
+    private final TransactionTemplate primaryReads;
+    private final TraceProperties.Replica settings;
+    // Lectures forcées sur la base principale pour ce thread (onPrimary)
+    private final ThreadLocal<Boolean> primaryOnly = new ThreadLocal<>();
+    private JdbcTemplate primary;
+    private JdbcTemplate replica;
+    private ScheduledExecutorService heartbeats;
+    private Counter replicaCount;
+    private Counter primaryCount;
+    private long lastBeat;
+    // Retard mesuré ; null si le réplica ne répond pas ou n'a pas encore été mesuré
+    private volatile Duration lag;
+
+    public ReplicaRouting(DataSource dataSource, PlatformTransactionManager transactionManager, TraceProperties properties) {
+        // Réplica désactivé si la source n'est pas celle de ReplicaDataSourceConfig (ou absente)
+        this.routing = ReplicaRoutingDataSource.unwrap(dataSource);
+        this.replicaReads = new TransactionTemplate(transactionManager);
+        this.replicaReads.setReadOnly(true);
+        // Suspend la transaction en lecture seule en cours : les lectures qui suivent vont sur la base principale
+        this.primaryReads = new TransactionTemplate(transactionManager);
+        this.primaryReads.setPropagationBehavior(TransactionDefinition.PROPAGATION_NOT_SUPPORTED);
+        this.settings = properties.getReplica();
+        if (routing != null) {
+            this.primary = new JdbcTemplate(routing.getPrimary());
+            this.replica = new JdbcTemplate(routing.getReplica());
+        }
+    }
+
+    public boolean isEnabled() {
+        return routing != null;
+    }
+
+    // current : la lecture couvre le jour de production courant
+    public <T> T read(boolean current, Supplier<T> reads) {
+        if (!replicaServes(current)) {
+            count(primaryCount);
+            if (TransactionSynchronizationManager.isCurrentTransactionReadOnly())
+                return primaryReads.execute(status -> reads.get());
+            return reads.get();
+        }
+        count(replicaCount);
+        return replicaReads.execute(status -> reads.get());
+    }
+
+    public boolean replicaServes(boolean current) {
+        Duration measured = lag;
+        if (routing == null || measured == null || primaryOnly.get() != null)
+            return false;
+        return !current || measured.compareTo(settings.getMaxLag()) <= 0;
+    }
+
+    // Lectures qui doivent voir les derniers commits quel que soit le retard mesuré (flux des résumés)
+    public <T> T onPrimary(Supplier<T> reads) {
+        if (primaryOnly.get() != null)
+            return reads.get();
+        primaryOnly.set(Boolean.TRUE);
+        try {
+            return reads.get();
+        } finally {
+            primaryOnly.remove();
+        }
+    }
+
+    // Nouveau battement sur la base principale ; strictement croissant pour reconnaître le dernier sur le réplica
+    synchronized void beat() {
+        long beat = Math.max(System.currentTimeMillis(), lastBeat + 1);
+        if (primary.update("update replica_heartbeat set beat_millis = ? where id = ?", beat, HEARTBEAT_ID) == 0) {
+            primary.update("insert into replica_heartbeat (id, beat_millis) values (?, ?)", HEARTBEAT_ID, beat);
+        }
+        lastBeat = beat;
+    }
+
+    // Retard nul si le réplica a le dernier battement écrit, sinon le temps écoulé depuis celui qu'il a
+    synchronized void check() {
+        Duration measured;
+        try {
+            Long replicaBeat = replica.query("select beat_millis from replica_heartbeat where id = ?",
+                    rs -> rs.next() ? rs.getLong(1) : null, HEARTBEAT_ID);
+            measured = replicaBeat == null ? null
+                    : replicaBeat >= lastBeat ? Duration.ZERO
+                    : Duration.ofMillis(Math.max(System.currentTimeMillis() - replicaBeat, 1));
+        } catch (DataAccessException e) {
+            if (lag != null) {
+                log.warn("Réplica injoignable, résumés lus sur la base principale", e);
+            }
+            measured = null;
+        }
+        if (measured != null && measured.compareTo(settings.getMaxLag()) > 0 && (lag == null || lag.compareTo(settings.getMaxLag()) <= 0)) {
+            log.warn("Réplica en retard de {}, résumés du jour lus sur la base principale", measured);
+        }
+        lag = measured;
+    }
+
+    private void heartbeat() {
+        try {
+            beat();
+        } catch (DataAccessException e) {
+            log.warn("Battement du réplica impossible sur la base principale", e);
+        }
+        check();
+    }
+
+    @Override
+    public synchronized void start() {
+        if (routing == null || heartbeats != null)
+            return;
+        heartbeats = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("replica-heartbeat").daemon().factory());
+        heartbeats.scheduleWithFixedDelay(this::heartbeat, 0, settings.getHeartbeatInterval().toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (heartbeats != null) {
+            heartbeats.shutdownNow();
+            heartbeats = null;
+        }
+    }
+
+    @Override
+    public synchronized boolean isRunning() {
+        return heartbeats != null;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        if (routing == null)
+            return;
+        Gauge.builder("trace.replica.lag", this, replicaRouting -> {
+                    Duration measured = replicaRouting.lag;
+                    return measured == null ? Double.NaN : measured.toMillis() / 1000.0;
+                })
+                .description("Retard mesuré du réplica (NaN s'il ne répond pas)")
+                .baseUnit("seconds")
+                .register(registry);
+        replicaCount = Counter.builder("trace.replica.reads").description("Lectures des résumés par base").tag("target", "replica").register(registry);
+        primaryCount = Counter.builder("trace.replica.reads").description("Lectures des résumés par base").tag("target", "primary").register(registry);
+    }
+
+    private static void count(Counter counter) {
+        if (counter != null) {
+            counter.increment();
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package org.epac.trace.services;
+
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.epac.trace.config.TraceProperties;
+import org.epac.trace.repository.TraceRepository;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+// Reconstruction des agrégats au démarrage : forcée avec --trace.rollup.rebuild=true,
+// ou automatique si la table des agrégats est vide alors que des traces existent (première mise en service)
+@Component
+@AllArgsConstructor
+@Slf4j
+public class RollupRebuildRunner implements ApplicationRunner {
+    private final RollupService rollupService;
+    private final TraceRepository traceRepository;
+    private final TraceProperties properties;
+    private final TraceArchive archive;
+    private final TraceWriteBehind writeBehind;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (properties.getRollup().isRebuild() || (rollupService.isEmpty() && (traceRepository.count() > 0 || !archive.isEmpty()))) {
+            log.info("Reconstruction des agrégats journaliers");
+            rollupService.rebuild();
+            // Agrégats tenus en mémoire par l'écriture différée : relus dans les agrégats reconstruits
+            writeBehind.clearLatest();
+        }
+    }
+}
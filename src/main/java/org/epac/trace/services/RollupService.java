@@ -0,0 +1,304 @@
+package org.epac.trace.services;
+
+import jakarta.persistence.EntityManager;
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.epac.trace.config.TraceProperties;
+import org.epac.trace.dto.WorkSummary;
+import org.epac.trace.entity.DailyWorkRollup;
+import org.epac.trace.entity.Operation;
+import org.epac.trace.entity.Trace;
+import org.epac.trace.repository.DailyWorkRollupRepository;
+import org.epac.trace.repository.TraceRepository;
+import org.epac.trace.repository.TraceSegment;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.stream.Stream;
+
+// Agrégats par jour de production et par couple employé/machine : mise à jour incrémentale, reconstruction et lecture
+@Service
+@AllArgsConstructor
+@Slf4j
+public class RollupService {
+    private final DailyWorkRollupRepository rollupRepository;
+    private final TraceRepository traceRepository;
+    private final EntityManager entityManager;
+    private final TraceProperties properties;
+    private final ProductionCalendar calendar;
+    private final TraceArchive archive;
+    private final DailyTotals dailyTotals;
+
+    // Appelé dans la transaction d'insertion de la trace
+    public DailyWorkRollup apply(Trace trace) {
+        LocalDate day = calendar.productionDay(trace.getTimestamp());
+        DailyWorkRollup rollup = rollupRepository.findByWorkDateAndEmployerNameAndMachineName(day, trace.getEmployerName(), trace.getMachineName())
+                .orElseGet(() -> new DailyWorkRollup(day, trace.getEmployerName(), trace.getMachineName()));
+        DailyWorkRollup previousDay = null;
+        if (rollup.getLastOperation() == null) {
+            previousDay = rollupRepository.findByWorkDateAndEmployerNameAndMachineName(day.minusDays(1), trace.getEmployerName(), trace.getMachineName())
+                    .orElse(null);
+        }
+        advance(calendar.cursor(), rollup, previousDay, trace);
+        dailyTotals.recordOnCommit(rollup);
+        return rollupRepository.save(rollup);
+    }
+
+    // Copie de l'agrégat en base d'un couple pour un jour, modifiable hors transaction (écriture différée).
+    // Hors transaction : la connexion de la base principale est rendue aussitôt, même si la requête HTTP attend ensuite
+    // l'écriture en base.
+    public Optional<DailyWorkRollup> findDay(LocalDate day, String employerName, String machineName) {
+        return rollupRepository.findByWorkDateAndEmployerNameAndMachineName(day, employerName, machineName).map(stored -> {
+            DailyWorkRollup copy = new DailyWorkRollup(day, employerName, machineName);
+            copy.setWorkNanos(stored.getWorkNanos());
+            copy.setPauseNanos(stored.getPauseNanos());
+            copy.setInactiveNanos(stored.getInactiveNanos());
+            copy.setLastOperation(stored.getLastOperation());
+            copy.setLastTimestamp(stored.getLastTimestamp());
+            return copy;
+        });
+    }
+
+    // Applique un lot de traces triées par timestamp : les agrégats concernés sont chargés en une requête
+    public void applyAll(List<Trace> traces) {
+        if (traces.isEmpty())
+            return;
+        LocalDate firstDay = calendar.productionDay(traces.get(0).getTimestamp());
+        LocalDate lastDay = calendar.productionDay(traces.get(traces.size() - 1).getTimestamp());
+        Map<DayKey, DailyWorkRollup> rollups = new HashMap<>();
+        for (DailyWorkRollup rollup : rollupRepository.findByWorkDateBetween(firstDay.minusDays(1), lastDay)) {
+            rollups.put(new DayKey(rollup.getWorkDate(), rollup.getEmployerName(), rollup.getMachineName()), rollup);
+        }
+        Set<DailyWorkRollup> changed = new LinkedHashSet<>();
+        ProductionCalendar.Cursor cursor = calendar.cursor();
+        for (Trace trace : traces) {
+            LocalDate day = calendar.productionDay(trace.getTimestamp());
+            DayKey key = new DayKey(day, trace.getEmployerName(), trace.getMachineName());
+            DailyWorkRollup rollup = rollups.get(key);
+            DailyWorkRollup previousDay = null;
+            if (rollup == null) {
+                rollup = new DailyWorkRollup(day, trace.getEmployerName(), trace.getMachineName());
+                rollups.put(key, rollup);
+                previousDay = rollups.get(new DayKey(day.minusDays(1), trace.getEmployerName(), trace.getMachineName()));
+            }
+            advance(cursor, rollup, previousDay, trace);
+            changed.add(rollup);
+        }
+        changed.forEach(dailyTotals::recordOnCommit);
+        rollupRepository.saveAll(changed);
+    }
+
+    // Fait avancer l'agrégat du jour avec une nouvelle trace (plus récente que la dernière de l'agrégat).
+    // Une journée avec des traces dure jusqu'à 1 ns avant le début du jour suivant, comme dans le calcul journalier.
+    static void advance(ProductionCalendar.Cursor cursor, DailyWorkRollup rollup, DailyWorkRollup previousDay, Trace trace) {
+        Instant timestamp = trace.getTimestamp();
+        cursor.moveTo(timestamp);
+        long nanoOfDay = cursor.nanosIntoDay();
+        long tracedDayNanos = cursor.dayNanos() - 1;
+        long untilEndOfDay = tracedDayNanos - nanoOfDay;
+        if (rollup.getLastOperation() == null) {
+            // Première trace du jour : report de la dernière opération de la veille depuis le début du jour
+            if (previousDay != null) {
+                addNanos(rollup, previousDay.getLastOperation(), nanoOfDay);
+            }
+        } else {
+            // La dernière opération s'arrête maintenant au lieu de courir jusqu'à la fin de la journée
+            addNanos(rollup, rollup.getLastOperation(), -untilEndOfDay);
+        }
+        addNanos(rollup, trace.getOperation(), untilEndOfDay);
+        rollup.setLastOperation(trace.getOperation());
+        rollup.setLastTimestamp(timestamp);
+        rollup.setInactiveNanos(tracedDayNanos - rollup.getWorkNanos() - rollup.getPauseNanos());
+    }
+
+    private static void addNanos(DailyWorkRollup rollup, Operation operation, long nanos) {
+        if (operation == Operation.START) {
+            rollup.setWorkNanos(rollup.getWorkNanos() + nanos);
+        } else if (operation == Operation.PAUSE) {
+            rollup.setPauseNanos(rollup.getPauseNanos() + nanos);
+        }
+    }
+
+    // Reconstruit tous les agrégats en un seul parcours des traces ; la mémoire dépend du nombre de couples, pas du nombre de traces
+    @Transactional
+    public long rebuild() {
+        rollupRepository.deleteAllInBatch();
+        dailyTotals.reloadOnCommit();
+        Map<PairKey, DailyWorkRollup> openRollups = new HashMap<>();
+        long traceCount = 0;
+        int pending = 0;
+        ProductionCalendar.Cursor cursor = calendar.cursor();
+        try (Stream<Trace> traces = archive.history(TraceSegment.Filter.ALL, traceRepository::findAllByTimestampGreaterThanEqualOrderByTimestamp)) {
+            Iterator<Trace> iterator = traces.iterator();
+            while (iterator.hasNext()) {
+                Trace trace = iterator.next();
+                LocalDate day = LocalDate.ofEpochDay(cursor.moveTo(trace.getTimestamp()));
+                PairKey key = new PairKey(trace.getEmployerName(), trace.getMachineName());
+                DailyWorkRollup current = openRollups.get(key);
+                if (current == null || !current.getWorkDate().equals(day)) {
+                    DailyWorkRollup previousDay = null;
+                    if (current != null) {
+                        entityManager.persist(current);
+                        pending++;
+                        if (current.getWorkDate().equals(day.minusDays(1))) {
+                            previousDay = current;
+                        }
+                    }
+                    DailyWorkRollup next = new DailyWorkRollup(day, key.employerName(), key.machineName());
+                    advance(cursor, next, previousDay, trace);
+                    openRollups.put(key, next);
+                } else {
+                    advance(cursor, current, null, trace);
+                }
+                traceCount++;
+                if (pending >= properties.getRollup().getRebuildBatchSize()) {
+                    entityManager.flush();
+                    entityManager.clear();
+                    pending = 0;
+                }
+            }
+        }
+        openRollups.values().forEach(entityManager::persist);
+        log.info("Agrégats journaliers reconstruits à partir de {} traces", traceCount);
+        return traceCount;
+    }
+
+    public boolean isEmpty() {
+        return rollupRepository.count() == 0;
+    }
+
+    // Lectures : parcours d'intervalles sur les agrégats au lieu de rejouer les traces
+
+    public WorkSummary dailySummaryByEmployer(String employerName, LocalDate date) {
+        return sumDay(date, rollupRepository.findByEmployerNameAndWorkDate(employerName, date));
+    }
+
+    public WorkSummary dailySummaryByMachine(String machineName, LocalDate date) {
+        return sumDay(date, rollupRepository.findByMachineNameAndWorkDate(machineName, date));
+    }
+
+    public Map<String, WorkSummary> dailySummaryByEmployerPerMachine(String employerName, LocalDate date) {
+        Map<String, WorkSummary> workSummaryByMachine = new HashMap<>();
+        for (DailyWorkRollup rollup : rollupRepository.findByEmployerNameAndWorkDate(employerName, date)) {
+            workSummaryByMachine.put(rollup.getMachineName(), toWorkSummary(rollup));
+        }
+        return workSummaryByMachine;
+    }
+
+    public Map<String, Map<String, WorkSummary>> dailySummaryByEmployerAndMachine(LocalDate date) {
+        Map<String, Map<String, WorkSummary>> workSummaryByEmployee = new HashMap<>();
+        for (DailyWorkRollup rollup : rollupRepository.findByWorkDate(date)) {
+            workSummaryByEmployee.computeIfAbsent(rollup.getEmployerName(), k -> new HashMap<>())
+                    .put(rollup.getMachineName(), toWorkSummary(rollup));
+        }
+        return workSummaryByEmployee;
+    }
+
+    public Map<LocalDate, WorkSummary> summarizeEmployer(String employerName, Granularity granularity) {
+        return summarize(rollupRepository.findByEmployerNameOrderByWorkDate(employerName), granularity);
+    }
+
+    public Map<LocalDate, WorkSummary> summarizeMachine(String machineName, Granularity granularity) {
+        return summarize(rollupRepository.findByMachineNameOrderByWorkDate(machineName), granularity);
+    }
+
+    public Map<LocalDate, WorkSummary> summarizeEmployerAndMachine(String employerName, String machineName, Granularity granularity) {
+        return summarize(rollupRepository.findByEmployerNameAndMachineNameOrderByWorkDate(employerName, machineName), granularity);
+    }
+
+    // Une seule période d'une série, pour recalculer la période évincée du cache sans relire tout l'historique
+    public WorkSummary summarizePeriod(Dimension dimension, String employerName, String machineName, Granularity granularity, LocalDate periodStart) {
+        LocalDate periodEnd = granularity.endOf(periodStart);
+        List<DailyWorkRollup> rollups = switch (dimension) {
+            case EMPLOYER -> rollupRepository.findByEmployerNameAndWorkDateBetweenOrderByWorkDate(employerName, periodStart, periodEnd);
+            case MACHINE -> rollupRepository.findByMachineNameAndWorkDateBetweenOrderByWorkDate(machineName, periodStart, periodEnd);
+            case EMPLOYER_MACHINE -> rollupRepository.findByEmployerNameAndMachineNameAndWorkDateBetweenOrderByWorkDate(employerName, machineName, periodStart, periodEnd);
+        };
+        return summarize(rollups, granularity).get(periodStart);
+    }
+
+    // Séries d'une page de clés sur [start, end], en une requête ; les clés sans agrégat ont une série vide
+    public Map<SummaryCache.SeriesKey, Map<LocalDate, WorkSummary>> summarizeRange(Collection<SummaryCache.SeriesKey> keys, LocalDate start, LocalDate end) {
+        Map<SummaryCache.SeriesKey, List<DailyWorkRollup>> rollupsByKey = new HashMap<>();
+        keys.forEach(key -> rollupsByKey.put(key, new ArrayList<>()));
+        SummaryCache.SeriesKey first = keys.iterator().next();
+        Set<String> employerNames = new HashSet<>();
+        Set<String> machineNames = new HashSet<>();
+        keys.forEach(key -> {
+            employerNames.add(key.employerName());
+            machineNames.add(key.machineName());
+        });
+        List<DailyWorkRollup> rollups = switch (first.dimension()) {
+            case EMPLOYER -> rollupRepository.findByEmployerNameInAndWorkDateBetweenOrderByWorkDate(employerNames, start, end);
+            case MACHINE -> rollupRepository.findByMachineNameInAndWorkDateBetweenOrderByWorkDate(machineNames, start, end);
+            case EMPLOYER_MACHINE -> rollupRepository.findByEmployerNameInAndMachineNameInAndWorkDateBetweenOrderByWorkDate(employerNames, machineNames, start, end);
+        };
+        for (DailyWorkRollup rollup : rollups) {
+            List<DailyWorkRollup> keyRollups = rollupsByKey.get(SummaryCache.SeriesKey.of(first.dimension(), rollup.getEmployerName(), rollup.getMachineName(), first.granularity()));
+            if (keyRollups != null) {
+                keyRollups.add(rollup);
+            }
+        }
+        Map<SummaryCache.SeriesKey, Map<LocalDate, WorkSummary>> summariesByKey = new HashMap<>();
+        rollupsByKey.forEach((key, keyRollups) -> summariesByKey.put(key, summarize(keyRollups, key.granularity())));
+        return summariesByKey;
+    }
+
+    public Map<String, Map<LocalDate, WorkSummary>> summarizeAllMachines(Granularity granularity) {
+        Map<String, List<DailyWorkRollup>> rollupsByMachine = new LinkedHashMap<>();
+        for (DailyWorkRollup rollup : rollupRepository.findAllByOrderByMachineNameAscWorkDateAsc()) {
+            rollupsByMachine.computeIfAbsent(rollup.getMachineName(), k -> new ArrayList<>()).add(rollup);
+        }
+        Map<String, Map<LocalDate, WorkSummary>> workSummaryByMachine = new HashMap<>();
+        rollupsByMachine.forEach((machineName, rollups) -> workSummaryByMachine.put(machineName, summarize(rollups, granularity)));
+        return workSummaryByMachine;
+    }
+
+    // Les agrégats doivent être triés par jour ; plusieurs agrégats du même jour sont additionnés
+    private Map<LocalDate, WorkSummary> summarize(List<DailyWorkRollup> rollups, Granularity granularity) {
+        PeriodAccumulator periods = new PeriodAccumulator(calendar, granularity);
+        LocalDate day = null;
+        long work = 0;
+        long pause = 0;
+        for (DailyWorkRollup rollup : rollups) {
+            if (!rollup.getWorkDate().equals(day)) {
+                if (day != null) {
+                    periods.addDay(day, work, pause, calendar.dayNanos(day) - 1 - work - pause);
+                }
+                day = rollup.getWorkDate();
+                work = 0;
+                pause = 0;
+            }
+            work += rollup.getWorkNanos();
+            pause += rollup.getPauseNanos();
+        }
+        if (day != null) {
+            periods.addDay(day, work, pause, calendar.dayNanos(day) - 1 - work - pause);
+        }
+        return periods.finish();
+    }
+
+    private WorkSummary sumDay(LocalDate date, List<DailyWorkRollup> rollups) {
+        if (rollups.isEmpty())
+            return new WorkSummary(Duration.ZERO, Duration.ZERO, Duration.ofNanos(calendar.dayNanos(date)));
+        long work = 0;
+        long pause = 0;
+        for (DailyWorkRollup rollup : rollups) {
+            work += rollup.getWorkNanos();
+            pause += rollup.getPauseNanos();
+        }
+        return new WorkSummary(Duration.ofNanos(work), Duration.ofNanos(pause), Duration.ofNanos(calendar.dayNanos(date) - 1 - work - pause));
+    }
+
+    public static WorkSummary toWorkSummary(DailyWorkRollup rollup) {
+        return new WorkSummary(Duration.ofNanos(rollup.getWorkNanos()), Duration.ofNanos(rollup.getPauseNanos()), Duration.ofNanos(rollup.getInactiveNanos()));
+    }
+
+    private record PairKey(String employerName, String machineName) { }
+
+    private record DayKey(LocalDate workDate, String employerName, String machineName) { }
+}
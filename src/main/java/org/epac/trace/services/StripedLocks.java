@@ -0,0 +1,60 @@
+package org.epac.trace.services;
+
+import org.epac.trace.config.TraceProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Verrous répartis par clé (employé, machine) : les traces d'une même machine ou d'un même employé sont
+// validées et insérées l'une après l'autre, les autres clés restent en parallèle.
+// Les verrous sont toujours pris dans l'ordre croissant des indices pour éviter les interblocages.
+@Component
+public class StripedLocks {
+    private final ReentrantLock[] stripes;
+
+    public StripedLocks(TraceProperties properties) {
+        stripes = new ReentrantLock[properties.getIngest().getLockStripes()];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    public Held lock(String... keys) {
+        int[] indexes = Arrays.stream(keys).mapToInt(this::stripeOf).distinct().sorted().toArray();
+        for (int i = 0; i < indexes.length; i++) {
+            try {
+                stripes[indexes[i]].lockInterruptibly();
+            } catch (InterruptedException e) {
+                unlock(indexes, i);
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrompu en attente du verrou", e);
+            }
+        }
+        return () -> unlock(indexes, indexes.length);
+    }
+
+    public static String employerKey(String employerName) {
+        return "employer:" + employerName;
+    }
+
+    public static String machineKey(String machineName) {
+        return "machine:" + machineName;
+    }
+
+    private int stripeOf(String key) {
+        int hash = key.hashCode();
+        return Math.floorMod(hash ^ (hash >>> 16), stripes.length);
+    }
+
+    private void unlock(int[] indexes, int count) {
+        for (int i = count - 1; i >= 0; i--) {
+            stripes[indexes[i]].unlock();
+        }
+    }
+
+    public interface Held extends AutoCloseable {
+        @Override
+        void close();
+    }
+}
@@ -0,0 +1,208 @@
+package org.epac.trace.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.epac.trace.config.TraceProperties;
+import org.epac.trace.dto.WorkSummary;
+import org.epac.trace.entity.Trace;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+// Cache des résumés par période : une entrée par (axe, clé, granularité, début de période).
+// Une nouvelle trace est toujours la plus récente de son employé et de sa machine (vérifié à la validation par
+// TransitionRules, /add étant horodaté par le serveur) : elle ne modifie que la période qui la contient, seule cette
+// période est évincée après le commit. Les périodes passées restent en cache
+// jusqu'à la limite de taille.
+@Component
+public class SummaryCache implements MeterBinder {
+    // Série de résumés : un axe, une clé (employé, machine ou les deux) et une granularité
+    public record SeriesKey(Dimension dimension, String employerName, String machineName, Granularity granularity) {
+        public static SeriesKey of(Dimension dimension, String employerName, String machineName, Granularity granularity) {
+            return switch (dimension) {
+                case EMPLOYER -> new SeriesKey(dimension, employerName, null, granularity);
+                case MACHINE -> new SeriesKey(dimension, null, machineName, granularity);
+                case EMPLOYER_MACHINE -> new SeriesKey(dimension, employerName, machineName, granularity);
+            };
+        }
+    }
+
+    private record PeriodKey(SeriesKey series, LocalDate periodStart) { }
+
+    // Chargements en cours d'une série et évictions de cette série depuis le premier d'entre eux
+    private static final class Loading {
+        private int loaders;
+        private final AtomicLong evictions = new AtomicLong();
+    }
+
+    // Chargement d'une série : l'état partagé et les compteurs relevés au début
+    private record Load(SeriesKey series, Loading loading, long evictions, long invalidations) { }
+
+    private final boolean enabled;
+    private final ProductionCalendar calendar;
+    private final Cache<PeriodKey, WorkSummary> periods;
+    // Débuts de période connus de chaque série, pour recomposer une série sans relire l'historique
+    private final Cache<SeriesKey, NavigableSet<LocalDate>> seriesPeriods;
+    // Séries en cours de chargement et leurs évictions : une série évincée pendant son chargement n'est pas gardée,
+    // une trace d'une autre série ne l'empêche pas
+    private final Map<SeriesKey, Loading> loading = new ConcurrentHashMap<>();
+    // Incrémenté à chaque vidage complet (reconstruction des agrégats) : aucune série chargée pendant ce temps n'est gardée
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public SummaryCache(TraceProperties properties, ProductionCalendar calendar) {
+        this.enabled = properties.getCache().isEnabled();
+        this.calendar = calendar;
+        this.periods = Caffeine.newBuilder()
+                .maximumSize(properties.getCache().getMaximumSize())
+                .recordStats()
+                .build();
+        this.seriesPeriods = Caffeine.newBuilder()
+                .maximumSize(properties.getCache().getMaximumSize())
+                .recordStats()
+                .build();
+    }
+
+    // loadSeries : toute la série (un parcours de l'historique) ; loadPeriod : une seule période, null si elle n'a pas de trace
+    public Map<LocalDate, WorkSummary> series(SeriesKey series,
+                                              Function<SeriesKey, Map<LocalDate, WorkSummary>> loadSeries,
+                                              BiFunction<SeriesKey, LocalDate, WorkSummary> loadPeriod) {
+        if (!enabled)
+            return loadSeries.apply(series);
+        NavigableSet<LocalDate> known = seriesPeriods.getIfPresent(series);
+        if (known == null) {
+            Load load = begin(series);
+            try {
+                Map<LocalDate, WorkSummary> summaries = loadSeries.apply(series);
+                store(load, summaries);
+                return summaries;
+            } finally {
+                end(load);
+            }
+        }
+        Map<LocalDate, WorkSummary> summaries = new TreeMap<>();
+        for (LocalDate periodStart : known) {
+            WorkSummary summary = periods.get(new PeriodKey(series, periodStart), key -> loadPeriod.apply(key.series(), key.periodStart()));
+            if (summary != null) {
+                summaries.put(periodStart, summary);
+            }
+        }
+        return summaries;
+    }
+
+    // Même chose pour plusieurs séries : si l'une d'elles n'est pas en cache, loadAll les charge toutes en un parcours
+    public Map<SeriesKey, Map<LocalDate, WorkSummary>> seriesOf(Collection<SeriesKey> series,
+                                                               Supplier<Map<SeriesKey, Map<LocalDate, WorkSummary>>> loadAll,
+                                                               BiFunction<SeriesKey, LocalDate, WorkSummary> loadPeriod) {
+        if (!enabled)
+            return loadAll.get();
+        if (!seriesPeriods.getAllPresent(series).keySet().containsAll(series)) {
+            List<Load> loads = new ArrayList<>();
+            try {
+                for (SeriesKey key : new LinkedHashSet<>(series)) {
+                    loads.add(begin(key));
+                }
+                Map<SeriesKey, Map<LocalDate, WorkSummary>> summaries = loadAll.get();
+                // Seules les séries demandées sont suivies pendant le chargement et donc gardées
+                for (Load load : loads) {
+                    store(load, summaries.getOrDefault(load.series(), Map.of()));
+                }
+                return summaries;
+            } finally {
+                loads.forEach(this::end);
+            }
+        }
+        Map<SeriesKey, Map<LocalDate, WorkSummary>> summaries = new HashMap<>();
+        for (SeriesKey key : series) {
+            summaries.put(key, series(key, k -> { throw new IllegalStateException("Série absente du cache"); }, loadPeriod));
+        }
+        return summaries;
+    }
+
+    private Load begin(SeriesKey series) {
+        long invalidationsBefore = invalidations.get();
+        long[] evictionsBefore = new long[1];
+        Loading state = loading.compute(series, (key, current) -> {
+            Loading next = current != null ? current : new Loading();
+            next.loaders++;
+            evictionsBefore[0] = next.evictions.get();
+            return next;
+        });
+        return new Load(series, state, evictionsBefore[0], invalidationsBefore);
+    }
+
+    private void end(Load load) {
+        loading.computeIfPresent(load.series(), (key, current) -> --current.loaders == 0 ? null : current);
+    }
+
+    // Gardée puis vérifiée : une éviction qui suit la vérification passe après l'écriture et la corrige elle-même
+    private void store(Load load, Map<LocalDate, WorkSummary> summaries) {
+        SeriesKey series = load.series();
+        summaries.forEach((periodStart, summary) -> periods.put(new PeriodKey(series, periodStart), summary));
+        seriesPeriods.put(series, new ConcurrentSkipListSet<>(summaries.keySet()));
+        // Une trace de cette série a été validée pendant le chargement : la série est peut-être déjà périmée
+        if (load.loading().evictions.get() != load.evictions() || invalidations.get() != load.invalidations()) {
+            seriesPeriods.invalidate(series);
+        }
+    }
+
+    // Évince les périodes touchées par la trace après le commit de la transaction courante (immédiatement s'il n'y en a pas)
+    public void evictOnCommit(Trace trace) {
+        if (!enabled)
+            return;
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            evict(trace);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                evict(trace);
+            }
+        });
+    }
+
+    public void evict(Trace trace) {
+        LocalDate day = calendar.productionDay(trace.getTimestamp());
+        for (Dimension dimension : Dimension.values()) {
+            for (Granularity granularity : Granularity.values()) {
+                SeriesKey series = SeriesKey.of(dimension, trace.getEmployerName(), trace.getMachineName(), granularity);
+                Loading state = loading.get(series);
+                if (state != null) {
+                    state.evictions.incrementAndGet();
+                }
+                LocalDate periodStart = granularity.startOf(day);
+                periods.invalidate(new PeriodKey(series, periodStart));
+                // La période peut être nouvelle pour la série
+                NavigableSet<LocalDate> known = seriesPeriods.getIfPresent(series);
+                if (known != null) {
+                    known.add(periodStart);
+                }
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        invalidations.incrementAndGet();
+        seriesPeriods.invalidateAll();
+        periods.invalidateAll();
+    }
+
+    // Succès et défauts de cache exposés par Micrometer (cache.gets, cache.evictions, cache.size)
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, periods, "summaryPeriods");
+        CaffeineCacheMetrics.monitor(registry, seriesPeriods, "summarySeries");
+    }
+}
@@ -0,0 +1,57 @@
+package org.epac.trace.services;
+
+import org.epac.trace.entity.Trace;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Jours de production des employés et des machines modifiés par des traces validées depuis le dernier tick du flux
+// des résumés. Plusieurs traces du même employé le même jour ne donnent qu'un changement.
+@Component
+public class SummaryChanges {
+    private final Set<Change> changes = ConcurrentHashMap.newKeySet();
+    private final ProductionCalendar calendar;
+
+    public SummaryChanges(ProductionCalendar calendar) {
+        this.calendar = calendar;
+    }
+
+    // Enregistre le changement après le commit de la transaction courante (immédiatement s'il n'y en a pas)
+    public void recordOnCommit(Trace trace) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            record(trace);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                record(trace);
+            }
+        });
+    }
+
+    public void record(Trace trace) {
+        LocalDate day = calendar.productionDay(trace.getTimestamp());
+        changes.add(new Change(Dimension.EMPLOYER, trace.getEmployerName(), day));
+        changes.add(new Change(Dimension.MACHINE, trace.getMachineName(), day));
+    }
+
+    public record Change(Dimension dimension, String key, LocalDate day) { }
+
+    // Retire et retourne les changements en attente ; ceux enregistrés pendant l'appel partent au tick suivant
+    public List<Change> drain() {
+        List<Change> drained = new ArrayList<>();
+        for (Change change : changes) {
+            if (changes.remove(change)) {
+                drained.add(change);
+            }
+        }
+        return drained;
+    }
+}
@@ -0,0 +1,74 @@
+package org.epac.trace.services;
+
+import org.epac.trace.config.TraceProperties;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+// Calcul en parallèle des résumés de plusieurs clés (tous les employés, toutes les machines) sur des threads virtuels.
+// Deux limites : fanOutParallelism calculs en même temps par requête, et fanOutMaxConcurrency calculs en même temps
+// pour toute l'application, inférieur au pool de connexions Hikari pour garder des connexions à l'insertion des traces.
+@Component
+public class SummaryFanOut implements DisposableBean {
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("summary-fan-out-", 0).factory());
+    private final Semaphore permits;
+    private final int parallelism;
+
+    public SummaryFanOut(TraceProperties properties) {
+        this.parallelism = properties.getSummary().getFanOutParallelism();
+        this.permits = new Semaphore(properties.getSummary().getFanOutMaxConcurrency(), true);
+    }
+
+    // Résultats triés par clé
+    public <V> Map<String, V> computeAll(List<String> keys, Function<String, V> compute) {
+        Map<String, V> results = new ConcurrentHashMap<>();
+        int workers = Math.min(parallelism, keys.size());
+        if (workers <= 1) {
+            keys.forEach(key -> results.put(key, compute.apply(key)));
+            return new TreeMap<>(results);
+        }
+        // Chaque tâche prend la clé suivante tant qu'il en reste
+        AtomicInteger next = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < workers; i++) {
+            futures.add(executor.submit(() -> {
+                for (int index = next.getAndIncrement(); index < keys.size(); index = next.getAndIncrement()) {
+                    String key = keys.get(index);
+                    permits.acquire();
+                    try {
+                        results.put(key, compute.apply(key));
+                    } finally {
+                        permits.release();
+                    }
+                }
+                return null;
+            }));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            futures.forEach(future -> future.cancel(true));
+            if (e.getCause() instanceof RuntimeException runtimeException)
+                throw runtimeException;
+            if (e.getCause() instanceof Error error)
+                throw error;
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            futures.forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Calcul des résumés interrompu", e);
+        }
+        return new TreeMap<>(results);
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,22 @@
+package org.epac.trace.services;
+
+// Découpage des résumés de /summary : tranches dans la journée (heures, postes du calendrier de production)
+// ou périodes de jours de production (jour, semaine, mois)
+public enum SummaryGranularity {
+    HOUR(null),
+    SHIFT(null),
+    DAY(Granularity.DAY),
+    WEEK(Granularity.WEEK),
+    MONTH(Granularity.MONTH);
+
+    private final Granularity periods;
+
+    SummaryGranularity(Granularity periods) {
+        this.periods = periods;
+    }
+
+    // Période de jours correspondante, null pour les tranches dans la journée
+    public Granularity periods() {
+        return periods;
+    }
+}
@@ -0,0 +1,460 @@
+package org.epac.trace.services;
+
+import lombok.AllArgsConstructor;
+import org.epac.trace.config.TraceProperties;
+import org.epac.trace.dto.SummaryPage;
+import org.epac.trace.dto.WorkSummary;
+import org.epac.trace.entity.Trace;
+import org.epac.trace.exception.InvalidSummaryRequestException;
+import org.epac.trace.repository.TraceRepository;
+import org.epac.trace.repository.TraceSegment;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.stream.Stream;
+
+// Lecture des résumés : choix de la source (index des totaux journaliers, cache des périodes, agrégats ou rejeu des
+// traces et de l'archive) et de la base (réplica, ou base principale pour le jour courant). TraceService n'y ajoute que
+// les métriques des résumés et le calcul en parallèle par clé.
+@Service
+@AllArgsConstructor
+public class SummaryReader {
+    private final TraceRepository traceRepository;
+    private final RollupService rollupService;
+    private final SummaryCache summaryCache;
+    private final TransactionTemplate transactionTemplate;
+    private final TraceProperties properties;
+    private final ProductionCalendar calendar;
+    private final TraceArchive archive;
+    private final TraceMetrics metrics;
+    private final ReplicaRouting replicaRouting;
+    private final DailyTotals dailyTotals;
+
+    public WorkSummary dayOfEmployer(String employerName, LocalDate date) {
+        return replicaRouting.read(isCurrent(date), () -> summarizeDayOfEmployer(employerName, date));
+    }
+
+    public Map<String, WorkSummary> dayOfEmployerByMachine(String employerName, LocalDate date) {
+        return replicaRouting.read(isCurrent(date), () -> summarizeDayOfEmployerByMachine(employerName, date));
+    }
+
+    // Relu sur la base principale : juste après une trace, que le réplica n'a peut-être pas encore
+    public Map<String, WorkSummary> dayOfEmployerByMachineOnPrimary(String employerName, LocalDate date) {
+        return summarizeDayOfEmployerByMachine(employerName, date);
+    }
+
+    public Map<String, Map<String, WorkSummary>> dayByEmployeeAndMachine(LocalDate date) {
+        return replicaRouting.read(isCurrent(date), () -> summarizeDayByEmployeeAndMachine(date));
+    }
+
+    public WorkSummary dayOfMachine(String machineName, LocalDate date) {
+        return replicaRouting.read(isCurrent(date), () -> summarizeDayOfMachine(machineName, date));
+    }
+
+    // Résumés d'une page de clés sur une fenêtre de dates : une seule requête bornée à la fenêtre (et à la veille
+    // de son début pour le report) et un balayage par clé. key filtre la dimension ; pour un couple, key est l'employé
+    // et la page porte sur ses machines.
+    public SummaryPage page(Dimension dimension, String key, LocalDate from, LocalDate to, SummaryGranularity granularity, int page, int size) {
+        return replicaRouting.read(isCurrent(to), () -> summarizePage(dimension, key, from, to, granularity, page, size));
+    }
+
+    // Totaux sur une plage de jours quelconque (par exemple les 90 derniers jours), les jours sans trace étant inactifs :
+    // deux sommes préfixes de l'index des totaux journaliers, sinon la série journalière additionnée sur la plage
+    public WorkSummary total(Dimension dimension, String employerName, String machineName, LocalDate from, LocalDate to) {
+        if (from.isAfter(to))
+            throw new InvalidSummaryRequestException("La date de début doit précéder la date de fin.");
+        if ((dimension != Dimension.MACHINE && employerName == null) || (dimension != Dimension.EMPLOYER && machineName == null))
+            throw new InvalidSummaryRequestException("L'employé et/ou la machine de la dimension " + dimension + " sont obligatoires.");
+        return dailyTotals.total(SummaryCache.SeriesKey.of(dimension, employerName, machineName, Granularity.DAY), from, to)
+                .orElseGet(() -> sumDays(series(dimension, employerName, machineName, Granularity.DAY), from, to));
+    }
+
+    // Noms de la table des traces (réplica) complétés par ceux de l'archive
+    public List<String> employerNames() {
+        return archive.employerNames(replicaRouting.read(false, traceRepository::findDistinctEmployerName));
+    }
+
+    public List<String> machineNames() {
+        return archive.machineNames(replicaRouting.read(false, traceRepository::findDistinctMachineNames));
+    }
+
+    public List<String> machineNamesOf(String employerName) {
+        return archive.machineNamesOf(employerName, replicaRouting.read(false, () -> traceRepository.findDistinctMachineNameByEmployerName(employerName)));
+    }
+
+    // Série de résumés recomposée par l'index des totaux journaliers, ou servie par le cache ; sinon un seul parcours
+    // des agrégats ou des traces
+    public Map<LocalDate, WorkSummary> series(Dimension dimension, String employerName, String machineName, Granularity granularity) {
+        SummaryCache.SeriesKey series = SummaryCache.SeriesKey.of(dimension, employerName, machineName, granularity);
+        return dailyTotals.series(series).orElseGet(() -> summaryCache.series(series, this::loadSeriesFromReplica, this::loadPeriod));
+    }
+
+    // Séries hebdomadaires de toutes les machines
+    public Map<String, Map<LocalDate, WorkSummary>> weeksOfAllMachines() {
+        // Toutes les machines en une seule requête triée si l'une d'elles n'est pas en cache
+        List<SummaryCache.SeriesKey> series = machineNames().stream()
+                .map(machineName -> SummaryCache.SeriesKey.of(Dimension.MACHINE, null, machineName, Granularity.WEEK))
+                .toList();
+        Map<String, Map<LocalDate, WorkSummary>> weeklyWorkSummaryByMachine = new HashMap<>();
+        dailyTotals.seriesOf(series, null, null)
+                .orElseGet(() -> summaryCache.seriesOf(series, this::loadWeeklyWorkSummaryForAllMachinesFromReplica, this::loadPeriod))
+                .forEach((key, summaries) -> weeklyWorkSummaryByMachine.put(key.machineName(), summaries));
+        return weeklyWorkSummaryByMachine;
+    }
+
+    private WorkSummary summarizeDayOfEmployer(String employerName, LocalDate date) {
+        if (readsRollups())
+            return rollupService.dailySummaryByEmployer(employerName, date);
+        Instant startOfDay = calendar.startOf(date);
+        Instant endOfDay = calendar.endOf(date);
+
+        // Récupérer les opérations du jour actuel
+        TraceSegment.Filter filter = TraceArchive.filter(Dimension.EMPLOYER, employerName, null);
+        List<Trace> traces = metrics.replayed(archive.list(filter, startOfDay, endOfDay,
+                (start, end) -> traceRepository.findByEmployerNameAndTimestampBetweenOrderByTimestampAsc(employerName, start, end)));
+       if (traces.isEmpty())
+           return new WorkSummary(Duration.ZERO, Duration.ZERO, Duration.ofNanos(calendar.dayNanos(date)));
+        // Récupérer la dernière opération du jour précédent
+        Instant startOfPreviousDay = calendar.startOf(date.minusDays(1));
+        Instant endOfPreviousDay = startOfDay.minusNanos(1);
+        Optional<Trace> lastTracePreviousDayOpt = archive.last(filter, startOfPreviousDay, endOfPreviousDay,
+                (start, end) -> traceRepository.findTopByEmployerNameAndTimestampBetweenOrderByTimestampDesc(employerName, start, end));
+
+        return IntervalSweep.summarize(calendar, traces, lastTracePreviousDayOpt.orElse(null), Granularity.DAY).get(date);
+    }
+
+    private Map<String, WorkSummary> summarizeDayOfEmployerByMachine(String employerName, LocalDate date) {
+        if (readsRollups())
+            return rollupService.dailySummaryByEmployerPerMachine(employerName, date);
+        Instant startOfDay = calendar.startOf(date);
+        Instant endOfDay = calendar.endOf(date);
+        // Récupérer les opérations du jour actuel, triées par machine et par timestamp
+        List<Trace> traces = metrics.replayed(archive.list(TraceArchive.filter(Dimension.EMPLOYER, employerName, null), startOfDay, endOfDay,
+                (start, end) -> traceRepository.findByEmployerNameAndTimestampBetweenOrderByMachineNameAscTimestampAsc(employerName, start, end)));
+       if(traces.isEmpty())
+           return new HashMap<>();
+        // Initialisation des maps pour garder les traces par machine
+        Map<String, List<Trace>> tracesByMachine = new HashMap<>();
+        for (Trace trace : traces) {
+            tracesByMachine.computeIfAbsent(trace.getMachineName(), k -> new ArrayList<>()).add(trace);
+        }
+
+        // Calculer le résumé de travail pour chaque machine
+        Map<String, WorkSummary> workSummaryByMachine = new HashMap<>();
+
+        for (Map.Entry<String, List<Trace>> entry : tracesByMachine.entrySet()) {
+            String machine = entry.getKey();
+            List<Trace> machineTraces = entry.getValue();
+
+            // Récupérer la dernière opération du jour précédent pour cette machine
+            Instant startOfPreviousDay = calendar.startOf(date.minusDays(1));
+            Instant endOfPreviousDay = startOfDay.minusNanos(1);
+            Optional<Trace> lastTracePreviousDayOpt = archive.last(TraceArchive.filter(Dimension.EMPLOYER_MACHINE, employerName, machine), startOfPreviousDay, endOfPreviousDay,
+                    (start, end) -> traceRepository.findTopByEmployerNameAndMachineNameAndTimestampBetweenOrderByTimestampDesc(employerName, machine, start, end));
+
+            workSummaryByMachine.put(machine, IntervalSweep.summarize(calendar, machineTraces, lastTracePreviousDayOpt.orElse(null), Granularity.DAY).get(date));
+        }
+        return workSummaryByMachine;
+    }
+
+    // Résumé de la journée pour tous les couples employé/machine ayant des traces ce jour-là, en deux requêtes :
+    // les traces du jour et la dernière trace de chaque couple la veille
+    private Map<String, Map<String, WorkSummary>> summarizeDayByEmployeeAndMachine(LocalDate date) {
+        if (readsRollups())
+            return rollupService.dailySummaryByEmployerAndMachine(date);
+        Instant startOfDay = calendar.startOf(date);
+        List<Trace> traces = metrics.replayed(archive.list(TraceSegment.Filter.ALL, startOfDay, calendar.endOf(date), traceRepository::findByTimestampBetweenOrderByTimestampAsc));
+        if (traces.isEmpty())
+            return new HashMap<>();
+
+        // Grouper les traces par employé et machine en gardant l'ordre chronologique
+        Map<String, Map<String, List<Trace>>> tracesByEmployeeAndMachine = new HashMap<>();
+        for (Trace trace : traces) {
+            tracesByEmployeeAndMachine.computeIfAbsent(trace.getEmployerName(), k -> new HashMap<>())
+                    .computeIfAbsent(trace.getMachineName(), k -> new ArrayList<>()).add(trace);
+        }
+
+        // Dernière opération du jour précédent pour chaque couple
+        Map<String, Map<String, Trace>> lastTracesPreviousDay = new HashMap<>();
+        Instant startOfPreviousDay = calendar.startOf(date.minusDays(1));
+        List<Trace> lastTraces = startOfPreviousDay.isBefore(archive.horizon())
+                ? archive.list(TraceSegment.Filter.ALL, startOfPreviousDay, startOfDay.minusNanos(1), traceRepository::findByTimestampBetweenOrderByTimestampAsc)
+                : traceRepository.findLastTracesByEmployerNameAndMachineNameBetween(startOfPreviousDay, startOfDay.minusNanos(1));
+        // Les traces de la veille lues dans l'archive sont triées : la dernière de chaque couple l'emporte
+        for (Trace trace : lastTraces) {
+            lastTracesPreviousDay.computeIfAbsent(trace.getEmployerName(), k -> new HashMap<>()).put(trace.getMachineName(), trace);
+        }
+
+        Map<String, Map<String, WorkSummary>> workSummaryByEmployee = new HashMap<>();
+        for (Map.Entry<String, Map<String, List<Trace>>> employeeEntry : tracesByEmployeeAndMachine.entrySet()) {
+            String employerName = employeeEntry.getKey();
+            Map<String, Trace> previousByMachine = lastTracesPreviousDay.getOrDefault(employerName, Map.of());
+            Map<String, WorkSummary> workSummaryByMachine = new HashMap<>();
+            for (Map.Entry<String, List<Trace>> machineEntry : employeeEntry.getValue().entrySet()) {
+                String machineName = machineEntry.getKey();
+                Trace previous = previousByMachine.get(machineName);
+                workSummaryByMachine.put(machineName, IntervalSweep.summarize(calendar, machineEntry.getValue(), previous, Granularity.DAY).get(date));
+            }
+            workSummaryByEmployee.put(employerName, workSummaryByMachine);
+        }
+        return workSummaryByEmployee;
+    }
+
+    private WorkSummary summarizeDayOfMachine(String machineName, LocalDate date) {
+        if (readsRollups())
+            return rollupService.dailySummaryByMachine(machineName, date);
+        Instant startOfDay = calendar.startOf(date);
+        Instant endOfDay = calendar.endOf(date);
+
+        // Récupérer les opérations du jour actuel pour la machine spécifiée, triées par timestamp
+        TraceSegment.Filter filter = TraceArchive.filter(Dimension.MACHINE, null, machineName);
+        List<Trace> traces = metrics.replayed(archive.list(filter, startOfDay, endOfDay,
+                (start, end) -> traceRepository.findByMachineNameAndTimestampBetweenOrderByTimestampAsc(machineName, start, end)));
+        if (traces.isEmpty())
+            return new WorkSummary(Duration.ZERO, Duration.ZERO, Duration.ofNanos(calendar.dayNanos(date)));
+
+        // Récupérer la dernière opération du jour précédent pour cette machine
+        Instant startOfPreviousDay = calendar.startOf(date.minusDays(1));
+        Instant endOfPreviousDay = startOfDay.minusNanos(1);
+        Optional<Trace> lastTracePreviousDayOpt = archive.last(filter, startOfPreviousDay, endOfPreviousDay,
+                (start, end) -> traceRepository.findTopByMachineNameAndTimestampBetweenOrderByTimestampDesc(machineName, start, end));
+
+        return IntervalSweep.summarize(calendar, traces, lastTracePreviousDayOpt.orElse(null), Granularity.DAY).get(date);
+    }
+
+    private SummaryPage summarizePage(Dimension dimension, String key, LocalDate from, LocalDate to, SummaryGranularity granularity, int page, int size) {
+        if (from.isAfter(to))
+            throw new InvalidSummaryRequestException("La date de début doit précéder la date de fin.");
+        if (page < 0 || size < 1 || size > properties.getSummary().getMaxPageSize())
+            throw new InvalidSummaryRequestException("La taille de page doit être comprise entre 1 et " + properties.getSummary().getMaxPageSize() + ".");
+        if (calendar.bucketCount(granularity, from, to) > properties.getSummary().getMaxBuckets())
+            throw new InvalidSummaryRequestException("La fenêtre dépasse " + properties.getSummary().getMaxBuckets() + " tranches, réduire la période ou élargir la granularité.");
+
+        ProductionCalendar.Window window = calendar.window(granularity, from, to);
+        List<SummaryCache.SeriesKey> keys = rangeKeys(dimension, key, granularity.periods());
+        List<SummaryCache.SeriesKey> pageKeys = keys.subList((int) Math.min((long) page * size, keys.size()), (int) Math.min((long) (page + 1) * size, keys.size()));
+        Map<SummaryCache.SeriesKey, Map<LocalDateTime, WorkSummary>> summariesByKey = new HashMap<>();
+        if (!pageKeys.isEmpty()) {
+            Granularity periods = granularity.periods();
+            if (periods != null && readsRollups()) {
+                LocalDate start = periods.startOf(from);
+                LocalDate end = periods.endOf(periods.startOf(to));
+                dailyTotals.seriesOf(pageKeys, start, end)
+                        .orElseGet(() -> rollupService.summarizeRange(pageKeys, start, end))
+                        .forEach((series, summaries) -> summariesByKey.put(series, RangeSweep.byPeriodStart(calendar, summaries)));
+            } else {
+                summariesByKey.putAll(sweepRange(dimension, new HashSet<>(pageKeys), granularity, window));
+            }
+        }
+        List<SummaryPage.Series> series = pageKeys.stream()
+                .map(pageKey -> new SummaryPage.Series(pageKey.employerName(), pageKey.machineName(), summariesByKey.get(pageKey)))
+                .toList();
+        return new SummaryPage(calendar.localTime(window.start()), calendar.localTime(window.end()), page, size, keys.size(), series);
+    }
+
+    private List<SummaryCache.SeriesKey> rangeKeys(Dimension dimension, String key, Granularity granularity) {
+        return switch (dimension) {
+            case EMPLOYER -> (key != null ? List.of(key) : employerNames()).stream()
+                    .map(employerName -> SummaryCache.SeriesKey.of(dimension, employerName, null, granularity))
+                    .toList();
+            case MACHINE -> (key != null ? List.of(key) : machineNames()).stream().sorted()
+                    .map(machineName -> SummaryCache.SeriesKey.of(dimension, null, machineName, granularity))
+                    .toList();
+            case EMPLOYER_MACHINE -> key != null
+                    ? machineNamesOf(key).stream().sorted()
+                    .map(machineName -> SummaryCache.SeriesKey.of(dimension, key, machineName, granularity))
+                    .toList()
+                    : archive.pairs(traceRepository.findDistinctEmployerNameAndMachineName()).stream()
+                    .map(pair -> SummaryCache.SeriesKey.of(dimension, (String) pair[0], (String) pair[1], granularity))
+                    .toList();
+        };
+    }
+
+    // Les traces d'avant la fenêtre ne servent qu'à retenir la dernière trace de chaque clé pour le report
+    private Map<SummaryCache.SeriesKey, Map<LocalDateTime, WorkSummary>> sweepRange(Dimension dimension, Set<SummaryCache.SeriesKey> keys,
+                                                                                 SummaryGranularity granularity, ProductionCalendar.Window window) {
+        Instant start = window.start();
+        Instant queryStart = calendar.startOf(calendar.productionDay(start).minusDays(1));
+        Instant queryEnd = window.end().minusNanos(1);
+        Set<String> employerNames = new HashSet<>();
+        Set<String> machineNames = new HashSet<>();
+        keys.forEach(series -> {
+            employerNames.add(series.employerName());
+            machineNames.add(series.machineName());
+        });
+        Map<SummaryCache.SeriesKey, Trace> previousTraces = new HashMap<>();
+        Map<SummaryCache.SeriesKey, RangeSweep> sweeps = new HashMap<>();
+        transactionTemplate.executeWithoutResult(status -> {
+            try (Stream<Trace> traces = switch (dimension) {
+                case EMPLOYER -> archive.stream(new TraceSegment.Filter(employerNames, null), queryStart, queryEnd,
+                        (from, to) -> traceRepository.findAllByEmployerNameInAndTimestampBetweenOrderByTimestamp(employerNames, from, to));
+                case MACHINE -> archive.stream(new TraceSegment.Filter(null, machineNames), queryStart, queryEnd,
+                        (from, to) -> traceRepository.findAllByMachineNameInAndTimestampBetweenOrderByTimestamp(machineNames, from, to));
+                case EMPLOYER_MACHINE -> archive.stream(new TraceSegment.Filter(employerNames, machineNames), queryStart, queryEnd,
+                        (from, to) -> traceRepository.findAllByEmployerNameInAndMachineNameInAndTimestampBetweenOrderByTimestamp(employerNames, machineNames, from, to));
+            }) {
+                metrics.replayed(traces).forEachOrdered(trace -> {
+                    SummaryCache.SeriesKey series = SummaryCache.SeriesKey.of(dimension, trace.getEmployerName(), trace.getMachineName(), granularity.periods());
+                    if (!keys.contains(series))
+                        return;
+                    if (trace.getTimestamp().isBefore(start)) {
+                        previousTraces.put(series, trace);
+                    } else {
+                        sweeps.computeIfAbsent(series, k -> RangeSweep.of(calendar, granularity, window, previousTraces.get(k))).accept(trace);
+                    }
+                });
+            }
+        });
+        Map<SummaryCache.SeriesKey, Map<LocalDateTime, WorkSummary>> summariesByKey = new HashMap<>();
+        for (SummaryCache.SeriesKey series : keys) {
+            RangeSweep sweep = sweeps.get(series);
+            if (sweep == null) {
+                // Aucune trace dans la fenêtre : seul le report de la veille peut y compter
+                sweep = RangeSweep.of(calendar, granularity, window, previousTraces.get(series));
+            }
+            summariesByKey.put(series, sweep.finish());
+        }
+        return summariesByKey;
+    }
+
+    private WorkSummary sumDays(Map<LocalDate, WorkSummary> days, LocalDate from, LocalDate to) {
+        long work = 0;
+        long pause = 0;
+        long inactive = calendar.nanosBetween(from, to.plusDays(1));
+        for (Map.Entry<LocalDate, WorkSummary> day : days.entrySet()) {
+            if (day.getKey().isBefore(from) || day.getKey().isAfter(to))
+                continue;
+            work += day.getValue().workDuration().toNanos();
+            pause += day.getValue().pauseDuration().toNanos();
+            inactive += day.getValue().inactiveDuration().toNanos() - calendar.dayNanos(day.getKey());
+        }
+        return new WorkSummary(Duration.ofNanos(work), Duration.ofNanos(pause), Duration.ofNanos(inactive));
+    }
+
+    private Map<SummaryCache.SeriesKey, Map<LocalDate, WorkSummary>> loadWeeklyWorkSummaryForAllMachinesFromReplica() {
+        if (!replicaRouting.replicaServes(false))
+            return loadWeeklyWorkSummaryForAllMachines();
+        Map<SummaryCache.SeriesKey, Map<LocalDate, WorkSummary>> weeklyWorkSummaryByMachine = new HashMap<>();
+        replicaRouting.read(false, this::loadWeeklyWorkSummaryForAllMachines)
+                .forEach((series, summaries) -> weeklyWorkSummaryByMachine.put(series, withCurrentPeriod(series, summaries)));
+        return weeklyWorkSummaryByMachine;
+    }
+
+    private Map<SummaryCache.SeriesKey, Map<LocalDate, WorkSummary>> loadWeeklyWorkSummaryForAllMachines() {
+        Map<SummaryCache.SeriesKey, Map<LocalDate, WorkSummary>> weeklyWorkSummaryByMachine = new HashMap<>();
+        if (readsRollups()) {
+            rollupService.summarizeAllMachines(Granularity.WEEK).forEach((machineName, summaries) ->
+                    weeklyWorkSummaryByMachine.put(SummaryCache.SeriesKey.of(Dimension.MACHINE, null, machineName, Granularity.WEEK), summaries));
+            return weeklyWorkSummaryByMachine;
+        }
+        // Les mois archivés (triés par timestamp), puis une seule requête sur la table triée par machine et par timestamp,
+        // lue en flux : les traces de chaque machine arrivent dans l'ordre, un balayage par machine
+        Map<String, IntervalSweep> sweeps = new HashMap<>();
+        transactionTemplate.executeWithoutResult(status -> {
+            try (Stream<Trace> traces = metrics.replayed(archive.history(TraceSegment.Filter.ALL, traceRepository::findAllByTimestampGreaterThanEqualOrderByMachineNameAscTimestampAsc))) {
+                traces.forEachOrdered(trace -> sweeps.computeIfAbsent(trace.getMachineName(), k -> new IntervalSweep(calendar, Granularity.WEEK)).accept(trace));
+            }
+        });
+        sweeps.forEach((machineName, sweep) ->
+                weeklyWorkSummaryByMachine.put(SummaryCache.SeriesKey.of(Dimension.MACHINE, null, machineName, Granularity.WEEK), sweep.finish()));
+        return weeklyWorkSummaryByMachine;
+    }
+
+    // Série chargée sur le réplica s'il répond, sa période en cours relue sur la base principale : le cache ne garde
+    // jamais un retard du réplica sur la période qui reçoit des traces
+    private Map<LocalDate, WorkSummary> loadSeriesFromReplica(SummaryCache.SeriesKey series) {
+        if (!replicaRouting.replicaServes(false))
+            return loadSeries(series);
+        return withCurrentPeriod(series, replicaRouting.read(false, () -> loadSeries(series)));
+    }
+
+    private Map<LocalDate, WorkSummary> withCurrentPeriod(SummaryCache.SeriesKey series, Map<LocalDate, WorkSummary> summaries) {
+        LocalDate currentPeriod = series.granularity().startOf(calendar.today());
+        WorkSummary current = loadPeriod(series, currentPeriod);
+        Map<LocalDate, WorkSummary> merged = new TreeMap<>(summaries);
+        if (current == null) {
+            merged.remove(currentPeriod);
+        } else {
+            merged.put(currentPeriod, current);
+        }
+        return merged;
+    }
+
+    private Map<LocalDate, WorkSummary> loadSeries(SummaryCache.SeriesKey series) {
+        String employerName = series.employerName();
+        String machineName = series.machineName();
+        Granularity granularity = series.granularity();
+        if (readsRollups()) {
+            return switch (series.dimension()) {
+                case EMPLOYER -> rollupService.summarizeEmployer(employerName, granularity);
+                case MACHINE -> rollupService.summarizeMachine(machineName, granularity);
+                case EMPLOYER_MACHINE -> rollupService.summarizeEmployerAndMachine(employerName, machineName, granularity);
+            };
+        }
+        // Les traces sont lues en flux : la transaction garde le curseur ouvert. Pour un couple, le report se fait par couple employé/machine
+        TraceSegment.Filter filter = TraceArchive.filter(series.dimension(), employerName, machineName);
+        return transactionTemplate.execute(status -> sweep(switch (series.dimension()) {
+            case EMPLOYER -> archive.history(filter, from -> traceRepository.findAllByEmployerNameAndTimestampGreaterThanEqualOrderByTimestamp(employerName, from));
+            case MACHINE -> archive.history(filter, from -> traceRepository.findAllByMachineNameAndTimestampGreaterThanEqualOrderByTimestamp(machineName, from));
+            case EMPLOYER_MACHINE -> archive.history(filter, from -> traceRepository.findAllByMachineNameAndEmployerNameAndTimestampGreaterThanEqualOrderByTimestamp(machineName, employerName, from));
+        }, granularity));
+    }
+
+    // Une seule période : ses traces et la dernière trace de la veille pour le report
+    private WorkSummary loadPeriod(SummaryCache.SeriesKey series, LocalDate periodStart) {
+        String employerName = series.employerName();
+        String machineName = series.machineName();
+        Granularity granularity = series.granularity();
+        if (readsRollups())
+            return rollupService.summarizePeriod(series.dimension(), employerName, machineName, granularity, periodStart);
+        Instant start = calendar.startOf(periodStart);
+        Instant end = calendar.endOf(granularity.endOf(periodStart));
+        Instant startOfPreviousDay = calendar.startOf(periodStart.minusDays(1));
+        Instant endOfPreviousDay = start.minusNanos(1);
+        TraceSegment.Filter filter = TraceArchive.filter(series.dimension(), employerName, machineName);
+        List<Trace> traces;
+        Optional<Trace> lastTracePreviousDayOpt;
+        switch (series.dimension()) {
+            case EMPLOYER -> {
+                traces = archive.list(filter, start, end, (from, to) -> traceRepository.findByEmployerNameAndTimestampBetweenOrderByTimestampAsc(employerName, from, to));
+                lastTracePreviousDayOpt = archive.last(filter, startOfPreviousDay, endOfPreviousDay,
+                        (from, to) -> traceRepository.findTopByEmployerNameAndTimestampBetweenOrderByTimestampDesc(employerName, from, to));
+            }
+            case MACHINE -> {
+                traces = archive.list(filter, start, end, (from, to) -> traceRepository.findByMachineNameAndTimestampBetweenOrderByTimestampAsc(machineName, from, to));
+                lastTracePreviousDayOpt = archive.last(filter, startOfPreviousDay, endOfPreviousDay,
+                        (from, to) -> traceRepository.findTopByMachineNameAndTimestampBetweenOrderByTimestampDesc(machineName, from, to));
+            }
+            default -> {
+                traces = archive.list(filter, start, end,
+                        (from, to) -> traceRepository.findByEmployerNameAndMachineNameAndTimestampBetweenOrderByTimestampAsc(employerName, machineName, from, to));
+                lastTracePreviousDayOpt = archive.last(filter, startOfPreviousDay, endOfPreviousDay,
+                        (from, to) -> traceRepository.findTopByEmployerNameAndMachineNameAndTimestampBetweenOrderByTimestampDesc(employerName, machineName, from, to));
+            }
+        }
+        return IntervalSweep.summarize(calendar, metrics.replayed(traces), lastTracePreviousDayOpt.orElse(null), granularity).get(periodStart);
+    }
+
+    // Balayage d'un flux de traces triées, fermé à la fin : seul l'état du jour et de la période en cours est gardé
+    private Map<LocalDate, WorkSummary> sweep(Stream<Trace> traces, Granularity granularity) {
+        try (traces) {
+            IntervalSweep sweep = new IntervalSweep(calendar, granularity);
+            metrics.replayed(traces).forEachOrdered(sweep::accept);
+            return sweep.finish();
+        }
+    }
+
+    // La lecture couvre le jour de production courant, le seul que le retard du réplica peut fausser
+    private boolean isCurrent(LocalDate date) {
+        return !date.isBefore(calendar.today());
+    }
+
+    private boolean readsRollups() {
+        return properties.getSummary().getSource() == TraceProperties.SummarySource.ROLLUP;
+    }
+}
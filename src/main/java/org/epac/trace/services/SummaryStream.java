@@ -0,0 +1,160 @@
+package org.epac.trace.services;
+
+import lombok.extern.slf4j.Slf4j;
+import org.epac.trace.config.TraceProperties;
+import org.epac.trace.dto.SummaryUpdate;
+import org.epac.trace.exception.InvalidSummaryRequestException;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Flux SSE des résumés du jour (/stream/summaries) pour les tableaux d'atelier.
+// À chaque tick, les changements validés depuis le tick précédent sont regroupés : le résumé de chaque employé ou
+// machine modifié est calculé une seule fois, quel que soit le nombre d'abonnés, puis remis à ceux qui le suivent.
+// Chaque abonné a sa file (une entrée par clé et par jour, la plus récente gagne) vidée par son propre thread virtuel :
+// un client lent ne retarde pas les autres, et il est déconnecté si sa file dépasse maxPending.
+@Component
+@Slf4j
+public class SummaryStream implements DisposableBean {
+    private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("summary-stream").daemon().factory());
+    private final ExecutorService senders = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("summary-stream-", 0).factory());
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private final SummaryChanges changes;
+    private final TraceService traceService;
+    private final ReplicaRouting replicaRouting;
+    private final TraceProperties.Stream settings;
+
+    public SummaryStream(SummaryChanges changes, TraceService traceService, ReplicaRouting replicaRouting, TraceProperties properties) {
+        this.changes = changes;
+        this.traceService = traceService;
+        this.replicaRouting = replicaRouting;
+        this.settings = properties.getStream();
+        long interval = settings.getInterval().toMillis();
+        ticker.scheduleWithFixedDelay(this::tick, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    // dimension et key filtrent les mises à jour (toutes si absents)
+    public SseEmitter subscribe(Dimension dimension, String key) {
+        if (dimension == Dimension.EMPLOYER_MACHINE)
+            throw new InvalidSummaryRequestException("Le flux porte sur les employés ou les machines.");
+        if (subscribers.size() >= settings.getMaxSubscribers())
+            throw new RejectedExecutionException("Trop d'abonnés au flux des résumés.");
+        SseEmitter emitter = new SseEmitter(settings.getTimeout().toMillis());
+        Subscriber subscriber = new Subscriber(emitter, dimension, key);
+        subscribers.add(subscriber);
+        emitter.onCompletion(() -> subscribers.remove(subscriber));
+        emitter.onTimeout(emitter::complete);
+        emitter.onError(e -> subscribers.remove(subscriber));
+        return emitter;
+    }
+
+    public int subscriberCount() {
+        return subscribers.size();
+    }
+
+    // Une exception ne doit pas arrêter les ticks suivants
+    void tick() {
+        try {
+            publish(changes.drain());
+        } catch (RuntimeException e) {
+            log.warn("Publication des résumés du flux impossible", e);
+        }
+    }
+
+    private void publish(List<SummaryChanges.Change> drained) {
+        for (SummaryChanges.Change change : drained) {
+            List<Subscriber> interested = subscribers.stream().filter(subscriber -> subscriber.follows(change)).toList();
+            if (interested.isEmpty())
+                continue;
+            SummaryUpdate update = summarize(change);
+            interested.forEach(subscriber -> subscriber.offer(change, update));
+        }
+    }
+
+    // Sur la base principale : le résumé doit inclure les changements qui l'ont déclenché
+    private SummaryUpdate summarize(SummaryChanges.Change change) {
+        return replicaRouting.onPrimary(() -> summarizeChange(change));
+    }
+
+    private SummaryUpdate summarizeChange(SummaryChanges.Change change) {
+        if (change.dimension() == Dimension.EMPLOYER)
+            return new SummaryUpdate(change.key(), null, change.day(), traceService.calculateDailyWorkSummary(change.key(), change.day()));
+        return new SummaryUpdate(null, change.key(), change.day(), traceService.calculateDailyWorkSummaryMachine(change.key(), change.day()));
+    }
+
+    @Override
+    public void destroy() {
+        ticker.shutdownNow();
+        subscribers.forEach(subscriber -> subscriber.emitter.complete());
+        senders.shutdownNow();
+    }
+
+    private final class Subscriber {
+        private final SseEmitter emitter;
+        private final Dimension dimension;
+        private final String key;
+        // Mises à jour pas encore envoyées, dans l'ordre d'arrivée des clés
+        private final Map<SummaryChanges.Change, SummaryUpdate> pending = new LinkedHashMap<>();
+        private boolean sending;
+
+        private Subscriber(SseEmitter emitter, Dimension dimension, String key) {
+            this.emitter = emitter;
+            this.dimension = dimension;
+            this.key = key;
+        }
+
+        private boolean follows(SummaryChanges.Change change) {
+            return (dimension == null || dimension == change.dimension()) && (key == null || key.equals(change.key()));
+        }
+
+        private void offer(SummaryChanges.Change change, SummaryUpdate update) {
+            synchronized (this) {
+                pending.put(change, update);
+                if (pending.size() > settings.getMaxPending()) {
+                    pending.clear();
+                } else if (sending) {
+                    return;
+                } else {
+                    sending = true;
+                    senders.execute(this::send);
+                    return;
+                }
+            }
+            log.info("Client du flux des résumés trop lent, déconnecté");
+            close();
+        }
+
+        private void send() {
+            while (true) {
+                List<SummaryUpdate> updates;
+                synchronized (this) {
+                    if (pending.isEmpty()) {
+                        sending = false;
+                        return;
+                    }
+                    updates = new ArrayList<>(pending.values());
+                    pending.clear();
+                }
+                try {
+                    for (SummaryUpdate update : updates) {
+                        emitter.send(SseEmitter.event().name("summary").data(update, MediaType.APPLICATION_JSON));
+                    }
+                } catch (IOException | IllegalStateException e) {
+                    // Client parti : l'envoi reste bloqué (sending) et l'abonné est retiré
+                    close();
+                    return;
+                }
+            }
+        }
+
+        private void close() {
+            subscribers.remove(this);
+            emitter.complete();
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package org.epac.trace.services;
+
+import lombok.extern.slf4j.Slf4j;
+import org.epac.trace.config.TraceProperties;
+import org.epac.trace.entity.Trace;
+import org.epac.trace.repository.TracePartitions;
+import org.epac.trace.repository.TraceRepository;
+import org.epac.trace.repository.TraceSegment;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.*;
+import java.util.*;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+// Archive des mois clos : les traces plus anciennes que l'horizon sont dans des segments en colonnes (un fichier par mois
+// de production), les plus récentes dans la table. Les lectures de traces passent par ici : la table n'est interrogée
+// qu'à partir de l'horizon et les segments couvrent tout ce qui précède, une fenêtre qui traverse l'horizon lit donc
+// les deux à la suite dans l'ordre des timestamps.
+// Archivage d'un mois : écriture du segment, publication du nouvel horizon, puis suppression des lignes sous l'horizon
+// (suppression des partitions des mois archivés quand la table est partitionnée, puis des lignes restantes jour par jour).
+// Après un arrêt entre les deux dernières étapes, les lignes restantes sont ignorées puis supprimées au passage suivant.
+@Component
+@Slf4j
+public class TraceArchive {
+    // Horizon quand rien n'est archivé (DATETIME de MySQL commence en l'an 1000)
+    static final Instant NOTHING_ARCHIVED = LocalDateTime.of(1000, 1, 1, 0, 0).toInstant(ZoneOffset.UTC);
+    private static final String PREFIX = "traces-";
+    private static final String SUFFIX = ".seg";
+
+    private final TraceRepository traceRepository;
+    private final TracePartitions partitions;
+    private final TransactionTemplate transactionTemplate;
+    private final TraceProperties.Archive settings;
+    private final ProductionCalendar calendar;
+    // Segments par mois et horizon, remplacés ensemble : une lecture voit toujours un état cohérent
+    private volatile State state;
+
+    private record State(NavigableMap<YearMonth, TraceSegment> segments, Instant horizon) { }
+
+    public TraceArchive(TraceRepository traceRepository, TracePartitions partitions, TransactionTemplate transactionTemplate, TraceProperties properties, ProductionCalendar calendar) {
+        this.traceRepository = traceRepository;
+        this.partitions = partitions;
+        this.transactionTemplate = transactionTemplate;
+        this.settings = properties.getArchive();
+        this.calendar = calendar;
+        this.state = load(settings.getDirectory(), calendar.zone());
+    }
+
+    private static State load(Path directory, ZoneId zone) {
+        NavigableMap<YearMonth, TraceSegment> segments = new TreeMap<>();
+        if (Files.isDirectory(directory)) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+                for (Path file : files) {
+                    String name = file.getFileName().toString();
+                    segments.put(YearMonth.parse(name.substring(PREFIX.length(), name.length() - SUFFIX.length())), TraceSegment.open(file, zone));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Lecture de l'archive impossible : " + directory, e);
+            }
+        }
+        if (!segments.isEmpty()) {
+            log.info("Archive chargée : {} mois, de {} à {}", segments.size(), segments.firstKey(), segments.lastKey());
+        }
+        return new State(Collections.unmodifiableNavigableMap(segments), segments.isEmpty() ? NOTHING_ARCHIVED : segments.lastEntry().getValue().end());
+    }
+
+    // Premier timestamp lu dans la table
+    public Instant horizon() {
+        return state.horizon();
+    }
+
+    public boolean isEmpty() {
+        return state.segments().isEmpty();
+    }
+
+    // Une trace plus ancienne que l'horizon, ou d'un mois clos quand l'archivage est actif, ne peut plus être ajoutée
+    public boolean isClosed(Instant timestamp) {
+        if (timestamp.isBefore(state.horizon()))
+            return true;
+        return settings.isEnabled() && timestamp.isBefore(calendar.startOf(firstKeptMonth().atDay(1)));
+    }
+
+    @Scheduled(cron = "${trace.archive.cron:0 30 2 * * *}")
+    public void scheduledArchive() {
+        if (settings.isEnabled()) {
+            archiveClosedMonths();
+        }
+    }
+
+    // Archive les mois clos l'un après l'autre à partir du plus ancien, puis supprime de la table les lignes archivées.
+    // Retourne le nombre de mois archivés.
+    public synchronized int archiveClosedMonths() {
+        YearMonth firstKept = firstKeptMonth();
+        YearMonth month = state.segments().isEmpty()
+                ? traceRepository.findTopByOrderByTimestampAsc().map(trace -> YearMonth.from(calendar.productionDay(trace.getTimestamp()))).orElse(null)
+                : state.segments().lastKey().plusMonths(1);
+        int archived = 0;
+        for (; month != null && month.isBefore(firstKept); month = month.plusMonths(1)) {
+            archive(month);
+            archived++;
+        }
+        purge();
+        return archived;
+    }
+
+    private YearMonth firstKeptMonth() {
+        return YearMonth.from(calendar.today()).minusMonths(settings.getKeepMonths());
+    }
+
+    private void archive(YearMonth month) {
+        Instant start = calendar.startOf(month.atDay(1));
+        Instant end = calendar.startOf(month.plusMonths(1).atDay(1));
+        Path file = settings.getDirectory().resolve(PREFIX + month + SUFFIX);
+        TraceSegment segment;
+        try {
+            Files.createDirectories(settings.getDirectory());
+            int rows = transactionTemplate.execute(status -> {
+                try (Stream<Trace> traces = traceRepository.findAllByTimestampGreaterThanEqualAndTimestampLessThanOrderByTimestamp(start, end)) {
+                    return TraceSegment.write(file, start, end, traces.iterator());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            segment = TraceSegment.open(file, calendar.zone());
+            log.info("Mois {} archivé : {} traces, {} octets", month, rows, Files.size(file));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Archivage du mois " + month + " impossible", e);
+        }
+        NavigableMap<YearMonth, TraceSegment> segments = new TreeMap<>(state.segments());
+        segments.put(month, segment);
+        state = new State(Collections.unmodifiableNavigableMap(segments), segment.end());
+    }
+
+    // Mois entiers sous l'horizon : suppression de leurs partitions, immédiate quel que soit le nombre de lignes.
+    // Le reste jour par jour pour garder des transactions courtes.
+    private void purge() {
+        Instant horizon = state.horizon();
+        int dropped = partitions.dropEndingBefore(horizon);
+        if (dropped > 0) {
+            log.info("{} partitions de mois archivés supprimées de la table", dropped);
+        }
+        Optional<Trace> oldest = traceRepository.findTopByOrderByTimestampAsc();
+        if (oldest.isEmpty() || !oldest.get().getTimestamp().isBefore(horizon))
+            return;
+        long deleted = 0;
+        for (LocalDate day = calendar.productionDay(oldest.get().getTimestamp()); calendar.startOf(day).isBefore(horizon); day = day.plusDays(1)) {
+            Instant bound = calendar.startOf(day.plusDays(1)).isBefore(horizon) ? calendar.startOf(day.plusDays(1)) : horizon;
+            deleted += transactionTemplate.execute(status -> traceRepository.deleteByTimestampBefore(bound));
+        }
+        log.info("{} traces archivées supprimées de la table", deleted);
+    }
+
+    // Sélection des traces d'une série
+    public static TraceSegment.Filter filter(Dimension dimension, String employerName, String machineName) {
+        return switch (dimension) {
+            case EMPLOYER -> new TraceSegment.Filter(Set.of(employerName), null);
+            case MACHINE -> new TraceSegment.Filter(null, Set.of(machineName));
+            case EMPLOYER_MACHINE -> new TraceSegment.Filter(Set.of(employerName), Set.of(machineName));
+        };
+    }
+
+    // Traces [start, end] triées par timestamp ; table : requête de la même fenêtre, appelée avec un début ramené à l'horizon
+    public List<Trace> list(TraceSegment.Filter filter, Instant start, Instant end, BiFunction<Instant, Instant, List<Trace>> table) {
+        State current = state;
+        if (!start.isBefore(current.horizon()))
+            return table.apply(start, end);
+        List<Trace> traces = new ArrayList<>();
+        archived(current, filter, start, end).forEachRemaining(traces::add);
+        if (!end.isBefore(current.horizon())) {
+            traces.addAll(table.apply(current.horizon(), end));
+        }
+        return traces;
+    }
+
+    // Dernière trace de [start, end]
+    public Optional<Trace> last(TraceSegment.Filter filter, Instant start, Instant end, BiFunction<Instant, Instant, Optional<Trace>> table) {
+        State current = state;
+        if (!end.isBefore(current.horizon())) {
+            Optional<Trace> last = table.apply(start.isBefore(current.horizon()) ? current.horizon() : start, end);
+            if (last.isPresent() || !start.isBefore(current.horizon()))
+                return last;
+        }
+        // Mois archivés du plus récent au plus ancien
+        Instant archivedEnd = archivedEnd(current, end);
+        for (TraceSegment segment : current.segments().descendingMap().values()) {
+            if (!segment.start().isAfter(archivedEnd) && segment.end().isAfter(start)) {
+                Trace last = null;
+                for (Iterator<Trace> traces = segment.iterator(filter, start, archivedEnd); traces.hasNext(); ) {
+                    last = traces.next();
+                }
+                if (last != null)
+                    return Optional.of(last);
+            }
+        }
+        return Optional.empty();
+    }
+
+    // Flux trié des traces [start, end], à fermer
+    public Stream<Trace> stream(TraceSegment.Filter filter, Instant start, Instant end, BiFunction<Instant, Instant, Stream<Trace>> table) {
+        State current = state;
+        if (!start.isBefore(current.horizon()))
+            return table.apply(start, end);
+        Stream<Trace> archived = StreamSupport.stream(Spliterators.spliteratorUnknownSize(archived(current, filter, start, end), Spliterator.ORDERED), false);
+        return end.isBefore(current.horizon()) ? archived : Stream.concat(archived, table.apply(current.horizon(), end));
+    }
+
+    // Tout l'historique : les segments puis la table à partir de l'horizon (table : requête appelée avec l'horizon)
+    public Stream<Trace> history(TraceSegment.Filter filter, Function<Instant, Stream<Trace>> table) {
+        State current = state;
+        if (current.segments().isEmpty())
+            return table.apply(current.horizon());
+        Stream<Trace> archived = StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+                archived(current, filter, current.segments().firstEntry().getValue().start(), current.horizon().minusNanos(1)), Spliterator.ORDERED), false);
+        return Stream.concat(archived, table.apply(current.horizon()));
+    }
+
+    // Dernière trace de chaque couple employé/machine dans les segments
+    public Collection<Trace> lastTraces() {
+        Map<List<String>, Trace> lastTraces = new HashMap<>();
+        for (TraceSegment segment : state.segments().values()) {
+            segment.lastTraces().forEach(trace -> lastTraces.put(List.of(trace.getEmployerName(), trace.getMachineName()), trace));
+        }
+        return lastTraces.values();
+    }
+
+    // Noms de la table complétés par ceux des segments, triés ; inchangés si rien n'est archivé
+    public List<String> employerNames(List<String> table) {
+        return withArchived(table, TraceSegment::employerNames);
+    }
+
+    public List<String> machineNames(List<String> table) {
+        return withArchived(table, TraceSegment::machineNames);
+    }
+
+    // Machines de l'employé dans la table complétées par celles des segments, triées ; inchangées si rien n'est archivé
+    public List<String> machineNamesOf(String employerName, List<String> table) {
+        return withArchived(table, segment -> segment.lastTraces().stream()
+                .filter(trace -> trace.getEmployerName().equals(employerName))
+                .map(Trace::getMachineName)
+                .toList());
+    }
+
+    // Couples (employé, machine) de la table et des segments, triés par nom
+    public List<Object[]> pairs(List<Object[]> table) {
+        Set<List<String>> pairs = new TreeSet<>(Comparator.<List<String>, String>comparing(pair -> pair.get(0)).thenComparing(pair -> pair.get(1)));
+        table.forEach(pair -> pairs.add(List.of((String) pair[0], (String) pair[1])));
+        lastTraces().forEach(trace -> pairs.add(List.of(trace.getEmployerName(), trace.getMachineName())));
+        return pairs.stream().map(pair -> new Object[]{pair.get(0), pair.get(1)}).toList();
+    }
+
+    private List<String> withArchived(List<String> table, Function<TraceSegment, List<String>> names) {
+        State current = state;
+        if (current.segments().isEmpty())
+            return table;
+        Set<String> all = new TreeSet<>(table);
+        current.segments().values().forEach(segment -> all.addAll(names.apply(segment)));
+        return new ArrayList<>(all);
+    }
+
+    // Traces archivées de [start, end] (fin ramenée sous l'horizon), segment après segment
+    private static Iterator<Trace> archived(State current, TraceSegment.Filter filter, Instant start, Instant end) {
+        Instant archivedEnd = archivedEnd(current, end);
+        Iterator<TraceSegment> segments = current.segments().values().stream()
+                .filter(segment -> !segment.start().isAfter(archivedEnd) && segment.end().isAfter(start))
+                .iterator();
+        return new Iterator<>() {
+            private Iterator<Trace> traces = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!traces.hasNext() && segments.hasNext()) {
+                    traces = segments.next().iterator(filter, start, archivedEnd);
+                }
+                return traces.hasNext();
+            }
+
+            @Override
+            public Trace next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return traces.next();
+            }
+        };
+    }
+
+    private static Instant archivedEnd(State current, Instant end) {
+        Instant lastArchived = current.horizon().minusNanos(1);
+        return end.isBefore(lastArchived) ? end : lastArchived;
+    }
+}
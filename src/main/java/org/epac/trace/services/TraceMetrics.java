@@ -0,0 +1,155 @@
+package org.epac.trace.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.epac.trace.dto.SummaryPage;
+import org.epac.trace.dto.WorkSummary;
+import org.epac.trace.entity.Trace;
+import org.epac.trace.exception.InvalidTraceOperationException;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+// Métriques Micrometer de l'ingestion et des résumés, sur /actuator/metrics et /actuator/prometheus :
+// - trace.ingest.validation et trace.ingest.insert (mode=single|batch) : durées de validation et d'insertion
+// - trace.ingest.rejections (mode, reason) : traces refusées par motif
+// - trace.ingest.flush et trace.ingest.flush.traces : lots de l'écriture différée (TraceWriteBehind)
+// - trace.ingest.dead.letters : traces de l'écriture différée refusées par la base, mises à l'écart
+// - trace.summary (summary=méthode de TraceService) : durée de chaque appel, puis par appel trace.summary.queries
+//   (requêtes SQL émises par Hibernate), trace.summary.traces (traces rejouées) et trace.summary.buckets (périodes
+//   retournées)
+// Les durées publient un histogramme pour les percentiles côté Prometheus.
+// Seul l'appel le plus externe est mesuré : un résumé qui en appelle d'autres, y compris en parallèle sur SummaryFanOut,
+// se voit attribuer toute leur charge.
+@Component
+public class TraceMetrics {
+    private static final ThreadLocal<Scope> CURRENT = new ThreadLocal<>();
+
+    private final MeterRegistry registry;
+    private final Map<String, SummaryMeters> summaries = new ConcurrentHashMap<>();
+
+    public TraceMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    // Compteurs de l'appel de résumé en cours sur ce thread
+    private static final class Scope {
+        private final LongAdder queries = new LongAdder();
+        private final LongAdder traces = new LongAdder();
+    }
+
+    private record SummaryMeters(Timer timer, DistributionSummary queries, DistributionSummary traces, DistributionSummary buckets) { }
+
+    public void validation(String mode, long nanos) {
+        Timer.builder("trace.ingest.validation").description("Validation des traces reçues").publishPercentileHistogram().tag("mode", mode)
+                .register(registry).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void insert(String mode, long nanos) {
+        Timer.builder("trace.ingest.insert").description("Insertion des traces acceptées et mise à jour des agrégats").publishPercentileHistogram().tag("mode", mode)
+                .register(registry).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void flush(int traces, long nanos) {
+        Timer.builder("trace.ingest.flush").description("Écriture en base d'un lot de traces du journal").publishPercentileHistogram()
+                .register(registry).record(nanos, TimeUnit.NANOSECONDS);
+        DistributionSummary.builder("trace.ingest.flush.traces").description("Traces par lot écrit en base")
+                .register(registry).record(traces);
+    }
+
+    public void deadLettered() {
+        Counter.builder("trace.ingest.dead.letters").description("Traces refusées par la base à l'écriture différée, mises à l'écart")
+                .register(registry).increment();
+    }
+
+    public void rejected(String mode, InvalidTraceOperationException.Reason reason) {
+        Counter.builder("trace.ingest.rejections").description("Traces refusées").tag("mode", mode).tag("reason", reason.name())
+                .register(registry).increment();
+    }
+
+    public <T> T summary(String name, Supplier<T> computation) {
+        if (CURRENT.get() != null)
+            return computation.get();
+        Scope scope = new Scope();
+        CURRENT.set(scope);
+        long start = System.nanoTime();
+        T result;
+        try {
+            result = computation.get();
+        } finally {
+            CURRENT.remove();
+            meters(name).timer().record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        SummaryMeters meters = meters(name);
+        meters.queries().record(scope.queries.sum());
+        meters.traces().record(scope.traces.sum());
+        meters.buckets().record(buckets(result));
+        return result;
+    }
+
+    // Calcul exécuté sur un autre thread pour le compte du résumé en cours
+    public <K, V> Function<K, V> propagate(Function<K, V> compute) {
+        Scope scope = CURRENT.get();
+        if (scope == null)
+            return compute;
+        return key -> {
+            Scope previous = CURRENT.get();
+            CURRENT.set(scope);
+            try {
+                return compute.apply(key);
+            } finally {
+                CURRENT.set(previous);
+            }
+        };
+    }
+
+    // Traces lues pour être rejouées
+    public List<Trace> replayed(List<Trace> traces) {
+        Scope scope = CURRENT.get();
+        if (scope != null) {
+            scope.traces.add(traces.size());
+        }
+        return traces;
+    }
+
+    public Stream<Trace> replayed(Stream<Trace> traces) {
+        Scope scope = CURRENT.get();
+        return scope == null ? traces : traces.peek(trace -> scope.traces.increment());
+    }
+
+    // Appelé par Hibernate pour chaque requête préparée (MetricsConfig)
+    public static void countQuery() {
+        Scope scope = CURRENT.get();
+        if (scope != null) {
+            scope.queries.increment();
+        }
+    }
+
+    private SummaryMeters meters(String name) {
+        return summaries.computeIfAbsent(name, k -> new SummaryMeters(
+                Timer.builder("trace.summary").description("Calcul d'un résumé").publishPercentileHistogram().tag("summary", k).register(registry),
+                DistributionSummary.builder("trace.summary.queries").description("Requêtes SQL par résumé").tag("summary", k).register(registry),
+                DistributionSummary.builder("trace.summary.traces").description("Traces rejouées par résumé").tag("summary", k).register(registry),
+                DistributionSummary.builder("trace.summary.buckets").description("Périodes retournées par résumé").tag("summary", k).register(registry)));
+    }
+
+    private static long buckets(Object result) {
+        return switch (result) {
+            case WorkSummary ignored -> 1;
+            case Map<?, ?> map -> map.values().stream().mapToLong(TraceMetrics::buckets).sum();
+            case Collection<?> collection -> collection.stream().mapToLong(TraceMetrics::buckets).sum();
+            case SummaryPage page -> page.series().stream().mapToLong(series -> buckets(series.summaries())).sum();
+            case null, default -> 0;
+        };
+    }
+}
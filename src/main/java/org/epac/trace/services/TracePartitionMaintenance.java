@@ -0,0 +1,76 @@
+package org.epac.trace.services;
+
+import lombok.extern.slf4j.Slf4j;
+import org.epac.trace.config.TraceProperties;
+import org.epac.trace.repository.TracePartitions;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+
+// Création d'avance des partitions mensuelles de la table trace, au démarrage puis chaque nuit : les traces du mois
+// courant et des trace.partition.months-ahead suivants ont toujours leur partition, pmax reste vide.
+// Les bornes suivent les mois de production (ProductionCalendar), comme les segments de TraceArchive qui supprime les
+// partitions des mois archivés.
+@Component
+@Slf4j
+public class TracePartitionMaintenance implements ApplicationRunner {
+    private final TracePartitions partitions;
+    private final ProductionCalendar calendar;
+    private final TraceProperties.Partition settings;
+
+    public TracePartitionMaintenance(TracePartitions partitions, ProductionCalendar calendar, TraceProperties properties) {
+        this.partitions = partitions;
+        this.calendar = calendar;
+        this.settings = properties.getPartition();
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        maintain();
+    }
+
+    @Scheduled(cron = "${trace.partition.cron:0 0 2 * * *}")
+    public void scheduledMaintenance() {
+        maintain();
+    }
+
+    // Un échec ne doit pas empêcher le démarrage : pmax reçoit les traces jusqu'au passage suivant
+    private void maintain() {
+        try {
+            createUpcomingMonths();
+        } catch (DataAccessException e) {
+            log.warn("Création des partitions de la table trace impossible", e);
+        }
+    }
+
+    // Crée les partitions manquantes jusqu'au mois courant plus monthsAhead ; retourne le nombre de partitions créées
+    public synchronized int createUpcomingMonths() {
+        Instant covered = partitions.list().stream()
+                .map(TracePartitions.Partition::end)
+                .filter(Objects::nonNull)
+                .max(Comparator.naturalOrder())
+                .orElse(null);
+        // Table non partitionnée
+        if (covered == null)
+            return 0;
+        YearMonth last = YearMonth.from(calendar.today()).plusMonths(settings.getMonthsAhead());
+        List<TracePartitions.Partition> upcoming = new ArrayList<>();
+        for (YearMonth month = YearMonth.from(calendar.productionDay(covered)); !month.isAfter(last); month = month.plusMonths(1)) {
+            upcoming.add(new TracePartitions.Partition(TracePartitions.name(month), calendar.startOf(month.plusMonths(1).atDay(1))));
+        }
+        if (upcoming.isEmpty())
+            return 0;
+        partitions.addMonths(upcoming);
+        log.info("Partitions de la table trace créées : {}", upcoming.stream().map(TracePartitions.Partition::name).toList());
+        return upcoming.size();
+    }
+}
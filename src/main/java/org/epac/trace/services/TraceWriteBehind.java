@@ -0,0 +1,468 @@
+package org.epac.trace.services;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.epac.trace.config.TraceProperties;
+import org.epac.trace.dto.WorkSummary;
+import org.epac.trace.entity.DailyWorkRollup;
+import org.epac.trace.entity.Trace;
+import org.epac.trace.exception.TraceNotCommittedException;
+import org.epac.trace.repository.TraceBatchWriter;
+import org.epac.trace.repository.TraceJournal;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.dao.NonTransientDataAccessException;
+import org.springframework.dao.NonTransientDataAccessResourceException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Écriture différée des traces (trace.ingest.write-behind) : une trace validée est écrite dans le journal local et
+// acquittée dès que le journal est sur disque. L'état en mémoire (dernière opération, agrégat du jour du couple) et la
+// file d'écriture en base ne reçoivent la trace qu'après la synchronisation du journal, dans l'ordre des séquences :
+// l'appelant garde les verrous de l'employé et de la machine jusque-là, les traces suivantes sont validées sur cet état.
+// Si la synchronisation échoue, la trace n'est ni publiée ni écrite en base. Un seul thread écrit ensuite en base, par lots (insertion JDBC, agrégats, cache et flux dans une
+// transaction) : pendant qu'un lot est écrit, les traces suivantes s'accumulent pour le lot d'après.
+// Au démarrage, avant l'ouverture du serveur web, les traces du journal absentes de la base sont remises en file : la
+// base garde la dernière séquence du journal écrite, dans la transaction de chaque lot (TraceBatchWriter).
+// L'agrégat du dernier jour de chaque couple pointé est aussi tenu en mémoire, avancé à chaque trace acceptée comme
+// le fait RollupService : il donne le résumé du jour de la machine sans attendre l'écriture en base (/add?response=delta).
+// Un couple dont toutes les traces sont écrites en est retiré ; il est relu en base à sa prochaine trace.
+// Si la base est indisponible, le lot est retenté ; à l'arrêt, les traces non écrites restent dans le journal.
+// Si la base refuse le lot (erreur permanente : contrainte, valeur invalide), il est coupé en deux jusqu'à isoler les
+// traces refusées : elles sont mises à l'écart (TraceJournal.deadLetter, métrique trace.ingest.dead.letters) et le
+// checkpoint passe au-delà. Elles restent dans l'état en mémoire jusqu'au prochain démarrage.
+@Component
+@Slf4j
+public class TraceWriteBehind implements SmartLifecycle, MeterBinder {
+    private static final Duration RETRY_DELAY = Duration.ofSeconds(1);
+
+    private final TraceBatchWriter traceBatchWriter;
+    private final RollupService rollupService;
+    private final LiveStateRegistry liveStateRegistry;
+    private final SummaryCache summaryCache;
+    private final SummaryChanges summaryChanges;
+    private final TransactionTemplate transactionTemplate;
+    private final TraceProperties.Ingest settings;
+    private final TraceMetrics metrics;
+    private final ProductionCalendar calendar;
+    // Agrégat du dernier jour pointé de chaque couple, traces en attente comprises ; un couple absent n'a aucune
+    // trace en attente, son agrégat en base est à jour. Modifié sous le verrou.
+    private final Map<PairKey, Latest> latestRollups = new ConcurrentHashMap<>();
+    // Écriture dans le journal et mise en file dans l'ordre des séquences ; pas de synchronized, qui épinglerait le
+    // porteur d'un thread virtuel pendant l'écriture du fichier
+    private final ReentrantLock lock = new ReentrantLock();
+    private final BlockingQueue<Pending> pending = new LinkedBlockingQueue<>();
+    // Sous le verrou : traces du journal pas encore publiées, dans l'ordre des séquences
+    private final Deque<Appended> appended = new ArrayDeque<>();
+    private TraceJournal journal;
+    // Dernière séquence écrite en base
+    private long flushed;
+    private Thread flusher;
+    private volatile boolean running;
+
+    // Traces écrites dans le journal : séquence de la dernière, résumé du jour du couple de la dernière après elle
+    // (connu à la publication) et fin de l'écriture en base
+    public record Ticket(long sequence, CompletableFuture<WorkSummary> durable, CompletableFuture<Void> committed) { }
+
+    private record Pending(long sequence, Trace trace, CompletableFuture<Void> committed) { }
+
+    // Trace écrite dans le journal, pas encore synchronisée ; durable : dernière trace d'un ticket
+    private record Appended(Pending pending, CompletableFuture<WorkSummary> durable) { }
+
+    private record PairKey(String employerName, String machineName) {
+        private static PairKey of(Trace trace) {
+            return new PairKey(trace.getEmployerName(), trace.getMachineName());
+        }
+    }
+
+    // Séquence de la dernière trace du couple passée par le journal (0 si aucune)
+    private static final class Latest {
+        private DailyWorkRollup rollup;
+        private long sequence;
+
+        private Latest(DailyWorkRollup rollup) {
+            this.rollup = rollup;
+        }
+    }
+
+    public TraceWriteBehind(TraceBatchWriter traceBatchWriter, RollupService rollupService, LiveStateRegistry liveStateRegistry,
+                            SummaryCache summaryCache, SummaryChanges summaryChanges, TransactionTemplate transactionTemplate,
+                            TraceProperties properties, TraceMetrics metrics,
+                            ProductionCalendar calendar) {
+        this.traceBatchWriter = traceBatchWriter;
+        this.rollupService = rollupService;
+        this.liveStateRegistry = liveStateRegistry;
+        this.summaryCache = summaryCache;
+        this.summaryChanges = summaryChanges;
+        this.transactionTemplate = transactionTemplate;
+        this.settings = properties.getIngest();
+        this.metrics = metrics;
+        this.calendar = calendar;
+    }
+
+    public boolean isEnabled() {
+        return settings.isWriteBehind();
+    }
+
+    // Appelé sous les verrous des employés et des machines des traces, après leur validation.
+    // Les agrégats à charger le sont avant de prendre le verrou : une attente de connexion sous le verrou bloquerait
+    // toutes les écritures.
+    public Ticket append(List<Trace> traces) {
+        Ticket ticket;
+        do {
+            traces.forEach(this::loadLatest);
+            ticket = write(traces);
+        } while (ticket == null);
+        return ticket;
+    }
+
+    // null si un couple a été retiré entre le chargement et le verrou (ses traces venaient d'être écrites)
+    private Ticket write(List<Trace> traces) {
+        lock.lock();
+        try {
+            if (!traces.stream().map(PairKey::of).allMatch(latestRollups::containsKey))
+                return null;
+            if (!running)
+                throw new RejectedExecutionException("Écriture des traces arrêtée.");
+            if (pending.size() + appended.size() + traces.size() > settings.getMaxPending())
+                throw new RejectedExecutionException("Trop de traces en attente d'écriture, réessayer plus tard.");
+            long sequence;
+            try {
+                sequence = journal.append(traces);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Écriture du journal des traces impossible", e);
+            }
+            CompletableFuture<WorkSummary> durable = new CompletableFuture<>();
+            CompletableFuture<Void> committed = new CompletableFuture<>();
+            long first = sequence - traces.size() + 1;
+            for (int i = 0; i < traces.size(); i++) {
+                Trace trace = traces.get(i);
+                boolean last = i == traces.size() - 1;
+                // Séquence réservée : le couple n'est pas retiré avant la publication de la trace
+                latestRollups.get(PairKey.of(trace)).sequence = first + i;
+                appended.add(new Appended(new Pending(first + i, trace, last ? committed : null), last ? durable : null));
+            }
+            return new Ticket(sequence, durable, committed);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Attend que les traces soient sur disque (fsync partagé avec les écritures concurrentes), puis les publie avec
+    // celles qui les précèdent ; retourne le résumé du jour du couple de la dernière. Appelé sous les verrous pris
+    // pour append.
+    public WorkSummary awaitDurable(Ticket ticket) {
+        try {
+            journal.sync(ticket.sequence());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Synchronisation du journal des traces impossible", e);
+        }
+        publish(ticket.sequence());
+        try {
+            return ticket.durable().join();
+        } catch (CompletionException e) {
+            // Arrêt entre l'écriture et la synchronisation : les traces restent dans le journal
+            throw (RuntimeException) e.getCause();
+        }
+    }
+
+    // Traces sur disque jusqu'à sequence : état en mémoire, agrégat du couple et file d'écriture en base
+    private void publish(long sequence) {
+        lock.lock();
+        try {
+            while (!appended.isEmpty() && appended.peekFirst().pending().sequence() <= sequence) {
+                Appended next = appended.removeFirst();
+                Trace trace = next.pending().trace();
+                liveStateRegistry.record(trace);
+                WorkSummary summary = advanceLatest(trace, next.pending().sequence());
+                pending.add(next.pending());
+                if (next.durable() != null) {
+                    next.durable().complete(summary);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Attend que les traces soient en base (visibles par les résumés), au plus trace.ingest.commit-timeout : la base
+    // indisponible ne doit pas bloquer les requêtes indéfiniment
+    public void awaitCommitted(Ticket ticket) {
+        try {
+            ticket.committed().get(settings.getCommitTimeout().toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            throw new TraceNotCommittedException("Trace enregistrée, pas encore écrite en base : résumé indisponible, réessayer plus tard.", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TraceNotCommittedException("Attente de l'écriture de la trace en base interrompue.", e);
+        }
+    }
+
+    @Override
+    public void start() {
+        lock.lock();
+        try {
+            try {
+                if (!isEnabled() && !TraceJournal.exists(settings.getJournalDirectory()))
+                    return;
+                journal = TraceJournal.open(settings.getJournalDirectory(), settings.getJournalSegmentSize().toBytes(), traceBatchWriter::journalCheckpoint);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Ouverture du journal des traces impossible", e);
+            }
+            // Les traces du journal absentes de la base, dans l'ordre du journal
+            for (TraceJournal.Entry entry : journal.recovered()) {
+                Trace trace = entry.trace();
+                liveStateRegistry.record(trace);
+                loadLatest(trace);
+                advanceLatest(trace, entry.sequence());
+                pending.add(new Pending(entry.sequence(), trace, null));
+            }
+            if (!pending.isEmpty()) {
+                log.info("Journal des traces : {} traces à écrire en base", pending.size());
+            }
+            running = true;
+            flusher = Thread.ofPlatform().name("trace-write-behind").daemon().start(this::flushLoop);
+        } finally {
+            lock.unlock();
+        }
+        if (!isEnabled()) {
+            // Journal d'une exécution précédente : vidé, puis fermé
+            stop();
+        }
+    }
+
+    @Override
+    public void stop() {
+        Thread stopping;
+        lock.lock();
+        try {
+            if (!running)
+                return;
+            running = false;
+            stopping = flusher;
+        } finally {
+            lock.unlock();
+        }
+        try {
+            stopping.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            journal.close();
+        } catch (IOException e) {
+            log.warn("Fermeture du journal des traces impossible", e);
+        }
+        lock.lock();
+        try {
+            for (Appended trace : appended) {
+                pending.add(trace.pending());
+                if (trace.durable() != null) {
+                    trace.durable().completeExceptionally(new RejectedExecutionException("Écriture des traces arrêtée."));
+                }
+            }
+            appended.clear();
+        } finally {
+            lock.unlock();
+        }
+        if (!pending.isEmpty()) {
+            log.warn("{} traces restent dans le journal, écrites en base au prochain démarrage", pending.size());
+            pending.stream().map(Pending::committed).filter(Objects::nonNull)
+                    .forEach(committed -> committed.completeExceptionally(new RejectedExecutionException("Écriture des traces arrêtée.")));
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    // Démarré avant le serveur web (les traces du journal sont en file avant la première requête), arrêté après lui
+    @Override
+    public int getPhase() {
+        return 0;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("trace.ingest.pending", pending, BlockingQueue::size)
+                .description("Traces acquittées en attente d'écriture en base")
+                .register(registry);
+    }
+
+    private void flushLoop() {
+        List<Pending> batch = new ArrayList<>();
+        while (running || !pending.isEmpty() || !batch.isEmpty()) {
+            try {
+                if (batch.isEmpty()) {
+                    Pending first = pending.poll(100, TimeUnit.MILLISECONDS);
+                    if (first == null)
+                        continue;
+                    batch.add(first);
+                    pending.drainTo(batch, settings.getBatchSize() - 1);
+                }
+                flushAll(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                if (!running) {
+                    // Arrêt avec la base indisponible : le lot reste dans le journal
+                    batch.forEach(pending::add);
+                    return;
+                }
+                log.warn("Écriture de {} traces en base impossible, nouvel essai dans {}", batch.size(), RETRY_DELAY, e);
+                try {
+                    Thread.sleep(RETRY_DELAY);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    // Après une reconstruction des agrégats : les couples sans trace en attente sont relus en base
+    public void clearLatest() {
+        lock.lock();
+        try {
+            latestRollups.values().removeIf(latest -> latest.sequence <= flushed);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Première trace du couple : agrégat du jour en base, sinon celui de la veille (report de la dernière opération),
+    // sinon un agrégat vide du jour. Le couple n'a encore aucune trace en attente, la base est à jour.
+    private void loadLatest(Trace trace) {
+        PairKey key = PairKey.of(trace);
+        if (latestRollups.containsKey(key))
+            return;
+        LocalDate day = calendar.productionDay(trace.getTimestamp());
+        DailyWorkRollup latest = rollupService.findDay(day, key.employerName(), key.machineName())
+                .or(() -> rollupService.findDay(day.minusDays(1), key.employerName(), key.machineName()))
+                .orElseGet(() -> new DailyWorkRollup(day, key.employerName(), key.machineName()));
+        latestRollups.putIfAbsent(key, new Latest(latest));
+    }
+
+    // Les traces d'un couple arrivent dans l'ordre (validation sous les verrous de l'employé et de la machine)
+    private WorkSummary advanceLatest(Trace trace, long sequence) {
+        LocalDate day = calendar.productionDay(trace.getTimestamp());
+        PairKey key = PairKey.of(trace);
+        Latest latest = latestRollups.get(key);
+        DailyWorkRollup rollup = latest.rollup;
+        DailyWorkRollup previousDay = null;
+        if (!rollup.getWorkDate().equals(day)) {
+            if (rollup.getWorkDate().equals(day.minusDays(1)) && rollup.getLastOperation() != null) {
+                previousDay = rollup;
+            }
+            rollup = new DailyWorkRollup(day, key.employerName(), key.machineName());
+            latest.rollup = rollup;
+        }
+        latest.sequence = Math.max(latest.sequence, sequence);
+        RollupService.advance(calendar.cursor(), rollup, previousDay, trace);
+        return RollupService.toWorkSummary(rollup);
+    }
+
+    // Écrit le lot en vidant la liste : les traces écrites ou mises à l'écart en sont retirées au fur et à mesure, une
+    // erreur transitoire ne fait retenter que le reste. Sur une erreur permanente, la première moitié est essayée seule,
+    // jusqu'à une trace refusée.
+    private void flushAll(List<Pending> batch) {
+        int size = batch.size();
+        while (!batch.isEmpty()) {
+            List<Pending> part = batch.subList(0, Math.min(size, batch.size()));
+            try {
+                flush(part);
+            } catch (RuntimeException e) {
+                if (!isPermanent(e))
+                    throw e;
+                if (part.size() > 1) {
+                    size = part.size() / 2;
+                    continue;
+                }
+                deadLetter(part.get(0), e);
+            }
+            part.clear();
+            size = batch.size();
+        }
+    }
+
+    // Donnée refusée par la base : un nouvel essai échouerait de même. Les pannes de ressource (connexion, base
+    // arrêtée) sont retentées, bien que de classe NonTransient.
+    private static boolean isPermanent(RuntimeException e) {
+        return e instanceof NonTransientDataAccessException && !(e instanceof NonTransientDataAccessResourceException);
+    }
+
+    // Copiée hors du journal avant que le checkpoint en base ne passe au-delà
+    private void deadLetter(Pending refused, RuntimeException e) {
+        Trace trace = refused.trace();
+        log.error("Trace refusée par la base, mise à l'écart (séquence {}) : {} {} {} {}", refused.sequence(), trace.getTimestamp(),
+                trace.getEmployerName(), trace.getMachineName(), trace.getOperation(), e);
+        try {
+            journal.deadLetter(new TraceJournal.Entry(refused.sequence(), trace));
+        } catch (IOException io) {
+            throw new UncheckedIOException("Mise à l'écart d'une trace refusée impossible", io);
+        }
+        transactionTemplate.executeWithoutResult(status -> traceBatchWriter.saveJournalCheckpoint(journal.id(), refused.sequence()));
+        metrics.deadLettered();
+        try {
+            journal.checkpoint(refused.sequence());
+        } catch (IOException io) {
+            log.warn("Suppression des fichiers écrits du journal des traces impossible", io);
+        }
+        evictFlushed(List.of(refused), refused.sequence());
+        if (refused.committed() != null) {
+            refused.committed().completeExceptionally(new IllegalStateException("Trace refusée par la base, mise à l'écart."));
+        }
+    }
+
+    // Les agrégats attendent les traces triées par timestamp ; celles d'un même couple le sont déjà dans le journal
+    private void flush(List<Pending> batch) {
+        long start = System.nanoTime();
+        List<Trace> traces = batch.stream().map(Pending::trace).sorted(Comparator.comparing(Trace::getTimestamp)).toList();
+        long sequence = batch.get(batch.size() - 1).sequence();
+        transactionTemplate.executeWithoutResult(status -> {
+            traceBatchWriter.insertAll(traces, settings.getBatchSize());
+            traceBatchWriter.saveJournalCheckpoint(journal.id(), sequence);
+            rollupService.applyAll(traces);
+            traces.forEach(summaryCache::evictOnCommit);
+            traces.forEach(summaryChanges::recordOnCommit);
+        });
+        metrics.flush(traces.size(), System.nanoTime() - start);
+        try {
+            journal.checkpoint(sequence);
+        } catch (IOException e) {
+            log.warn("Suppression des fichiers écrits du journal des traces impossible", e);
+        }
+        evictFlushed(batch, sequence);
+        batch.stream().map(Pending::committed).filter(Objects::nonNull).forEach(committed -> committed.complete(null));
+    }
+
+    // Couples sans trace plus récente en attente : leur agrégat en base est à jour
+    private void evictFlushed(List<Pending> batch, long sequence) {
+        lock.lock();
+        try {
+            flushed = sequence;
+            for (Pending flushedTrace : batch) {
+                latestRollups.computeIfPresent(PairKey.of(flushedTrace.trace()), (key, latest) -> latest.sequence <= sequence ? null : latest);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package org.epac.trace.services;
+
+import org.epac.trace.entity.Operation;
+import org.epac.trace.entity.Trace;
+import org.epac.trace.exception.InvalidTraceOperationException;
+
+// Règles d'enchaînement START/STOP/PAUSE, vérifiées à partir de la dernière trace de l'employé et de la machine.
+// Une trace acceptée est strictement plus récente que la dernière de son employé et de sa machine : le cache des
+// résumés (SummaryCache) et l'index des totaux (DailyTotals) n'évincent ou ne remplacent que sa période.
+public final class TransitionRules {
+
+    private TransitionRules() {
+    }
+
+    // lastTraceEmployer / lastTraceMachine : null si l'employé ou la machine n'a encore aucune trace
+    public static void check(Trace trace, Trace lastTraceEmployer, Trace lastTraceMachine) throws InvalidTraceOperationException {
+        if ((lastTraceEmployer != null && !trace.getTimestamp().isAfter(lastTraceEmployer.getTimestamp()))
+                || (lastTraceMachine != null && !trace.getTimestamp().isAfter(lastTraceMachine.getTimestamp()))) {
+            throw new InvalidTraceOperationException(InvalidTraceOperationException.Reason.OUT_OF_ORDER, "La trace est antérieure à la dernière opération connue de l'employé ou de la machine.");
+        }
+        // tester si la machine est en marche ou pause par autre employé
+        if (lastTraceMachine != null) {
+            if ((lastTraceMachine.getOperation() == Operation.START || lastTraceMachine.getOperation() == Operation.PAUSE) && !lastTraceMachine.getEmployerName().equals(trace.getEmployerName())) {
+                throw new InvalidTraceOperationException(InvalidTraceOperationException.Reason.MACHINE_IN_USE, "La machine est en marche par un autre employé.");
+            }
+        }
+        if (lastTraceEmployer != null) {
+            // Vérifier si la dernière opération est sur une machine différente
+            if (!lastTraceEmployer.getMachineName().equals(trace.getMachineName())) {
+                if (lastTraceEmployer.getOperation() != Operation.STOP) {
+                    throw new InvalidTraceOperationException(InvalidTraceOperationException.Reason.OTHER_MACHINE_NOT_STOPPED, "La dernière opération sur une autre machine doit être STOP.");
+                }
+            } else {
+                // Si la dernière opération est sur la même machine
+                if (lastTraceEmployer.getOperation() == Operation.STOP && trace.getOperation() != Operation.START) {
+                    throw new InvalidTraceOperationException(InvalidTraceOperationException.Reason.START_EXPECTED, "Après une opération STOP, l'opération attendue est START.");
+                }
+            }
+        }
+    }
+}
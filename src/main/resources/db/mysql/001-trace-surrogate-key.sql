@@ -0,0 +1,23 @@
+-- Migration de la table trace vers une clé technique BIGINT (MySQL 8)
+-- A exécuter une seule fois, application arrêtée, avant de démarrer la version avec Trace.id.
+-- Les identifiants sont attribués dans l'ordre de l'ancienne clé primaire, donc dans l'ordre des timestamps.
+
+-- 1. Remplacer la clé primaire timestamp par un identifiant auto-incrémenté
+ALTER TABLE trace
+    DROP PRIMARY KEY,
+    ADD COLUMN id BIGINT NOT NULL AUTO_INCREMENT PRIMARY KEY FIRST;
+
+-- 2. Supprimer l'ancienne contrainte d'unicité sur timestamp (nom généré par Hibernate)
+SET @unique_index := (SELECT index_name FROM information_schema.statistics
+                      WHERE table_schema = DATABASE() AND table_name = 'trace' AND column_name = 'timestamp'
+                        AND non_unique = 0 AND index_name <> 'PRIMARY' LIMIT 1);
+SET @drop_unique := IF(@unique_index IS NULL, 'DO 0', CONCAT('ALTER TABLE trace DROP INDEX `', @unique_index, '`'));
+PREPARE drop_unique FROM @drop_unique;
+EXECUTE drop_unique;
+DEALLOCATE PREPARE drop_unique;
+
+-- 3. Index composites utilisés par TraceRepository
+CREATE INDEX idx_trace_timestamp ON trace (timestamp);
+CREATE INDEX idx_trace_employer_timestamp ON trace (employer_name, timestamp);
+CREATE INDEX idx_trace_machine_timestamp ON trace (machine_name, timestamp);
+CREATE INDEX idx_trace_employer_machine_timestamp ON trace (employer_name, machine_name, timestamp);
@@ -0,0 +1,42 @@
+-- Migration des noms d'employés et de machines de la table trace vers les tables de dimension employee et machine (MySQL 8)
+-- A exécuter une seule fois, application arrêtée, avant de démarrer la version avec Employee et Machine.
+-- Les identifiants sont attribués dans l'ordre alphabétique des noms.
+
+-- 1. Tables de dimension
+CREATE TABLE employee (
+    id INT NOT NULL AUTO_INCREMENT PRIMARY KEY,
+    name VARCHAR(255) NOT NULL,
+    CONSTRAINT uk_employee_name UNIQUE (name)
+);
+CREATE TABLE machine (
+    id INT NOT NULL AUTO_INCREMENT PRIMARY KEY,
+    name VARCHAR(255) NOT NULL,
+    CONSTRAINT uk_machine_name UNIQUE (name)
+);
+INSERT INTO employee (name) SELECT DISTINCT employer_name FROM trace ORDER BY employer_name;
+INSERT INTO machine (name) SELECT DISTINCT machine_name FROM trace ORDER BY machine_name;
+
+-- 2. Identifiants dans trace
+ALTER TABLE trace
+    ADD COLUMN employer_id INT NULL AFTER employer_name,
+    ADD COLUMN machine_id INT NULL AFTER machine_name;
+UPDATE trace t
+    JOIN employee e ON e.name = t.employer_name
+    JOIN machine m ON m.name = t.machine_name
+SET t.employer_id = e.id, t.machine_id = m.id;
+
+-- 3. Remplacer les colonnes de noms et leurs index
+ALTER TABLE trace
+    DROP INDEX idx_trace_employer_timestamp,
+    DROP INDEX idx_trace_machine_timestamp,
+    DROP INDEX idx_trace_employer_machine_timestamp,
+    DROP COLUMN employer_name,
+    DROP COLUMN machine_name,
+    MODIFY employer_id INT NOT NULL,
+    MODIFY machine_id INT NOT NULL;
+CREATE INDEX idx_trace_employer_timestamp ON trace (employer_id, timestamp);
+CREATE INDEX idx_trace_machine_timestamp ON trace (machine_id, timestamp);
+CREATE INDEX idx_trace_employer_machine_timestamp ON trace (employer_id, machine_id, timestamp);
+ALTER TABLE trace
+    ADD CONSTRAINT fk_trace_employee FOREIGN KEY (employer_id) REFERENCES employee (id),
+    ADD CONSTRAINT fk_trace_machine FOREIGN KEY (machine_id) REFERENCES machine (id);
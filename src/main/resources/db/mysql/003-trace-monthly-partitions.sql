@@ -0,0 +1,49 @@
+-- Partitionnement mensuel de la table trace sur timestamp (MySQL 8)
+-- A exécuter une seule fois, application arrêtée, après 002-trace-name-dictionary.sql.
+-- Une partition par mois de production (pAAAAMM), du mois de la plus ancienne trace jusqu'à trois mois après le mois
+-- courant, puis pmax (MAXVALUE) qui reste vide : TracePartitionMaintenance crée ensuite les mois suivants en découpant
+-- pmax, et TraceArchive supprime les partitions des mois archivés (DROP PARTITION) au lieu de supprimer leurs lignes.
+-- Bornes au début du premier jour de chaque mois : @day_start doit valoir trace.calendar.day-start.
+
+-- 1. MySQL impose la colonne de partitionnement dans chaque clé unique et refuse les clés étrangères sur une table
+--    partitionnée : clé primaire (id, timestamp), identifiants d'employé et de machine attribués par l'application
+--    (NameDictionary), qui n'écrit jamais un identifiant absent des tables employee et machine
+ALTER TABLE trace
+    DROP FOREIGN KEY fk_trace_employee,
+    DROP FOREIGN KEY fk_trace_machine;
+ALTER TABLE trace
+    DROP PRIMARY KEY,
+    ADD PRIMARY KEY (id, timestamp);
+
+-- 2. Partitions : la table est recopiée une fois, les index deviennent locaux à chaque partition
+SET @day_start := '00:00:00';
+SET SESSION group_concat_max_len = 1000000;
+SET @first_month := (SELECT DATE_FORMAT(COALESCE(MIN(timestamp), NOW()), '%Y-%m-01') FROM trace);
+SET @last_month := DATE_FORMAT(NOW() + INTERVAL 3 MONTH, '%Y-%m-01');
+SET @partitions := (
+    WITH RECURSIVE months (month) AS (
+        SELECT CAST(@first_month AS DATE)
+        UNION ALL
+        SELECT month + INTERVAL 1 MONTH FROM months WHERE month < CAST(@last_month AS DATE)
+    )
+    SELECT GROUP_CONCAT(CONCAT('PARTITION p', DATE_FORMAT(month, '%Y%m'), ' VALUES LESS THAN (''',
+                               DATE_FORMAT(month + INTERVAL 1 MONTH, '%Y-%m-%d'), ' ', @day_start, ''')')
+                        ORDER BY month SEPARATOR ', ')
+    FROM months);
+SET @partition_trace := CONCAT('ALTER TABLE trace PARTITION BY RANGE COLUMNS (timestamp) (',
+                               @partitions, ', PARTITION pmax VALUES LESS THAN (MAXVALUE))');
+PREPARE partition_trace FROM @partition_trace;
+EXECUTE partition_trace;
+DEALLOCATE PREPARE partition_trace;
+
+-- 3. Contrôle de l'élagage : la colonne partitions d'EXPLAIN ne doit citer que les mois de la fenêtre
+--    Journée (et veille pour le report) d'un employé : p202407 seulement
+EXPLAIN SELECT * FROM trace
+WHERE employer_id = 1 AND timestamp BETWEEN '2024-07-14 00:00:00' AND '2024-07-15 23:59:59.999999';
+--    Mois d'une machine : p202407 seulement
+EXPLAIN SELECT * FROM trace
+WHERE machine_id = 1 AND timestamp BETWEEN '2024-07-01 00:00:00' AND '2024-07-31 23:59:59.999999' ORDER BY timestamp;
+--    Historique depuis l'horizon de l'archive : les mois à partir de l'horizon et pmax
+EXPLAIN SELECT * FROM trace WHERE timestamp >= '2024-05-01 00:00:00' ORDER BY timestamp;
+SELECT partition_name, partition_description, table_rows FROM information_schema.partitions
+WHERE table_schema = DATABASE() AND table_name = 'trace' ORDER BY partition_ordinal_position;
@@ -0,0 +1,35 @@
+-- Passage des horodatages en instants UTC (MySQL 8) : trace.timestamp et daily_work_rollup.last_timestamp étaient des
+-- heures locales du fuseau de l'usine, ils deviennent des heures UTC (UtcTimestampConverter).
+-- A exécuter une seule fois, application arrêtée après un arrêt normal (journal de l'écriture différée vide : ses
+-- enregistrements changent de format), après 003-trace-monthly-partitions.sql.
+-- @zone doit valoir trace.calendar.zone et @day_start trace.calendar.day-start ; CONVERT_TZ avec un nom de fuseau
+-- demande les tables de fuseaux de MySQL (mysql_tzinfo_to_sql).
+-- Les traces de l'heure répétée du passage à l'heure d'hiver, indiscernables en heure locale, sont rattachées à sa
+-- première occurrence comme le faisait l'application. Les segments d'archive existants (version 1) restent lisibles.
+
+SET @zone := 'Europe/Paris';
+SET @day_start := '00:00:00';
+
+-- 1. Horodatages
+UPDATE trace SET timestamp = CONVERT_TZ(timestamp, @zone, '+00:00');
+UPDATE daily_work_rollup SET last_timestamp = CONVERT_TZ(last_timestamp, @zone, '+00:00');
+
+-- 2. Bornes des partitions : début de chaque mois de production en heure UTC (la table est recopiée une fois)
+SET SESSION group_concat_max_len = 1000000;
+SET @partitions := (
+    SELECT GROUP_CONCAT(CONCAT('PARTITION ', partition_name, ' VALUES LESS THAN (''',
+                               DATE_FORMAT(CONVERT_TZ(CAST(CONCAT(DATE_FORMAT(STR_TO_DATE(CONCAT(SUBSTRING(partition_name, 2), '01'), '%Y%m%d') + INTERVAL 1 MONTH, '%Y-%m-01'), ' ', @day_start) AS DATETIME),
+                                                      @zone, '+00:00'), '%Y-%m-%d %H:%i:%s'), ''')')
+                        ORDER BY partition_ordinal_position SEPARATOR ', ')
+    FROM information_schema.partitions
+    WHERE table_schema = DATABASE() AND table_name = 'trace' AND partition_name <> 'pmax');
+SET @partition_trace := IF(@partitions IS NULL, 'DO 0',
+                           CONCAT('ALTER TABLE trace PARTITION BY RANGE COLUMNS (timestamp) (',
+                                  @partitions, ', PARTITION pmax VALUES LESS THAN (MAXVALUE))'));
+PREPARE partition_trace FROM @partition_trace;
+EXECUTE partition_trace;
+DEALLOCATE PREPARE partition_trace;
+
+-- 3. Contrôle : bornes des partitions en heure UTC
+SELECT partition_name, partition_description, table_rows FROM information_schema.partitions
+WHERE table_schema = DATABASE() AND table_name = 'trace' ORDER BY partition_ordinal_position;
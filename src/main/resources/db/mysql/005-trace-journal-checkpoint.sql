@@ -0,0 +1,9 @@
+-- Checkpoint du journal de l'écriture différée (MySQL 8) : dernière séquence de chaque journal écrite en base, dans
+-- la transaction du lot (TraceBatchWriter). Au démarrage, seules les traces du journal au-delà sont rejouées.
+-- A exécuter une seule fois, application arrêtée après un arrêt normal (journal de l'écriture différée vide : ses
+-- traces seraient sinon toutes rejouées, faute de checkpoint).
+
+CREATE TABLE trace_journal_checkpoint (
+    journal_id VARCHAR(36) NOT NULL PRIMARY KEY,
+    last_sequence BIGINT NOT NULL
+);
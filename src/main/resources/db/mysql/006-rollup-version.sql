@@ -0,0 +1,5 @@
+-- Version des agrégats journaliers (MySQL 8) : incrémentée à chaque écriture (@Version de DailyWorkRollup), elle
+-- ordonne les états indexés par DailyTotals à la place de last_timestamp.
+-- A exécuter une seule fois, application arrêtée, après 005-trace-journal-checkpoint.sql.
+
+ALTER TABLE daily_work_rollup ADD COLUMN version BIGINT NOT NULL DEFAULT 0;
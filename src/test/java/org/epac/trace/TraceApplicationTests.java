@@ -1,13 +1,51 @@
 package org.epac.trace;
 
+import org.epac.trace.services.TraceService;
 import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.context.ActiveProfiles;
 
-@SpringBootTest
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.doAnswer;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("perf")
 class TraceApplicationTests {
 
+	@Autowired
+	private TestRestTemplate restTemplate;
+	@SpyBean
+	private TraceService traceService;
+	@Autowired
+	@Qualifier("summaryExecutor")
+	private ThreadPoolTaskExecutor summaryExecutor;
+
 	@Test
 	void contextLoads() {
 	}
 
+	// Requête servie par Tomcat de bout en bout (spring.threads.virtual.enabled), et résumés longs sur le pool dédié
+	@Test
+	void requestsAndSummariesRunOnVirtualThreads() throws Exception {
+		AtomicReference<Thread> handler = new AtomicReference<>();
+		doAnswer(invocation -> {
+			handler.set(Thread.currentThread());
+			return invocation.callRealMethod();
+		}).when(traceService).getLiveState();
+
+		assertEquals(HttpStatus.OK, restTemplate.getForEntity("/live-state", String.class).getStatusCode());
+		assertTrue(handler.get().isVirtual(), handler.get().toString());
+		assertTrue(summaryExecutor.submit(() -> Thread.currentThread().isVirtual()).get(5, TimeUnit.SECONDS));
+	}
+
 }
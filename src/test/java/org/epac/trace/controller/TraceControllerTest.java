@@ -0,0 +1,205 @@
+package org.epac.trace.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import org.epac.trace.config.AsyncConfig;
+import org.epac.trace.config.TraceProperties;
+import org.epac.trace.dto.BatchItemResult;
+import org.epac.trace.dto.WorkSummary;
+import org.epac.trace.entity.Operation;
+import org.epac.trace.entity.Trace;
+import org.epac.trace.services.ProductionCalendar;
+import org.epac.trace.services.ReplicaRouting;
+import org.epac.trace.services.SummaryChanges;
+import org.epac.trace.services.SummaryStream;
+import org.epac.trace.services.TraceService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.StringHttpMessageConverter;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import javax.sql.DataSource;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+class TraceControllerTest {
+    private TraceService traceService;
+    private TraceProperties properties;
+    private ThreadPoolTaskExecutor summaryExecutor;
+    private ProductionCalendar calendar;
+    private SummaryChanges summaryChanges;
+    private SummaryStream summaryStream;
+    private MockMvc mockMvc;
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @BeforeEach
+    void setUp() {
+        traceService = mock(TraceService.class);
+        properties = new TraceProperties();
+        properties.getAsync().setPoolSize(1);
+        properties.getAsync().setQueueCapacity(0);
+        properties.getAsync().setTimeout(Duration.ofMillis(200));
+        summaryExecutor = new AsyncConfig().summaryExecutor(properties);
+        summaryExecutor.initialize();
+        properties.getStream().setInterval(Duration.ofMillis(500));
+        calendar = new ProductionCalendar(properties);
+        summaryChanges = new SummaryChanges(calendar);
+        summaryStream = new SummaryStream(summaryChanges, traceService,
+                new ReplicaRouting(mock(DataSource.class), mock(PlatformTransactionManager.class), properties), properties);
+        ObjectMapper objectMapper = JsonMapper.builder().findAndAddModules().build();
+        mockMvc = MockMvcBuilders.standaloneSetup(new TraceController(traceService, objectMapper, summaryExecutor, properties, summaryStream))
+                .setMessageConverters(new StringHttpMessageConverter(StandardCharsets.UTF_8), new MappingJackson2HttpMessageConverter(objectMapper))
+                .build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        summaryExecutor.shutdown();
+        summaryStream.destroy();
+    }
+
+    @Test
+    void monthlySummaryIsComputedOnTheSummaryPool() throws Exception {
+        AtomicReference<Thread> thread = new AtomicReference<>();
+        when(traceService.calculateMonthlyWorkSummaryByMachine("press1")).thenAnswer(invocation -> {
+            thread.set(Thread.currentThread());
+            return Map.of(LocalDate.of(2024, 7, 1), new WorkSummary(Duration.ofHours(2), Duration.ZERO, Duration.ofHours(742)));
+        });
+
+        MvcResult result = mockMvc.perform(get("/monthly-work-summary-by-machine").param("machineName", "press1"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$['2024-07-01'].workDuration").value(7200.0));
+        assertTrue(thread.get().getName().startsWith("summary-"), thread.get().getName());
+        assertTrue(thread.get().isVirtual());
+    }
+
+    @Test
+    void summariesAreRejectedWhenThePoolIsFullAndTimeOut() throws Exception {
+        // Le seul thread du pool reste occupé par un rapport
+        when(traceService.calculateMonthlyWorkSummaryForAllEmployees()).thenAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            return Map.of();
+        });
+        MvcResult running = mockMvc.perform(get("/monthly-work-summary-all-employee"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(get("/weekly-work-summary-all-machine"))
+                .andExpect(status().isServiceUnavailable());
+
+        mockMvc.perform(asyncDispatch(running))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(content().string("Le calcul du résumé a dépassé le délai autorisé."));
+
+        // Le rapport abandonné est interrompu : le thread du pool est libéré sans attendre sa fin
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (summaryExecutor.getActiveCount() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, summaryExecutor.getActiveCount());
+        assertEquals(1, release.getCount());
+    }
+
+    @Test
+    void streamSendsOneUpdatePerFollowedKeyAndDay() throws Exception {
+        LocalDate day = LocalDate.of(2024, 7, 1);
+        when(traceService.calculateDailyWorkSummary("oumaima", day))
+                .thenReturn(new WorkSummary(Duration.ofHours(2), Duration.ZERO, Duration.ofHours(22)));
+        MvcResult result = mockMvc.perform(get("/stream/summaries").param("dimension", "EMPLOYER"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        // Trois traces du même employé le même jour avant le tick : un seul calcul et un seul événement
+        summaryChanges.record(new Trace(calendar.startOf(day).plus(Duration.ofHours(8)), "oumaima", "press1", Operation.START));
+        summaryChanges.record(new Trace(calendar.startOf(day).plus(Duration.ofHours(9)), "oumaima", "press1", Operation.PAUSE));
+        summaryChanges.record(new Trace(calendar.startOf(day).plus(Duration.ofHours(10)), "oumaima", "press1", Operation.START));
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!result.getResponse().getContentAsString().contains("oumaima") && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+        String events = result.getResponse().getContentAsString();
+        assertEquals(1, events.split("event:summary", -1).length - 1, events);
+        assertTrue(events.contains("\"employerName\":\"oumaima\""), events);
+        verify(traceService, times(1)).calculateDailyWorkSummary("oumaima", day);
+        // Le flux ne suit que les employés : le résumé de la machine n'est pas calculé
+        verify(traceService, never()).calculateDailyWorkSummaryMachine(any(), any());
+    }
+
+    @Test
+    void ndjsonBatchIsValidatedInChunksWithGlobalIndexes() throws Exception {
+        properties.getIngest().setBatchSize(2);
+        when(traceService.addTraces(anyList())).thenAnswer(invocation -> {
+            List<Trace> chunk = invocation.getArgument(0);
+            return IntStream.range(0, chunk.size())
+                    .mapToObj(i -> new BatchItemResult(i, !chunk.get(i).getEmployerName().equals("ali"), null)).toList();
+        });
+        String body = """
+                {"timestamp":"2024-07-01T08:00:00Z","employerName":"oumaima","machineName":"press1","operation":"START"}
+                {"timestamp":"2024-07-01T09:00:00Z","employerName":"oumaima","machineName":"press1","operation":"STOP"}
+                {"timestamp":"2024-07-01T10:00:00Z","employerName":"ali","machineName":"press1","operation":"START"}
+                """;
+
+        mockMvc.perform(post("/add/batch").contentType(MediaType.APPLICATION_NDJSON).content(body))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(3))
+                .andExpect(jsonPath("$[2].index").value(2))
+                .andExpect(jsonPath("$[2].accepted").value(false));
+        verify(traceService, times(2)).addTraces(anyList());
+    }
+
+    @Test
+    void malformedNdjsonLineReturnsTheResultsOfTheLinesBeforeIt() throws Exception {
+        properties.getIngest().setBatchSize(2);
+        when(traceService.addTraces(anyList())).thenAnswer(invocation -> {
+            List<Trace> chunk = invocation.getArgument(0);
+            return IntStream.range(0, chunk.size())
+                    .mapToObj(i -> new BatchItemResult(i, !chunk.get(i).getEmployerName().equals("ali"), null)).toList();
+        });
+        String body = """
+                {"timestamp":"2024-07-01T08:00:00Z","employerName":"oumaima","machineName":"press1","operation":"START"}
+                {"timestamp":"2024-07-01T09:00:00Z","employerName":"oumaima","machineName":"press1","operation":"STOP"}
+                {"timestamp":"2024-07-01T10:00:00Z","employerName":"ali","machineName":"press1","operation":"START"}
+                {"timestamp":"2024-07-01T11:00:00Z","employerName":
+                {"timestamp":"2024-07-01T12:00:00Z","employerName":"ali","machineName":"press1","operation":"STOP"}
+                """;
+
+        // Le premier bloc et la ligne lue avant l'erreur sont enregistrés, la suite de l'envoi ne l'est pas
+        mockMvc.perform(post("/add/batch").contentType(MediaType.APPLICATION_NDJSON).content(body))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.accepted").value(2))
+                .andExpect(jsonPath("$.line").value(5))
+                .andExpect(jsonPath("$.results.length()").value(3))
+                .andExpect(jsonPath("$.results[2].accepted").value(false));
+        verify(traceService, times(2)).addTraces(anyList());
+    }
+}
@@ -0,0 +1,190 @@
+package org.epac.trace.services;
+
+import org.epac.trace.config.TraceProperties;
+import org.epac.trace.dto.WorkSummary;
+import org.epac.trace.entity.DailyWorkRollup;
+import org.epac.trace.repository.DailyWorkRollupRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class DailyTotalsTest {
+
+    @Test
+    void indexMatchesRollupSummariesAndFollowsCommits() {
+        // Passage à l'heure d'été dans la fenêtre : jours de 23 h
+        TraceProperties properties = new TraceProperties();
+        properties.getCalendar().setZone(ZoneId.of("Europe/Paris"));
+        ProductionCalendar calendar = new ProductionCalendar(properties);
+        LocalDate firstDay = LocalDate.of(2024, 2, 20);
+        List<DailyWorkRollup> rollups = new ArrayList<>();
+        Random random = new Random(7);
+        for (LocalDate day = firstDay; day.isBefore(LocalDate.of(2024, 5, 10)); day = day.plusDays(1)) {
+            for (String employerName : List.of("ali", "oumaima")) {
+                for (String machineName : List.of("press1", "press2")) {
+                    if (random.nextInt(10) < 6) {
+                        rollups.add(new DailyWorkRollup(day, employerName, machineName, random.nextLong(Duration.ofHours(8).toNanos()),
+                                random.nextLong(Duration.ofHours(1).toNanos()), 1));
+                    }
+                }
+            }
+        }
+        DailyWorkRollupRepository rollupRepository = repository(rollups);
+        DailyTotals dailyTotals = new DailyTotals(rollupRepository, mock(PlatformTransactionManager.class), calendar, properties);
+        RollupService rollupService = new RollupService(rollupRepository, null, null, properties, calendar, null, dailyTotals);
+        SummaryCache.SeriesKey ali = SummaryCache.SeriesKey.of(Dimension.EMPLOYER, "ali", null, Granularity.DAY);
+        assertEquals(Optional.empty(), dailyTotals.series(ali));
+
+        dailyTotals.load();
+        for (Granularity granularity : Granularity.values()) {
+            for (String employerName : List.of("ali", "oumaima")) {
+                assertEquals(rollupService.summarizeEmployer(employerName, granularity),
+                        dailyTotals.series(SummaryCache.SeriesKey.of(Dimension.EMPLOYER, employerName, null, granularity)).orElseThrow());
+                for (String machineName : List.of("press1", "press2")) {
+                    assertEquals(rollupService.summarizeEmployerAndMachine(employerName, machineName, granularity),
+                            dailyTotals.series(SummaryCache.SeriesKey.of(Dimension.EMPLOYER_MACHINE, employerName, machineName, granularity)).orElseThrow());
+                }
+            }
+            assertEquals(rollupService.summarizeMachine("press1", granularity),
+                    dailyTotals.series(SummaryCache.SeriesKey.of(Dimension.MACHINE, null, "press1", granularity)).orElseThrow());
+        }
+        List<SummaryCache.SeriesKey> weeks = List.of(SummaryCache.SeriesKey.of(Dimension.EMPLOYER, "ali", null, Granularity.WEEK),
+                SummaryCache.SeriesKey.of(Dimension.EMPLOYER, "nobody", null, Granularity.WEEK));
+        LocalDate start = LocalDate.of(2024, 3, 4);
+        LocalDate end = LocalDate.of(2024, 4, 14);
+        assertEquals(rollupService.summarizeRange(weeks, start, end), dailyTotals.seriesOf(weeks, start, end).orElseThrow());
+
+        // Plage quelconque, au-delà des jours tracés : les jours de la série journalière, les autres entièrement inactifs
+        LocalDate from = LocalDate.of(2024, 3, 13);
+        LocalDate to = LocalDate.of(2024, 5, 20);
+        assertEquals(sumDays(calendar, rollupService.summarizeEmployer("oumaima", Granularity.DAY), from, to),
+                dailyTotals.total(SummaryCache.SeriesKey.of(Dimension.EMPLOYER, "oumaima", null, Granularity.DAY), from, to).orElseThrow());
+        assertEquals(new WorkSummary(Duration.ZERO, Duration.ZERO, Duration.ofNanos(calendar.nanosBetween(from, to.plusDays(1)))),
+                dailyTotals.total(SummaryCache.SeriesKey.of(Dimension.MACHINE, null, "press9", Granularity.DAY), from, to).orElseThrow());
+
+        // Commits : état plus récent d'un jour existant, état périmé ignoré, jour avant le premier jour indexé
+        DailyWorkRollup existing = rollups.stream().filter(rollup -> rollup.getEmployerName().equals("ali")).findFirst().orElseThrow();
+        DailyWorkRollup updated = copy(existing, existing.getWorkNanos() + 5, existing.getVersion() + 1);
+        DailyWorkRollup stale = copy(existing, 0, existing.getVersion());
+        DailyWorkRollup earlier = new DailyWorkRollup(firstDay.minusDays(200), "ali", "press1", 42, 0, 0);
+        rollups.set(rollups.indexOf(existing), updated);
+        rollups.add(earlier);
+        dailyTotals.recordOnCommit(updated);
+        dailyTotals.recordOnCommit(stale);
+        dailyTotals.recordOnCommit(earlier);
+        for (Granularity granularity : Granularity.values()) {
+            assertEquals(rollupService.summarizeEmployer("ali", granularity),
+                    dailyTotals.series(SummaryCache.SeriesKey.of(Dimension.EMPLOYER, "ali", null, granularity)).orElseThrow());
+            assertEquals(rollupService.summarizeMachine(existing.getMachineName(), granularity),
+                    dailyTotals.series(SummaryCache.SeriesKey.of(Dimension.MACHINE, null, existing.getMachineName(), granularity)).orElseThrow());
+        }
+    }
+
+    @Test
+    void sparseDaysOverDecadesOnlyAllocateTheirPages() {
+        TraceProperties properties = new TraceProperties();
+        properties.getCalendar().setZone(ZoneId.of("UTC"));
+        ProductionCalendar calendar = new ProductionCalendar(properties);
+        // Quelques jours par couple, dispersés sur trente ans, pour 40 employés × 10 machines
+        LocalDate firstDay = LocalDate.of(1995, 1, 1);
+        int span = (int) (LocalDate.of(2024, 12, 31).toEpochDay() - firstDay.toEpochDay());
+        List<DailyWorkRollup> rollups = new ArrayList<>();
+        Random random = new Random(11);
+        for (int employer = 0; employer < 40; employer++) {
+            for (int machine = 0; machine < 10; machine++) {
+                Set<LocalDate> days = new HashSet<>();
+                while (days.size() < 3) {
+                    days.add(firstDay.plusDays(random.nextInt(span)));
+                }
+                for (LocalDate day : days) {
+                    rollups.add(new DailyWorkRollup(day, "employer" + employer, "machine" + machine, random.nextLong(Duration.ofHours(8).toNanos()),
+                            random.nextLong(Duration.ofHours(1).toNanos()), 1));
+                }
+            }
+        }
+        DailyWorkRollupRepository rollupRepository = repository(rollups);
+        DailyTotals dailyTotals = new DailyTotals(rollupRepository, mock(PlatformTransactionManager.class), calendar, properties);
+        RollupService rollupService = new RollupService(rollupRepository, null, null, properties, calendar, null, dailyTotals);
+
+        dailyTotals.load();
+        for (int employer = 0; employer < 40; employer++) {
+            assertEquals(rollupService.summarizeEmployer("employer" + employer, Granularity.WEEK),
+                    dailyTotals.series(SummaryCache.SeriesKey.of(Dimension.EMPLOYER, "employer" + employer, null, Granularity.WEEK)).orElseThrow());
+            for (int machine = 0; machine < 10; machine++) {
+                assertEquals(rollupService.summarizeEmployerAndMachine("employer" + employer, "machine" + machine, Granularity.MONTH),
+                        dailyTotals.series(SummaryCache.SeriesKey.of(Dimension.EMPLOYER_MACHINE, "employer" + employer, "machine" + machine, Granularity.MONTH)).orElseThrow());
+            }
+        }
+        LocalDate from = LocalDate.of(2003, 5, 17);
+        LocalDate to = LocalDate.of(2011, 9, 2);
+        assertEquals(sumDays(calendar, rollupService.summarizeMachine("machine3", Granularity.DAY), from, to),
+                dailyTotals.total(SummaryCache.SeriesKey.of(Dimension.MACHINE, null, "machine3", Granularity.DAY), from, to).orElseThrow());
+
+        // Deux jours à trente ans d'écart, dans les deux sens : deux pages, pas la plage entière
+        DailyTotals.DayTree tree = new DailyTotals.DayTree(true);
+        long recent = LocalDate.of(2024, 6, 3).toEpochDay();
+        long old = LocalDate.of(1994, 2, 8).toEpochDay();
+        tree.set(recent, 5, 1, 1);
+        tree.set(old, 7, 2, 1);
+        assertEquals(2, tree.pageCount());
+        assertEquals(12, tree.sum(old, recent).work());
+        assertEquals(3, tree.sum(old - 1000, recent + 1000).pause());
+        assertEquals(1, tree.sum(old + 1, recent).days());
+        assertEquals(0, tree.sum(old + 1, recent - 1).days());
+    }
+
+    // Agrégats triés par jour, filtrés comme les requêtes du dépôt utilisées par RollupService
+    private static DailyWorkRollupRepository repository(List<DailyWorkRollup> rollups) {
+        DailyWorkRollupRepository rollupRepository = mock(DailyWorkRollupRepository.class);
+        when(rollupRepository.streamAllDayTotals()).thenAnswer(invocation -> new ArrayList<>(rollups).stream());
+        when(rollupRepository.findByEmployerNameOrderByWorkDate(anyString())).thenAnswer(invocation ->
+                sorted(rollups, rollup -> rollup.getEmployerName().equals(invocation.getArgument(0))));
+        when(rollupRepository.findByMachineNameOrderByWorkDate(anyString())).thenAnswer(invocation ->
+                sorted(rollups, rollup -> rollup.getMachineName().equals(invocation.getArgument(0))));
+        when(rollupRepository.findByEmployerNameAndMachineNameOrderByWorkDate(anyString(), anyString())).thenAnswer(invocation ->
+                sorted(rollups, rollup -> rollup.getEmployerName().equals(invocation.getArgument(0)) && rollup.getMachineName().equals(invocation.getArgument(1))));
+        when(rollupRepository.findByEmployerNameInAndWorkDateBetweenOrderByWorkDate(any(), any(), any())).thenAnswer(invocation -> {
+            Collection<String> employerNames = invocation.getArgument(0);
+            LocalDate start = invocation.getArgument(1);
+            LocalDate end = invocation.getArgument(2);
+            return sorted(rollups, rollup -> employerNames.contains(rollup.getEmployerName())
+                    && !rollup.getWorkDate().isBefore(start) && !rollup.getWorkDate().isAfter(end));
+        });
+        return rollupRepository;
+    }
+
+    private static List<DailyWorkRollup> sorted(List<DailyWorkRollup> rollups, Predicate<DailyWorkRollup> filter) {
+        return rollups.stream().filter(filter).sorted(Comparator.comparing(DailyWorkRollup::getWorkDate)).toList();
+    }
+
+    private static DailyWorkRollup copy(DailyWorkRollup rollup, long workNanos, long version) {
+        return new DailyWorkRollup(rollup.getWorkDate(), rollup.getEmployerName(), rollup.getMachineName(), workNanos, rollup.getPauseNanos(), version);
+    }
+
+    private static WorkSummary sumDays(ProductionCalendar calendar, Map<LocalDate, WorkSummary> days, LocalDate from, LocalDate to) {
+        Duration work = Duration.ZERO;
+        Duration pause = Duration.ZERO;
+        Duration inactive = Duration.ZERO;
+        for (LocalDate day = from; !day.isAfter(to); day = day.plusDays(1)) {
+            WorkSummary summary = days.get(day);
+            if (summary == null) {
+                inactive = inactive.plusNanos(calendar.dayNanos(day));
+            } else {
+                work = work.plus(summary.workDuration());
+                pause = pause.plus(summary.pauseDuration());
+                inactive = inactive.plus(summary.inactiveDuration());
+            }
+        }
+        return new WorkSummary(work, pause, inactive);
+    }
+}
@@ -0,0 +1,75 @@
+package org.epac.trace.services;
+
+import org.epac.trace.config.TraceProperties;
+import org.epac.trace.dto.WorkSummary;
+import org.epac.trace.entity.Operation;
+import org.epac.trace.entity.Trace;
+import org.junit.jupiter.api.Test;
+
+import java.time.*;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ProductionCalendarTest {
+
+    @Test
+    void daylightSavingDaysLastTwentyThreeAndTwentyFiveHours() {
+        TraceProperties properties = new TraceProperties();
+        properties.getCalendar().setZone(ZoneId.of("Europe/Paris"));
+        ProductionCalendar calendar = new ProductionCalendar(properties);
+        LocalDate springForward = LocalDate.of(2024, 3, 31);
+        LocalDate fallBack = LocalDate.of(2024, 10, 27);
+        ZoneId paris = properties.getCalendar().getZone();
+
+        assertEquals(Duration.ofHours(23).toNanos(), calendar.dayNanos(springForward));
+        assertEquals(Duration.ofHours(25).toNanos(), calendar.dayNanos(fallBack));
+
+        // De 01:00 à 04:00 heure locale : 2 h réelles en mars, 4 h en octobre
+        for (LocalDate day : List.of(springForward, fallBack)) {
+            List<Trace> traces = List.of(
+                    new Trace(day.atTime(1, 0).atZone(paris).toInstant(), "oumaima", "machine1", Operation.START),
+                    new Trace(day.atTime(4, 0).atZone(paris).toInstant(), "oumaima", "machine1", Operation.STOP)
+            );
+            WorkSummary summary = IntervalSweep.summarize(calendar, traces, null, Granularity.DAY).get(day);
+            Duration work = Duration.ofHours(day.equals(springForward) ? 2 : 4);
+            assertEquals(work, summary.workDuration());
+            assertEquals(Duration.ofNanos(calendar.dayNanos(day)).minus(work).minusNanos(1), summary.inactiveDuration());
+        }
+
+        // L'heure sautée ne donne pas de tranche : 23 tranches horaires, la troisième commence à 03:00
+        ProductionCalendar.Window window = calendar.window(SummaryGranularity.HOUR, springForward, springForward);
+        assertEquals(23, window.bucketBounds().length - 1);
+        assertEquals(springForward.atTime(3, 0), window.bucketStarts()[2]);
+    }
+
+    @Test
+    void nightShiftBelongsToTheProductionDayItStarts() {
+        TraceProperties properties = new TraceProperties();
+        properties.getCalendar().setZone(ZoneOffset.UTC);
+        properties.getCalendar().setDayStart(LocalTime.of(6, 0));
+        ProductionCalendar calendar = new ProductionCalendar(properties);
+        LocalDate day = LocalDate.of(2024, 7, 1);
+        List<Trace> traces = List.of(
+                new Trace(LocalDateTime.of(2024, 7, 1, 22, 0).toInstant(ZoneOffset.UTC), "oumaima", "machine1", Operation.START),
+                new Trace(LocalDateTime.of(2024, 7, 2, 2, 0).toInstant(ZoneOffset.UTC), "oumaima", "machine1", Operation.PAUSE),
+                new Trace(LocalDateTime.of(2024, 7, 2, 2, 30).toInstant(ZoneOffset.UTC), "oumaima", "machine1", Operation.START),
+                new Trace(LocalDateTime.of(2024, 7, 2, 5, 0).toInstant(ZoneOffset.UTC), "oumaima", "machine1", Operation.STOP)
+        );
+
+        assertEquals(day, calendar.productionDay(LocalDateTime.of(2024, 7, 2, 5, 59).toInstant(ZoneOffset.UTC)));
+        Map<LocalDate, WorkSummary> days = IntervalSweep.summarize(calendar, traces, null, Granularity.DAY);
+        assertEquals(Map.of(day, new WorkSummary(Duration.ofMinutes(390), Duration.ofMinutes(30),
+                Duration.ofHours(17).minusNanos(1))), days);
+
+        ProductionCalendar.Window window = calendar.window(SummaryGranularity.SHIFT, day, day);
+        RangeSweep sweep = RangeSweep.of(calendar, SummaryGranularity.SHIFT, window, null);
+        traces.forEach(sweep::accept);
+        assertEquals(Map.of(
+                day.atTime(6, 0), new WorkSummary(Duration.ZERO, Duration.ZERO, Duration.ofHours(8)),
+                day.atTime(14, 0), new WorkSummary(Duration.ZERO, Duration.ZERO, Duration.ofHours(8)),
+                day.atTime(22, 0), new WorkSummary(Duration.ofMinutes(390), Duration.ofMinutes(30), Duration.ofHours(1))
+        ), sweep.finish());
+    }
+}
@@ -0,0 +1,108 @@
+package org.epac.trace.services;
+
+import org.epac.trace.dto.WorkSummary;
+import org.epac.trace.entity.Operation;
+import org.epac.trace.entity.Trace;
+import org.epac.trace.entity.UtcTimestampConverter;
+import org.epac.trace.repository.NameDictionary;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Deux bases H2 embarquées : la base principale, et un réplica recopié à la demande (replicate) pour simuler
+// la réplication et son retard. Les battements sont déclenchés par le test (intervalle d'une heure).
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:primary;MODE=MySQL;DB_CLOSE_DELAY=-1",
+        "trace.replica.url=jdbc:h2:mem:replica;MODE=MySQL;DB_CLOSE_DELAY=-1",
+        "trace.replica.max-lag=0s",
+        "trace.replica.heartbeat-interval=1h"
+})
+@ActiveProfiles("perf")
+class ReplicaRoutingTest {
+
+    @TempDir
+    Path directory;
+
+    @Autowired
+    TraceService traceService;
+    @Autowired
+    ReplicaRouting replicaRouting;
+    @Autowired
+    ProductionCalendar calendar;
+    @Autowired
+    NameDictionary nameDictionary;
+    @Autowired
+    PlatformTransactionManager transactionManager;
+    @Autowired
+    @Qualifier("primaryDataSource")
+    DataSource primaryDataSource;
+    @Autowired
+    @Qualifier("replicaDataSource")
+    DataSource replicaDataSource;
+
+    @Test
+    void summariesAreReadOnTheReplicaUnlessItLagsBehindTheCurrentDay() throws Exception {
+        replicaRouting.stop();
+        JdbcTemplate primary = new JdbcTemplate(primaryDataSource);
+        JdbcTemplate replica = new JdbcTemplate(replicaDataSource);
+        LocalDate today = calendar.today();
+        LocalDate yesterday = today.minusDays(1);
+        assertTrue(replicaRouting.isEnabled());
+
+        traceService.addTrace(new Trace(null, "ali", "press1", Operation.START));
+        replicaRouting.beat();
+        replicate(primary, replica);
+        replicaRouting.check();
+
+        // Marqueurs présents sur le réplica seulement : la veille, et une pause d'une nanoseconde aujourd'hui
+        replica.update("insert into daily_work_rollup (work_date, employer_name, machine_name, work_nanos, pause_nanos, inactive_nanos, last_operation, last_timestamp, version) "
+                + "values (?, 'ali', 'press1', ?, 0, 0, 'STOP', ?, 0)", yesterday, Duration.ofHours(1).toNanos(), UtcTimestampConverter.toColumn(calendar.startOf(yesterday).plus(Duration.ofHours(1))));
+        replica.update("update daily_work_rollup set pause_nanos = 1 where work_date = ?", today);
+        assertEquals(Duration.ofHours(1), traceService.calculateDailyWorkSummaryByEmployer("ali", yesterday).get("press1").workDuration());
+        assertEquals(Duration.ofNanos(1), traceService.calculateDailyWorkSummaryByEmployer("ali", today).get("press1").pauseDuration());
+
+        // Le réplica n'a pas le dernier battement : le jour courant est relu sur la base principale, la veille reste sur le réplica
+        traceService.addTrace(new Trace(null, "ali", "press1", Operation.PAUSE));
+        replicaRouting.beat();
+        replicaRouting.check();
+        long pauseNanos = primary.queryForObject("select pause_nanos from daily_work_rollup where work_date = ?", Long.class, today);
+        WorkSummary current = traceService.calculateDailyWorkSummaryByEmployer("ali", today).get("press1");
+        assertEquals(Duration.ofNanos(pauseNanos), current.pauseDuration());
+        assertEquals(Duration.ofHours(1), traceService.calculateDailyWorkSummaryByEmployer("ali", yesterday).get("press1").workDuration());
+
+        // Les traces ne sont écrites que sur la base principale
+        assertEquals(2, primary.queryForObject("select count(*) from trace", Integer.class));
+        assertEquals(1, replica.queryForObject("select count(*) from trace", Integer.class));
+
+        // Noms ajoutés par une autre instance, absents du réplica : résolus sur la base principale, même dans une lecture du réplica
+        primary.update("insert into employee (name) values ('oumaima')");
+        primary.update("insert into machine (name) values ('press2')");
+        int oumaima = primary.queryForObject("select id from employee where name = 'oumaima'", Integer.class);
+        int press2 = primary.queryForObject("select id from machine where name = 'press2'", Integer.class);
+        TransactionTemplate replicaRead = new TransactionTemplate(transactionManager);
+        replicaRead.setReadOnly(true);
+        assertEquals(Integer.valueOf(oumaima), replicaRead.execute(status -> nameDictionary.employeeId("oumaima")));
+        assertEquals("press2", replicaRead.execute(status -> nameDictionary.machineName(press2)));
+    }
+
+    // Copie complète de la base principale sur le réplica
+    private void replicate(JdbcTemplate primary, JdbcTemplate replica) {
+        String script = directory.resolve("replica.sql").toString();
+        primary.execute("SCRIPT TO '" + script + "'");
+        replica.execute("DROP ALL OBJECTS");
+        replica.execute("RUNSCRIPT FROM '" + script + "'");
+    }
+}
@@ -0,0 +1,58 @@
+package org.epac.trace.services;
+
+import org.epac.trace.config.TraceProperties;
+import org.epac.trace.dto.WorkSummary;
+import org.epac.trace.entity.DailyWorkRollup;
+import org.epac.trace.entity.Operation;
+import org.epac.trace.entity.Trace;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RollupServiceTest {
+
+    @Test
+    void incrementalRollupMatchesReplay() {
+        LocalDate previousDate = LocalDate.of(2024, 7, 26);
+        LocalDate date = LocalDate.of(2024, 7, 27);
+        Trace previousDayTrace = new Trace(at(2024, 7, 26, 14, 8, 27), "oumaima", "machine1", Operation.PAUSE);
+        List<Trace> traces = List.of(
+                new Trace(at(2024, 7, 27, 13, 25, 28), "oumaima", "machine1", Operation.START),
+                new Trace(at(2024, 7, 27, 13, 28, 58), "oumaima", "machine1", Operation.PAUSE),
+                new Trace(at(2024, 7, 27, 15, 0, 0), "oumaima", "machine1", Operation.START),
+                new Trace(at(2024, 7, 27, 19, 35, 25), "oumaima", "machine1", Operation.STOP),
+                new Trace(at(2024, 7, 27, 21, 0, 0), "oumaima", "machine1", Operation.START)
+        );
+
+        TraceProperties properties = new TraceProperties();
+        properties.getCalendar().setZone(ZoneOffset.UTC);
+        ProductionCalendar calendar = new ProductionCalendar(properties);
+        ProductionCalendar.Cursor cursor = calendar.cursor();
+        DailyWorkRollup previousDay = new DailyWorkRollup(previousDate, "oumaima", "machine1");
+        RollupService.advance(cursor, previousDay, null, previousDayTrace);
+        DailyWorkRollup rollup = new DailyWorkRollup(date, "oumaima", "machine1");
+        RollupService.advance(cursor, rollup, previousDay, traces.get(0));
+        for (Trace trace : traces.subList(1, traces.size())) {
+            RollupService.advance(cursor, rollup, null, trace);
+        }
+
+        WorkSummary expected = IntervalSweep.summarize(calendar, traces, previousDayTrace, Granularity.DAY).get(date);
+        assertEquals(expected, RollupService.toWorkSummary(rollup));
+        assertEquals(Operation.START, rollup.getLastOperation());
+    }
+
+    // Heure UTC, le fuseau du calendrier de ces tests
+    private static Instant at(int year, int month, int day, int hour, int minute) {
+        return LocalDateTime.of(year, month, day, hour, minute).toInstant(ZoneOffset.UTC);
+    }
+
+    private static Instant at(int year, int month, int day, int hour, int minute, int second) {
+        return LocalDateTime.of(year, month, day, hour, minute, second).toInstant(ZoneOffset.UTC);
+    }
+}
@@ -0,0 +1,56 @@
+package org.epac.trace.services;
+
+import org.epac.trace.config.TraceProperties;
+import org.epac.trace.dto.WorkSummary;
+import org.epac.trace.entity.Operation;
+import org.epac.trace.entity.Trace;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SummaryCacheTest {
+
+    @Test
+    void seriesIsKeptUnlessItsOwnKeyIsEvictedWhileLoading() {
+        TraceProperties properties = new TraceProperties();
+        properties.getCalendar().setZone(ZoneOffset.UTC);
+        SummaryCache cache = new SummaryCache(properties, new ProductionCalendar(properties));
+        LocalDate day = LocalDate.of(2024, 7, 27);
+        Instant noon = day.atTime(12, 0).toInstant(ZoneOffset.UTC);
+        Map<LocalDate, WorkSummary> summaries = Map.of(day, new WorkSummary(Duration.ofHours(1), Duration.ZERO, Duration.ofHours(23)));
+        SummaryCache.SeriesKey ali = SummaryCache.SeriesKey.of(Dimension.EMPLOYER, "ali", null, Granularity.DAY);
+        SummaryCache.SeriesKey oumaima = SummaryCache.SeriesKey.of(Dimension.EMPLOYER, "oumaima", null, Granularity.DAY);
+        AtomicInteger loads = new AtomicInteger();
+
+        // Une trace d'un autre employé pendant le chargement : la série d'ali est gardée
+        cache.series(ali, key -> {
+            loads.incrementAndGet();
+            cache.evict(new Trace(noon, "oumaima", "press2", Operation.START));
+            return summaries;
+        }, (key, periodStart) -> summaries.get(periodStart));
+        cache.series(ali, key -> {
+            loads.incrementAndGet();
+            return summaries;
+        }, (key, periodStart) -> summaries.get(periodStart));
+        assertEquals(1, loads.get());
+
+        // Une trace de l'employé pendant le chargement : la série est peut-être périmée, elle est relue ensuite
+        cache.series(oumaima, key -> {
+            loads.incrementAndGet();
+            cache.evict(new Trace(noon.plusSeconds(1), "oumaima", "press2", Operation.STOP));
+            return summaries;
+        }, (key, periodStart) -> summaries.get(periodStart));
+        cache.series(oumaima, key -> {
+            loads.incrementAndGet();
+            return summaries;
+        }, (key, periodStart) -> summaries.get(periodStart));
+        assertEquals(3, loads.get());
+    }
+}
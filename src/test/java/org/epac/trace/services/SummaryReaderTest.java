@@ -0,0 +1,82 @@
+package org.epac.trace.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.epac.trace.config.TraceProperties;
+import org.epac.trace.dto.WorkSummary;
+import org.epac.trace.repository.TracePartitions;
+import org.epac.trace.repository.TraceRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class SummaryReaderTest {
+
+    @TempDir
+    Path archiveDirectory;
+
+    @Test
+    void seriesComeFromTheDailyTotalsIndexThenFromTheRollups() {
+        TraceRepository traceRepository = mock(TraceRepository.class);
+        RollupService rollupService = mock(RollupService.class);
+        DailyTotals dailyTotals = mock(DailyTotals.class);
+        SummaryReader reader = reader(TraceProperties.SummarySource.ROLLUP, traceRepository, rollupService, dailyTotals);
+        LocalDate day = LocalDate.of(2024, 7, 27);
+        Map<LocalDate, WorkSummary> indexed = Map.of(day, new WorkSummary(Duration.ofHours(1), Duration.ZERO, Duration.ofHours(23)));
+        Map<LocalDate, WorkSummary> rolledUp = Map.of(day, new WorkSummary(Duration.ofHours(2), Duration.ZERO, Duration.ofHours(22)));
+        SummaryCache.SeriesKey ali = SummaryCache.SeriesKey.of(Dimension.EMPLOYER, "ali", null, Granularity.DAY);
+        when(dailyTotals.series(any())).thenReturn(Optional.empty());
+        when(dailyTotals.series(ali)).thenReturn(Optional.of(indexed));
+        when(rollupService.summarizeEmployer("oumaima", Granularity.DAY)).thenReturn(rolledUp);
+
+        // Index chargé : ni agrégats ni traces
+        assertEquals(indexed, reader.series(Dimension.EMPLOYER, "ali", null, Granularity.DAY));
+        verifyNoInteractions(rollupService, traceRepository);
+
+        // Index pas encore chargé pour cette clé : agrégats, puis cache des périodes
+        assertEquals(rolledUp, reader.series(Dimension.EMPLOYER, "oumaima", null, Granularity.DAY));
+        assertEquals(rolledUp, reader.series(Dimension.EMPLOYER, "oumaima", null, Granularity.DAY));
+        verify(rollupService).summarizeEmployer("oumaima", Granularity.DAY);
+        verifyNoInteractions(traceRepository);
+    }
+
+    @Test
+    void dayIsReplayedFromTheTracesWithoutTheRollups() {
+        TraceRepository traceRepository = mock(TraceRepository.class);
+        RollupService rollupService = mock(RollupService.class);
+        SummaryReader reader = reader(TraceProperties.SummarySource.REPLAY, traceRepository, rollupService, mock(DailyTotals.class));
+        LocalDate day = LocalDate.of(2024, 7, 27);
+        when(traceRepository.findByEmployerNameAndTimestampBetweenOrderByTimestampAsc(any(), any(Instant.class), any(Instant.class))).thenReturn(List.of());
+
+        assertEquals(new WorkSummary(Duration.ZERO, Duration.ZERO, Duration.ofDays(1)), reader.dayOfEmployer("ali", day));
+        verify(traceRepository).findByEmployerNameAndTimestampBetweenOrderByTimestampAsc("ali", day.atStartOfDay().toInstant(ZoneOffset.UTC),
+                day.plusDays(1).atStartOfDay().toInstant(ZoneOffset.UTC).minusNanos(1));
+        verifyNoInteractions(rollupService);
+    }
+
+    private SummaryReader reader(TraceProperties.SummarySource source, TraceRepository traceRepository, RollupService rollupService, DailyTotals dailyTotals) {
+        TraceProperties properties = new TraceProperties();
+        properties.getSummary().setSource(source);
+        properties.getArchive().setDirectory(archiveDirectory);
+        properties.getCalendar().setZone(ZoneOffset.UTC);
+        ProductionCalendar calendar = new ProductionCalendar(properties);
+        TransactionTemplate transactionTemplate = new TransactionTemplate(mock(PlatformTransactionManager.class));
+        TraceArchive archive = new TraceArchive(traceRepository, mock(TracePartitions.class), transactionTemplate, properties, calendar);
+        return new SummaryReader(traceRepository, rollupService, new SummaryCache(properties, calendar), transactionTemplate, properties, calendar, archive,
+                new TraceMetrics(new SimpleMeterRegistry()), new ReplicaRouting(mock(DataSource.class), mock(PlatformTransactionManager.class), properties), dailyTotals);
+    }
+}
@@ -0,0 +1,118 @@
+package org.epac.trace.services;
+
+import org.epac.trace.config.TraceProperties;
+import org.epac.trace.entity.Operation;
+import org.epac.trace.entity.Trace;
+import org.epac.trace.repository.TracePartitions;
+import org.epac.trace.repository.TraceRepository;
+import org.epac.trace.repository.TraceSegment;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class TraceArchiveTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void closedMonthIsArchivedThenReadAcrossTheHorizon() throws Exception {
+        TraceProperties properties = new TraceProperties();
+        properties.getCalendar().setZone(ZoneOffset.UTC);
+        properties.getArchive().setEnabled(true);
+        properties.getArchive().setDirectory(directory);
+        properties.getArchive().setKeepMonths(3);
+        ProductionCalendar calendar = new ProductionCalendar(properties);
+        TraceRepository traceRepository = mock(TraceRepository.class);
+        TracePartitions partitions = mock(TracePartitions.class);
+        TransactionTemplate transactionTemplate = new TransactionTemplate(mock(PlatformTransactionManager.class));
+
+        // Un mois clos de plus de deux blocs de traces, et un mois encore dans la table
+        YearMonth closedMonth = YearMonth.from(calendar.today()).minusMonths(4);
+        Instant horizon = calendar.startOf(closedMonth.plusMonths(1).atDay(1));
+        List<Trace> closed = traces(calendar.startOf(closedMonth.atDay(1)).plus(Duration.ofHours(1)), 2500);
+        List<Trace> kept = traces(calendar.startOf(closedMonth.plusMonths(2).atDay(1)), 10);
+        when(traceRepository.findTopByOrderByTimestampAsc()).thenReturn(Optional.of(closed.get(0)));
+        when(traceRepository.findAllByTimestampGreaterThanEqualAndTimestampLessThanOrderByTimestamp(any(), any())).thenAnswer(invocation -> {
+            Instant start = invocation.getArgument(0);
+            Instant end = invocation.getArgument(1);
+            return closed.stream().filter(trace -> !trace.getTimestamp().isBefore(start) && trace.getTimestamp().isBefore(end));
+        });
+        when(traceRepository.deleteByTimestampBefore(any())).thenReturn(0);
+
+        TraceArchive archive = new TraceArchive(traceRepository, partitions, transactionTemplate, properties, calendar);
+        assertEquals(TraceArchive.NOTHING_ARCHIVED, archive.horizon());
+        assertEquals(1, archive.archiveClosedMonths());
+        assertTrue(Files.exists(directory.resolve("traces-" + closedMonth + ".seg")));
+        assertEquals(horizon, archive.horizon());
+        verify(partitions).dropEndingBefore(horizon);
+        verify(traceRepository, atLeastOnce()).deleteByTimestampBefore(horizon);
+        assertTrue(archive.isClosed(closed.get(100).getTimestamp()));
+        assertFalse(archive.isClosed(kept.get(0).getTimestamp()));
+
+        // Fenêtre au milieu d'un bloc du segment, qui déborde sur la table
+        TraceSegment.Filter filter = TraceArchive.filter(Dimension.EMPLOYER_MACHINE, "oumaima", "machine2");
+        Instant from = closed.get(1500).getTimestamp().plusSeconds(1);
+        Instant to = kept.get(kept.size() - 1).getTimestamp();
+        List<Instant> tableBounds = new ArrayList<>();
+        List<Trace> read = archive.list(filter, from, to, (start, end) -> {
+            tableBounds.add(start);
+            return kept.stream().filter(trace -> matches(trace, "oumaima", "machine2")).toList();
+        });
+        List<String> expected = Stream.concat(closed.stream(), kept.stream())
+                .filter(trace -> matches(trace, "oumaima", "machine2") && !trace.getTimestamp().isBefore(from))
+                .map(TraceArchiveTest::describe)
+                .toList();
+        assertEquals(expected, read.stream().map(TraceArchiveTest::describe).toList());
+        assertEquals(List.of(horizon), tableBounds);
+
+        // Dernière trace archivée quand la table n'a rien pour la fenêtre
+        Trace last = archive.last(filter, closed.get(0).getTimestamp(), to, (start, end) -> Optional.empty()).orElseThrow();
+        assertEquals(describe(closed.stream().filter(trace -> matches(trace, "oumaima", "machine2")).reduce((a, b) -> b).orElseThrow()), describe(last));
+
+        try (Stream<Trace> history = archive.history(TraceSegment.Filter.ALL, start -> kept.stream())) {
+            assertEquals(closed.size() + kept.size(), history.count());
+        }
+
+        // Rien de plus à archiver, et l'archive est retrouvée au redémarrage
+        assertEquals(0, archive.archiveClosedMonths());
+        TraceArchive reloaded = new TraceArchive(traceRepository, partitions, transactionTemplate, properties, calendar);
+        assertEquals(horizon, reloaded.horizon());
+        assertEquals(List.of("machine1", "machine2"), reloaded.machineNamesOf("anis", List.of()));
+        assertEquals(6, reloaded.lastTraces().size());
+    }
+
+    private static List<Trace> traces(Instant start, int count) {
+        String[] employers = {"oumaima", "anis", "sami"};
+        String[] machines = {"machine1", "machine2"};
+        Operation[] operations = {Operation.START, Operation.PAUSE, Operation.START, Operation.STOP};
+        List<Trace> traces = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            traces.add(new Trace(start.plus(Duration.ofMinutes(7L * i)).plusNanos(i % 5 * 1_000_000L),
+                    employers[i % employers.length], machines[i / 3 % machines.length], operations[i / 6 % operations.length]));
+        }
+        return traces;
+    }
+
+    private static boolean matches(Trace trace, String employerName, String machineName) {
+        return trace.getEmployerName().equals(employerName) && trace.getMachineName().equals(machineName);
+    }
+
+    private static String describe(Trace trace) {
+        return trace.getTimestamp() + " " + trace.getEmployerName() + " " + trace.getMachineName() + " " + trace.getOperation();
+    }
+}
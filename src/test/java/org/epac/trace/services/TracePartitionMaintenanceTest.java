@@ -0,0 +1,53 @@
+package org.epac.trace.services;
+
+import org.epac.trace.config.TraceProperties;
+import org.epac.trace.repository.TracePartitions;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalTime;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+class TracePartitionMaintenanceTest {
+
+    @Test
+    void upcomingMonthsArePartitionedOnProductionMonthBounds() {
+        TraceProperties properties = new TraceProperties();
+        properties.getCalendar().setZone(ZoneOffset.UTC);
+        properties.getCalendar().setDayStart(LocalTime.of(6, 0));
+        properties.getPartition().setMonthsAhead(2);
+        ProductionCalendar calendar = new ProductionCalendar(properties);
+        YearMonth current = YearMonth.from(calendar.today());
+
+        // Partitions jusqu'au mois précédent, puis pmax
+        List<TracePartitions.Partition> existing = new ArrayList<>(List.of(
+                new TracePartitions.Partition(TracePartitions.name(current.minusMonths(2)), calendar.startOf(current.minusMonths(1).atDay(1))),
+                new TracePartitions.Partition(TracePartitions.name(current.minusMonths(1)), calendar.startOf(current.atDay(1))),
+                new TracePartitions.Partition(TracePartitions.OVERFLOW, null)));
+        TracePartitions partitions = mock(TracePartitions.class);
+        when(partitions.list()).thenAnswer(invocation -> List.copyOf(existing));
+        doAnswer(invocation -> existing.addAll(existing.size() - 1, invocation.getArgument(0))).when(partitions).addMonths(anyList());
+        TracePartitionMaintenance maintenance = new TracePartitionMaintenance(partitions, calendar, properties);
+
+        assertEquals(3, maintenance.createUpcomingMonths());
+        List<TracePartitions.Partition> expected = List.of(
+                new TracePartitions.Partition(TracePartitions.name(current), current.plusMonths(1).atDay(1).atTime(6, 0).toInstant(ZoneOffset.UTC)),
+                new TracePartitions.Partition(TracePartitions.name(current.plusMonths(1)), current.plusMonths(2).atDay(1).atTime(6, 0).toInstant(ZoneOffset.UTC)),
+                new TracePartitions.Partition(TracePartitions.name(current.plusMonths(2)), current.plusMonths(3).atDay(1).atTime(6, 0).toInstant(ZoneOffset.UTC)));
+        verify(partitions).addMonths(expected);
+
+        // Mois déjà couverts : rien à créer au passage suivant
+        assertEquals(0, maintenance.createUpcomingMonths());
+        verify(partitions, times(1)).addMonths(anyList());
+
+        // Table non partitionnée
+        when(partitions.list()).thenReturn(List.of());
+        assertEquals(0, maintenance.createUpcomingMonths());
+    }
+}
@@ -1,55 +1,92 @@
 package org.epac.trace.services;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.epac.trace.config.TraceProperties;
+import org.epac.trace.dto.BatchItemResult;
+import org.epac.trace.dto.SummaryPage;
 import org.epac.trace.dto.WorkSummary;
 import org.epac.trace.entity.Operation;
 import org.epac.trace.entity.Trace;
+import org.epac.trace.exception.InvalidSummaryRequestException;
+import org.epac.trace.exception.InvalidTraceOperationException;
+import org.epac.trace.repository.TraceBatchWriter;
+import org.epac.trace.repository.TracePartitions;
 import org.epac.trace.repository.TraceRepository;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import java.time.Duration;
-import java.time.LocalDate;
-import java.time.LocalDateTime;
-import java.time.LocalTime;
-import java.util.List;
-import java.util.Map;
-import java.util.Optional;
+import javax.sql.DataSource;
+import java.nio.file.Path;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
-import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.*;
 
 class TraceServiceTest {
     private TraceRepository traceRepository;
     private TraceService traceService;
+    private LiveStateRegistry liveStateRegistry;
+    private TraceBatchWriter traceBatchWriter;
+    private SimpleMeterRegistry meterRegistry;
+    // Horloge des traces ajoutées, avancée d'une microseconde à chaque lecture
+    private final AtomicReference<Instant> clock = new AtomicReference<>(at(2024, 7, 27, 12, 0));
+    @TempDir
+    Path archiveDirectory;
     @BeforeEach
     public void setUp() {
         traceRepository = mock(TraceRepository.class);
-        traceService = new TraceService(traceRepository);
+        // Ces tests couvrent le calcul par rejeu des traces
+        TraceProperties properties = new TraceProperties();
+        properties.getSummary().setSource(TraceProperties.SummarySource.REPLAY);
+        properties.getArchive().setDirectory(archiveDirectory);
+        properties.getCalendar().setZone(ZoneOffset.UTC);
+        ProductionCalendar calendar = new ProductionCalendar(properties);
+        TransactionTemplate transactionTemplate = new TransactionTemplate(mock(PlatformTransactionManager.class));
+        TraceArchive archive = new TraceArchive(traceRepository, mock(TracePartitions.class), transactionTemplate, properties, calendar);
+        liveStateRegistry = new LiveStateRegistry(traceRepository, archive);
+        traceBatchWriter = mock(TraceBatchWriter.class);
+        meterRegistry = new SimpleMeterRegistry();
+        SummaryCache summaryCache = new SummaryCache(properties, calendar);
+        TraceMetrics metrics = new TraceMetrics(meterRegistry);
+        RollupService rollupService = mock(RollupService.class);
+        SummaryReader summaryReader = new SummaryReader(traceRepository, rollupService, summaryCache, transactionTemplate, properties, calendar, archive, metrics,
+                new ReplicaRouting(mock(DataSource.class), mock(PlatformTransactionManager.class), properties), mock(DailyTotals.class));
+        traceService = new TraceService(traceRepository, rollupService, liveStateRegistry, summaryCache, new SummaryFanOut(properties),
+                new StripedLocks(properties), traceBatchWriter, transactionTemplate, properties, calendar, new SummaryChanges(calendar), archive, metrics, mock(TraceWriteBehind.class),
+                summaryReader, () -> Optional.of(clock.getAndUpdate(now -> now.plusNanos(1000))));
     }
 
     @Test
     void calculateDailyWorkSummaryByMachine() {
         LocalDate date = LocalDate.of(2024, 7, 27);
-        LocalDateTime startOfDay = date.atStartOfDay();
-        LocalDateTime endOfDay = date.atTime(LocalTime.MAX);
+        Instant startOfDay = at(date.atStartOfDay());
+        Instant endOfDay = at(date.atTime(LocalTime.MAX));
 
         List<Trace> tracesMachine3 = List.of(
-                new Trace(LocalDateTime.of(2024, 7, 27, 16, 50, 55), "oumaima", "machine3", Operation.START),
-                new Trace(LocalDateTime.of(2024, 7, 27, 16, 51, 41), "oumaima", "machine3", Operation.PAUSE)
+                new Trace(at(2024, 7, 27, 16, 50, 55), "oumaima", "machine3", Operation.START),
+                new Trace(at(2024, 7, 27, 16, 51, 41), "oumaima", "machine3", Operation.PAUSE)
         );
 
         List<Trace> tracesMachine2 = List.of(
-                new Trace(LocalDateTime.of(2024, 7, 27, 14, 33, 10), "oumaima", "machine2", Operation.START),
-                new Trace(LocalDateTime.of(2024, 7, 27, 17, 33, 44), "oumaima", "machine2", Operation.PAUSE),
-                new Trace(LocalDateTime.of(2024, 7, 27, 19, 35, 25), "oumaima", "machine2", Operation.STOP)
+                new Trace(at(2024, 7, 27, 14, 33, 10), "oumaima", "machine2", Operation.START),
+                new Trace(at(2024, 7, 27, 17, 33, 44), "oumaima", "machine2", Operation.PAUSE),
+                new Trace(at(2024, 7, 27, 19, 35, 25), "oumaima", "machine2", Operation.STOP)
         );
 
         List<Trace> tracesMachine1 = List.of(
-                new Trace(LocalDateTime.of(2024, 7, 27, 13, 25, 28), "oumaima", "machine1", Operation.START),
-                new Trace(LocalDateTime.of(2024, 7, 27, 13, 28, 58), "oumaima", "machine1", Operation.STOP)
+                new Trace(at(2024, 7, 27, 13, 25, 28), "oumaima", "machine1", Operation.START),
+                new Trace(at(2024, 7, 27, 13, 28, 58), "oumaima", "machine1", Operation.STOP)
         );
 
         when(traceRepository.findByMachineNameAndTimestampBetweenOrderByTimestampAsc(eq("machine3"), eq(startOfDay), eq(endOfDay)))
@@ -59,16 +96,16 @@ class TraceServiceTest {
         when(traceRepository.findByMachineNameAndTimestampBetweenOrderByTimestampAsc(eq("machine1"), eq(startOfDay), eq(endOfDay)))
                 .thenReturn(tracesMachine1);
 
-        Optional<Trace> lastTracePreviousDayOptMachine1 = Optional.of(new Trace(LocalDateTime.of(2024, 7, 26, 14, 8, 27), "oumaima", "machine1", Operation.PAUSE));
-        when(traceRepository.findTopByMachineNameAndTimestampBetweenOrderByTimestampDesc(eq("machine1"), any(LocalDateTime.class), any(LocalDateTime.class)))
+        Optional<Trace> lastTracePreviousDayOptMachine1 = Optional.of(new Trace(at(2024, 7, 26, 14, 8, 27), "oumaima", "machine1", Operation.PAUSE));
+        when(traceRepository.findTopByMachineNameAndTimestampBetweenOrderByTimestampDesc(eq("machine1"), any(Instant.class), any(Instant.class)))
                 .thenReturn(lastTracePreviousDayOptMachine1);
 
         Optional<Trace> lastTracePreviousDayOptMachine2 = Optional.ofNullable(null);
-        when(traceRepository.findTopByMachineNameAndTimestampBetweenOrderByTimestampDesc(eq("machine2"), any(LocalDateTime.class), any(LocalDateTime.class)))
+        when(traceRepository.findTopByMachineNameAndTimestampBetweenOrderByTimestampDesc(eq("machine2"), any(Instant.class), any(Instant.class)))
                 .thenReturn(lastTracePreviousDayOptMachine2);
 
         Optional<Trace> lastTracePreviousDayOptMachine3 = Optional.ofNullable(null);
-        when(traceRepository.findTopByMachineNameAndTimestampBetweenOrderByTimestampDesc(eq("machine3"), any(LocalDateTime.class), any(LocalDateTime.class)))
+        when(traceRepository.findTopByMachineNameAndTimestampBetweenOrderByTimestampDesc(eq("machine3"), any(Instant.class), any(Instant.class)))
                 .thenReturn(lastTracePreviousDayOptMachine3);
 
         // Test for machine3
@@ -93,6 +130,279 @@ class TraceServiceTest {
         assertDurationEquals(Duration.ofHours(10).plusMinutes(31).plusSeconds(1), workSummaryMachine1.inactiveDuration());
     }
 
+    @Test
+    void calculateWeeklyWorkSummaryByMachineUsesSingleQuery() {
+        List<Trace> traces = List.of(
+                new Trace(at(2024, 7, 22, 8, 0), "oumaima", "press1", Operation.START),
+                new Trace(at(2024, 7, 22, 12, 0), "oumaima", "press1", Operation.PAUSE),
+                new Trace(at(2024, 7, 23, 9, 0), "oumaima", "press1", Operation.START),
+                new Trace(at(2024, 7, 23, 17, 0), "oumaima", "press1", Operation.STOP),
+                new Trace(at(2024, 7, 29, 10, 0), "oumaima", "press1", Operation.START),
+                new Trace(at(2024, 7, 29, 11, 0), "oumaima", "press1", Operation.STOP)
+        );
+        when(traceRepository.findAllByMachineNameAndTimestampGreaterThanEqualOrderByTimestamp("press1", TraceArchive.NOTHING_ARCHIVED)).thenReturn(traces.stream());
+
+        Map<LocalDate, WorkSummary> weekly = traceService.calculateWeeklyWorkSummaryByMachine("press1");
+
+        assertEquals(2, weekly.size());
+        // Lundi : 4h de travail puis pause jusqu'à minuit, mardi : report de la pause jusqu'à 9h, puis 5 jours inactifs
+        WorkSummary firstWeek = weekly.get(LocalDate.of(2024, 7, 22));
+        assertEquals(Duration.ofHours(12), firstWeek.workDuration());
+        assertEquals(Duration.ofHours(21).minusNanos(1), firstWeek.pauseDuration());
+        assertEquals(Duration.ofHours(135).minusNanos(1), firstWeek.inactiveDuration());
+        WorkSummary secondWeek = weekly.get(LocalDate.of(2024, 7, 29));
+        assertEquals(Duration.ofHours(1), secondWeek.workDuration());
+        assertEquals(Duration.ZERO, secondWeek.pauseDuration());
+        assertEquals(Duration.ofHours(167).minusNanos(1), secondWeek.inactiveDuration());
+
+        verify(traceRepository, times(1)).findAllByMachineNameAndTimestampGreaterThanEqualOrderByTimestamp("press1", TraceArchive.NOTHING_ARCHIVED);
+        verify(traceRepository, never()).findByMachineNameAndTimestampBetweenOrderByTimestampAsc(any(), any(), any());
+        assertEquals(1, meterRegistry.get("trace.summary").tag("summary", "calculateWeeklyWorkSummaryByMachine").timer().count());
+        assertEquals(6, meterRegistry.get("trace.summary.traces").tag("summary", "calculateWeeklyWorkSummaryByMachine").summary().totalAmount());
+        assertEquals(2, meterRegistry.get("trace.summary.buckets").tag("summary", "calculateWeeklyWorkSummaryByMachine").summary().totalAmount());
+    }
+
+    @Test
+    void weeklySummaryIsCachedAndOnlyTheWeekOfANewTraceIsReloaded() throws InvalidTraceOperationException {
+        Trace restart = new Trace(at(2024, 7, 9, 8, 0), "oumaima", "press1", Operation.START);
+        List<Trace> history = List.of(
+                new Trace(at(2024, 7, 1, 8, 0), "oumaima", "press1", Operation.START),
+                new Trace(at(2024, 7, 1, 12, 0), "oumaima", "press1", Operation.STOP),
+                restart
+        );
+        when(traceRepository.findAllByMachineNameAndTimestampGreaterThanEqualOrderByTimestamp("press1", TraceArchive.NOTHING_ARCHIVED)).thenAnswer(invocation -> history.stream());
+
+        Map<LocalDate, WorkSummary> first = traceService.calculateWeeklyWorkSummaryByMachine("press1");
+        assertEquals(first, traceService.calculateWeeklyWorkSummaryByMachine("press1"));
+        verify(traceRepository, times(1)).findAllByMachineNameAndTimestampGreaterThanEqualOrderByTimestamp("press1", TraceArchive.NOTHING_ARCHIVED);
+
+        // Arrêt de la machine le 9 juillet : seule la semaine du 8 juillet est relue
+        clock.set(at(2024, 7, 9, 10, 0));
+        Trace stop = new Trace(null, "oumaima", "press1", Operation.STOP);
+        LocalDate week = LocalDate.of(2024, 7, 8);
+        when(traceRepository.findByMachineNameAndTimestampBetweenOrderByTimestampAsc("press1", at(week.atStartOfDay()), at(week.plusDays(6).atTime(LocalTime.MAX))))
+                .thenReturn(List.of(restart, stop));
+        liveStateRegistry.record(restart);
+        traceService.addTrace(stop);
+
+        Map<LocalDate, WorkSummary> weekly = traceService.calculateWeeklyWorkSummaryByMachine("press1");
+
+        assertEquals(first.get(LocalDate.of(2024, 7, 1)), weekly.get(LocalDate.of(2024, 7, 1)));
+        assertEquals(Duration.ofHours(2), weekly.get(week).workDuration());
+        verify(traceRepository, times(1)).findAllByMachineNameAndTimestampGreaterThanEqualOrderByTimestamp("press1", TraceArchive.NOTHING_ARCHIVED);
+        verify(traceRepository, times(1)).findByMachineNameAndTimestampBetweenOrderByTimestampAsc(any(), any(), any());
+    }
+
+    @Test
+    void getWorkSummaryByEmployeeAndMachineUsesTwoQueries() {
+        LocalDate date = LocalDate.of(2024, 7, 27);
+        List<Trace> traces = List.of(
+                new Trace(at(2024, 7, 27, 8, 0), "oumaima", "machine1", Operation.START),
+                new Trace(at(2024, 7, 27, 9, 0), "ali", "machine2", Operation.START),
+                new Trace(at(2024, 7, 27, 10, 0), "oumaima", "machine1", Operation.STOP),
+                new Trace(at(2024, 7, 27, 11, 0), "ali", "machine2", Operation.STOP)
+        );
+        when(traceRepository.findByTimestampBetweenOrderByTimestampAsc(at(date.atStartOfDay()), at(date.atTime(LocalTime.MAX))))
+                .thenReturn(traces);
+        // ali avait laissé machine2 en pause la veille
+        when(traceRepository.findLastTracesByEmployerNameAndMachineNameBetween(any(Instant.class), any(Instant.class)))
+                .thenReturn(List.of(new Trace(at(2024, 7, 26, 20, 0), "ali", "machine2", Operation.PAUSE)));
+
+        Map<String, Map<String, WorkSummary>> byEmployee = traceService.getWorkSummaryByEmployeeAndMachine(date);
+        Map<String, Map<String, WorkSummary>> byMachine = traceService.getWorkSummaryByMachineAndEmployee(date);
+
+        assertEquals(Duration.ofHours(2), byEmployee.get("oumaima").get("machine1").workDuration());
+        assertEquals(Duration.ZERO, byEmployee.get("oumaima").get("machine1").pauseDuration());
+        assertEquals(Duration.ofHours(2), byEmployee.get("ali").get("machine2").workDuration());
+        assertEquals(Duration.ofHours(9), byEmployee.get("ali").get("machine2").pauseDuration());
+        assertEquals(byEmployee.get("ali").get("machine2"), byMachine.get("machine2").get("ali"));
+
+        verify(traceRepository, times(2)).findByTimestampBetweenOrderByTimestampAsc(any(), any());
+        verify(traceRepository, times(2)).findLastTracesByEmployerNameAndMachineNameBetween(any(), any());
+        verify(traceRepository, never()).findByEmployerNameAndTimestampBetweenOrderByMachineNameAscTimestampAsc(any(), any(), any());
+    }
+
+    @Test
+    void addTraceValidatesAgainstLiveStateWithoutQueries() throws InvalidTraceOperationException {
+        liveStateRegistry.record(new Trace(at(2024, 7, 27, 8, 0), "oumaima", "press1", Operation.START));
+
+        InvalidTraceOperationException exception = assertThrows(InvalidTraceOperationException.class,
+                () -> traceService.addTrace(new Trace(null, "ali", "press1", Operation.START)));
+        assertEquals("La machine est en marche par un autre employé.", exception.getMessage());
+
+        Trace stop = new Trace(null, "oumaima", "press1", Operation.STOP);
+        traceService.addTrace(stop);
+        verify(traceRepository).save(stop);
+        assertTrue(traceService.getLiveState().isEmpty());
+
+        traceService.addTrace(new Trace(null, "ali", "press1", Operation.START));
+        assertEquals("ali", traceService.getLiveState().get(0).employerName());
+
+        verify(traceRepository, never()).findTopByEmployerNameOrderByTimestampDesc(any());
+        verify(traceRepository, never()).findTopByMachineNameOrderByTimestampDesc(any());
+    }
+
+    @Test
+    void concurrentPunchesNeverBreakTransitionRules() throws Exception {
+        List<Trace> accepted = Collections.synchronizedList(new ArrayList<>());
+        when(traceRepository.save(any(Trace.class))).thenAnswer(invocation -> {
+            Trace trace = invocation.getArgument(0);
+            accepted.add(trace);
+            return trace;
+        });
+
+        int machines = 300;
+        int employees = 200;
+        int punches = 5000;
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < punches; i++) {
+            Random random = new Random(i);
+            Trace trace = new Trace(null, "employer" + random.nextInt(employees), "machine" + random.nextInt(machines),
+                    Operation.values()[random.nextInt(Operation.values().length)]);
+            futures.add(executor.submit(() -> {
+                start.await();
+                try {
+                    traceService.addTrace(trace);
+                } catch (InvalidTraceOperationException ignored) {
+                    // refus attendu pour une partie des traces aléatoires
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        // Rejouer les traces acceptées dans l'ordre d'insertion : aucune ne doit violer les règles
+        assertFalse(accepted.isEmpty());
+        List<Trace> ordered = new ArrayList<>(accepted);
+        ordered.sort(Comparator.comparing(Trace::getTimestamp));
+        Map<String, Trace> lastByEmployer = new HashMap<>();
+        Map<String, Trace> lastByMachine = new HashMap<>();
+        for (Trace trace : ordered) {
+            assertDoesNotThrow(() -> TransitionRules.check(trace, lastByEmployer.get(trace.getEmployerName()), lastByMachine.get(trace.getMachineName())));
+            lastByEmployer.put(trace.getEmployerName(), trace);
+            lastByMachine.put(trace.getMachineName(), trace);
+        }
+    }
+
+    @Test
+    void addTracesValidatesInTimestampOrder() {
+        liveStateRegistry.record(new Trace(at(2024, 7, 27, 8, 0), "ali", "press2", Operation.START));
+        List<Trace> traces = List.of(
+                new Trace(at(2024, 7, 27, 10, 0), "oumaima", "press1", Operation.STOP),
+                new Trace(at(2024, 7, 27, 9, 0), "oumaima", "press1", Operation.START),
+                new Trace(at(2024, 7, 27, 9, 30), "oumaima", "press2", Operation.START),
+                new Trace(at(2024, 7, 27, 7, 0), "ali", "press2", Operation.STOP),
+                new Trace(null, "ali", "press2", Operation.STOP),
+                // Dans le futur de l'horloge du service (12:00), pas de l'horloge système
+                new Trace(at(2024, 7, 27, 13, 0), "sami", "press3", Operation.START)
+        );
+
+        List<BatchItemResult> results = traceService.addTraces(traces);
+
+        assertEquals(List.of(true, true, false, false, false, false), results.stream().map(BatchItemResult::accepted).toList());
+        assertEquals("La machine est en marche par un autre employé.", results.get(2).message());
+        assertTrue(results.get(3).message().startsWith("La trace est antérieure"));
+        assertEquals(4, results.get(4).index());
+        verify(traceBatchWriter).insertAll(eq(List.of(traces.get(1), traces.get(0))), anyInt());
+        assertEquals(Optional.of(Operation.STOP), liveStateRegistry.lastTraceOfEmployer("oumaima").map(Trace::getOperation));
+        for (InvalidTraceOperationException.Reason reason : List.of(InvalidTraceOperationException.Reason.MACHINE_IN_USE,
+                InvalidTraceOperationException.Reason.OUT_OF_ORDER, InvalidTraceOperationException.Reason.INCOMPLETE,
+                InvalidTraceOperationException.Reason.FUTURE_TIMESTAMP)) {
+            assertEquals(1, meterRegistry.get("trace.ingest.rejections").tag("mode", "batch").tag("reason", reason.name()).counter().count());
+        }
+    }
+
+    @Test
+    void summariesForAllEmployeesFanOutWithBoundedConcurrency() {
+        List<String> employees = List.of("zoe", "ali", "bob", "eva", "kim", "leo", "max", "nina", "omar", "paul");
+        when(traceRepository.findDistinctEmployerName()).thenReturn(employees);
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        when(traceRepository.findAllByEmployerNameAndTimestampGreaterThanEqualOrderByTimestamp(anyString(), any())).thenAnswer(invocation -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            Thread.sleep(20);
+            inFlight.decrementAndGet();
+            return Stream.of(new Trace(at(2024, 7, 22, 8, 0), invocation.getArgument(0), "press1", Operation.START));
+        });
+
+        Map<String, Map<LocalDate, WorkSummary>> monthly = traceService.calculateMonthlyWorkSummaryForAllEmployees();
+
+        assertEquals(employees.stream().sorted().toList(), new ArrayList<>(monthly.keySet()));
+        monthly.values().forEach(summaries -> assertEquals(Set.of(LocalDate.of(2024, 7, 1)), summaries.keySet()));
+        // 4 calculs en même temps au plus pour une requête (trace.summary.fan-out-parallelism)
+        assertTrue(maxInFlight.get() > 1 && maxInFlight.get() <= 4, "calculs simultanés : " + maxInFlight.get());
+    }
+
+    @Test
+    void shiftSummaryCarriesOverMidnightAndFromBeforeTheWindow() {
+        // La fenêtre du 23 commence au poste de nuit du 22 (22 h) ; la requête remonte à la veille pour le report
+        List<Trace> traces = List.of(
+                new Trace(at(2024, 7, 22, 21, 30), "oumaima", "press1", Operation.START),
+                new Trace(at(2024, 7, 22, 22, 30), "oumaima", "press1", Operation.PAUSE),
+                new Trace(at(2024, 7, 23, 1, 0), "oumaima", "press1", Operation.START),
+                new Trace(at(2024, 7, 23, 5, 0), "oumaima", "press1", Operation.STOP)
+        );
+        when(traceRepository.findAllByMachineNameInAndTimestampBetweenOrderByTimestamp(eq(Set.of("press1")),
+                eq(at(2024, 7, 21, 0, 0)), eq(at(2024, 7, 24, 6, 0).minusNanos(1))))
+                .thenAnswer(invocation -> traces.stream());
+
+        SummaryPage page = traceService.summarizeRange(Dimension.MACHINE, "press1", LocalDate.of(2024, 7, 23), LocalDate.of(2024, 7, 23), SummaryGranularity.SHIFT, 0, 20);
+
+        assertEquals(LocalDateTime.of(2024, 7, 22, 22, 0), page.from());
+        assertEquals(LocalDateTime.of(2024, 7, 24, 6, 0), page.to());
+        Map<LocalDateTime, WorkSummary> shifts = page.series().get(0).summaries();
+        assertEquals(List.of(LocalDateTime.of(2024, 7, 22, 22, 0), LocalDateTime.of(2024, 7, 23, 6, 0),
+                LocalDateTime.of(2024, 7, 23, 14, 0), LocalDateTime.of(2024, 7, 23, 22, 0)), new ArrayList<>(shifts.keySet()));
+        WorkSummary night = shifts.get(LocalDateTime.of(2024, 7, 22, 22, 0));
+        // Travail : 22 h - 22 h 30 puis 1 h - 5 h ; pause : 22 h 30 - fin de journée puis report de minuit à 1 h
+        assertEquals(Duration.ofMinutes(270), night.workDuration());
+        assertEquals(Duration.ofMinutes(150).minusNanos(1), night.pauseDuration());
+        assertEquals(Duration.ofHours(1).plusNanos(1), night.inactiveDuration());
+        assertEquals(new WorkSummary(Duration.ZERO, Duration.ZERO, Duration.ofHours(8)), shifts.get(LocalDateTime.of(2024, 7, 23, 6, 0)));
+    }
+
+    @Test
+    void summaryPagesOverSortedKeysWithOneBoundedQuery() {
+        when(traceRepository.findDistinctEmployerName()).thenReturn(List.of("ali", "bob", "oumaima"));
+        when(traceRepository.findAllByEmployerNameInAndTimestampBetweenOrderByTimestamp(any(), any(), any())).thenAnswer(invocation -> Stream.of(
+                new Trace(at(2024, 7, 21, 23, 0), "oumaima", "press1", Operation.START),
+                new Trace(at(2024, 7, 22, 8, 0), "oumaima", "press1", Operation.PAUSE),
+                new Trace(at(2024, 7, 22, 9, 0), "oumaima", "press1", Operation.STOP)
+        ));
+
+        SummaryPage page = traceService.summarizeRange(Dimension.EMPLOYER, null, LocalDate.of(2024, 7, 22), LocalDate.of(2024, 7, 28), SummaryGranularity.DAY, 1, 2);
+
+        assertEquals(3, page.totalKeys());
+        assertEquals(1, page.series().size());
+        assertEquals("oumaima", page.series().get(0).employerName());
+        // Report de la veille (START à 23 h) sur le 22 jusqu'à 8 h
+        assertEquals(Map.of(LocalDateTime.of(2024, 7, 22, 0, 0), new WorkSummary(Duration.ofHours(8), Duration.ofHours(1),
+                Duration.ofDays(1).minusNanos(1).minusHours(9))), page.series().get(0).summaries());
+        verify(traceRepository).findAllByEmployerNameInAndTimestampBetweenOrderByTimestamp(Set.of("oumaima"),
+                at(2024, 7, 21, 0, 0), at(2024, 7, 29, 0, 0).minusNanos(1));
+        assertThrows(InvalidSummaryRequestException.class, () -> traceService.summarizeRange(Dimension.EMPLOYER, null,
+                LocalDate.of(2023, 1, 1), LocalDate.of(2024, 12, 31), SummaryGranularity.HOUR, 0, 20));
+    }
+
+    // Heure UTC, le fuseau du calendrier de ces tests
+    private static Instant at(LocalDateTime local) {
+        return local.toInstant(ZoneOffset.UTC);
+    }
+
+    private static Instant at(int year, int month, int day, int hour, int minute) {
+        return at(LocalDateTime.of(year, month, day, hour, minute));
+    }
+
+    private static Instant at(int year, int month, int day, int hour, int minute, int second) {
+        return at(LocalDateTime.of(year, month, day, hour, minute, second));
+    }
+
     // Helper method pour comparer Duration values
     private void assertDurationEquals(Duration expected, Duration actual) {
         long expectedSeconds = expected.getSeconds();
@@ -0,0 +1,280 @@
+package org.epac.trace.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.epac.trace.config.TraceProperties;
+import org.epac.trace.dto.WorkSummary;
+import org.epac.trace.entity.DailyWorkRollup;
+import org.epac.trace.entity.Operation;
+import org.epac.trace.entity.Trace;
+import org.epac.trace.exception.TraceNotCommittedException;
+import org.epac.trace.repository.TraceBatchWriter;
+import org.epac.trace.repository.TracePartitions;
+import org.epac.trace.repository.TraceRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class TraceWriteBehindTest {
+
+    @TempDir
+    Path directory;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void journalIsReplayedAfterACrashWithoutDuplicates() throws Exception {
+        TraceProperties properties = new TraceProperties();
+        properties.getIngest().setWriteBehind(true);
+        properties.getIngest().setJournalDirectory(directory.resolve("journal"));
+        properties.getArchive().setDirectory(directory.resolve("archive"));
+        properties.getCalendar().setZone(ZoneOffset.UTC);
+        List<Trace> traces = List.of(
+                new Trace(at(2024, 7, 27, 8, 0), "oumaima", "press1", Operation.START),
+                new Trace(at(2024, 7, 27, 8, 5), "ali", "press2", Operation.START),
+                new Trace(at(2024, 7, 27, 9, 0), "oumaima", "press1", Operation.STOP));
+
+        // Base indisponible : les traces sont acquittées depuis le journal et restent en attente jusqu'à l'arrêt
+        TraceBatchWriter failingWriter = mock(TraceBatchWriter.class);
+        doThrow(new DataAccessResourceFailureException("base indisponible")).when(failingWriter).insertAll(anyList(), anyInt());
+        TraceWriteBehind crashed = writeBehind(properties, failingWriter, mock(RollupService.class), new ArrayList<>());
+        crashed.start();
+        TraceWriteBehind.Ticket ticket = crashed.append(traces.subList(0, 2));
+        crashed.awaitDurable(ticket);
+        crashed.awaitDurable(crashed.append(traces.subList(2, 3)));
+        properties.getIngest().setCommitTimeout(Duration.ofMillis(50));
+        assertThrows(TraceNotCommittedException.class, () -> crashed.awaitCommitted(ticket));
+        crashed.stop();
+        assertTrue(ticket.committed().isCompletedExceptionally());
+
+        // Arrêt brutal pendant l'écriture suivante : fin d'enregistrement tronquée
+        try (Stream<Path> files = Files.list(properties.getIngest().getJournalDirectory())) {
+            Path last = files.sorted().reduce((a, b) -> b).orElseThrow();
+            Files.write(last, new byte[]{0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND);
+        }
+
+        // Au redémarrage, la base a déjà la première séquence du journal : seules les deux autres traces sont écrites
+        TraceBatchWriter writer = mock(TraceBatchWriter.class);
+        when(writer.journalCheckpoint(anyString())).thenReturn(1L);
+        List<Trace> written = new ArrayList<>();
+        doAnswer(invocation -> written.addAll(invocation.getArgument(0))).when(writer).insertAll(anyList(), anyInt());
+        TraceWriteBehind restarted = writeBehind(properties, writer, mock(RollupService.class), List.of(traces.get(0)));
+        restarted.start();
+        restarted.stop();
+        assertEquals(List.of(traces.get(1).getTimestamp(), traces.get(2).getTimestamp()), written.stream().map(Trace::getTimestamp).toList());
+        assertEquals(List.of("ali", "oumaima"), written.stream().map(Trace::getEmployerName).toList());
+        verify(writer).saveJournalCheckpoint(anyString(), eq(3L));
+
+        // Tout est en base : le journal est vide
+        assertEquals(0, journalFiles(properties));
+
+        // La numérotation reprend après le checkpoint en base, même sans fichier restant
+        TraceBatchWriter nextWriter = mock(TraceBatchWriter.class);
+        when(nextWriter.journalCheckpoint(anyString())).thenReturn(3L);
+        TraceWriteBehind next = writeBehind(properties, nextWriter, mock(RollupService.class), traces);
+        next.start();
+        TraceWriteBehind.Ticket nextTicket = next.append(List.of(new Trace(at(2024, 7, 27, 10, 0), "ali", "press2", Operation.STOP)));
+        assertEquals(4, nextTicket.sequence());
+        next.awaitDurable(nextTicket);
+        next.stop();
+        verify(nextWriter, never()).insertAll(argThat(batch -> batch.size() != 1), anyInt());
+    }
+
+    private static long journalFiles(TraceProperties properties) throws Exception {
+        try (Stream<Path> files = Files.list(properties.getIngest().getJournalDirectory())) {
+            return files.filter(path -> path.getFileName().toString().endsWith(".wal")).count();
+        }
+    }
+
+    @Test
+    void machineSummaryIsAdvancedInMemoryBeforeTheTracesAreWritten() throws Exception {
+        TraceProperties properties = new TraceProperties();
+        properties.getIngest().setWriteBehind(true);
+        properties.getIngest().setJournalDirectory(directory.resolve("journal"));
+        properties.getArchive().setDirectory(directory.resolve("archive"));
+        properties.getCalendar().setZone(ZoneOffset.UTC);
+        ProductionCalendar calendar = new ProductionCalendar(properties);
+        LocalDate date = LocalDate.of(2024, 7, 27);
+        Trace previousDayTrace = new Trace(at(2024, 7, 26, 14, 8, 27), "oumaima", "press1", Operation.PAUSE);
+        List<Trace> traces = List.of(
+                new Trace(at(2024, 7, 27, 13, 25, 28), "oumaima", "press1", Operation.START),
+                new Trace(at(2024, 7, 27, 13, 28, 58), "oumaima", "press1", Operation.PAUSE),
+                new Trace(at(2024, 7, 27, 21, 0, 0), "oumaima", "press1", Operation.START));
+        Trace nextDayTrace = new Trace(at(2024, 7, 28, 1, 30), "oumaima", "press1", Operation.STOP);
+
+        // La veille est en base, le jour même pas encore
+        DailyWorkRollup previousDay = new DailyWorkRollup(date.minusDays(1), "oumaima", "press1");
+        RollupService.advance(calendar.cursor(), previousDay, null, previousDayTrace);
+        RollupService rollupService = mock(RollupService.class);
+        when(rollupService.findDay(any(), any(), any())).thenReturn(Optional.empty());
+        when(rollupService.findDay(date.minusDays(1), "oumaima", "press1")).thenReturn(Optional.of(previousDay));
+        // Base indisponible : les traces restent en attente, l'agrégat du couple reste en mémoire
+        TraceBatchWriter failingWriter = mock(TraceBatchWriter.class);
+        doThrow(new DataAccessResourceFailureException("base indisponible")).when(failingWriter).insertAll(anyList(), anyInt());
+        TraceWriteBehind writeBehind = writeBehind(properties, failingWriter, rollupService, List.of(previousDayTrace));
+        writeBehind.start();
+        WorkSummary summary = null;
+        for (Trace trace : traces) {
+            summary = writeBehind.awaitDurable(writeBehind.append(List.of(trace)));
+        }
+        // Une reconstruction des agrégats garde les couples qui ont des traces en attente
+        writeBehind.clearLatest();
+        WorkSummary nextDaySummary = writeBehind.awaitDurable(writeBehind.append(List.of(nextDayTrace)));
+        writeBehind.stop();
+
+        assertEquals(IntervalSweep.summarize(calendar, traces, previousDayTrace, Granularity.DAY).get(date), summary);
+        assertEquals(IntervalSweep.summarize(calendar, List.of(nextDayTrace), traces.get(2), Granularity.DAY).get(date.plusDays(1)), nextDaySummary);
+        // Base lue à la première trace du couple seulement (le jour, puis la veille)
+        verify(rollupService, times(2)).findDay(any(), any(), any());
+    }
+
+    @Test
+    void flushedPairsAreReloadedFromTheDatabase() throws Exception {
+        TraceProperties properties = new TraceProperties();
+        properties.getIngest().setWriteBehind(true);
+        properties.getIngest().setJournalDirectory(directory.resolve("journal"));
+        properties.getArchive().setDirectory(directory.resolve("archive"));
+        properties.getCalendar().setZone(ZoneOffset.UTC);
+        LocalDate date = LocalDate.of(2024, 7, 27);
+        RollupService rollupService = mock(RollupService.class);
+        when(rollupService.findDay(any(), any(), any())).thenReturn(Optional.empty());
+        TraceWriteBehind writeBehind = writeBehind(properties, mock(TraceBatchWriter.class), rollupService, List.of());
+        writeBehind.start();
+        TraceWriteBehind.Ticket first = writeBehind.append(List.of(new Trace(at(2024, 7, 27, 8, 0), "oumaima", "press1", Operation.START)));
+        writeBehind.awaitDurable(first);
+        writeBehind.awaitCommitted(first);
+        verify(rollupService).findDay(date, "oumaima", "press1");
+
+        // Trace écrite : l'agrégat est relu en base à la trace suivante du couple
+        TraceWriteBehind.Ticket second = writeBehind.append(List.of(new Trace(at(2024, 7, 27, 9, 0), "oumaima", "press1", Operation.STOP)));
+        writeBehind.awaitDurable(second);
+        writeBehind.awaitCommitted(second);
+        verify(rollupService, times(2)).findDay(date, "oumaima", "press1");
+
+        writeBehind.stop();
+    }
+
+    @Test
+    void tracesArePublishedOnlyOnceTheJournalIsOnDisk() throws Exception {
+        TraceProperties properties = new TraceProperties();
+        properties.getIngest().setWriteBehind(true);
+        properties.getIngest().setJournalDirectory(directory.resolve("journal"));
+        properties.getArchive().setDirectory(directory.resolve("archive"));
+        properties.getCalendar().setZone(ZoneOffset.UTC);
+        RollupService rollupService = mock(RollupService.class);
+        when(rollupService.findDay(any(), any(), any())).thenReturn(Optional.empty());
+        TraceBatchWriter writer = mock(TraceBatchWriter.class);
+        LiveStateRegistry liveStateRegistry = liveState(properties, List.of());
+        TraceWriteBehind writeBehind = writeBehind(properties, writer, rollupService, liveStateRegistry);
+        writeBehind.start();
+        Trace trace = new Trace(at(2024, 7, 27, 8, 0), "oumaima", "press1", Operation.START);
+
+        // Écrite dans le journal, pas encore synchronisée : ni état en mémoire, ni écriture en base
+        TraceWriteBehind.Ticket ticket = writeBehind.append(List.of(trace));
+        assertTrue(liveStateRegistry.lastTraceOfMachine("press1").isEmpty());
+        assertFalse(ticket.durable().isDone());
+        verify(writer, after(200).never()).insertAll(anyList(), anyInt());
+
+        assertNotNull(writeBehind.awaitDurable(ticket));
+        assertEquals(trace.getTimestamp(), liveStateRegistry.lastTraceOfMachine("press1").orElseThrow().getTimestamp());
+        writeBehind.awaitCommitted(ticket);
+        verify(writer).insertAll(anyList(), anyInt());
+        writeBehind.stop();
+    }
+
+    @Test
+    void refusedTracesAreSetAsideAndTheRestIsWritten() throws Exception {
+        TraceProperties properties = new TraceProperties();
+        properties.getIngest().setWriteBehind(true);
+        properties.getIngest().setJournalDirectory(directory.resolve("journal"));
+        properties.getArchive().setDirectory(directory.resolve("archive"));
+        properties.getCalendar().setZone(ZoneOffset.UTC);
+        RollupService rollupService = mock(RollupService.class);
+        when(rollupService.findDay(any(), any(), any())).thenReturn(Optional.empty());
+        // La base refuse tout lot qui contient la trace de "refused", et retente les pannes de connexion
+        TraceBatchWriter writer = mock(TraceBatchWriter.class);
+        List<Trace> written = new ArrayList<>();
+        doThrow(new DataAccessResourceFailureException("base indisponible")).doAnswer(invocation -> {
+            List<Trace> batch = invocation.getArgument(0);
+            if (batch.stream().anyMatch(trace -> trace.getEmployerName().equals("refused")))
+                throw new DataIntegrityViolationException("valeur refusée");
+            written.addAll(batch);
+            return null;
+        }).when(writer).insertAll(anyList(), anyInt());
+        TraceWriteBehind writeBehind = writeBehind(properties, writer, rollupService, liveState(properties, List.of()));
+        writeBehind.start();
+        List<Trace> traces = List.of(
+                new Trace(at(2024, 7, 27, 8, 0), "ali", "press1", Operation.START),
+                new Trace(at(2024, 7, 27, 8, 1), "refused", "press2", Operation.START),
+                new Trace(at(2024, 7, 27, 8, 2), "oumaima", "press3", Operation.START),
+                new Trace(at(2024, 7, 27, 8, 3), "ali", "press1", Operation.STOP));
+
+        TraceWriteBehind.Ticket ticket = writeBehind.append(traces);
+        writeBehind.awaitDurable(ticket);
+        properties.getIngest().setCommitTimeout(Duration.ofSeconds(10));
+        writeBehind.awaitCommitted(ticket);
+        writeBehind.stop();
+
+        assertEquals(List.of("ali", "oumaima", "ali"), written.stream().map(Trace::getEmployerName).toList());
+        assertEquals(1, meterRegistry.counter("trace.ingest.dead.letters").count());
+        assertTrue(Files.size(properties.getIngest().getJournalDirectory().resolve("journal.dead-letters")) > 0);
+        verify(writer).saveJournalCheckpoint(anyString(), eq(2L));
+        verify(writer, atLeastOnce()).saveJournalCheckpoint(anyString(), eq(4L));
+        // Tout est en base ou à l'écart : le journal est vide
+        assertEquals(0, journalFiles(properties));
+    }
+
+    private TraceWriteBehind writeBehind(TraceProperties properties, TraceBatchWriter writer, RollupService rollupService, List<Trace> stored) {
+        return writeBehind(properties, writer, rollupService, liveState(properties, stored));
+    }
+
+    private static LiveStateRegistry liveState(TraceProperties properties, List<Trace> stored) {
+        TraceRepository traceRepository = mock(TraceRepository.class);
+        when(traceRepository.findLastTracesByEmployerNameAndMachineName()).thenReturn(stored);
+        TraceArchive archive = new TraceArchive(traceRepository, mock(TracePartitions.class), new TransactionTemplate(mock(PlatformTransactionManager.class)),
+                properties, new ProductionCalendar(properties));
+        LiveStateRegistry liveStateRegistry = new LiveStateRegistry(traceRepository, archive);
+        liveStateRegistry.warmUp();
+        return liveStateRegistry;
+    }
+
+    private TraceWriteBehind writeBehind(TraceProperties properties, TraceBatchWriter writer, RollupService rollupService, LiveStateRegistry liveStateRegistry) {
+        ProductionCalendar calendar = new ProductionCalendar(properties);
+        TransactionTemplate transactionTemplate = new TransactionTemplate(mock(PlatformTransactionManager.class));
+        return new TraceWriteBehind(writer, rollupService, liveStateRegistry, new SummaryCache(properties, calendar),
+                new SummaryChanges(calendar), transactionTemplate, properties, new TraceMetrics(meterRegistry), calendar);
+    }
+
+    // Heure UTC, le fuseau du calendrier de ces tests
+    private static Instant at(int year, int month, int day, int hour, int minute) {
+        return LocalDateTime.of(year, month, day, hour, minute).toInstant(ZoneOffset.UTC);
+    }
+
+    private static Instant at(int year, int month, int day, int hour, int minute, int second) {
+        return LocalDateTime.of(year, month, day, hour, minute, second).toInstant(ZoneOffset.UTC);
+    }
+}